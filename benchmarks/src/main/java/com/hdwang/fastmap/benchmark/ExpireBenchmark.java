@@ -0,0 +1,146 @@
+package com.hdwang.fastmap.benchmark;
+
+import com.hdwang.fastmap.FastMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 过期相关的耗时：TTL续期、大量key同时过期的清理，以及大量key同时过期期间get的延迟分布。
+ * 没有可对比的JDK基线，用于跟踪FastMap自身的回归。
+ *
+ * @author wanghuidong
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpireBenchmark {
+
+    /**
+     * 写入一批过期key预留的时间（毫秒），整批key共享同一个截止时间
+     */
+    private static final long BATCH_DEADLINE_MS = 1000L;
+
+    /**
+     * 常驻数据量，这些key设置了很长的TTL，不会过期
+     */
+    @Param({"10000", "100000"})
+    public int size;
+
+    /**
+     * 同时过期的key数量
+     */
+    @Param({"200000"})
+    public int expiringKeys;
+
+    @Param({"false", "true"})
+    public boolean sort;
+
+    private FastMap<Long, Long> map;
+
+    private long[] expiringBatch;
+
+    @Setup
+    public void setup() {
+        map = new FastMap<>(true, sort);
+        for (long i = 0; i < size; i++) {
+            map.put(i, i);
+            map.expire(i, TimeUnit.HOURS.toMillis(1));
+        }
+        expiringBatch = new long[expiringKeys];
+        for (int i = 0; i < expiringKeys; i++) {
+            expiringBatch[i] = -1L - i;
+        }
+    }
+
+    /**
+     * 续期常驻key的TTL
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Threads(4)
+    public Long renew() {
+        return map.expire((long) ThreadLocalRandom.current().nextInt(size), TimeUnit.HOURS.toMillis(1));
+    }
+
+    /**
+     * 写入一批同时过期的key并等待到期，size()触发清理，测量删除整批过期数据的耗时
+     */
+    @State(Scope.Thread)
+    public static class MassExpiration {
+
+        @Setup(Level.Invocation)
+        public void expireBatch(ExpireBenchmark benchmark) {
+            benchmark.writeExpiredBatch();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public int massExpiration(MassExpiration batch) {
+        return map.size();
+    }
+
+    /**
+     * 读线程：大量key同时过期期间get的延迟分布，关注p99、p999
+     */
+    @Benchmark
+    @Group("readDuringMassExpiration")
+    @GroupThreads(3)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Long reader() {
+        return map.get((long) ThreadLocalRandom.current().nextInt(size));
+    }
+
+    /**
+     * 写线程：不断写入一批同时过期的key，等待到期后清理
+     */
+    @Benchmark
+    @Group("readDuringMassExpiration")
+    @GroupThreads(1)
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int expirer() {
+        writeExpiredBatch();
+        return map.size();
+    }
+
+    private void writeExpiredBatch() {
+        //逐个写入，避免putAll长时间持有写锁干扰读线程；所有key共享同一个截止时间，
+        //写入期间不会有key提前到期而被后续的expire调用顺带清理
+        long deadline = System.nanoTime() / 1_000_000L + BATCH_DEADLINE_MS;
+        for (long key : expiringBatch) {
+            map.put(key, key);
+            map.expire(key, Math.max(0L, deadline - System.nanoTime() / 1_000_000L));
+        }
+        long remaining = deadline - System.nanoTime() / 1_000_000L;
+        if (remaining >= 0) {
+            try {
+                Thread.sleep(remaining + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
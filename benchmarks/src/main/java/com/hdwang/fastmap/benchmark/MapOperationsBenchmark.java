@@ -0,0 +1,81 @@
+package com.hdwang.fastmap.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单key操作的吞吐量：get、put、remove、compute、merge。按读写比例混合的负载见MixedWorkloadBenchmark。
+ * 线程数通过JMH的 -t 参数调整，例如 -t 1、-t 8。
+ *
+ * @author wanghuidong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MapOperationsBenchmark {
+
+    @Param({"FAST_MAP", "FAST_MAP_SORTED", "FAST_MAP_SKIP_LIST", "CONCURRENT_SORTED_FAST_MAP", "FAST_MAP_EXPIRE", "CONCURRENT_HASH_MAP", "CONCURRENT_SKIP_LIST_MAP"})
+    public MapType type;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    private Map<Long, Long> map;
+
+    @Setup
+    public void setup() {
+        map = type.createAndFill(size);
+    }
+
+    private long randomKey() {
+        return ThreadLocalRandom.current().nextInt(size);
+    }
+
+    @Benchmark
+    public Long get() {
+        return map.get(randomKey());
+    }
+
+    @Benchmark
+    public Long put() {
+        long key = randomKey();
+        return map.put(key, key);
+    }
+
+    @Benchmark
+    public void removeAndPut(Blackhole blackhole) {
+        //删除后立即放回，保持数据量不变
+        long key = randomKey();
+        blackhole.consume(map.remove(key));
+        blackhole.consume(map.put(key, key));
+    }
+
+    @Benchmark
+    public Long compute() {
+        return map.compute(randomKey(), (key, value) -> value == null ? key : value + 1);
+    }
+
+    @Benchmark
+    public Long merge() {
+        return map.merge(randomKey(), 1L, Long::sum);
+    }
+}
@@ -0,0 +1,116 @@
+package com.hdwang.fastmap.benchmark;
+
+import com.hdwang.fastmap.ConcurrentSortedFastMap;
+import com.hdwang.fastmap.FastMap;
+import com.hdwang.fastmap.SortedStorage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * 基准测试中对比的Map实现，FastMap按是否排序、是否过期区分，JDK并发Map作为基线
+ *
+ * @author wanghuidong
+ */
+public enum MapType {
+
+    /**
+     * 不排序、不过期
+     */
+    FAST_MAP {
+        @Override
+        Map<Long, Long> create() {
+            return new FastMap<>(false, false);
+        }
+    },
+
+    /**
+     * 排序、不过期
+     */
+    FAST_MAP_SORTED {
+        @Override
+        Map<Long, Long> create() {
+            return new FastMap<>(false, true);
+        }
+    },
+
+    /**
+     * 排序、不过期，跳表与哈希表共享节点的单索引存储
+     */
+    FAST_MAP_SKIP_LIST {
+        @Override
+        Map<Long, Long> create() {
+            return FastMap.<Long, Long>builder()
+                    .enableExpire(false)
+                    .sortedStorage(SortedStorage.HASHED_SKIP_LIST)
+                    .build();
+        }
+    },
+
+    /**
+     * 不排序、过期
+     */
+    FAST_MAP_EXPIRE {
+        @Override
+        Map<Long, Long> create() {
+            return new FastMap<>(true, false);
+        }
+    },
+
+    /**
+     * 排序、过期
+     */
+    FAST_MAP_SORTED_EXPIRE {
+        @Override
+        Map<Long, Long> create() {
+            return new FastMap<>(true, true);
+        }
+    },
+
+    /**
+     * 排序、不过期，无锁跳表
+     */
+    CONCURRENT_SORTED_FAST_MAP {
+        @Override
+        Map<Long, Long> create() {
+            return new ConcurrentSortedFastMap<>(false);
+        }
+    },
+
+    /**
+     * 基线：等值查询
+     */
+    CONCURRENT_HASH_MAP {
+        @Override
+        Map<Long, Long> create() {
+            return new ConcurrentHashMap<>();
+        }
+    },
+
+    /**
+     * 基线：排序与范围查询
+     */
+    CONCURRENT_SKIP_LIST_MAP {
+        @Override
+        Map<Long, Long> create() {
+            return new ConcurrentSkipListMap<>();
+        }
+    };
+
+    abstract Map<Long, Long> create();
+
+    /**
+     * 创建并填充0到size-1的key
+     *
+     * @param size 数据量
+     * @return Map实例
+     */
+    Map<Long, Long> createAndFill(int size) {
+        Map<Long, Long> map = create();
+        for (long i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,63 @@
+package com.hdwang.fastmap.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按读写比例混合的负载：随机key，按readPercent的概率执行get，否则执行put。
+ * 读写比例单独成类，避免成倍增加MapOperationsBenchmark中其他基准的运行次数。
+ *
+ * @author wanghuidong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MixedWorkloadBenchmark {
+
+    @Param({"FAST_MAP", "FAST_MAP_SORTED", "FAST_MAP_SKIP_LIST", "CONCURRENT_SORTED_FAST_MAP", "FAST_MAP_EXPIRE", "CONCURRENT_HASH_MAP", "CONCURRENT_SKIP_LIST_MAP"})
+    public MapType type;
+
+    @Param({"1000", "100000"})
+    public int size;
+
+    /**
+     * 读操作的百分比
+     */
+    @Param({"100", "90", "50"})
+    public int readPercent;
+
+    private Map<Long, Long> map;
+
+    @Setup
+    public void setup() {
+        map = type.createAndFill(size);
+    }
+
+    @Benchmark
+    public Long mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long key = random.nextInt(size);
+        if (random.nextInt(100) < readPercent) {
+            return map.get(key);
+        }
+        return map.put(key, key);
+    }
+}
@@ -0,0 +1,117 @@
+package com.hdwang.fastmap.benchmark;
+
+import com.hdwang.fastmap.IFastMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 范围查询（subMap、headMap、分页tailMap）和entrySet遍历的耗时，与ConcurrentSkipListMap对比。
+ * 每次查询都会遍历结果，FastMap返回的是快照，跳表返回的是视图，遍历后两者的成本才可比较。
+ *
+ * @author wanghuidong
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class ScanBenchmark {
+
+    @Param({"FAST_MAP_SORTED", "FAST_MAP_SKIP_LIST", "CONCURRENT_SORTED_FAST_MAP", "FAST_MAP_SORTED_EXPIRE", "CONCURRENT_SKIP_LIST_MAP"})
+    public MapType type;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    /**
+     * 范围查询覆盖的key数量
+     */
+    @Param({"100"})
+    public int rangeLength;
+
+    private Map<Long, Long> map;
+
+    @Setup
+    public void setup() {
+        map = type.createAndFill(size);
+    }
+
+    @Benchmark
+    public void subMap(Blackhole blackhole) {
+        long from = ThreadLocalRandom.current().nextInt(size - rangeLength);
+        consume(subMap(from, from + rangeLength), blackhole);
+    }
+
+    @Benchmark
+    public void headMap(Blackhole blackhole) {
+        consume(headMap((long) rangeLength), blackhole);
+    }
+
+    @Benchmark
+    public void tailPage(Blackhole blackhole) {
+        long from = ThreadLocalRandom.current().nextInt(size - rangeLength);
+        consume(tailPage(from, rangeLength), blackhole);
+    }
+
+    @Benchmark
+    public void entrySetIteration(Blackhole blackhole) {
+        consume(map, blackhole);
+    }
+
+    private Map<Long, Long> subMap(long from, long to) {
+        if (map instanceof IFastMap) {
+            return ((IFastMap<Long, Long>) map).subMap(from, to);
+        }
+        return ((NavigableMap<Long, Long>) map).subMap(from, to);
+    }
+
+    private Map<Long, Long> headMap(long to) {
+        if (map instanceof IFastMap) {
+            return ((IFastMap<Long, Long>) map).headMap(to);
+        }
+        return ((NavigableMap<Long, Long>) map).headMap(to);
+    }
+
+    /**
+     * 大于from的前limit条数据：FastMap使用分页查询，跳表视图只遍历需要的部分
+     */
+    private Map<Long, Long> tailPage(long from, int limit) {
+        if (map instanceof IFastMap) {
+            return ((IFastMap<Long, Long>) map).tailMap(from, false, 0, limit);
+        }
+        Map<Long, Long> page = new LinkedHashMap<>();
+        for (Map.Entry<Long, Long> entry : ((NavigableMap<Long, Long>) map).tailMap(from, false).entrySet()) {
+            if (page.size() >= limit) {
+                break;
+            }
+            page.put(entry.getKey(), entry.getValue());
+        }
+        return page;
+    }
+
+    private static void consume(Map<Long, Long> map, Blackhole blackhole) {
+        for (Map.Entry<Long, Long> entry : map.entrySet()) {
+            blackhole.consume(entry.getKey());
+            blackhole.consume(entry.getValue());
+        }
+    }
+}
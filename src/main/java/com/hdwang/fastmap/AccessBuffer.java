@@ -0,0 +1,88 @@
+package com.hdwang.fastmap;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 记录读操作访问顺序的无锁有损缓冲区。
+ * <p>
+ * 读线程按线程id分散到多个环形缓冲区，通过一次CAS追加访问记录，缓冲区满或竞争失败时直接丢弃该记录，
+ * 不会阻塞读线程。写线程在持有写锁时批量回放记录（单消费者）。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+final class AccessBuffer<K> {
+
+    /**
+     * 每个环形缓冲区的容量，2的幂
+     */
+    private static final int BUFFER_SIZE = 64;
+
+    private static final int BUFFER_MASK = BUFFER_SIZE - 1;
+
+    /**
+     * 代表null键，槽位为null表示记录尚未发布
+     */
+    private static final Object NULL_KEY = new Object();
+
+    private final Stripe[] stripes;
+
+    AccessBuffer() {
+        int stripeCount = Integer.highestOneBit(
+                Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * 记录一次访问，缓冲区已满时丢弃
+     *
+     * @param key 被访问的键
+     */
+    void offer(Object key) {
+        long threadId = Thread.currentThread().getId();
+        Stripe stripe = stripes[(int) (threadId ^ (threadId >>> 16)) & (stripes.length - 1)];
+        long tail = stripe.tail.get();
+        if (tail - stripe.head.get() >= BUFFER_SIZE) {
+            return;
+        }
+        if (stripe.tail.compareAndSet(tail, tail + 1)) {
+            stripe.slots.lazySet((int) tail & BUFFER_MASK, key == null ? NULL_KEY : key);
+        }
+    }
+
+    /**
+     * 回放并清空所有已发布的访问记录，只能由持有写锁的线程调用
+     *
+     * @param consumer 访问记录的消费者
+     */
+    @SuppressWarnings("unchecked")
+    void drainTo(Consumer<K> consumer) {
+        for (Stripe stripe : stripes) {
+            long head = stripe.head.get();
+            long tail = stripe.tail.get();
+            while (head < tail) {
+                int index = (int) head & BUFFER_MASK;
+                Object key = stripe.slots.get(index);
+                if (key == null) {
+                    //读线程已占位但尚未写入，下次再回放
+                    break;
+                }
+                stripe.slots.lazySet(index, null);
+                consumer.accept(key == NULL_KEY ? null : (K) key);
+                head++;
+            }
+            stripe.head.lazySet(head);
+        }
+    }
+
+    private static final class Stripe {
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicReferenceArray<Object> slots = new AtomicReferenceArray<>(BUFFER_SIZE);
+    }
+}
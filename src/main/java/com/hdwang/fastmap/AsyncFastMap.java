@@ -0,0 +1,340 @@
+package com.hdwang.fastmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * IFastMap的异步门面，所有操作返回CompletableFuture，调用线程不会因为锁竞争或加载耗时被阻塞。
+ * <p>
+ * 对底层Map的读写都提交到调用方指定的线程池执行（默认ForkJoinPool公共线程池，也可以是虚拟线程池）；
+ * 异步加载时同一个key正在进行的加载会被复用，并发未命中只调用一次加载函数。
+ * </p>
+ * 同一个key的并发调用者拿到的是同一个CompletableFuture，调用方不应主动complete或cancel返回的结果。
+ *
+ * @author wanghuidong
+ */
+public class AsyncFastMap<K, V> {
+
+    private final IFastMap<K, V> map;
+
+    /**
+     * 执行读写和加载的线程池
+     */
+    private final Executor executor;
+
+    /**
+     * 正在进行的加载，同一个key只有一个
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 构造器，在ForkJoinPool公共线程池中执行
+     *
+     * @param map 存储数据的Map
+     */
+    public AsyncFastMap(IFastMap<K, V> map) {
+        this(map, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 构造器
+     *
+     * @param map      存储数据的Map
+     * @param executor 执行读写和加载的线程池
+     */
+    public AsyncFastMap(IFastMap<K, V> map, Executor executor) {
+        this.map = Objects.requireNonNull(map, "map");
+        this.executor = Objects.requireNonNull(executor, "executor");
+    }
+
+    /**
+     * 异步获取key的值
+     *
+     * @param key 键
+     * @return 值；key不存在时结果为null
+     */
+    public CompletableFuture<V> get(Object key) {
+        return supply(() -> map.get(key));
+    }
+
+    /**
+     * 异步批量获取
+     *
+     * @param keys 键
+     * @return 按keys顺序排列的数据，不包含不存在的key
+     */
+    public CompletableFuture<Map<K, V>> getAll(Iterable<? extends K> keys) {
+        Objects.requireNonNull(keys);
+        return supply(() -> {
+            Map<K, V> result = new LinkedHashMap<>();
+            for (K key : keys) {
+                V value = map.get(key);
+                if (value != null) {
+                    result.put(key, value);
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * 异步批量获取，不存在且没有在加载的key通过一次mappingFunction调用加载后写入
+     *
+     * @param keys            键
+     * @param mappingFunction 批量加载函数，参数为需要加载的key，结果中不包含的key视为不存在
+     * @return 按keys顺序排列的数据，不包含不存在的key
+     */
+    public CompletableFuture<Map<K, V>> getAll(Iterable<? extends K> keys,
+                                               Function<? super Set<K>, ? extends CompletionStage<? extends Map<K, V>>> mappingFunction) {
+        Objects.requireNonNull(keys);
+        Objects.requireNonNull(mappingFunction);
+        return supply(() -> {
+            //先校验全部key，校验失败时还没有占用任何加载
+            List<K> requested = new ArrayList<>();
+            for (K key : keys) {
+                requested.add(Objects.requireNonNull(key));
+            }
+            Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>();
+            Map<K, CompletableFuture<V>> owned = new LinkedHashMap<>();
+            try {
+                for (K key : requested) {
+                    if (futures.containsKey(key)) {
+                        continue;
+                    }
+                    V value = map.get(key);
+                    if (value != null) {
+                        futures.put(key, CompletableFuture.completedFuture(value));
+                        continue;
+                    }
+                    CompletableFuture<V> future = new CompletableFuture<>();
+                    CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+                    if (existing == null) {
+                        owned.put(key, future);
+                        futures.put(key, future);
+                    } else {
+                        futures.put(key, existing);
+                    }
+                }
+            } catch (RuntimeException | Error failure) {
+                //已经占用的加载必须结束，否则之后同一个key的调用永远等不到结果
+                finishAll(owned, null, failure);
+                throw failure;
+            }
+            if (!owned.isEmpty()) {
+                loadAll(owned, mappingFunction);
+            }
+            return futures;
+        }).thenCompose(futures -> CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> {
+                    Map<K, V> result = new LinkedHashMap<>();
+                    for (Map.Entry<K, CompletableFuture<V>> entry : futures.entrySet()) {
+                        V value = entry.getValue().join();
+                        if (value != null) {
+                            result.put(entry.getKey(), value);
+                        }
+                    }
+                    return result;
+                }));
+    }
+
+    /**
+     * key不存在时异步加载并写入，同一个key的并发调用只执行一次mappingFunction
+     *
+     * @param key             键
+     * @param mappingFunction 异步加载函数，结果为null时不写入
+     * @return Map中的值；加载期间其他线程写入了该key时为已写入的值
+     */
+    public CompletableFuture<V> computeIfAbsent(K key,
+                                                Function<? super K, ? extends CompletionStage<? extends V>> mappingFunction) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(mappingFunction);
+        CompletableFuture<V> existing = inFlight.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            executor.execute(() -> load(key, mappingFunction, future));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 异步写入
+     *
+     * @param key   键
+     * @param value 值
+     * @return 之前的值
+     */
+    public CompletableFuture<V> put(K key, V value) {
+        return supply(() -> map.put(key, value));
+    }
+
+    /**
+     * 异步批量写入
+     *
+     * @param m 数据
+     * @return 写入完成
+     */
+    public CompletableFuture<Void> putAll(Map<? extends K, ? extends V> m) {
+        Objects.requireNonNull(m);
+        return supply(() -> {
+            map.putAll(m);
+            return null;
+        });
+    }
+
+    /**
+     * 异步删除
+     *
+     * @param key 键
+     * @return 删除的值
+     */
+    public CompletableFuture<V> remove(Object key) {
+        return supply(() -> map.remove(key));
+    }
+
+    /**
+     * 同步访问底层的Map
+     *
+     * @return 底层的IFastMap
+     */
+    public IFastMap<K, V> synchronous() {
+        return map;
+    }
+
+    private void load(K key, Function<? super K, ? extends CompletionStage<? extends V>> mappingFunction,
+                      CompletableFuture<V> future) {
+        try {
+            V value = map.get(key);
+            if (value != null) {
+                inFlight.remove(key, future);
+                future.complete(value);
+                return;
+            }
+            CompletionStage<? extends V> stage = mappingFunction.apply(key);
+            if (stage == null) {
+                inFlight.remove(key, future);
+                future.complete(null);
+                return;
+            }
+            //加载结果可能在IO线程上完成，写入切回线程池执行
+            stage.whenComplete((loaded, error) -> handOff(() -> finish(key, future, loaded, error),
+                    rejected -> finish(key, future, null, rejected)));
+        } catch (Throwable throwable) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    private void loadAll(Map<K, CompletableFuture<V>> owned,
+                         Function<? super Set<K>, ? extends CompletionStage<? extends Map<K, V>>> mappingFunction) {
+        try {
+            CompletionStage<? extends Map<K, V>> stage =
+                    mappingFunction.apply(Collections.unmodifiableSet(owned.keySet()));
+            if (stage == null) {
+                finishAll(owned, Collections.emptyMap(), null);
+                return;
+            }
+            stage.whenComplete((loaded, error) -> handOff(() -> finishAll(owned, loaded, error),
+                    rejected -> finishAll(owned, null, rejected)));
+        } catch (Throwable throwable) {
+            finishAll(owned, null, throwable);
+        }
+    }
+
+    private void finish(K key, CompletableFuture<V> future, V loaded, Throwable error) {
+        V stored = null;
+        Throwable failure = error;
+        try {
+            if (failure == null) {
+                stored = store(key, loaded);
+            }
+        } catch (Throwable throwable) {
+            failure = throwable;
+        }
+        //先移除再完成，保证调用方拿到结果后重试时不会再复用这次加载
+        inFlight.remove(key, future);
+        if (failure != null) {
+            future.completeExceptionally(failure);
+        } else {
+            future.complete(stored);
+        }
+    }
+
+    /**
+     * 把加载完成后的写入交给线程池；线程池拒绝时在当前线程以拒绝异常结束加载，
+     * 保证共享的future总会完成，正在进行的加载总会被移除
+     */
+    private void handOff(Runnable completion, Consumer<RejectedExecutionException> onRejected) {
+        try {
+            executor.execute(completion);
+        } catch (RejectedExecutionException e) {
+            onRejected.accept(e);
+        }
+    }
+
+    private void finishAll(Map<K, CompletableFuture<V>> owned, Map<K, V> loaded, Throwable error) {
+        for (Map.Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+            K key = entry.getKey();
+            CompletableFuture<V> future = entry.getValue();
+            V value = null;
+            Throwable failure = error;
+            try {
+                if (failure == null) {
+                    value = store(key, loaded == null ? null : loaded.get(key));
+                }
+            } catch (Throwable throwable) {
+                failure = throwable;
+            }
+            inFlight.remove(key, future);
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            } else {
+                future.complete(value);
+            }
+        }
+    }
+
+    /**
+     * 写入加载结果，加载期间其他线程已写入时保留已有的值
+     */
+    private V store(K key, V loaded) {
+        if (loaded == null) {
+            return null;
+        }
+        V previous = map.putIfAbsent(key, loaded);
+        return previous != null ? previous : loaded;
+    }
+
+    private <T> CompletableFuture<T> supply(Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, executor);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.hdwang.fastmap;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 批量操作的公共实现，语义与ConcurrentHashMap的批量操作一致。
+ * <p>
+ * 数据量达到parallelismThreshold时，通过并行流在ForkJoinPool公共线程池中按分区并行执行；
+ * Long.MAX_VALUE表示始终串行，1表示尽可能并行。各实现只需提供弱一致、跳过过期数据的分区。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+final class BulkOperations {
+
+    private BulkOperations() {
+    }
+
+    /**
+     * 是否并行执行
+     *
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param size                 估计的数据量
+     * @return 是否并行
+     */
+    static boolean parallel(long parallelismThreshold, long size) {
+        return parallelismThreshold < Long.MAX_VALUE && size >= Math.max(1L, parallelismThreshold);
+    }
+
+    static <K, V> Stream<Map.Entry<K, V>> stream(Spliterator<Map.Entry<K, V>> spliterator,
+                                                 long parallelismThreshold, long size) {
+        return StreamSupport.stream(spliterator, parallel(parallelismThreshold, size));
+    }
+
+    static <K, V> void forEach(Stream<Map.Entry<K, V>> entries, BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        entries.forEach(entry -> action.accept(entry.getKey(), entry.getValue()));
+    }
+
+    static <K, V> void forEachKey(Stream<Map.Entry<K, V>> entries, Consumer<? super K> action) {
+        Objects.requireNonNull(action);
+        entries.forEach(entry -> action.accept(entry.getKey()));
+    }
+
+    static <K, V, U> U search(Stream<Map.Entry<K, V>> entries,
+                              BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        Objects.requireNonNull(searchFunction);
+        return entries.<U>map(entry -> searchFunction.apply(entry.getKey(), entry.getValue()))
+                .filter(Objects::nonNull)
+                .findAny()
+                .orElse(null);
+    }
+
+    static <K, V, U> U reduce(Stream<Map.Entry<K, V>> entries,
+                              BiFunction<? super K, ? super V, ? extends U> transformer,
+                              BiFunction<? super U, ? super U, ? extends U> reducer) {
+        Objects.requireNonNull(transformer);
+        Objects.requireNonNull(reducer);
+        return entries.<U>map(entry -> transformer.apply(entry.getKey(), entry.getValue()))
+                .filter(Objects::nonNull)
+                .reduce(reducer::apply)
+                .orElse(null);
+    }
+
+    static <K, V> V reduceValues(Stream<Map.Entry<K, V>> entries,
+                                 BiFunction<? super V, ? super V, ? extends V> reducer) {
+        Objects.requireNonNull(reducer);
+        return entries.map(Map.Entry::getValue)
+                .filter(Objects::nonNull)
+                .reduce(reducer::apply)
+                .orElse(null);
+    }
+}
@@ -0,0 +1,53 @@
+package com.hdwang.fastmap;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LoadingFastMap的数据加载器
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface CacheLoader<K, V> {
+
+    /**
+     * 加载单个key的值
+     *
+     * @param key 键
+     * @return 值；返回null表示key不存在，不会写入缓存
+     * @throws Exception 加载失败
+     */
+    V load(K key) throws Exception;
+
+    /**
+     * 批量加载多个key的值，默认逐个调用load，可以重写为一次批量查询
+     *
+     * @param keys 缓存中不存在的key
+     * @return 加载到的数据，不包含的key视为不存在
+     * @throws Exception 加载失败
+     */
+    default Map<K, V> loadAll(Set<? extends K> keys) throws Exception {
+        Map<K, V> result = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = load(key);
+            if (value != null) {
+                result.put(key, value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 后台刷新时重新加载key的值，默认调用load
+     *
+     * @param key      键
+     * @param oldValue 缓存中当前的值
+     * @return 新的值；返回null时保留旧值
+     * @throws Exception 加载失败，保留旧值
+     */
+    default V reload(K key, V oldValue) throws Exception {
+        return load(key);
+    }
+}
@@ -0,0 +1,955 @@
+package com.hdwang.fastmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 无锁的排序FastMap，基于ConcurrentSkipListMap，适合多核并发读写的时间序列等有序数据。
+ * <p>
+ * 所有读操作（get、范围查询、firstKey、lastKey、遍历）都不加锁，不会与写操作互相阻塞；
+ * 写操作基于CAS，不同key上的写入可以并行执行。范围查询与FastMap一样返回按key排序的LinkedHashMap快照，
+ * 遍历过程中的并发修改可能可见也可能不可见（弱一致）。
+ * </p>
+ * <p>
+ * 与FastMap的差异：key的相等性由排序器决定，排序器认为相等但equals不相等的key会被拒绝；
+ * compute、merge等复合操作在并发冲突时会重试，函数可能被调用多次；不支持容量上限和淘汰策略。
+ * 过期数据在读取时按截止时间过滤，物理删除由全局过期清理线程完成。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public class ConcurrentSortedFastMap<K, V> extends AbstractMap<K, V> implements IFastMap<K, V> {
+
+    /**
+     * 未设置过期时间
+     */
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * 清理线程每轮最多删除的过期key数量
+     */
+    private static final int EXPIRE_BATCH_SIZE = 1024;
+
+    /**
+     * 估算内存占用时每条数据的结构开销（字节）：跳表节点、平均层数的索引节点和不可变数据节点
+     */
+    private static final long ENTRY_BYTES = 88L;
+
+    /**
+     * 每个设置了过期时间的key在截止时间集合中的开销（字节）
+     */
+    private static final long DEADLINE_ENTRY_BYTES = 56L;
+
+    /**
+     * 更新函数的返回值：保持原值不变
+     */
+    private static final Object KEEP = new Object();
+
+    /**
+     * 更新函数的返回值：删除key
+     */
+    private static final Object REMOVE = new Object();
+
+    /**
+     * 保存数据，节点不可变，修改时整体替换
+     */
+    private final ConcurrentSkipListMap<K, Node<K, V>> data;
+
+    /**
+     * 设置了过期时间的节点，按截止时间排序，用于清理过期数据
+     */
+    private final ConcurrentSkipListSet<Node<K, V>> deadlines = new ConcurrentSkipListSet<>(
+            (left, right) -> left.deadline != right.deadline
+                    ? Long.compare(left.deadline, right.deadline)
+                    : Long.compare(left.sequence, right.sequence));
+
+    /**
+     * 过期节点的序号，截止时间相同时区分不同节点
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 带过期回调的节点数量，存在时清理线程在截止时间准时唤醒
+     */
+    private final AtomicInteger callbackNodes = new AtomicInteger();
+
+    /**
+     * 节点数量的近似值（含未清理的过期节点），批量操作据此决定是否并行，避免每次O(n)统计跳表大小
+     */
+    private final LongAdder approximateSize = new LongAdder();
+
+    /**
+     * 是否启用数据过期功能
+     */
+    private final boolean enableExpire;
+
+    /**
+     * 是否信任排序器与equals一致。信任时不再校验排序器认为相等的key是否equals
+     */
+    private final boolean trustComparator;
+
+    /**
+     * 过期清理线程对本实例的清理耗时
+     */
+    private final SweepStats sweepStats = new SweepStats();
+
+    /**
+     * 注册到过期清理线程的入口，与实例同生命周期
+     */
+    private final ExpirationSweeper.Target sweepTarget = new ExpirationSweeper.Target() {
+        @Override
+        public long nextSweepTime() {
+            return ConcurrentSortedFastMap.this.nextSweepTime();
+        }
+
+        @Override
+        public int sweepExpiredData() {
+            return ConcurrentSortedFastMap.this.sweepExpiredData();
+        }
+
+        @Override
+        public SweepStats sweepStats() {
+            return ConcurrentSortedFastMap.this.sweepStats;
+        }
+    };
+
+    /**
+     * 默认构造器，启用过期，使用key的自然顺序
+     */
+    public ConcurrentSortedFastMap() {
+        this(true);
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，使用key的自然顺序
+     *
+     * @param enableExpire 是否启用过期
+     */
+    public ConcurrentSortedFastMap(boolean enableExpire) {
+        this(enableExpire, null);
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，comparator配置排序器
+     *
+     * @param enableExpire 是否启用过期
+     * @param comparator   排序器，必须与equals保持一致；null表示使用key的自然顺序
+     */
+    public ConcurrentSortedFastMap(boolean enableExpire, Comparator<? super K> comparator) {
+        this(enableExpire, comparator, false);
+    }
+
+    /**
+     * 构造器，trustComparator配置是否信任排序器与equals一致
+     *
+     * @param enableExpire    是否启用过期
+     * @param comparator      排序器，必须与equals保持一致；null表示使用key的自然顺序
+     * @param trustComparator 是否信任排序器，信任时写入和查询不再校验equals
+     */
+    public ConcurrentSortedFastMap(boolean enableExpire, Comparator<? super K> comparator, boolean trustComparator) {
+        this.data = new ConcurrentSkipListMap<>(comparator);
+        this.enableExpire = enableExpire;
+        this.trustComparator = trustComparator;
+        if (enableExpire) {
+            FastMap.registerExpirable(this.sweepTarget);
+        }
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return data.comparator();
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, K toKey) {
+        return snapshot(data.subMap(fromKey, toKey));
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return snapshot(data.subMap(fromKey, fromInclusive, toKey, toInclusive));
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey) {
+        return snapshot(data.headMap(toKey));
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey, boolean inclusive) {
+        return snapshot(data.headMap(toKey, inclusive));
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey) {
+        return snapshot(data.tailMap(fromKey));
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey, boolean inclusive) {
+        return snapshot(data.tailMap(fromKey, inclusive));
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, int offset, int limit) {
+        FastMap.checkPage(offset, limit);
+        long curTimestamp = FastMap.currentTimestamp();
+        Map<K, V> page = new LinkedHashMap<>();
+        int skipped = 0;
+        Iterator<Node<K, V>> iterator = range(fromKey, fromInclusive, toKey, toInclusive).values().iterator();
+        while (page.size() < limit && iterator.hasNext()) {
+            Node<K, V> node = iterator.next();
+            if (node.deadline <= curTimestamp) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.put(node.key, node.value);
+        }
+        return page;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> rangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        Iterator<Node<K, V>> nodes = range(fromKey, fromInclusive, toKey, toInclusive).values().iterator();
+        return new LiveIterator<Map.Entry<K, V>>(nodes) {
+            @Override
+            Map.Entry<K, V> map(Node<K, V> node) {
+                return new WriteThroughEntry(node.key, node.value);
+            }
+        };
+    }
+
+    @Override
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        BulkOperations.forEach(bulkStream(data, parallelismThreshold), action);
+    }
+
+    @Override
+    public void forEachKey(long parallelismThreshold, Consumer<? super K> action) {
+        BulkOperations.forEachKey(bulkStream(data, parallelismThreshold), action);
+    }
+
+    @Override
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        return BulkOperations.search(bulkStream(data, parallelismThreshold), searchFunction);
+    }
+
+    @Override
+    public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return BulkOperations.reduce(bulkStream(data, parallelismThreshold), transformer, reducer);
+    }
+
+    @Override
+    public V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer) {
+        return BulkOperations.reduceValues(bulkStream(data, parallelismThreshold), reducer);
+    }
+
+    @Override
+    public <U> U reduce(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return BulkOperations.reduce(bulkStream(range(fromKey, fromInclusive, toKey, toInclusive),
+                parallelismThreshold), transformer, reducer);
+    }
+
+    @Override
+    public K firstKey() {
+        return firstLiveKey(data.values());
+    }
+
+    @Override
+    public K lastKey() {
+        return firstLiveKey(data.descendingMap().values());
+    }
+
+    @Override
+    public int size() {
+        if (deadlines.isEmpty()) {
+            return data.size();
+        }
+        long curTimestamp = FastMap.currentTimestamp();
+        int size = 0;
+        for (Node<K, V> node : data.values()) {
+            if (node.deadline > curTimestamp) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        long curTimestamp = FastMap.currentTimestamp();
+        for (Node<K, V> node : data.values()) {
+            if (node.deadline > curTimestamp) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return liveNode(key) != null;
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        long curTimestamp = FastMap.currentTimestamp();
+        for (Node<K, V> node : data.values()) {
+            if (node.deadline > curTimestamp && Objects.equals(node.value, value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = liveNode(key);
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        Node<K, V> node = liveNode(key);
+        return node == null ? defaultValue : node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return update(key, (k, present, oldValue) -> value);
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return update(key, (k, present, oldValue) -> oldValue != null ? KEEP : value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        @SuppressWarnings("unchecked")
+        K typedKey = (K) key;
+        return update(typedKey, (k, present, oldValue) -> present ? REMOVE : KEEP);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        @SuppressWarnings("unchecked")
+        K typedKey = (K) key;
+        boolean[] removed = new boolean[1];
+        update(typedKey, (k, present, oldValue) -> {
+            removed[0] = present && Objects.equals(oldValue, value);
+            return removed[0] ? REMOVE : KEEP;
+        });
+        return removed[0];
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return update(key, (k, present, oldValue) -> present ? value : KEEP);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        boolean[] replaced = new boolean[1];
+        update(key, (k, present, currentValue) -> {
+            replaced[0] = present && Objects.equals(currentValue, oldValue);
+            return replaced[0] ? newValue : KEEP;
+        });
+        return replaced[0];
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Object[] result = new Object[1];
+        update(key, (k, present, oldValue) -> {
+            if (oldValue != null) {
+                result[0] = oldValue;
+                return KEEP;
+            }
+            V newValue = mappingFunction.apply(k);
+            result[0] = newValue;
+            return newValue == null ? KEEP : newValue;
+        });
+        return cast(result[0]);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Object[] result = new Object[1];
+        update(key, (k, present, oldValue) -> {
+            if (oldValue == null) {
+                result[0] = null;
+                return KEEP;
+            }
+            V newValue = remappingFunction.apply(k, oldValue);
+            result[0] = newValue;
+            return newValue == null ? REMOVE : newValue;
+        });
+        return cast(result[0]);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(remappingFunction);
+        Object[] result = new Object[1];
+        update(key, (k, present, oldValue) -> {
+            V newValue = remappingFunction.apply(k, oldValue);
+            result[0] = newValue;
+            if (newValue == null) {
+                return present ? REMOVE : KEEP;
+            }
+            return newValue;
+        });
+        return cast(result[0]);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        Objects.requireNonNull(value);
+        Objects.requireNonNull(remappingFunction);
+        Object[] result = new Object[1];
+        update(key, (k, present, oldValue) -> {
+            V newValue = oldValue == null ? value : remappingFunction.apply(oldValue, value);
+            result[0] = newValue;
+            return newValue == null ? REMOVE : newValue;
+        });
+        return cast(result[0]);
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        for (K key : data.keySet()) {
+            update(key, (k, present, oldValue) -> present ? function.apply(k, oldValue) : KEEP);
+        }
+    }
+
+    @Override
+    public void clear() {
+        data.clear();
+        deadlines.clear();
+        callbackNodes.set(0);
+        approximateSize.reset();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySetView();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySetView();
+    }
+
+    @Override
+    public Long expire(K key, Long ms) {
+        return expire(key, ms, null);
+    }
+
+    @Override
+    public Long expire(K key, Long ms, ExpireCallback<K, V> callback) {
+        if (!enableExpire) {
+            throw new RuntimeException("未启用过期功能");
+        }
+        Objects.requireNonNull(ms, "ms");
+        if (ms < 0) {
+            throw new IllegalArgumentException("ms must be greater than or equal to 0");
+        }
+        while (true) {
+            long curTimestamp = FastMap.currentTimestamp();
+            Node<K, V> old = data.get(key);
+            if (old == null || !sameKey(old, key)) {
+                return null;
+            }
+            if (old.deadline <= curTimestamp) {
+                expireNode(old);
+                return null;
+            }
+            //未传入回调时沿用之前设置的回调
+            ExpireCallback<K, V> effectiveCallback = callback != null ? callback : old.callback;
+            long deadline = FastMap.saturatedAdd(curTimestamp, ms);
+            Node<K, V> node = new Node<>(old.key, old.value, deadline, effectiveCallback, sequence.incrementAndGet());
+            if (data.replace(key, old, node)) {
+                reindex(old, node);
+                if (effectiveCallback != null) {
+                    FastMap.wakeUpSweeper(deadline);
+                }
+                //假定系统时间不修改前提下的过期时间
+                return FastMap.saturatedAdd(System.currentTimeMillis(), ms);
+            }
+        }
+    }
+
+    @Override
+    public Long ttl(K key) {
+        if (!enableExpire) {
+            throw new RuntimeException("未启用过期功能");
+        }
+        long curTimestamp = FastMap.currentTimestamp();
+        Node<K, V> node = liveNode(key);
+        if (node == null || node.deadline == NO_DEADLINE) {
+            return null;
+        }
+        return Math.max(0L, node.deadline - curTimestamp);
+    }
+
+    /**
+     * 监控指标，由FastMapRegistry读取；数据条数和过期key数量需要遍历跳表，为O(n)
+     *
+     * @return 本实例的指标
+     */
+    MapMetrics metrics() {
+        return new MapMetrics() {
+            @Override
+            public long estimatedSize() {
+                return data.size();
+            }
+
+            @Override
+            public long pendingExpirations() {
+                return deadlines.size();
+            }
+
+            @Override
+            public long lastSweepNanos() {
+                return sweepStats.lastSweepNanos();
+            }
+
+            @Override
+            public long totalSweepNanos() {
+                return sweepStats.totalSweepNanos();
+            }
+
+            @Override
+            public long sweepCount() {
+                return sweepStats.sweepCount();
+            }
+
+            @Override
+            public long estimatedMemoryBytes() {
+                return estimatedSize() * ENTRY_BYTES + pendingExpirations() * DEADLINE_ENTRY_BYTES;
+            }
+
+            @Override
+            public long weightedSize() {
+                return -1L;
+            }
+        };
+    }
+
+    /**
+     * 清理线程下次需要清理本实例的时间（毫秒）。
+     * 没有带回调的key时允许延迟清理，读操作已按截止时间过滤过期数据。
+     */
+    long nextSweepTime() {
+        Iterator<Node<K, V>> iterator = deadlines.iterator();
+        if (!iterator.hasNext()) {
+            return Long.MAX_VALUE;
+        }
+        long next = iterator.next().deadline;
+        return callbackNodes.get() > 0 ? next : FastMap.saturatedAdd(next, ExpirationSweeper.LAZY_SWEEP_DELAY_MS);
+    }
+
+    /**
+     * 清理线程调用：清理一批过期的数据，剩余的到期数据留到下一轮
+     *
+     * @return 删除的key数量
+     */
+    int sweepExpiredData() {
+        long curTimestamp = FastMap.currentTimestamp();
+        int count = 0;
+        Iterator<Node<K, V>> iterator = deadlines.iterator();
+        while (count < EXPIRE_BATCH_SIZE && iterator.hasNext()) {
+            Node<K, V> node = iterator.next();
+            if (node.deadline > curTimestamp) {
+                break;
+            }
+            if (unindex(node) && data.remove(node.key, node)) {
+                approximateSize.decrement();
+                notifyExpired(node);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 基于CAS的原子更新，冲突时重试，remapping可能被调用多次
+     *
+     * @param key       键
+     * @param remapping 根据当前值计算新值，返回KEEP表示不修改，返回REMOVE表示删除
+     * @return 修改前的值
+     */
+    private V update(K key, Remapping<K, V> remapping) {
+        while (true) {
+            long curTimestamp = FastMap.currentTimestamp();
+            Node<K, V> old = data.get(key);
+            if (old != null) {
+                checkKey(old, key);
+                if (old.deadline <= curTimestamp) {
+                    //已过期的数据视为不存在，先删除再重试
+                    expireNode(old);
+                    continue;
+                }
+            }
+            boolean present = old != null;
+            V oldValue = present ? old.value : null;
+            Object result = remapping.apply(key, present, oldValue);
+            if (result == KEEP) {
+                return oldValue;
+            }
+            if (result == REMOVE) {
+                if (!present) {
+                    return null;
+                }
+                if (data.remove(key, old)) {
+                    approximateSize.decrement();
+                    unindex(old);
+                    return oldValue;
+                }
+                continue;
+            }
+            V newValue = cast(result);
+            if (!present) {
+                if (data.putIfAbsent(key, new Node<>(key, newValue, NO_DEADLINE, null, 0L)) == null) {
+                    approximateSize.increment();
+                    return null;
+                }
+                continue;
+            }
+            //覆盖写入沿用原来的过期时间和回调
+            Node<K, V> node = old.deadline == NO_DEADLINE
+                    ? new Node<>(old.key, newValue, NO_DEADLINE, null, 0L)
+                    : new Node<>(old.key, newValue, old.deadline, old.callback, sequence.incrementAndGet());
+            if (data.replace(key, old, node)) {
+                reindex(old, node);
+                return oldValue;
+            }
+        }
+    }
+
+    /**
+     * 查找未过期的节点，已过期的节点顺带删除
+     */
+    private Node<K, V> liveNode(Object key) {
+        Node<K, V> node = data.get(key);
+        if (node == null || !sameKey(node, key)) {
+            return null;
+        }
+        if (node.deadline <= FastMap.currentTimestamp()) {
+            expireNode(node);
+            return null;
+        }
+        return node;
+    }
+
+    /**
+     * 排序器认为相等的已有key与查询的key是否equals，不一致时视为不同的key
+     */
+    private boolean sameKey(Node<K, V> node, Object key) {
+        return trustComparator || Objects.equals(node.key, key);
+    }
+
+    /**
+     * 写入时校验排序器与equals的一致性
+     */
+    private void checkKey(Node<K, V> node, Object key) {
+        if (!sameKey(node, key)) {
+            throw new IllegalArgumentException(
+                    "Comparator considers different keys equal: " + node.key + " and " + key);
+        }
+    }
+
+    private void expireNode(Node<K, V> node) {
+        if (data.remove(node.key, node)) {
+            approximateSize.decrement();
+            unindex(node);
+            notifyExpired(node);
+        }
+    }
+
+    private void notifyExpired(Node<K, V> node) {
+        ExpireCallback<K, V> callback = node.callback;
+        if (callback != null) {
+            FastMap.dispatchNotification(() -> callback.onExpire(node.key, node.value));
+        }
+    }
+
+    /**
+     * 节点被替换后更新过期索引：先登记新节点再移除旧节点，清理线程不会漏掉新节点
+     */
+    private void reindex(Node<K, V> old, Node<K, V> node) {
+        if (node.deadline != NO_DEADLINE) {
+            deadlines.add(node);
+            if (node.callback != null) {
+                callbackNodes.incrementAndGet();
+            }
+        }
+        unindex(old);
+    }
+
+    /**
+     * 从过期索引中移除节点
+     *
+     * @return 是否由本次调用移除
+     */
+    private boolean unindex(Node<K, V> node) {
+        if (node.deadline == NO_DEADLINE || !deadlines.remove(node)) {
+            return false;
+        }
+        if (node.callback != null) {
+            callbackNodes.decrementAndGet();
+        }
+        return true;
+    }
+
+    private Map<K, V> snapshot(Map<K, Node<K, V>> range) {
+        long curTimestamp = FastMap.currentTimestamp();
+        Map<K, V> linkedMap = new LinkedHashMap<>();
+        for (Node<K, V> node : range.values()) {
+            if (node.deadline > curTimestamp) {
+                linkedMap.put(node.key, node.value);
+            }
+        }
+        return linkedMap;
+    }
+
+    private Map<K, Node<K, V>> range(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if (fromKey == null) {
+            return toKey == null ? data : data.headMap(toKey, toInclusive);
+        }
+        return toKey == null ? data.tailMap(fromKey, fromInclusive)
+                : data.subMap(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    /**
+     * 批量操作的数据流，由跳表自身的Spliterator分区，过滤已过期的数据。范围操作也按整张表的近似大小判断是否并行
+     */
+    private Stream<Map.Entry<K, V>> bulkStream(Map<K, Node<K, V>> range, long parallelismThreshold) {
+        long curTimestamp = FastMap.currentTimestamp();
+        boolean parallel = BulkOperations.parallel(parallelismThreshold, approximateSize.sum());
+        return StreamSupport.stream(range.values().spliterator(), parallel)
+                .filter(node -> node.deadline > curTimestamp)
+                .map(node -> new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+    }
+
+    private K firstLiveKey(Iterable<Node<K, V>> nodes) {
+        long curTimestamp = FastMap.currentTimestamp();
+        for (Node<K, V> node : nodes) {
+            if (node.deadline > curTimestamp) {
+                return node.key;
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    @FunctionalInterface
+    private interface Remapping<K, V> {
+        Object apply(K key, boolean present, V oldValue);
+    }
+
+    /**
+     * 不可变的数据节点，equals使用对象identity，用于CAS替换
+     */
+    private static final class Node<K, V> {
+        final K key;
+        final V value;
+        final long deadline;
+        final ExpireCallback<K, V> callback;
+        final long sequence;
+
+        private Node(K key, V value, long deadline, ExpireCallback<K, V> callback, long sequence) {
+            this.key = key;
+            this.value = value;
+            this.deadline = deadline;
+            this.callback = callback;
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * 弱一致的entry视图，跳过已过期的数据，entry的setValue会写回Map
+     */
+    private final class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new LiveIterator<Map.Entry<K, V>>() {
+                @Override
+                Map.Entry<K, V> map(Node<K, V> node) {
+                    return new WriteThroughEntry(node.key, node.value);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentSortedFastMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            Node<K, V> node = liveNode(entry.getKey());
+            return node != null && Objects.equals(node.value, entry.getValue());
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            return ConcurrentSortedFastMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentSortedFastMap.this.clear();
+        }
+    }
+
+    private final class KeySetView extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new LiveIterator<K>() {
+                @Override
+                K map(Node<K, V> node) {
+                    return node.key;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return ConcurrentSortedFastMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            return containsKey(object);
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            if (!containsKey(object)) {
+                return false;
+            }
+            ConcurrentSortedFastMap.this.remove(object);
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            ConcurrentSortedFastMap.this.clear();
+        }
+    }
+
+    /**
+     * 按key顺序遍历未过期数据的迭代器，remove会写回Map
+     */
+    private abstract class LiveIterator<T> implements Iterator<T> {
+        private final Iterator<Node<K, V>> iterator;
+        private final long curTimestamp = FastMap.currentTimestamp();
+        private Node<K, V> next;
+        private Node<K, V> last;
+
+        LiveIterator() {
+            this(data.values().iterator());
+        }
+
+        LiveIterator(Iterator<Node<K, V>> iterator) {
+            this.iterator = iterator;
+            advance();
+        }
+
+        abstract T map(Node<K, V> node);
+
+        private void advance() {
+            next = null;
+            while (iterator.hasNext()) {
+                Node<K, V> node = iterator.next();
+                if (node.deadline > curTimestamp) {
+                    next = node;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            Node<K, V> node = next;
+            if (node == null) {
+                throw new NoSuchElementException();
+            }
+            last = node;
+            advance();
+            return map(node);
+        }
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            if (data.remove(last.key, last)) {
+                approximateSize.decrement();
+                unindex(last);
+            }
+            last = null;
+        }
+    }
+
+    private final class WriteThroughEntry extends AbstractMap.SimpleEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private WriteThroughEntry(K key, V value) {
+            super(key, value);
+        }
+
+        @Override
+        public V setValue(V value) {
+            ConcurrentSortedFastMap.this.put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.hdwang.fastmap;
+
+/**
+ * 容量淘汰策略，决定超出最大条数或最大权重时淘汰哪个key。
+ * <p>
+ * 所有方法都在FastMap的写锁内调用，实现无需考虑线程安全，但每个方法都应当是均摊O(1)的。
+ * 读操作的访问记录会先进入无锁缓冲区，在下一次写操作时批量回放给策略，因此访问顺序是近似的。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public interface EvictionPolicy<K> {
+
+    /**
+     * 记录新写入的key
+     *
+     * @param key    键
+     * @param weight 权重
+     */
+    void recordInsert(K key, long weight);
+
+    /**
+     * 记录已存在key的值被更新
+     *
+     * @param key    键
+     * @param weight 新的权重
+     */
+    void recordUpdate(K key, long weight);
+
+    /**
+     * 记录key被访问，key不存在时忽略
+     *
+     * @param key 键
+     */
+    void recordAccess(K key);
+
+    /**
+     * 记录key被移除，key不存在时忽略
+     *
+     * @param key 键
+     */
+    void recordRemove(K key);
+
+    /**
+     * 当前所有key的总权重
+     *
+     * @return 总权重
+     */
+    long weightedSize();
+
+    /**
+     * 选出下一个应被淘汰的key，由调用方移除数据后再调用recordRemove。
+     * 仅在总权重超过上限时调用，此时至少存在一个权重为正的key。
+     *
+     * @return 被淘汰的key
+     */
+    K victim();
+
+    /**
+     * 清空所有记录
+     */
+    void clear();
+}
@@ -0,0 +1,19 @@
+package com.hdwang.fastmap;
+
+/**
+ * 淘汰策略工厂，每个FastMap创建一个独立的策略实例
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface EvictionPolicyFactory<K> {
+
+    /**
+     * 创建淘汰策略
+     *
+     * @param maximum  最大条数或最大权重
+     * @param weighted maximum是否为最大权重；为false时是最大条数
+     * @return 淘汰策略
+     */
+    EvictionPolicy<K> create(long maximum, boolean weighted);
+}
@@ -0,0 +1,130 @@
+package com.hdwang.fastmap;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局过期清理线程，所有启用过期功能的FastMap（以及ConcurrentSortedFastMap）共享一个守护线程。
+ * <p>
+ * 每一轮只清理已经到期的FastMap，没有到期数据的FastMap不会被加锁；
+ * 一轮结束后睡眠到所有FastMap中最早的清理时间，最长睡眠{@link #MAX_IDLE_MS}毫秒。
+ * 每次持有写锁只删除一批key（数量和耗时由FastMapBuilder配置），还有剩余时在下一轮继续，
+ * 大量key同时到期也不会长时间阻塞读操作。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+final class ExpirationSweeper implements Runnable {
+
+    /**
+     * 最长睡眠时间（毫秒），同时用于定期清理已被回收的FastMap引用
+     */
+    static final long MAX_IDLE_MS = 1000L;
+
+    /**
+     * 没有过期回调的数据在到期后多久内被物理删除（毫秒）。
+     * 读操作已按截止时间惰性过滤过期数据，无需为每个截止时间单独唤醒。
+     */
+    static final long LAZY_SWEEP_DELAY_MS = 1000L;
+
+    /**
+     * 清理线程编号
+     */
+    private static final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    /**
+     * 所有启用过期功能的实例
+     */
+    private final List<WeakReference<Target>> maps;
+
+    private final Thread thread;
+
+    /**
+     * 清理线程计划的唤醒时间（毫秒）。扫描期间为Long.MAX_VALUE，表示任何新的截止时间都需要唤醒
+     */
+    private volatile long wakeupTime = Long.MAX_VALUE;
+
+    ExpirationSweeper(List<WeakReference<Target>> maps) {
+        this.maps = maps;
+        this.thread = new Thread(this, "expireTask-" + threadNumber.getAndIncrement());
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        this.thread.start();
+    }
+
+    /**
+     * 有新的截止时间时调用，早于计划的唤醒时间则立即唤醒清理线程
+     *
+     * @param deadline 截止时间（毫秒）
+     */
+    void wakeUp(long deadline) {
+        if (deadline < this.wakeupTime) {
+            LockSupport.unpark(this.thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            //先标记为扫描中，扫描期间设置的截止时间会让下一次park立即返回
+            this.wakeupTime = Long.MAX_VALUE;
+            long now = FastMap.currentTimestamp();
+            long next = now + MAX_IDLE_MS;
+            for (WeakReference<Target> reference : maps) {
+                Target map = reference.get();
+                if (map == null) {
+                    maps.remove(reference);
+                    continue;
+                }
+                try {
+                    long sweepTime = map.nextSweepTime();
+                    if (sweepTime <= now) {
+                        long startNanos = System.nanoTime();
+                        map.sweepExpiredData();
+                        map.sweepStats().record(System.nanoTime() - startNanos);
+                        sweepTime = map.nextSweepTime();
+                    }
+                    next = Math.min(next, sweepTime);
+                } catch (Throwable throwable) {
+                    FastMap.reportBackgroundFailure("expire cleanup failed", throwable);
+                }
+            }
+            this.wakeupTime = next;
+            long delay = next - FastMap.currentTimestamp();
+            if (delay > 0) {
+                LockSupport.parkNanos(this, delay * 1_000_000L);
+            }
+        }
+    }
+
+    /**
+     * 需要清理过期数据的实例。实例持有Target的强引用，注册表只保存弱引用，实例被回收后自动注销
+     */
+    interface Target {
+
+        /**
+         * 下次需要清理的时间（毫秒）
+         *
+         * @return 清理时间；没有会过期的数据时返回Long.MAX_VALUE
+         */
+        long nextSweepTime();
+
+        /**
+         * 清理一批过期的数据，剩余的到期数据留到下一轮
+         *
+         * @return 删除的key数量
+         */
+        int sweepExpiredData();
+
+        /**
+         * 清理耗时记录
+         *
+         * @return 清理耗时记录
+         */
+        SweepStats sweepStats();
+    }
+}
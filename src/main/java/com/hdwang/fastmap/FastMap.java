@@ -1,18 +1,22 @@
 package com.hdwang.fastmap;
 
 import java.util.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.ref.WeakReference;
+import java.nio.file.Path;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -24,34 +28,40 @@ import java.util.function.Function;
 public class FastMap<K, V> implements IFastMap<K, V> {
 
     /**
-     * 保存数据，主要运用于等值查找
+     * 保存数据，主要运用于等值查找。单索引排序存储时与dataTreeMap是同一个对象
      */
-    private HashMap<K, V> dataHashMap = new HashMap<>();
+    private final Map<K, V> dataHashMap;
 
     /**
      * 保存数据，主要运用于范围查找
      */
-    private TreeMap<K, V> dataTreeMap = null;
+    private final SortedIndex<K, V> dataTreeMap;
 
     /**
-     * 按照时间顺序保存了会过期key集合，为了实现快速删除，结构：时间戳->key列表
+     * 是否同时维护等值索引和排序索引两份数据（启用排序且使用HASH_AND_TREE存储）
      */
-    private final TreeMap<Long, List<K>> expireKeysMap = new TreeMap<>();
+    private final boolean dualIndex;
 
     /**
-     * 保存会过期key的过期时间
+     * 保存会过期key的截止时间和过期回调的分层时间轮，设置、续期、取消均为O(1)
      */
-    private final HashMap<K, Long> keyExpireMap = new HashMap<>();
+    private final TimerWheel<K, V> expireWheel = new TimerWheel<>(currentTimestamp());
 
     /**
-     * 保存键过期的回调函数
+     * 是否存在带过期回调的key。存在时清理线程在截止时间准时唤醒，否则允许延迟清理。
      */
-    private final HashMap<K, ExpireCallback<K, V>> keyExpireCallbackMap = new HashMap<>();
+    private volatile boolean expireCallbackPending;
 
     /**
-     * 保存带回调过期任务，续期或删除时取消旧任务。
+     * 上一批清理达到数量或耗时上限后，时间轮的到期队列中是否还有未删除的数据。存在时清理线程立即继续清理。
      */
-    private final HashMap<K, ScheduledFuture<?>> keyExpireFutureMap = new HashMap<>();
+    private volatile boolean expireBacklog;
+
+    /**
+     * 最早的过期时间（毫秒），没有会过期的key时为Long.MAX_VALUE。
+     * 读操作据此判断是否存在到期数据，未到期时无需获取写锁。
+     */
+    private volatile long nextExpireTime = Long.MAX_VALUE;
 
     /**
      * 是否启用排序（默认不启用）
@@ -71,6 +81,71 @@ public class FastMap<K, V> implements IFastMap<K, V> {
      */
     private final Comparator<? super K> comparator;
 
+    /**
+     * 是否信任排序器与equals一致（默认不信任）。信任时写入不再校验排序器一致性。
+     */
+    private final boolean trustComparator;
+
+    /**
+     * 最大条数或最大总权重，未限制容量时为Long.MAX_VALUE
+     */
+    private final long maximumWeight;
+
+    /**
+     * 权重函数，为null时每条数据权重为1
+     */
+    private final Weigher<? super K, ? super V> weigher;
+
+    /**
+     * 容量淘汰策略，未限制容量时为null
+     */
+    private final EvictionPolicy<K> evictionPolicy;
+
+    /**
+     * 读操作的访问记录缓冲区，写操作时批量回放给淘汰策略，避免读操作获取写锁
+     */
+    private final AccessBuffer<K> accessBuffer;
+
+    /**
+     * 数据被自动移除（过期或淘汰）时的监听器
+     */
+    private final RemovalListener<? super K, ? super V> removalListener;
+
+    /**
+     * 每次持有写锁最多删除的过期key数量
+     */
+    private final int expireBatchSize;
+
+    /**
+     * 每次持有写锁删除过期key的最长时间（纳秒）
+     */
+    private final long expireBatchNanos;
+
+    /**
+     * 统计计数器，未启用统计时为null
+     */
+    private final StatsCounter statsCounter;
+
+    /**
+     * 最外层获取写锁的时间（纳秒），只在启用统计时由持有写锁的线程读写
+     */
+    private long writeLockAcquiredNanos;
+
+    /**
+     * 写锁内产生的过期回调和移除通知，在最外层写锁释放后派发
+     */
+    private ArrayList<Runnable> pendingNotifications = new ArrayList<>();
+
+    /**
+     * 写前日志，未启用时为null
+     */
+    private final WriteAheadLog<K, V> writeAheadLog;
+
+    /**
+     * 当前持有的写锁内是否追加过日志记录（由写锁保护）
+     */
+    private boolean logAppended;
+
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
 
     //数据写锁
@@ -80,26 +155,66 @@ public class FastMap<K, V> implements IFastMap<K, V> {
     private final Lock dataReadLock = readWriteLock.readLock();
 
     /**
-     * 定时执行服务(全局共享线程池)
+     * 复合操作的key锁，按key的哈希值分段，延迟创建
+     */
+    private volatile ReentrantLock[] keyLocks;
+
+    /**
+     * 创建key锁数组时使用的私有监视器，不锁Map对象本身，用户代码对Map加锁不会影响它
+     */
+    private final Object keyLocksMonitor = new Object();
+
+    /**
+     * 每个key锁上正在执行函数的key，没有时为ABSENT，只由持有对应key锁的线程读写
      */
-    private static volatile ScheduledThreadPoolExecutor scheduledExecutorService;
+    private Object[] computingKeys;
+
+    /**
+     * 过期清理线程(全局共享)
+     */
+    private static volatile ExpirationSweeper expirationSweeper;
 
     /**
      * 保存所有的启用过期功能的FastMap实例, 用于定期清理过期数据
      */
-    private static final List<WeakReference<FastMap<?, ?>>> allExpirableFastMaps =
+    private static final List<WeakReference<ExpirationSweeper.Target>> allExpirableFastMaps =
             new CopyOnWriteArrayList<>();
 
     /**
-     * 定期清理过期数据线程编号
+     * 过期清理线程对本实例的清理耗时
+     */
+    private final SweepStats sweepStats = new SweepStats();
+
+    /**
+     * 注册到过期清理线程的入口，与实例同生命周期
      */
-    private final static AtomicInteger expireTaskThreadNumber = new AtomicInteger(0);
+    private final ExpirationSweeper.Target sweepTarget = new ExpirationSweeper.Target() {
+        @Override
+        public long nextSweepTime() {
+            return FastMap.this.nextSweepTime();
+        }
+
+        @Override
+        public int sweepExpiredData() {
+            return FastMap.this.sweepExpiredData();
+        }
+
+        @Override
+        public SweepStats sweepStats() {
+            return FastMap.this.sweepStats;
+        }
+    };
 
     /**
      * 过期回调线程编号
      */
     private final static AtomicInteger callbackThreadNumber = new AtomicInteger(0);
 
+    /**
+     * 回调线程池队列已满、改由调用线程执行的次数
+     */
+    private static final LongAdder callbackRejectedCount = new LongAdder();
+
     /**
      * 受控的过期回调线程池，避免大量数据同时过期时无限创建线程。
      */
@@ -115,21 +230,74 @@ public class FastMap<K, V> implements IFastMap<K, V> {
                 thread.setDaemon(true);
                 return thread;
             },
-            new ThreadPoolExecutor.CallerRunsPolicy());
+            (runnable, executor) -> {
+                //队列已满时由调用线程执行
+                callbackRejectedCount.increment();
+                if (!executor.isShutdown()) {
+                    runnable.run();
+                }
+            });
 
     /**
      * 100万，1毫秒=100万纳秒
      */
     private static final int ONE_MILLION = 100_0000;
 
+    /**
+     * 范围游标每次持有读锁读取的最大条数
+     */
+    private static final int CURSOR_BATCH_SIZE = 256;
+
+    /**
+     * 复合操作的key锁数量，必须是2的幂
+     */
+    private static final int KEY_LOCK_STRIPES = 64;
+
+    /**
+     * 估算内存占用时每条数据的结构开销（字节，按64位JVM压缩指针估算）：HashMap节点加TreeMap节点
+     */
+    private static final long HASH_AND_TREE_ENTRY_BYTES = 80L;
+
+    /**
+     * 单索引跳表每条数据的结构开销（字节），包括平均层数的前向指针和哈希桶
+     */
+    private static final long SKIP_LIST_ENTRY_BYTES = 64L;
+
+    /**
+     * 未排序链式哈希表每条数据的结构开销（字节）
+     */
+    private static final long LINKED_ENTRY_BYTES = 48L;
+
+    /**
+     * 每个设置了过期时间的key在时间轮中的开销（字节）：时间轮节点加索引HashMap节点
+     */
+    private static final long EXPIRE_ENTRY_BYTES = 80L;
+
+    /**
+     * 淘汰策略中每个key的开销（字节）：链表节点加索引HashMap节点
+     */
+    private static final long EVICTION_ENTRY_BYTES = 80L;
+
+    /**
+     * 复合操作中表示key不存在
+     */
+    private static final Object ABSENT = new Object();
+
+    /**
+     * 复合操作的结果：保持原值不变
+     */
+    private static final Object KEEP = new Object();
+
+    /**
+     * 复合操作的结果：删除key
+     */
+    private static final Object REMOVE = new Object();
+
     /**
      * 默认构造器，启用过期，不启用排序
      */
     public FastMap() {
-        this.comparator = null;
-        this.enableSort = false;
-        this.enableExpire = true;
-        this.initialize();
+        this(new FastMapBuilder<>());
     }
 
     /**
@@ -138,10 +306,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
      * @param enableExpire 是否启用过期
      */
     public FastMap(boolean enableExpire) {
-        this.comparator = null;
-        this.enableSort = false;
-        this.enableExpire = enableExpire;
-        this.initialize();
+        this(new FastMapBuilder<K, V>().enableExpire(enableExpire));
     }
 
     /**
@@ -151,10 +316,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
      * @param enableSort   是否启用排序
      */
     public FastMap(boolean enableExpire, boolean enableSort) {
-        this.comparator = null;
-        this.enableExpire = enableExpire;
-        this.enableSort = enableSort;
-        this.initialize();
+        this(new FastMapBuilder<K, V>().enableExpire(enableExpire).enableSort(enableSort));
     }
 
     /**
@@ -164,55 +326,94 @@ public class FastMap<K, V> implements IFastMap<K, V> {
      * @param comparator   排序器
      */
     public FastMap(boolean enableExpire, Comparator<? super K> comparator) {
-        this.enableExpire = enableExpire;
-        this.comparator = comparator;
-        this.enableSort = true;
+        this(enableExpire, comparator, false);
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，启用排序，排序器由自己传入，trustComparator配置是否信任排序器。
+     * <p>
+     * 排序器必须与equals保持一致。默认每次写入都会以O(log n)的代价校验这一点；
+     * 能够保证一致性时（例如Long、String等的自然顺序）可以信任排序器，完全跳过校验。
+     * </p>
+     *
+     * @param enableExpire    是否启用过期
+     * @param comparator      排序器，null表示使用key的自然顺序
+     * @param trustComparator 是否信任排序器与equals一致
+     */
+    public FastMap(boolean enableExpire, Comparator<? super K> comparator, boolean trustComparator) {
+        this(new FastMapBuilder<K, V>().enableExpire(enableExpire)
+                .comparator(comparator)
+                .trustComparator(trustComparator));
+    }
+
+    /**
+     * 构造器，由FastMapBuilder调用
+     *
+     * @param builder 构造器配置
+     */
+    FastMap(FastMapBuilder<K, V> builder) {
+        this.enableExpire = builder.enableExpire;
+        this.enableSort = builder.enableSort;
+        this.comparator = builder.comparator;
+        this.trustComparator = builder.trustComparator;
+        if (enableSort && builder.sortedStorage == SortedStorage.HASHED_SKIP_LIST) {
+            HashedSkipListMap<K, V> index = new HashedSkipListMap<>(comparator);
+            this.dataHashMap = index;
+            this.dataTreeMap = index;
+            this.dualIndex = false;
+        } else {
+            //未排序时由可续读的链式哈希表负责遍历
+            this.dataHashMap = enableSort ? new HashMap<>() : new LinkedHashIndex<>();
+            this.dataTreeMap = newTreeMap();
+            this.dualIndex = enableSort;
+        }
+        long maximum = builder.maximum();
+        if (maximum != FastMapBuilder.UNSET) {
+            this.maximumWeight = maximum;
+            this.weigher = builder.weigher;
+            this.evictionPolicy = builder.evictionPolicyFactory.create(maximum, builder.weighted());
+            this.accessBuffer = new AccessBuffer<>();
+        } else {
+            this.maximumWeight = Long.MAX_VALUE;
+            this.weigher = null;
+            this.evictionPolicy = null;
+            this.accessBuffer = null;
+        }
+        this.removalListener = builder.removalListener;
+        this.expireBatchSize = builder.expireBatchSize;
+        this.expireBatchNanos = builder.expireBatchNanos;
+        this.statsCounter = builder.recordStats ? new StatsCounter() : null;
+        this.writeAheadLog = builder.logDirectory == null ? null : new WriteAheadLog<>(builder.logDirectory,
+                builder.logKeySerializer, builder.logValueSerializer, builder.syncPolicy, builder.logCompactionBytes);
         this.initialize();
+        if (this.writeAheadLog != null) {
+            try {
+                this.writeAheadLog.recover(this, this::compactInBackground);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to recover FastMap from " + builder.logDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * 创建FastMap构造器，用于配置容量上限、淘汰策略、移除监听器等功能
+     *
+     * @param <K> 键类型
+     * @param <V> 值类型
+     * @return 构造器
+     */
+    public static <K, V> FastMapBuilder<K, V> builder() {
+        return new FastMapBuilder<>();
     }
 
     /**
      * 初始化
      */
     private void initialize() {
-        dataTreeMap = newTreeMap();
-
         //启用数据过期功能
         if (this.enableExpire) {
             //保存 启用过期功能的FastMap 实例
-            allExpirableFastMaps.add(new WeakReference<>(this));
-
-            //双重校验构造一个单例的scheduledExecutorService
-            if (scheduledExecutorService == null) {
-                synchronized (FastMap.class) {
-                    if (scheduledExecutorService == null) {
-                        //启用定时器，定时删除过期key,1秒后启动，定时1秒, 因为时间间隔计算基于nanoTime,比timer.schedule更靠谱
-                        scheduledExecutorService = new ScheduledThreadPoolExecutor(1, runnable -> {
-                            Thread thread = new Thread(runnable);
-                            thread.setName("expireTask-" + expireTaskThreadNumber.getAndIncrement());
-                            thread.setDaemon(true);
-                            return thread;
-                        });
-                        scheduledExecutorService.setRemoveOnCancelPolicy(true);
-//                        System.out.println("ScheduledExecutorService created.");
-
-                        //执行定期清理过期数据任务,清理所有FastMap实例中的过期数据
-                        scheduledExecutorService.scheduleWithFixedDelay(() -> {
-                            for (WeakReference<FastMap<?, ?>> reference : allExpirableFastMaps) {
-                                FastMap<?, ?> map = reference.get();
-                                if (map == null) {
-                                    allExpirableFastMaps.remove(reference);
-                                    continue;
-                                }
-                                try {
-                                    map.clearExpireData("expireTask");
-                                } catch (Throwable throwable) {
-                                    reportBackgroundFailure("expire cleanup failed", throwable);
-                                }
-                            }
-                        }, 1, 1, TimeUnit.SECONDS);
-                    }
-                }
-            }
+            registerExpirable(this.sweepTarget);
         }
 //        System.out.println("FastMap init succeed. hashcode=" + this.hashCode());
     }
@@ -232,7 +433,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         this.clearExpireData("subMap");
         try {
             dataReadLock.lock();
-            SortedMap<K, V> sortedMap = this.dataTreeMap.subMap(fromKey, toKey);
+            Map<K, V> sortedMap = this.dataTreeMap.subMap(fromKey, true, toKey, false);
 
             //转成LinkedHashMap，解决并发时的遍历问题
             return getLinkedMap(sortedMap);
@@ -250,7 +451,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         this.clearExpireData("subMap");
         try {
             dataReadLock.lock();
-            SortedMap<K, V> sortedMap = this.dataTreeMap.subMap(fromKey, fromInclusive, toKey, toInclusive);
+            Map<K, V> sortedMap = this.dataTreeMap.subMap(fromKey, fromInclusive, toKey, toInclusive);
 
             //转成LinkedHashMap，解决并发时的遍历问题
             return getLinkedMap(sortedMap);
@@ -268,7 +469,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         this.clearExpireData("headMap");
         try {
             dataReadLock.lock();
-            SortedMap<K, V> sortedMap = this.dataTreeMap.headMap(toKey);
+            Map<K, V> sortedMap = this.dataTreeMap.headMap(toKey, false);
             //转成LinkedHashMap，解决并发时的遍历问题
             return getLinkedMap(sortedMap);
         } finally {
@@ -285,7 +486,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         this.clearExpireData("headMap");
         try {
             dataReadLock.lock();
-            SortedMap<K, V> sortedMap = this.dataTreeMap.headMap(toKey, inclusive);
+            Map<K, V> sortedMap = this.dataTreeMap.headMap(toKey, inclusive);
             //转成LinkedHashMap，解决并发时的遍历问题
             return getLinkedMap(sortedMap);
         } finally {
@@ -302,7 +503,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         this.clearExpireData("tailMap");
         try {
             dataReadLock.lock();
-            SortedMap<K, V> sortedMap = this.dataTreeMap.tailMap(fromKey);
+            Map<K, V> sortedMap = this.dataTreeMap.tailMap(fromKey, true);
             //转成LinkedHashMap，解决并发时的遍历问题
             return getLinkedMap(sortedMap);
         } finally {
@@ -319,7 +520,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         this.clearExpireData("tailMap");
         try {
             dataReadLock.lock();
-            SortedMap<K, V> sortedMap = this.dataTreeMap.tailMap(fromKey, inclusive);
+            Map<K, V> sortedMap = this.dataTreeMap.tailMap(fromKey, inclusive);
             //转成LinkedHashMap，解决并发时的遍历问题
             return getLinkedMap(sortedMap);
         } finally {
@@ -327,6 +528,119 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         }
     }
 
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, int offset, int limit) {
+        if (!enableSort) {
+            throw new RuntimeException("未启用排序");
+        }
+        checkPage(offset, limit);
+        //读取时按截止时间过滤，不为清理等待写锁
+        this.tryClearExpireData("subMap");
+        Map<K, V> linkedMap = new LinkedHashMap<>();
+        for (Map.Entry<K, V> entry : readRange(fromKey, fromInclusive, toKey, toInclusive, offset, limit)) {
+            linkedMap.put(entry.getKey(), entry.getValue());
+        }
+        return linkedMap;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> rangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return newRangeCursor(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    /**
+     * 创建范围游标，需要启用排序
+     */
+    private RangeCursor newRangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if (!enableSort) {
+            throw new RuntimeException("未启用排序");
+        }
+        this.tryClearExpireData("rangeCursor");
+        return new RangeCursor(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        BulkOperations.forEach(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                action);
+    }
+
+    @Override
+    public void forEachKey(long parallelismThreshold, Consumer<? super K> action) {
+        BulkOperations.forEachKey(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                action);
+    }
+
+    @Override
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        return BulkOperations.search(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                searchFunction);
+    }
+
+    @Override
+    public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return BulkOperations.reduce(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                transformer, reducer);
+    }
+
+    @Override
+    public V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer) {
+        return BulkOperations.reduceValues(
+                BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()), reducer);
+    }
+
+    @Override
+    public <U> U reduce(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        Spliterator<Map.Entry<K, V>> spliterator = bulkSpliterator(fromKey, fromInclusive, toKey, toInclusive);
+        return BulkOperations.reduce(BulkOperations.stream(spliterator, parallelismThreshold, rangeSize(spliterator)),
+                transformer, reducer);
+    }
+
+    /**
+     * 批量操作的分区：弱一致的游标按批次切分给ForkJoinPool，已过期的数据被跳过
+     */
+    Spliterator<Map.Entry<K, V>> bulkSpliterator() {
+        int ordered = enableSort ? Spliterator.ORDERED : 0;
+        return Spliterators.spliterator(entryCursor(), estimatedSize(),
+                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.CONCURRENT | ordered);
+    }
+
+    /**
+     * 指定范围的批量操作分区，需要启用排序。
+     * 游标创建时已读取第一批，第一批就是最后一批时分区带有准确的数据量，否则数据量未知
+     */
+    Spliterator<Map.Entry<K, V>> bulkSpliterator(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        RangeCursor cursor = newRangeCursor(fromKey, fromInclusive, toKey, toInclusive);
+        int characteristics = Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.CONCURRENT
+                | Spliterator.ORDERED;
+        long size = cursor.knownSize();
+        return size >= 0 ? Spliterators.spliterator(cursor, size, characteristics)
+                : Spliterators.spliteratorUnknownSize(cursor, characteristics);
+    }
+
+    /**
+     * 范围分区的估计数据量：小范围是准确值；至少有一整批时按整个Map的数据量估计上限
+     */
+    long rangeSize(Spliterator<Map.Entry<K, V>> spliterator) {
+        long size = spliterator.estimateSize();
+        return size == Long.MAX_VALUE ? estimatedSize() : size;
+    }
+
+    /**
+     * 估计的数据量，包含已到期但尚未删除的数据，不为清理等待写锁
+     */
+    long estimatedSize() {
+        try {
+            dataReadLock.lock();
+            return this.dataHashMap.size();
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
     @Override
     public K firstKey() {
         if (!enableSort) {
@@ -383,14 +697,17 @@ public class FastMap<K, V> implements IFastMap<K, V> {
 
     @Override
     public boolean containsKey(Object key) {
-        //先删除过期数据
-        this.clearExpireData("containsKey");
+        long curTimestamp = currentTimestamp();
+        boolean contained;
         try {
             dataReadLock.lock();
-            return this.dataHashMap.containsKey(key);
+            //已过期但尚未清理的数据视为不存在
+            contained = this.dataHashMap.containsKey(key) && !isExpired(key, curTimestamp);
         } finally {
             dataReadLock.unlock();
         }
+        this.tryClearExpireData("containsKey");
+        return contained;
     }
 
     @Override
@@ -407,29 +724,70 @@ public class FastMap<K, V> implements IFastMap<K, V> {
 
     @Override
     public V get(Object key) {
-        //先删除过期数据
-        this.clearExpireData("get");
+        return get(key, true);
+    }
+
+    /**
+     * 查询key的值
+     *
+     * @param key         键
+     * @param recordStats 是否计入命中统计，复合操作内部的查询不计入
+     * @return 值
+     */
+    private V get(Object key, boolean recordStats) {
+        long curTimestamp = currentTimestamp();
+        V value;
+        boolean expired;
         try {
             dataReadLock.lock();
-            return this.dataHashMap.get(key);
+            //已过期但尚未清理的数据视为不存在
+            expired = isExpired(key, curTimestamp);
+            value = expired ? null : this.dataHashMap.get(key);
         } finally {
             dataReadLock.unlock();
         }
+        if (recordStats && statsCounter != null) {
+            statsCounter.recordRead(value != null, expired);
+        }
+        recordAccess(key);
+        this.tryClearExpireData("get");
+        return value;
     }
 
     @Override
     public V put(K key, V value) {
+        checkRecursiveUpdate(key);
+        //先删除过期数据，避免新值继承已到期key的过期时间
+        this.clearExpireData("put");
+        long weight = weigh(key, value);
         try {
-            dataWriteLock.lock();
-            if (!enableSort) {
-                return this.dataHashMap.put(key, value);
+            lockWrite();
+            if (!dualIndex) {
+                //不排序或单索引排序存储，只有一份数据
+                if (enableSort) {
+                    validateSortedKey(this.dataHashMap, this.dataTreeMap, key);
+                }
+                boolean existed = evictionPolicy != null && this.dataHashMap.containsKey(key);
+                prepareLogPut(key, value);
+                V previousValue = this.dataHashMap.put(key, value);
+                commitLog();
+                recordWrite(key, weight, existed);
+                recordPuts(1);
+                evictEntries();
+                return previousValue;
             }
 
-            validateSortedKey(this.dataHashMap, key);
+            validateSortedKey(this.dataHashMap, this.dataTreeMap, key);
+            prepareLogPut(key, value);
             boolean treeContainedKey = this.dataTreeMap.containsKey(key);
             V previousTreeValue = this.dataTreeMap.put(key, value);
             try {
-                return this.dataHashMap.put(key, value);
+                V previousValue = this.dataHashMap.put(key, value);
+                commitLog();
+                recordWrite(key, weight, treeContainedKey);
+                recordPuts(1);
+                evictEntries();
+                return previousValue;
             } catch (RuntimeException | Error failure) {
                 try {
                     if (treeContainedKey) {
@@ -443,22 +801,31 @@ public class FastMap<K, V> implements IFastMap<K, V> {
                 throw failure;
             }
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public V remove(Object key) {
+        checkRecursiveUpdate(key);
+        //先删除过期数据，已过期的key视为不存在
+        this.clearExpireData("remove");
         try {
-            dataWriteLock.lock();
-            if (!enableSort) {
+            lockWrite();
+            if (!dualIndex) {
+                boolean existed = statsCounter != null && this.dataHashMap.containsKey(key);
+                prepareLogRemove(key);
                 V value = this.dataHashMap.remove(key);
+                commitLog();
                 if (enableExpire) {
                     removeExpireMetadata(key);
                 }
+                recordRemove(key);
+                recordRemoval(existed);
                 return value;
             }
 
+            prepareLogRemove(key);
             boolean treeContainedKey = this.dataTreeMap.containsKey(key);
             V previousTreeValue = this.dataTreeMap.remove(key);
             V value;
@@ -476,60 +843,112 @@ public class FastMap<K, V> implements IFastMap<K, V> {
                 }
                 throw failure;
             }
+            commitLog();
             if (enableExpire) {
                 removeExpireMetadata(key);
             }
+            recordRemove(key);
+            recordRemoval(treeContainedKey);
             return value;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public void putAll(Map<? extends K, ? extends V> m) {
         Objects.requireNonNull(m, "map");
+        if (this.keyLocks != null) {
+            for (K key : m.keySet()) {
+                checkRecursiveUpdate(key);
+            }
+        }
+        this.clearExpireData("putAll");
         try {
-            dataWriteLock.lock();
+            lockWrite();
             if (!enableSort) {
-                this.dataHashMap.putAll(m);
+                prepareLogPutAll(m.entrySet());
+                recordPuts(m.size());
+                if (evictionPolicy == null) {
+                    this.dataHashMap.putAll(m);
+                    commitLog();
+                    return;
+                }
+                for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                    K key = entry.getKey();
+                    long weight = weigh(key, entry.getValue());
+                    boolean existed = this.dataHashMap.containsKey(key);
+                    this.dataHashMap.put(key, entry.getValue());
+                    recordWrite(key, weight, existed);
+                }
+                commitLog();
+                evictEntries();
                 return;
             }
 
-            HashMap<K, V> newHashMap = new HashMap<>(this.dataHashMap);
-            TreeMap<K, V> newTreeMap = newTreeMap();
-            newTreeMap.putAll(this.dataTreeMap);
-            for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
-                K key = entry.getKey();
-                validateSortedKey(newHashMap, key);
-                newTreeMap.put(key, entry.getValue());
-                newHashMap.put(key, entry.getValue());
+            //先校验整批数据，校验失败时不修改任何索引
+            if (!trustComparator) {
+                SortedIndex<K, V> batchTreeMap = newTreeMap();
+                for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                    K key = entry.getKey();
+                    validateSortedKey(this.dataHashMap, this.dataTreeMap, key);
+                    validateSortedKey(Collections.emptyMap(), batchTreeMap, key);
+                    batchTreeMap.put(key, null);
+                }
+            }
+
+            prepareLogPutAll(m.entrySet());
+            //原地写入，只记录本批次修改过的key，失败时按相反顺序回滚
+            List<UndoEntry<K, V>> undoLog = new ArrayList<>(m.size());
+            try {
+                for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+                    K key = entry.getKey();
+                    boolean existed = this.dataTreeMap.containsKey(key);
+                    V previousValue = this.dataTreeMap.put(key, entry.getValue());
+                    undoLog.add(new UndoEntry<>(key, existed, previousValue));
+                    if (dualIndex) {
+                        this.dataHashMap.put(key, entry.getValue());
+                    }
+                }
+            } catch (RuntimeException | Error failure) {
+                rollback(undoLog, failure);
+                throw failure;
+            }
+            commitLog();
+            recordPuts(undoLog.size());
+            if (evictionPolicy != null) {
+                for (UndoEntry<K, V> undo : undoLog) {
+                    recordWrite(undo.key, weigh(undo.key, this.dataHashMap.get(undo.key)), undo.existed);
+                }
+                evictEntries();
             }
-            this.dataHashMap = newHashMap;
-            this.dataTreeMap = newTreeMap;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public void clear() {
+        checkRecursiveUpdate();
         try {
-            dataWriteLock.lock();
+            lockWrite();
+            prepareLogClear();
             this.dataHashMap.clear();
-            if (enableSort) {
+            if (dualIndex) {
                 this.dataTreeMap.clear();
             }
             if (enableExpire) {
-                for (ScheduledFuture<?> future : this.keyExpireFutureMap.values()) {
-                    future.cancel(false);
-                }
-                this.expireKeysMap.clear();
-                this.keyExpireMap.clear();
-                this.keyExpireCallbackMap.clear();
-                this.keyExpireFutureMap.clear();
+                this.expireWheel.clear();
+                this.nextExpireTime = Long.MAX_VALUE;
+                this.expireCallbackPending = false;
+                this.expireBacklog = false;
+            }
+            if (evictionPolicy != null) {
+                this.evictionPolicy.clear();
             }
+            commitLog();
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
@@ -550,22 +969,36 @@ public class FastMap<K, V> implements IFastMap<K, V> {
 
     @Override
     public V getOrDefault(Object key, V defaultValue) {
-        this.clearExpireData("getOrDefault");
+        long curTimestamp = currentTimestamp();
+        V value;
+        boolean expired;
+        boolean hit = false;
         try {
             dataReadLock.lock();
-            V v = this.dataHashMap.get(key);
-            return (v != null || this.dataHashMap.containsKey(key))
-                    ? v
-                    : defaultValue;
+            expired = isExpired(key, curTimestamp);
+            if (expired) {
+                value = defaultValue;
+            } else {
+                V v = this.dataHashMap.get(key);
+                hit = v != null || this.dataHashMap.containsKey(key);
+                value = hit ? v : defaultValue;
+            }
         } finally {
             dataReadLock.unlock();
         }
+        if (statsCounter != null) {
+            statsCounter.recordRead(hit, expired);
+        }
+        recordAccess(key);
+        this.tryClearExpireData("getOrDefault");
+        return value;
     }
 
     @Override
     public void forEach(BiConsumer<? super K, ? super V> action) {
         Objects.requireNonNull(action);
-        for (Map.Entry<K, V> entry : entrySet()) {
+        for (Iterator<Map.Entry<K, V>> iterator = entryCursor(); iterator.hasNext(); ) {
+            Map.Entry<K, V> entry = iterator.next();
             action.accept(entry.getKey(), entry.getValue());
         }
     }
@@ -573,40 +1006,56 @@ public class FastMap<K, V> implements IFastMap<K, V> {
     @Override
     public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
         Objects.requireNonNull(function);
+        checkRecursiveUpdate();
         this.clearExpireData("replaceAll");
         try {
-            dataWriteLock.lock();
+            lockWrite();
+            //先算出全部新值并准备日志记录，函数或序列化失败时不修改任何数据
+            int size = this.dataHashMap.size();
+            List<Map.Entry<K, V>> replaced = new ArrayList<>(size);
+            long[] weights = new long[size];
             for (Map.Entry<K, V> entry : this.dataHashMap.entrySet()) {
                 V newValue = function.apply(entry.getKey(), entry.getValue());
+                weights[replaced.size()] = weigh(entry.getKey(), newValue);
+                replaced.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), newValue));
+            }
+            prepareLogPutAll(replaced);
+            Iterator<Map.Entry<K, V>> iterator = this.dataHashMap.entrySet().iterator();
+            for (int i = 0; i < size; i++) {
+                Map.Entry<K, V> entry = iterator.next();
+                V newValue = replaced.get(i).getValue();
                 entry.setValue(newValue);
-                if (enableSort) {
+                if (dualIndex) {
                     this.dataTreeMap.put(entry.getKey(), newValue);
                 }
+                recordWrite(entry.getKey(), weights[i], true);
             }
+            commitLog();
+            evictEntries();
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public V putIfAbsent(K key, V value) {
         try {
-            dataWriteLock.lock();
-            V v = get(key);
+            lockWrite();
+            V v = get(key, false);
             if (v == null) {
                 v = put(key, value);
             }
             return v;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public boolean remove(Object key, Object value) {
         try {
-            dataWriteLock.lock();
-            Object curValue = get(key);
+            lockWrite();
+            Object curValue = get(key, false);
             if (!Objects.equals(curValue, value) ||
                     (curValue == null && !containsKey(key))) {
                 return false;
@@ -614,15 +1063,15 @@ public class FastMap<K, V> implements IFastMap<K, V> {
             remove(key);
             return true;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public boolean replace(K key, V oldValue, V newValue) {
         try {
-            dataWriteLock.lock();
-            Object curValue = get(key);
+            lockWrite();
+            Object curValue = get(key, false);
             if (!Objects.equals(curValue, oldValue) ||
                     (curValue == null && !containsKey(key))) {
                 return false;
@@ -630,117 +1079,232 @@ public class FastMap<K, V> implements IFastMap<K, V> {
             put(key, newValue);
             return true;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public V replace(K key, V value) {
         try {
-            dataWriteLock.lock();
+            lockWrite();
             V curValue;
-            if (((curValue = get(key)) != null) || containsKey(key)) {
+            if (((curValue = get(key, false)) != null) || containsKey(key)) {
                 curValue = put(key, value);
             }
             return curValue;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
     @Override
     public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
-        try {
-            dataWriteLock.lock();
-            Objects.requireNonNull(mappingFunction);
-            V v;
-            if ((v = get(key)) == null) {
-                V newValue;
-                if ((newValue = mappingFunction.apply(key)) != null) {
-                    put(key, newValue);
-                    return newValue;
-                }
+        Objects.requireNonNull(mappingFunction);
+        //已存在时直接返回，不获取key锁
+        Object current = lookup(key);
+        if (current != ABSENT && current != null) {
+            return cast(current);
+        }
+        return computeWithKeyLock(key, observed -> {
+            if (observed != ABSENT && observed != null) {
+                return KEEP;
             }
-
-            return v;
-        } finally {
-            dataWriteLock.unlock();
-        }
+            V newValue = mappingFunction.apply(key);
+            return newValue == null ? KEEP : newValue;
+        });
     }
 
     @Override
     public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        try {
-            dataWriteLock.lock();
-            Objects.requireNonNull(remappingFunction);
-            V oldValue;
-            if ((oldValue = get(key)) != null) {
-                V newValue = remappingFunction.apply(key, oldValue);
-                if (newValue != null) {
-                    put(key, newValue);
-                    return newValue;
-                } else {
-                    remove(key);
-                    return null;
-                }
-            } else {
-                return null;
+        Objects.requireNonNull(remappingFunction);
+        return computeWithKeyLock(key, observed -> {
+            if (observed == ABSENT || observed == null) {
+                return KEEP;
             }
-        } finally {
-            dataWriteLock.unlock();
-        }
+            V newValue = remappingFunction.apply(key, cast(observed));
+            return newValue == null ? REMOVE : newValue;
+        });
     }
 
     @Override
     public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
-        try {
-            dataWriteLock.lock();
-            Objects.requireNonNull(remappingFunction);
-            V oldValue = get(key);
-
-            V newValue = remappingFunction.apply(key, oldValue);
+        Objects.requireNonNull(remappingFunction);
+        return computeWithKeyLock(key, observed -> {
+            V newValue = remappingFunction.apply(key, observed == ABSENT ? null : cast(observed));
             if (newValue == null) {
-                // delete mapping
-                if (oldValue != null || containsKey(key)) {
-                    // something to remove
-                    remove(key);
-                    return null;
-                } else {
-                    // nothing to do. Leave things as they were.
-                    return null;
-                }
-            } else {
-                // add or replace old mapping
-                put(key, newValue);
-                return newValue;
+                return observed == ABSENT ? KEEP : REMOVE;
             }
-        } finally {
-            dataWriteLock.unlock();
-        }
+            return newValue;
+        });
     }
 
     @Override
     public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
-        try {
-            dataWriteLock.lock();
-            Objects.requireNonNull(remappingFunction);
-            Objects.requireNonNull(value);
-            V oldValue = get(key);
-            V newValue = (oldValue == null) ? value :
-                    remappingFunction.apply(oldValue, value);
+        Objects.requireNonNull(remappingFunction);
+        Objects.requireNonNull(value);
+        return computeWithKeyLock(key, observed -> {
+            V newValue = observed == ABSENT || observed == null ? value
+                    : remappingFunction.apply(cast(observed), value);
             if (newValue == null) {
-                remove(key);
-            } else {
-                put(key, newValue);
+                return observed == ABSENT ? KEEP : REMOVE;
             }
             return newValue;
-        } finally {
-            dataWriteLock.unlock();
-        }
+        });
     }
 
-
-    @Override
+    /**
+     * 持有key锁执行复合操作：函数在写锁之外执行，只阻塞同一key锁上的其他复合操作，
+     * 写锁只在写入结果时短暂持有。计算期间key被其他线程的put等普通写操作修改时，在key锁内按最新的值重新计算，
+     * 因此函数可能被调用多次；函数自身修改同一个key时抛出IllegalStateException。
+     * 当前线程已持有写锁时（例如在replaceAll的函数内）直接在写锁内计算，不获取key锁，
+     * 避免与持有key锁、等待写锁的线程死锁。
+     *
+     * @param key       键
+     * @param remapping 根据当前值计算结果，返回KEEP表示不修改，返回REMOVE表示删除
+     * @return 操作后的值
+     */
+    private V computeWithKeyLock(K key, Remapping remapping) {
+        if (readWriteLock.isWriteLockedByCurrentThread()) {
+            try {
+                lockWrite();
+                Object observed = lookup(key);
+                return applyRemapping(key, observed, remapping.apply(observed));
+            } finally {
+                unlockWrite();
+            }
+        }
+        int stripe = keyStripe(key);
+        Lock keyLock = keyLocks()[stripe];
+        keyLock.lock();
+        try {
+            while (true) {
+                Object observed = lookup(key);
+                Object previousKey = computingKeys[stripe];
+                computingKeys[stripe] = key;
+                Object result;
+                try {
+                    result = remapping.apply(observed);
+                } finally {
+                    computingKeys[stripe] = previousKey;
+                }
+                try {
+                    lockWrite();
+                    if (lookup(key) == observed) {
+                        return applyRemapping(key, observed, result);
+                    }
+                } finally {
+                    unlockWrite();
+                }
+            }
+        } finally {
+            keyLock.unlock();
+        }
+    }
+
+    /**
+     * 在写锁内写入复合操作的结果
+     */
+    private V applyRemapping(K key, Object observed, Object result) {
+        if (result == KEEP) {
+            return observed == ABSENT ? null : cast(observed);
+        }
+        if (result == REMOVE) {
+            remove(key);
+            return null;
+        }
+        V newValue = cast(result);
+        put(key, newValue);
+        return newValue;
+    }
+
+    /**
+     * 读取key当前的值
+     *
+     * @param key 键
+     * @return 当前的值；key不存在或已过期时返回ABSENT
+     */
+    private Object lookup(Object key) {
+        try {
+            dataReadLock.lock();
+            if (!this.dataHashMap.containsKey(key) || isExpired(key, currentTimestamp())) {
+                return ABSENT;
+            }
+            return this.dataHashMap.get(key);
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    /**
+     * key锁数组，在第一次复合操作时创建
+     */
+    private ReentrantLock[] keyLocks() {
+        ReentrantLock[] locks = this.keyLocks;
+        if (locks == null) {
+            synchronized (keyLocksMonitor) {
+                locks = this.keyLocks;
+                if (locks == null) {
+                    Object[] keys = new Object[KEY_LOCK_STRIPES];
+                    Arrays.fill(keys, ABSENT);
+                    this.computingKeys = keys;
+                    locks = new ReentrantLock[KEY_LOCK_STRIPES];
+                    for (int i = 0; i < locks.length; i++) {
+                        locks[i] = new ReentrantLock();
+                    }
+                    //computingKeys在volatile写之前赋值，读到keyLocks的线程一定能读到它
+                    this.keyLocks = locks;
+                }
+            }
+        }
+        return locks;
+    }
+
+    private static int keyStripe(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        return (h ^ (h >>> 16)) & (KEY_LOCK_STRIPES - 1);
+    }
+
+    /**
+     * 当前线程正在为key执行复合操作的函数时，函数内修改同一个key会让复合操作不断重新计算，直接抛出异常
+     */
+    private void checkRecursiveUpdate(Object key) {
+        ReentrantLock[] locks = this.keyLocks;
+        if (locks == null) {
+            return;
+        }
+        int stripe = keyStripe(key);
+        if (locks[stripe].isHeldByCurrentThread() && computingKeys[stripe] != ABSENT
+                && Objects.equals(computingKeys[stripe], key)) {
+            throw new IllegalStateException("Recursive update");
+        }
+    }
+
+    /**
+     * 当前线程正在执行任何复合操作的函数时，不允许修改所有key的操作
+     */
+    private void checkRecursiveUpdate() {
+        ReentrantLock[] locks = this.keyLocks;
+        if (locks == null) {
+            return;
+        }
+        for (int i = 0; i < locks.length; i++) {
+            if (locks[i].isHeldByCurrentThread() && computingKeys[i] != ABSENT) {
+                throw new IllegalStateException("Recursive update");
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> V cast(Object value) {
+        return (V) value;
+    }
+
+    @FunctionalInterface
+    private interface Remapping {
+        Object apply(Object observed);
+    }
+
+    @Override
     public Long expire(K key, Long ms) {
         return this.expire(key, ms, null);
     }
@@ -754,66 +1318,39 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         if (ms < 0) {
             throw new IllegalArgumentException("ms must be greater than or equal to 0");
         }
+        //先删除过期数据，已过期的key不能再续期
+        this.clearExpireData("expire");
         try {
-            dataWriteLock.lock();
-            if (!this.dataHashMap.containsKey(key)) {
+            lockWrite();
+            long curTimestamp = currentTimestamp();
+            if (!this.dataHashMap.containsKey(key) || isExpired(key, curTimestamp)) {
                 return null;
             }
 
-            //判断是否已经设置过过期时间
-            Long expireTime = this.keyExpireMap.get(key);
+            //未传入回调时沿用之前设置的回调
+            TimerWheel.Node<K, V> previousNode = this.expireWheel.get(key);
             ExpireCallback<K, V> effectiveCallback = callback != null
                     ? callback
-                    : this.keyExpireCallbackMap.get(key);
-            ScheduledFuture<?> previousFuture = this.keyExpireFutureMap.remove(key);
-            if (previousFuture != null) {
-                previousFuture.cancel(false);
-            }
-            if (expireTime != null) {
-                //清除之前设置的过期时间
-                this.keyExpireMap.remove(key);
-                List<K> keys = this.expireKeysMap.get(expireTime);
-                if (keys != null) {
-                    keys.remove(key);
-                    if (keys.isEmpty()) {
-                        this.expireKeysMap.remove(expireTime);
-                    }
-                }
-            }
-            //使用nanoTime消除系统时间的影响，转成毫秒存储降低timeKey数量,过期时间精确到毫秒级别
-            expireTime = saturatedAdd(System.nanoTime() / ONE_MILLION, ms);
-            this.keyExpireMap.put(key, expireTime);
-            List<K> keys = this.expireKeysMap.get(expireTime);
-            if (keys == null) {
-                keys = new ArrayList<>();
-                keys.add(key);
-                this.expireKeysMap.put(expireTime, keys);
-            } else {
-                keys.add(key);
+                    : (previousNode != null ? previousNode.callback : null);
+            //使用nanoTime消除系统时间的影响，过期时间精确到毫秒级别
+            long expireTime = saturatedAdd(curTimestamp, ms);
+            //假定系统时间不修改前提下的过期时间
+            long deadline = saturatedAdd(System.currentTimeMillis(), ms);
+            prepareLogExpire(key, deadline);
+            this.expireWheel.schedule(key, expireTime, effectiveCallback);
+            if (expireTime < this.nextExpireTime) {
+                this.nextExpireTime = expireTime;
             }
             if (effectiveCallback != null) {
-                //设置的过期回调函数
-                this.keyExpireCallbackMap.put(key, effectiveCallback);
-                WeakReference<FastMap<K, V>> mapReference = new WeakReference<>(this);
-                ScheduledFuture<?> future = this.scheduledExecutorService.schedule(() -> {
-                    FastMap<K, V> map = mapReference.get();
-                    if (map != null) {
-                        try {
-                            map.clearExpireData("keyExpireCallback");
-                        } catch (Throwable throwable) {
-                            reportBackgroundFailure("key expiration cleanup failed", throwable);
-                        }
-                    }
-                }, ms, TimeUnit.MILLISECONDS);
-                this.keyExpireFutureMap.put(key, future);
-            } else {
-                this.keyExpireCallbackMap.remove(key);
+                //带回调的key需要准时过期，必要时提前唤醒清理线程
+                this.expireCallbackPending = true;
+                wakeUpSweeper(expireTime);
             }
 
-            //假定系统时间不修改前提下的过期时间
-            return saturatedAdd(System.currentTimeMillis(), ms);
+            commitLog();
+            return deadline;
         } finally {
-            dataWriteLock.unlock();
+            unlockWrite();
         }
     }
 
@@ -822,127 +1359,728 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         if (!enableExpire) {
             throw new RuntimeException("未启用过期功能");
         }
-        this.clearExpireData("ttl");
+        long curTimestamp = currentTimestamp();
+        Long ttl;
         try {
             dataReadLock.lock();
-            if (!this.dataHashMap.containsKey(key)) {
-                return null;
-            }
-            Long expireTime = this.keyExpireMap.get(key);
-            if (expireTime == null) {
-                return null;
+            TimerWheel.Node<K, V> node = this.expireWheel.get(key);
+            if (node == null || node.deadline <= curTimestamp
+                    || !this.dataHashMap.containsKey(key)) {
+                ttl = null;
+            } else {
+                ttl = node.deadline - curTimestamp;
             }
-            return (expireTime - System.nanoTime() / ONE_MILLION);
         } finally {
             dataReadLock.unlock();
         }
+        this.tryClearExpireData("ttl");
+        return ttl;
+    }
+
+    @Override
+    public FastMapStats stats() {
+        if (statsCounter == null) {
+            return FastMapStats.empty();
+        }
+        return statsCounter.snapshot(callbackQueueSize(), callbackRejectedCount());
     }
 
     /**
-     * 清理过期的数据
-     * 调用时机：
-     * 1.调用FastMap相关查询接口
-     * 2.每秒定时调用
-     * 3.设置了过期回调函数的key的延时任务调用
+     * 把当前数据写入快照文件：在读锁内一次性取得所有未过期数据的引用，释放读锁后再序列化写入，
+     * 写入期间不阻塞其他读写操作。剩余存活时间按系统时间换算为过期时刻保存，过期回调不会保存。
+     *
+     * @param file            快照文件，先写入同目录的临时文件再原子替换
+     * @param keySerializer   key序列化器
+     * @param valueSerializer value序列化器
+     * @return 写入的数据条数
+     * @throws IOException 写入失败
      */
-    private void clearExpireData(String flag) {
-        if (!enableExpire) {
-            return;
-        }
-        Long curTimestamp = System.nanoTime() / ONE_MILLION;
-        List<ExpiredEntry<K, V>> expiredEntries = new ArrayList<>();
+    public int saveSnapshot(Path file, Serializer<? super K> keySerializer,
+                            Serializer<? super V> valueSerializer) throws IOException {
+        Objects.requireNonNull(file, "file");
+        Objects.requireNonNull(keySerializer, "keySerializer");
+        Objects.requireNonNull(valueSerializer, "valueSerializer");
+        SnapshotFile.Contents<K, V> contents;
         try {
-            dataWriteLock.lock();
-            NavigableMap<Long, List<K>> expiredKeysMap =
-                    this.expireKeysMap.headMap(curTimestamp, true);
-            List<Long> expiredTimes = new ArrayList<>(expiredKeysMap.keySet());
-            for (Long expireTime : expiredTimes) {
-                List<K> storedKeys = this.expireKeysMap.get(expireTime);
-                if (storedKeys == null) {
-                    continue;
-                }
-                for (K key : new ArrayList<>(storedKeys)) {
-                    if (!Objects.equals(this.keyExpireMap.get(key), expireTime)) {
+            dataReadLock.lock();
+            contents = snapshotContents();
+        } finally {
+            dataReadLock.unlock();
+        }
+        SnapshotFile.write(file, contents, keySerializer, valueSerializer);
+        return contents.size();
+    }
+
+    /**
+     * 取得所有未过期数据的引用和过期时刻（调用方需持有读锁或写锁）
+     */
+    private SnapshotFile.Contents<K, V> snapshotContents() {
+        long curTimestamp = currentTimestamp();
+        long wallClock = System.currentTimeMillis();
+        Map<K, V> source = enableSort ? this.dataTreeMap : this.dataHashMap;
+        SnapshotFile.Contents<K, V> contents = new SnapshotFile.Contents<>(source.size(), enableSort, wallClock);
+        for (Map.Entry<K, V> entry : source.entrySet()) {
+            K key = entry.getKey();
+            long deadline = SnapshotFile.NO_DEADLINE;
+            if (enableExpire) {
+                TimerWheel.Node<K, V> node = this.expireWheel.get(key);
+                if (node != null) {
+                    if (node.deadline <= curTimestamp) {
                         continue;
                     }
-                    boolean existed = this.dataHashMap.containsKey(key);
-                    V value = this.dataHashMap.remove(key);
-                    if (enableSort) {
-                        this.dataTreeMap.remove(key);
-                    }
-                    ExpireCallback<K, V> callback = this.keyExpireCallbackMap.remove(key);
-                    ScheduledFuture<?> future = this.keyExpireFutureMap.remove(key);
-                    if (future != null) {
-                        future.cancel(false);
-                    }
-                    this.keyExpireMap.remove(key);
-                    if (existed && callback != null) {
-                        expiredEntries.add(new ExpiredEntry<>(key, value, callback));
+                    deadline = saturatedAdd(wallClock, node.deadline - curTimestamp);
+                }
+            }
+            contents.add(key, entry.getValue(), deadline);
+        }
+        return contents;
+    }
+
+    /**
+     * 从快照文件加载数据，已经过期的数据被跳过，剩余的存活时间按系统时间恢复。
+     * <p>
+     * 排序模式下向空Map加载按key顺序保存的快照时，直接按顺序以O(n)构建排序索引，不做逐条比较；
+     * Map非空、设置了容量上限或快照顺序与排序器不一致时，按putAll逐条写入。
+     * 快照校验失败时抛出异常，不写入任何数据。
+     * </p>
+     *
+     * @param file            快照文件
+     * @param keySerializer   key序列化器
+     * @param valueSerializer value序列化器
+     * @return 加载的数据条数
+     * @throws IOException 读取失败或文件损坏
+     */
+    public int loadSnapshot(Path file, Serializer<? extends K> keySerializer,
+                            Serializer<? extends V> valueSerializer) throws IOException {
+        Objects.requireNonNull(file, "file");
+        Objects.requireNonNull(keySerializer, "keySerializer");
+        Objects.requireNonNull(valueSerializer, "valueSerializer");
+        SnapshotFile.Contents<K, V> contents = SnapshotFile.read(file, keySerializer, valueSerializer);
+        int size = contents.size();
+        boolean hasDeadline = false;
+        List<Map.Entry<K, V>> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(contents.key(i), contents.value(i)));
+            hasDeadline |= contents.deadline(i) != SnapshotFile.NO_DEADLINE;
+        }
+        if (hasDeadline && !enableExpire) {
+            throw new RuntimeException("未启用过期功能");
+        }
+
+        this.clearExpireData("loadSnapshot");
+        try {
+            lockWrite();
+            if (enableSort && evictionPolicy == null && this.dataHashMap.isEmpty()
+                    && contents.sorted && isStrictlyAscending(entries)) {
+                prepareLogPutAll(entries);
+                this.dataTreeMap.buildFromSorted(entries);
+                if (dualIndex) {
+                    for (Map.Entry<K, V> entry : entries) {
+                        this.dataHashMap.put(entry.getKey(), entry.getValue());
                     }
                 }
-                this.expireKeysMap.remove(expireTime);
+                commitLog();
+                recordPuts(size);
+            } else {
+                Map<K, V> batch = new LinkedHashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+                for (Map.Entry<K, V> entry : entries) {
+                    batch.put(entry.getKey(), entry.getValue());
+                }
+                putAll(batch);
+            }
+            if (hasDeadline) {
+                restoreDeadlines(contents);
+            }
+            return size;
+        } finally {
+            unlockWrite();
+        }
+    }
+
+    /**
+     * 按快照中的过期时刻（系统时间）恢复过期时间，加载时被淘汰的key跳过（调用方需持有写锁）
+     */
+    private void restoreDeadlines(SnapshotFile.Contents<K, V> contents) {
+        long curTimestamp = currentTimestamp();
+        long wallClock = System.currentTimeMillis();
+        for (int i = 0; i < contents.size(); i++) {
+            long deadline = contents.deadline(i);
+            K key = contents.key(i);
+            if (deadline == SnapshotFile.NO_DEADLINE || !this.dataHashMap.containsKey(key)) {
+                continue;
+            }
+            long expireTime = saturatedAdd(curTimestamp, Math.max(0L, deadline - wallClock));
+            prepareLogExpire(key, deadline);
+            this.expireWheel.schedule(key, expireTime, null);
+            commitLog();
+            if (expireTime < this.nextExpireTime) {
+                this.nextExpireTime = expireTime;
+            }
+        }
+    }
+
+    /**
+     * 数据是否按排序器严格升序排列
+     */
+    private boolean isStrictlyAscending(List<Map.Entry<K, V>> entries) {
+        for (int i = 1; i < entries.size(); i++) {
+            if (compareKeys(entries.get(i - 1).getKey(), entries.get(i).getKey()) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 立即把写前日志中尚未写入的记录写入文件并fsync
+     *
+     * @throws IOException 写入失败
+     */
+    public void syncLog() throws IOException {
+        requireLog().sync();
+    }
+
+    /**
+     * 压缩写前日志：把当前数据写成新的快照，删除之前的快照和日志段，返回时压缩已完成。
+     * 日志累计超过FastMapBuilder.logCompactionThreshold时会在后台自动压缩。
+     *
+     * @throws IOException 写入失败
+     */
+    public void compactLog() throws IOException {
+        WriteAheadLog<K, V> log = requireLog();
+        log.compactionLock.lock();
+        try {
+            if (log.isClosed()) {
+                return;
             }
+            //日志只在写锁内追加，持有读锁即可挡住写操作：快照恰好包含新日志段之前的全部修改，读操作不受影响；
+            //fsync在读锁之外完成，读锁内只取得数据的引用
+            List<SnapshotFile.Contents<K, V>> captured = new ArrayList<>(1);
+            long generation = log.rotate(dataReadLock, () -> captured.add(snapshotContents()));
+            SnapshotFile.Contents<K, V> contents = captured.get(0);
+            SnapshotFile.write(log.snapshotFile(generation), contents, log.keySerializer, log.valueSerializer);
+            log.deleteBefore(generation);
         } finally {
-            dataWriteLock.unlock();
+            log.compactionLock.unlock();
+        }
+    }
+
+    /**
+     * 写入剩余的日志记录并关闭写前日志，停止后台刷盘线程。关闭后Map仍可使用，但修改不再写入日志。
+     *
+     * @throws IOException 写入失败
+     */
+    public void closeLog() throws IOException {
+        requireLog().close();
+    }
+
+    private WriteAheadLog<K, V> requireLog() {
+        if (this.writeAheadLog == null) {
+            throw new RuntimeException("未启用写前日志");
+        }
+        return this.writeAheadLog;
+    }
+
+    /**
+     * 后台压缩任务，由写前日志在累计写入超过阈值时提交
+     */
+    private void compactInBackground() {
+        try {
+            compactLog();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 在修改索引之前准备日志记录，序列化失败时直接抛出，索引保持不变；修改成功后调用commitLog追加
+     */
+    private void prepareLogPut(K key, V value) {
+        if (this.writeAheadLog != null) {
+            this.writeAheadLog.preparePut(key, value);
+        }
+    }
+
+    private void prepareLogRemove(Object key) {
+        if (this.writeAheadLog != null) {
+            this.writeAheadLog.prepareRemove(key);
+        }
+    }
+
+    private void prepareLogPutAll(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        if (this.writeAheadLog != null) {
+            this.writeAheadLog.preparePutAll(entries);
+        }
+    }
+
+    private void prepareLogExpire(K key, long deadline) {
+        if (this.writeAheadLog != null) {
+            this.writeAheadLog.prepareExpire(key, deadline);
+        }
+    }
+
+    private void prepareLogClear() {
+        if (this.writeAheadLog != null) {
+            this.writeAheadLog.prepareClear();
+        }
+    }
+
+    private void commitLog() {
+        if (this.writeAheadLog != null && this.writeAheadLog.commitPrepared()) {
+            this.logAppended = true;
         }
+    }
+
+    /**
+     * 监控指标，由FastMapRegistry读取
+     *
+     * @return 本实例的指标
+     */
+    MapMetrics metrics() {
+        return new MapMetrics() {
+            @Override
+            public long estimatedSize() {
+                return FastMap.this.estimatedSize();
+            }
 
-        for (ExpiredEntry<K, V> entry : expiredEntries) {
-            callbackExecutor.execute(() -> {
+            @Override
+            public long pendingExpirations() {
+                if (!enableExpire) {
+                    return 0L;
+                }
                 try {
-                    entry.callback.onExpire(entry.key, entry.value);
-                } catch (Throwable throwable) {
-                    reportBackgroundFailure("expiration callback failed", throwable);
+                    dataReadLock.lock();
+                    return expireWheel.size();
+                } finally {
+                    dataReadLock.unlock();
                 }
-            });
+            }
+
+            @Override
+            public long lastSweepNanos() {
+                return sweepStats.lastSweepNanos();
+            }
+
+            @Override
+            public long totalSweepNanos() {
+                return sweepStats.totalSweepNanos();
+            }
+
+            @Override
+            public long sweepCount() {
+                return sweepStats.sweepCount();
+            }
+
+            @Override
+            public long estimatedMemoryBytes() {
+                long entryBytes = dualIndex ? HASH_AND_TREE_ENTRY_BYTES
+                        : enableSort ? SKIP_LIST_ENTRY_BYTES : LINKED_ENTRY_BYTES;
+                if (evictionPolicy != null) {
+                    entryBytes += EVICTION_ENTRY_BYTES;
+                }
+                long size = estimatedSize();
+                return size * entryBytes + pendingExpirations() * EXPIRE_ENTRY_BYTES;
+            }
+
+            @Override
+            public long weightedSize() {
+                if (evictionPolicy == null) {
+                    return -1L;
+                }
+                try {
+                    dataReadLock.lock();
+                    return evictionPolicy.weightedSize();
+                } finally {
+                    dataReadLock.unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * 清理过期的数据，存在到期数据时阻塞等待写锁
+     * 调用时机：
+     * 1.调用FastMap相关写入接口及size、范围查询等需要精确结果的接口
+     * 2.每秒定时调用
+     * 3.设置了过期回调函数的key的延时任务调用
+     */
+    private void clearExpireData(String flag) {
+        clearExpireData(flag, true);
+    }
+
+    /**
+     * 尝试清理过期的数据，写锁被占用时直接放弃。
+     * 用于get等点查询：读路径已按截止时间惰性过滤过期数据，物理删除交给其他时机完成。
+     */
+    private void tryClearExpireData(String flag) {
+        clearExpireData(flag, false);
+    }
+
+    private void clearExpireData(String flag, boolean waitForLock) {
+        if (!enableExpire) {
+            return;
+        }
+        long curTimestamp = currentTimestamp();
+        boolean remaining;
+        do {
+            //没有到期数据时不获取写锁
+            if (curTimestamp < this.nextExpireTime) {
+                return;
+            }
+            if (waitForLock) {
+                lockWrite();
+            } else if (!tryLockWrite()) {
+                return;
+            }
+            try {
+                expireEntries(curTimestamp, false);
+                remaining = this.expireWheel.hasExpired();
+            } finally {
+                unlockWrite();
+            }
+            //分批删除，批次之间释放写锁让读操作插入；点查询只顺带清理一批
+        } while (remaining && waitForLock);
+    }
+
+    /**
+     * 清理线程调用：清理一批过期的数据，剩余的到期数据留到下一轮
+     *
+     * @return 删除的key数量
+     */
+    int sweepExpiredData() {
+        long curTimestamp = currentTimestamp();
+        if (curTimestamp < this.nextExpireTime) {
+            return 0;
+        }
+        try {
+            lockWrite();
+            return expireEntries(curTimestamp, true);
+        } finally {
+            unlockWrite();
         }
     }
 
-    private void removeExpireMetadata(Object key) {
-        ScheduledFuture<?> future = this.keyExpireFutureMap.remove(key);
-        if (future != null) {
-            future.cancel(false);
+    /**
+     * 清理线程下次需要清理本实例的时间（毫秒）。
+     * 没有带回调的key时允许延迟清理未来的截止时间，读操作已按截止时间惰性过滤过期数据；
+     * 到期队列中还有上一批没删完的数据时立即继续，不再等待延迟。
+     */
+    long nextSweepTime() {
+        long next = this.nextExpireTime;
+        if (this.expireCallbackPending || this.expireBacklog) {
+            return next;
         }
-        Long expireTime = this.keyExpireMap.remove(key);
-        this.keyExpireCallbackMap.remove(key);
-        if (expireTime == null) {
+        return saturatedAdd(next, ExpirationSweeper.LAZY_SWEEP_DELAY_MS);
+    }
+
+    /**
+     * 删除一批到期的数据（调用方需持有写锁），数量和耗时受expireBatchSize和expireBatchNanos限制，
+     * 剩余的到期数据留在时间轮的到期队列中
+     *
+     * @param curTimestamp 当前时间（毫秒）
+     * @param bySweeper    是否由清理线程调用
+     * @return 删除的key数量
+     */
+    private int expireEntries(long curTimestamp, boolean bySweeper) {
+        this.expireWheel.advance(curTimestamp);
+        long startNanos = System.nanoTime();
+        int count = 0;
+        TimerWheel.Node<K, V> node;
+        while (count < this.expireBatchSize && (node = this.expireWheel.pollExpired()) != null) {
+            expireEntry(node);
+            count++;
+            //每64个key检查一次耗时，避免频繁调用nanoTime
+            if ((count & 63) == 0 && System.nanoTime() - startNanos >= this.expireBatchNanos) {
+                break;
+            }
+        }
+        this.nextExpireTime = this.expireWheel.nextDeadline();
+        this.expireCallbackPending = this.expireWheel.callbackCount() > 0;
+        this.expireBacklog = this.expireWheel.hasExpired();
+        if (statsCounter != null && count > 0) {
+            statsCounter.recordExpirations(count, bySweeper, System.nanoTime() - startNanos);
+        }
+        return count;
+    }
+
+    /**
+     * 删除一个到期节点对应的数据（调用方需持有写锁）
+     */
+    private void expireEntry(TimerWheel.Node<K, V> node) {
+        K key = node.key;
+        boolean existed = this.dataHashMap.containsKey(key);
+        V value = this.dataHashMap.remove(key);
+        if (dualIndex) {
+            this.dataTreeMap.remove(key);
+        }
+        if (existed) {
+            recordRemove(key);
+            ExpireCallback<K, V> callback = node.callback;
+            RemovalListener<? super K, ? super V> listener = this.removalListener;
+            if (callback != null && listener != null) {
+                //同一个任务中先执行过期回调再通知移除监听器，回调抛出异常时监听器仍会收到通知
+                addPendingNotification(() -> {
+                    try {
+                        callback.onExpire(key, value);
+                    } finally {
+                        listener.onRemoval(key, value, RemovalCause.EXPIRED);
+                    }
+                });
+            } else if (callback != null) {
+                addPendingNotification(() -> callback.onExpire(key, value));
+            } else {
+                notifyRemoval(key, value, RemovalCause.EXPIRED);
+            }
+        }
+    }
+
+    /**
+     * 获取写锁，启用统计时记录最外层获取写锁的等待时间
+     */
+    private void lockWrite() {
+        if (statsCounter == null || readWriteLock.isWriteLockedByCurrentThread()) {
+            dataWriteLock.lock();
             return;
         }
-        List<K> keys = this.expireKeysMap.get(expireTime);
-        if (keys != null) {
-            keys.remove(key);
-            if (keys.isEmpty()) {
-                this.expireKeysMap.remove(expireTime);
+        long startNanos = System.nanoTime();
+        dataWriteLock.lock();
+        this.writeLockAcquiredNanos = System.nanoTime();
+        statsCounter.recordLockWait(this.writeLockAcquiredNanos - startNanos);
+    }
+
+    /**
+     * 尝试获取写锁，写锁被占用时直接返回false
+     */
+    private boolean tryLockWrite() {
+        if (!dataWriteLock.tryLock()) {
+            return false;
+        }
+        if (statsCounter != null && readWriteLock.getWriteHoldCount() == 1) {
+            this.writeLockAcquiredNanos = System.nanoTime();
+            statsCounter.recordLockWait(0L);
+        }
+        return true;
+    }
+
+    /**
+     * 释放写锁。最外层释放时，在锁外派发写锁内积攒的过期回调和移除通知，并按刷盘策略等待写前日志刷盘。
+     */
+    private void unlockWrite() {
+        List<Runnable> notifications = null;
+        long logSequence = 0L;
+        if (readWriteLock.getWriteHoldCount() == 1) {
+            if (!this.pendingNotifications.isEmpty()) {
+                notifications = this.pendingNotifications;
+                this.pendingNotifications = new ArrayList<>();
+            }
+            if (statsCounter != null) {
+                statsCounter.recordLockHold(System.nanoTime() - this.writeLockAcquiredNanos);
+            }
+            if (this.logAppended) {
+                logSequence = this.writeAheadLog.lastSequence();
+                this.logAppended = false;
+            }
+        }
+        dataWriteLock.unlock();
+        if (notifications != null) {
+            for (Runnable notification : notifications) {
+                dispatchNotification(notification);
             }
         }
+        if (logSequence != 0L) {
+            //释放写锁之后再等待刷盘，并发的写操作合并为一次fsync
+            this.writeAheadLog.awaitDurable(logSequence);
+        }
     }
 
-    private List<Map.Entry<K, V>> entrySnapshot() {
-        clearExpireData("entrySnapshot");
-        try {
-            dataReadLock.lock();
-            Map<K, V> source = enableSort ? dataTreeMap : dataHashMap;
-            List<Map.Entry<K, V>> snapshot = new ArrayList<>(source.size());
-            for (Map.Entry<K, V> entry : source.entrySet()) {
-                snapshot.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+    /**
+     * 登记一个待派发的通知（调用方需持有写锁）
+     */
+    private void addPendingNotification(Runnable notification) {
+        this.pendingNotifications.add(notification);
+    }
+
+    /**
+     * 登记数据被自动移除的通知（调用方需持有写锁）
+     */
+    private void notifyRemoval(K key, V value, RemovalCause cause) {
+        RemovalListener<? super K, ? super V> listener = this.removalListener;
+        if (listener != null) {
+            addPendingNotification(() -> listener.onRemoval(key, value, cause));
+        }
+    }
+
+    /**
+     * 计算数据权重，未限制容量时不计算
+     */
+    private long weigh(K key, V value) {
+        if (evictionPolicy == null) {
+            return 0L;
+        }
+        if (weigher == null) {
+            return 1L;
+        }
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must be greater than or equal to 0");
+        }
+        return weight;
+    }
+
+    /**
+     * 把写入记录交给淘汰策略（调用方需持有写锁）
+     */
+    private void recordWrite(K key, long weight, boolean existed) {
+        if (evictionPolicy == null) {
+            return;
+        }
+        if (existed) {
+            evictionPolicy.recordUpdate(key, weight);
+        } else {
+            evictionPolicy.recordInsert(key, weight);
+        }
+    }
+
+    /**
+     * 把删除记录交给淘汰策略（调用方需持有写锁）
+     */
+    @SuppressWarnings("unchecked")
+    private void recordRemove(Object key) {
+        if (evictionPolicy != null) {
+            evictionPolicy.recordRemove((K) key);
+        }
+    }
+
+    /**
+     * 记录写入次数
+     */
+    private void recordPuts(int count) {
+        if (statsCounter != null) {
+            statsCounter.recordPuts(count);
+        }
+    }
+
+    /**
+     * 记录一次主动删除
+     */
+    private void recordRemoval(boolean existed) {
+        if (existed && statsCounter != null) {
+            statsCounter.recordRemoval();
+        }
+    }
+
+    /**
+     * 记录一次读访问，只写入无锁缓冲区，不获取任何锁
+     */
+    private void recordAccess(Object key) {
+        if (accessBuffer != null) {
+            accessBuffer.offer(key);
+        }
+    }
+
+    /**
+     * 回放读访问记录，并淘汰超出容量的数据（调用方需持有写锁）
+     */
+    private void evictEntries() {
+        if (evictionPolicy == null) {
+            return;
+        }
+        accessBuffer.drainTo(evictionPolicy::recordAccess);
+        while (evictionPolicy.weightedSize() > maximumWeight) {
+            K victim = evictionPolicy.victim();
+            V value = this.dataHashMap.remove(victim);
+            if (dualIndex) {
+                this.dataTreeMap.remove(victim);
             }
-            return snapshot;
-        } finally {
-            dataReadLock.unlock();
+            if (enableExpire) {
+                removeExpireMetadata(victim);
+            }
+            evictionPolicy.recordRemove(victim);
+            if (statsCounter != null) {
+                statsCounter.recordEviction();
+            }
+            notifyRemoval(victim, value, RemovalCause.SIZE);
         }
     }
 
-    private abstract class SnapshotIterator<T> implements Iterator<T> {
-        private final Iterator<Map.Entry<K, V>> iterator = entrySnapshot().iterator();
+    /**
+     * 判断key是否已到期（调用方需持有读锁或写锁）。
+     * 到期但尚未被清理的数据对读操作不可见。
+     */
+    private boolean isExpired(Object key, long curTimestamp) {
+        if (!enableExpire || curTimestamp < this.nextExpireTime) {
+            return false;
+        }
+        TimerWheel.Node<K, V> node = this.expireWheel.get(key);
+        return node != null && node.deadline <= curTimestamp;
+    }
+
+    /**
+     * 当前时间戳（毫秒），基于nanoTime，不受系统时间修改影响
+     */
+    static long currentTimestamp() {
+        return System.nanoTime() / ONE_MILLION;
+    }
+
+    private void removeExpireMetadata(Object key) {
+        this.expireWheel.remove(key);
+    }
+
+    /**
+     * 遍历所有未过期的数据，分批在读锁内读取，不复制整个Map
+     */
+    private BatchCursor entryCursor() {
+        this.tryClearExpireData("iterator");
+        if (enableSort) {
+            return new RangeCursor(null, false, null, false);
+        }
+        return new LinkedCursor();
+    }
+
+    /**
+     * 弱一致的分批游标：每批在读锁内最多读取CURSOR_BATCH_SIZE条，批次之间释放读锁，
+     * 遍历期间的修改可能可见也可能不可见，不会抛出ConcurrentModificationException
+     */
+    private abstract class BatchCursor implements Iterator<Map.Entry<K, V>> {
+        private Iterator<Map.Entry<K, V>> batch = Collections.emptyIterator();
+        private int batchSize;
+        private boolean exhausted;
         private K currentKey;
         private boolean canRemove;
 
+        /**
+         * 在读锁内读取下一批数据
+         *
+         * @return 下一批数据，少于CURSOR_BATCH_SIZE条表示已读完
+         */
+        abstract List<Map.Entry<K, V>> readBatch();
+
         @Override
         public boolean hasNext() {
-            return iterator.hasNext();
+            while (!batch.hasNext() && !exhausted) {
+                List<Map.Entry<K, V>> entries = readBatch();
+                exhausted = entries.size() < CURSOR_BATCH_SIZE;
+                batchSize = entries.size();
+                batch = entries.iterator();
+            }
+            return batch.hasNext();
         }
 
-        protected Map.Entry<K, V> nextEntry() {
-            Map.Entry<K, V> entry = iterator.next();
+        /**
+         * 尚未遍历的游标中的数据量，读取第一批即读完时才能确定
+         *
+         * @return 数据量；第一批已满、还有后续批次时返回-1
+         */
+        long knownSize() {
+            return hasNext() && !exhausted ? -1L : batchSize;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry = batch.next();
             currentKey = entry.getKey();
             canRemove = true;
             return entry;
@@ -958,10 +2096,100 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         }
     }
 
+    /**
+     * 范围游标：下一批从上一批的最后一个key之后重新定位，O(log n)
+     */
+    private final class RangeCursor extends BatchCursor {
+        private final K toKey;
+        private final boolean toInclusive;
+        private K nextFromKey;
+        private boolean nextFromInclusive;
+
+        private RangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+            this.nextFromKey = fromKey;
+            this.nextFromInclusive = fromInclusive;
+            this.toKey = toKey;
+            this.toInclusive = toInclusive;
+            //立即读取第一批，非法的范围在创建时抛出异常
+            hasNext();
+        }
+
+        @Override
+        List<Map.Entry<K, V>> readBatch() {
+            List<Map.Entry<K, V>> entries = readRange(nextFromKey, nextFromInclusive, toKey, toInclusive,
+                    0, CURSOR_BATCH_SIZE);
+            if (!entries.isEmpty()) {
+                nextFromKey = entries.get(entries.size() - 1).getKey();
+                nextFromInclusive = false;
+            }
+            return entries;
+        }
+    }
+
+    /**
+     * 未排序模式的游标：记住上一批停留的节点，下一批沿插入顺序链表继续，O(1)
+     */
+    private final class LinkedCursor extends BatchCursor {
+        private LinkedHashIndex.Node<K, V> last;
+
+        @Override
+        List<Map.Entry<K, V>> readBatch() {
+            try {
+                dataReadLock.lock();
+                long curTimestamp = currentTimestamp();
+                List<Map.Entry<K, V>> entries = new ArrayList<>(CURSOR_BATCH_SIZE);
+                LinkedHashIndex.Node<K, V> node = last == null
+                        ? ((LinkedHashIndex<K, V>) dataHashMap).first() : LinkedHashIndex.successor(last);
+                while (node != null) {
+                    last = node;
+                    if (!isExpired(node.key, curTimestamp)) {
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+                        if (entries.size() == CURSOR_BATCH_SIZE) {
+                            break;
+                        }
+                    }
+                    node = LinkedHashIndex.successor(node);
+                }
+                return entries;
+            } finally {
+                dataReadLock.unlock();
+            }
+        }
+    }
+
+    private abstract class ViewIterator<T> implements Iterator<T> {
+        private final BatchCursor cursor = entryCursor();
+
+        @Override
+        public boolean hasNext() {
+            return cursor.hasNext();
+        }
+
+        protected Map.Entry<K, V> nextEntry() {
+            return cursor.next();
+        }
+
+        @Override
+        public void remove() {
+            cursor.remove();
+        }
+    }
+
+    /**
+     * 视图的Spliterator：弱一致，按批次切分给并行流
+     *
+     * @param collection      视图
+     * @param characteristics 视图本身的特征
+     */
+    private <T> Spliterator<T> viewSpliterator(Collection<T> collection, int characteristics) {
+        int ordered = enableSort ? Spliterator.ORDERED : 0;
+        return Spliterators.spliterator(collection, characteristics | ordered | Spliterator.CONCURRENT);
+    }
+
     private final class KeySetView extends AbstractSet<K> {
         @Override
         public Iterator<K> iterator() {
-            return new SnapshotIterator<K>() {
+            return new ViewIterator<K>() {
                 @Override
                 public K next() {
                     return nextEntry().getKey();
@@ -969,6 +2197,11 @@ public class FastMap<K, V> implements IFastMap<K, V> {
             };
         }
 
+        @Override
+        public Spliterator<K> spliterator() {
+            return viewSpliterator(this, Spliterator.DISTINCT | (enableSort ? Spliterator.NONNULL : 0));
+        }
+
         @Override
         public int size() {
             return FastMap.this.size();
@@ -997,7 +2230,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
     private final class ValuesView extends AbstractCollection<V> {
         @Override
         public Iterator<V> iterator() {
-            return new SnapshotIterator<V>() {
+            return new ViewIterator<V>() {
                 @Override
                 public V next() {
                     return nextEntry().getValue();
@@ -1005,6 +2238,11 @@ public class FastMap<K, V> implements IFastMap<K, V> {
             };
         }
 
+        @Override
+        public Spliterator<V> spliterator() {
+            return viewSpliterator(this, 0);
+        }
+
         @Override
         public int size() {
             return FastMap.this.size();
@@ -1017,7 +2255,8 @@ public class FastMap<K, V> implements IFastMap<K, V> {
 
         @Override
         public boolean remove(Object value) {
-            for (Map.Entry<K, V> entry : entrySnapshot()) {
+            for (Iterator<Map.Entry<K, V>> iterator = entryCursor(); iterator.hasNext(); ) {
+                Map.Entry<K, V> entry = iterator.next();
                 if (Objects.equals(entry.getValue(), value)
                         && FastMap.this.remove(entry.getKey(), entry.getValue())) {
                     return true;
@@ -1035,7 +2274,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
     private final class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
         @Override
         public Iterator<Map.Entry<K, V>> iterator() {
-            return new SnapshotIterator<Map.Entry<K, V>>() {
+            return new ViewIterator<Map.Entry<K, V>>() {
                 @Override
                 public Map.Entry<K, V> next() {
                     Map.Entry<K, V> entry = nextEntry();
@@ -1044,6 +2283,11 @@ public class FastMap<K, V> implements IFastMap<K, V> {
             };
         }
 
+        @Override
+        public Spliterator<Map.Entry<K, V>> spliterator() {
+            return viewSpliterator(this, Spliterator.DISTINCT | Spliterator.NONNULL);
+        }
+
         @Override
         public int size() {
             return FastMap.this.size();
@@ -1122,34 +2366,74 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         }
     }
 
-    private static final class ExpiredEntry<K, V> {
+
+    /**
+     * 回滚批量写入修改过的key，回滚异常作为被抑制异常附加到原始异常上
+     *
+     * @param undoLog 修改记录
+     * @param failure 原始异常
+     */
+    private void rollback(List<UndoEntry<K, V>> undoLog, Throwable failure) {
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            UndoEntry<K, V> undo = undoLog.get(i);
+            try {
+                if (undo.existed) {
+                    this.dataTreeMap.put(undo.key, undo.previousValue);
+                    if (dualIndex) {
+                        this.dataHashMap.put(undo.key, undo.previousValue);
+                    }
+                } else {
+                    this.dataTreeMap.remove(undo.key);
+                    if (dualIndex) {
+                        this.dataHashMap.remove(undo.key);
+                    }
+                }
+            } catch (RuntimeException | Error rollbackFailure) {
+                failure.addSuppressed(rollbackFailure);
+            }
+        }
+    }
+
+    private static final class UndoEntry<K, V> {
         private final K key;
-        private final V value;
-        private final ExpireCallback<K, V> callback;
+        private final boolean existed;
+        private final V previousValue;
 
-        private ExpiredEntry(K key, V value, ExpireCallback<K, V> callback) {
+        private UndoEntry(K key, boolean existed, V previousValue) {
             this.key = key;
-            this.value = value;
-            this.callback = callback;
+            this.existed = existed;
+            this.previousValue = previousValue;
         }
     }
 
-    private TreeMap<K, V> newTreeMap() {
-        return comparator == null ? new TreeMap<>() : new TreeMap<>(comparator);
+    private SortedIndex<K, V> newTreeMap() {
+        return new TreeIndex<>(comparator);
     }
 
-    private void validateSortedKey(Map<K, V> existingData, K key) {
-        for (K existingKey : existingData.keySet()) {
-            int comparison = compareKeys(existingKey, key);
-            if (comparison == 0 && !Objects.equals(existingKey, key)) {
+    /**
+     * 校验排序器与equals的一致性，只查找排序索引中与key比较相等的已有key，时间复杂度O(log n)
+     *
+     * @param hashMap 等值索引
+     * @param treeMap 排序索引
+     * @param key     待写入的key
+     */
+    private void validateSortedKey(Map<K, V> hashMap, SortedIndex<K, V> treeMap, K key) {
+        if (trustComparator) {
+            return;
+        }
+        K ceilingKey = treeMap.ceilingKey(key);
+        if (ceilingKey != null && compareKeys(ceilingKey, key) == 0) {
+            if (!Objects.equals(ceilingKey, key)) {
                 throw new IllegalArgumentException(
                         "Comparator considers different keys equal: "
-                                + existingKey + " and " + key);
-            }
-            if (comparison != 0 && Objects.equals(existingKey, key)) {
-                throw new IllegalArgumentException(
-                        "Comparator is inconsistent with equals for key: " + key);
+                                + ceilingKey + " and " + key);
             }
+            return;
+        }
+        //排序索引中没有比较相等的key，等值索引中却存在equals相等的key
+        if (hashMap.containsKey(key)) {
+            throw new IllegalArgumentException(
+                    "Comparator is inconsistent with equals for key: " + key);
         }
     }
 
@@ -1161,7 +2445,51 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         return ((Comparable<? super K>) left).compareTo(right);
     }
 
-    private static void reportBackgroundFailure(String message, Throwable throwable) {
+    /**
+     * 注册到全局过期清理线程，首次注册时启动清理线程
+     *
+     * @param target 清理入口，注册表只保存弱引用
+     */
+    static void registerExpirable(ExpirationSweeper.Target target) {
+        allExpirableFastMaps.add(new WeakReference<>(target));
+
+        //双重校验构造一个单例的过期清理线程
+        if (expirationSweeper == null) {
+            synchronized (FastMap.class) {
+                if (expirationSweeper == null) {
+                    ExpirationSweeper sweeper = new ExpirationSweeper(allExpirableFastMaps);
+                    sweeper.start();
+                    expirationSweeper = sweeper;
+                }
+            }
+        }
+    }
+
+    /**
+     * 有新的带回调截止时间时唤醒清理线程
+     *
+     * @param deadline 截止时间（毫秒）
+     */
+    static void wakeUpSweeper(long deadline) {
+        expirationSweeper.wakeUp(deadline);
+    }
+
+    /**
+     * 在回调线程池中执行过期回调或移除通知，异常交给默认异常处理器
+     *
+     * @param notification 通知
+     */
+    static void dispatchNotification(Runnable notification) {
+        callbackExecutor.execute(() -> {
+            try {
+                notification.run();
+            } catch (Throwable throwable) {
+                reportBackgroundFailure("expiration or removal callback failed", throwable);
+            }
+        });
+    }
+
+    static void reportBackgroundFailure(String message, Throwable throwable) {
         Thread.UncaughtExceptionHandler handler = Thread.getDefaultUncaughtExceptionHandler();
         if (handler != null) {
             Thread thread = Thread.currentThread();
@@ -1173,18 +2501,95 @@ public class FastMap<K, V> implements IFastMap<K, V> {
         }
     }
 
-    private static long saturatedAdd(long left, long right) {
+    /**
+     * 回调线程池中排队等待执行的任务数（所有实例共享）
+     */
+    static long callbackQueueSize() {
+        return callbackExecutor.getQueue().size();
+    }
+
+    /**
+     * 回调线程池队列已满、改由调用线程执行的次数（所有实例共享）
+     */
+    static long callbackRejectedCount() {
+        return callbackRejectedCount.sum();
+    }
+
+    static long saturatedAdd(long left, long right) {
         return right > Long.MAX_VALUE - left ? Long.MAX_VALUE : left + right;
     }
 
+    static void checkPage(int offset, int limit) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset must be greater than or equal to 0");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must be greater than or equal to 0");
+        }
+    }
+
+    /**
+     * 在读锁内按key顺序读取范围数据，跳过已过期的数据和前skip条，最多读取limit条
+     *
+     * @param fromKey       开始键，null表示不限
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键，null表示不限
+     * @param toInclusive   结束键是否包含
+     * @param skip          跳过的条数
+     * @param limit         最多读取的条数
+     * @return 按key排序的数据
+     */
+    private List<Map.Entry<K, V>> readRange(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive,
+                                            int skip, int limit) {
+        try {
+            dataReadLock.lock();
+            long curTimestamp = currentTimestamp();
+            Map<K, V> range;
+            if (fromKey == null) {
+                range = toKey == null ? this.dataTreeMap : this.dataTreeMap.headMap(toKey, toInclusive);
+            } else {
+                range = toKey == null ? this.dataTreeMap.tailMap(fromKey, fromInclusive)
+                        : this.dataTreeMap.subMap(fromKey, fromInclusive, toKey, toInclusive);
+            }
+            List<Map.Entry<K, V>> entries = new ArrayList<>(Math.min(limit, CURSOR_BATCH_SIZE));
+            int skipped = 0;
+            Iterator<Map.Entry<K, V>> iterator = range.entrySet().iterator();
+            while (entries.size() < limit && iterator.hasNext()) {
+                Map.Entry<K, V> entry = iterator.next();
+                if (isExpired(entry.getKey(), curTimestamp)) {
+                    continue;
+                }
+                if (skipped < skip) {
+                    skipped++;
+                    continue;
+                }
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(entry));
+            }
+            return entries;
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
     /**
      * 转换SortedMap为LinkedHashMap
      *
      * @param sortedMap 排序map
      * @return LinkedHashMap 链接map
      */
-    private Map<K, V> getLinkedMap(SortedMap<K, V> sortedMap) {
-        return new LinkedHashMap<>(sortedMap);
+    private Map<K, V> getLinkedMap(Map<K, V> sortedMap) {
+        long curTimestamp = currentTimestamp();
+        if (curTimestamp < this.nextExpireTime) {
+            return new LinkedHashMap<>(sortedMap);
+        }
+        //清理与查询之间到期的数据同样不可见
+        Map<K, V> linkedMap = new LinkedHashMap<>();
+        for (Map.Entry<K, V> entry : sortedMap.entrySet()) {
+            if (!isExpired(entry.getKey(), curTimestamp)) {
+                linkedMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return linkedMap;
     }
 
     /**
@@ -1193,7 +2598,7 @@ public class FastMap<K, V> implements IFastMap<K, V> {
      * @return FastMap对象字符串表示
      */
     public final String toString() {
-        Iterator<Map.Entry<K, V>> iterator = entrySnapshot().iterator();
+        Iterator<Map.Entry<K, V>> iterator = entryCursor();
         if (!iterator.hasNext()) {
             return "{}";
         }
@@ -1227,7 +2632,8 @@ public class FastMap<K, V> implements IFastMap<K, V> {
             return false;
         }
         try {
-            for (Map.Entry<K, V> entry : entrySnapshot()) {
+            for (Iterator<Map.Entry<K, V>> iterator = entryCursor(); iterator.hasNext(); ) {
+                Map.Entry<K, V> entry = iterator.next();
                 K key = entry.getKey();
                 V value = entry.getValue();
                 if (!Objects.equals(value, other.get(key))) {
@@ -1246,8 +2652,8 @@ public class FastMap<K, V> implements IFastMap<K, V> {
     @Override
     public int hashCode() {
         int hashCode = 0;
-        for (Map.Entry<K, V> entry : entrySnapshot()) {
-            hashCode += entry.hashCode();
+        for (Iterator<Map.Entry<K, V>> iterator = entryCursor(); iterator.hasNext(); ) {
+            hashCode += iterator.next().hashCode();
         }
         return hashCode;
     }
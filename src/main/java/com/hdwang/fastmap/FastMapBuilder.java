@@ -0,0 +1,318 @@
+package com.hdwang.fastmap;
+
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FastMap构造器，用于配置过期、排序、容量上限等功能。
+ * <pre>
+ * FastMap&lt;Long, String&gt; map = FastMap.&lt;Long, String&gt;builder()
+ *         .enableSort(true)
+ *         .maximumSize(10_000)
+ *         .evictionPolicy(WindowTinyLfuEvictionPolicy::new)
+ *         .removalListener((key, value, cause) -&gt; System.out.println(key + " removed: " + cause))
+ *         .build();
+ * </pre>
+ *
+ * @author wanghuidong
+ */
+public class FastMapBuilder<K, V> {
+
+    /**
+     * 表示未设置上限
+     */
+    static final long UNSET = -1L;
+
+    boolean enableExpire = true;
+
+    boolean enableSort = false;
+
+    Comparator<? super K> comparator;
+
+    boolean trustComparator = false;
+
+    SortedStorage sortedStorage = SortedStorage.HASH_AND_TREE;
+
+    long maximumSize = UNSET;
+
+    long maximumWeight = UNSET;
+
+    Weigher<? super K, ? super V> weigher;
+
+    EvictionPolicyFactory<K> evictionPolicyFactory = LruEvictionPolicy::new;
+
+    RemovalListener<? super K, ? super V> removalListener;
+
+    int expireBatchSize = 1024;
+
+    long expireBatchNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+    boolean recordStats = false;
+
+    String name;
+
+    Path logDirectory;
+
+    Serializer<K> logKeySerializer;
+
+    Serializer<V> logValueSerializer;
+
+    SyncPolicy syncPolicy;
+
+    long logCompactionBytes = 64L << 20;
+
+    FastMapBuilder() {
+    }
+
+    /**
+     * 是否启用过期功能（默认启用）
+     *
+     * @param enableExpire 是否启用过期
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> enableExpire(boolean enableExpire) {
+        this.enableExpire = enableExpire;
+        return this;
+    }
+
+    /**
+     * 是否启用排序（默认不启用），启用后使用key的自然顺序
+     *
+     * @param enableSort 是否启用排序
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> enableSort(boolean enableSort) {
+        this.enableSort = enableSort;
+        return this;
+    }
+
+    /**
+     * 启用排序并使用指定的排序器
+     *
+     * @param comparator 排序器，必须与equals保持一致；null表示使用key的自然顺序
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> comparator(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+        this.enableSort = true;
+        return this;
+    }
+
+    /**
+     * 是否信任排序器与equals一致（默认不信任），信任时写入不再校验排序器一致性
+     *
+     * @param trustComparator 是否信任排序器
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> trustComparator(boolean trustComparator) {
+        this.trustComparator = trustComparator;
+        return this;
+    }
+
+    /**
+     * 启用排序并指定排序模式的存储方式（默认HASH_AND_TREE）
+     *
+     * @param sortedStorage 存储方式，HASHED_SKIP_LIST每条数据只保存一份
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> sortedStorage(SortedStorage sortedStorage) {
+        this.sortedStorage = Objects.requireNonNull(sortedStorage, "sortedStorage");
+        this.enableSort = true;
+        return this;
+    }
+
+    /**
+     * 设置最大数据条数，超出后由淘汰策略淘汰数据
+     *
+     * @param maximumSize 最大数据条数
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> maximumSize(long maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must be greater than or equal to 0");
+        }
+        if (this.maximumWeight != UNSET) {
+            throw new IllegalStateException("maximumWeight was already set");
+        }
+        this.maximumSize = maximumSize;
+        return this;
+    }
+
+    /**
+     * 设置最大总权重，超出后由淘汰策略淘汰数据，需要同时设置weigher
+     *
+     * @param maximumWeight 最大总权重
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> maximumWeight(long maximumWeight) {
+        if (maximumWeight < 0) {
+            throw new IllegalArgumentException("maximumWeight must be greater than or equal to 0");
+        }
+        if (this.maximumSize != UNSET) {
+            throw new IllegalStateException("maximumSize was already set");
+        }
+        this.maximumWeight = maximumWeight;
+        return this;
+    }
+
+    /**
+     * 设置计算数据权重的函数
+     *
+     * @param weigher 权重函数
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> weigher(Weigher<? super K, ? super V> weigher) {
+        this.weigher = Objects.requireNonNull(weigher, "weigher");
+        return this;
+    }
+
+    /**
+     * 设置淘汰策略（默认LRU），参数为最大条数或最大权重以及是否按权重限制，每个FastMap会创建独立的策略实例
+     *
+     * @param evictionPolicyFactory 淘汰策略工厂，例如 LruEvictionPolicy::new、WindowTinyLfuEvictionPolicy::new
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> evictionPolicy(EvictionPolicyFactory<K> evictionPolicyFactory) {
+        this.evictionPolicyFactory = Objects.requireNonNull(evictionPolicyFactory, "evictionPolicyFactory");
+        return this;
+    }
+
+    /**
+     * 设置数据被自动移除（过期或淘汰）时的监听器
+     *
+     * @param removalListener 监听器
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> removalListener(RemovalListener<? super K, ? super V> removalListener) {
+        this.removalListener = Objects.requireNonNull(removalListener, "removalListener");
+        return this;
+    }
+
+    /**
+     * 设置每次持有写锁最多删除的过期key数量（默认1024），大量key同时过期时分批删除，
+     * 批次之间释放写锁，让读操作可以插入执行
+     *
+     * @param expireBatchSize 每批最多删除的key数量
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> expireBatchSize(int expireBatchSize) {
+        if (expireBatchSize <= 0) {
+            throw new IllegalArgumentException("expireBatchSize must be greater than 0");
+        }
+        this.expireBatchSize = expireBatchSize;
+        return this;
+    }
+
+    /**
+     * 设置每次持有写锁删除过期key的最长时间（默认1毫秒），超时后结束本批次
+     *
+     * @param duration 时长
+     * @param unit     时间单位
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> expireBatchTime(long duration, TimeUnit unit) {
+        if (duration <= 0) {
+            throw new IllegalArgumentException("duration must be greater than 0");
+        }
+        this.expireBatchNanos = Objects.requireNonNull(unit, "unit").toNanos(duration);
+        return this;
+    }
+
+    /**
+     * 启用统计（默认不启用），启用后可通过stats()获取命中率、过期、淘汰次数和写锁耗时等信息
+     *
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> recordStats() {
+        this.recordStats = true;
+        return this;
+    }
+
+    /**
+     * 设置名称，构造后以该名称注册到FastMapRegistry，通过JMX和MetricsBinder发布监控指标
+     *
+     * @param name 名称，同名的注册会被替换
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> name(String name) {
+        this.name = Objects.requireNonNull(name, "name");
+        return this;
+    }
+
+    /**
+     * 启用写前日志：put、remove、putAll、clear、expire等修改追加到directory下的日志文件，
+     * 构造时加载目录中最新的快照并重放之后的日志，恢复到上次关闭或崩溃前的数据。
+     * 淘汰和过期删除不写入日志，恢复时按写入顺序重新淘汰，已过期的数据被跳过；过期回调不会恢复。
+     * 同一目录同一时间只能被一个FastMap使用，不再使用时调用closeLog停止后台刷盘线程。
+     *
+     * @param directory       日志目录，不存在时自动创建
+     * @param keySerializer   key序列化器
+     * @param valueSerializer value序列化器
+     * @param syncPolicy      刷盘策略
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> writeAheadLog(Path directory, Serializer<K> keySerializer,
+                                              Serializer<V> valueSerializer, SyncPolicy syncPolicy) {
+        this.logDirectory = Objects.requireNonNull(directory, "directory");
+        this.logKeySerializer = Objects.requireNonNull(keySerializer, "keySerializer");
+        this.logValueSerializer = Objects.requireNonNull(valueSerializer, "valueSerializer");
+        this.syncPolicy = Objects.requireNonNull(syncPolicy, "syncPolicy");
+        return this;
+    }
+
+    /**
+     * 设置写前日志的压缩阈值（默认64MB）：上次压缩以来写入的日志超过该大小时，在后台把数据写成新的快照并删除旧日志
+     *
+     * @param bytes 字节数
+     * @return 构造器
+     */
+    public FastMapBuilder<K, V> logCompactionThreshold(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("bytes must be greater than 0");
+        }
+        this.logCompactionBytes = bytes;
+        return this;
+    }
+
+    /**
+     * 构造FastMap
+     *
+     * @return FastMap实例
+     */
+    public FastMap<K, V> build() {
+        FastMap<K, V> map = buildUnregistered();
+        if (name != null) {
+            FastMapRegistry.register(name, map);
+        }
+        return map;
+    }
+
+    /**
+     * 构造FastMap，不注册到FastMapRegistry，用于创建StripedFastMap的段
+     */
+    FastMap<K, V> buildUnregistered() {
+        if (maximumWeight != UNSET && weigher == null) {
+            throw new IllegalStateException("maximumWeight requires a weigher");
+        }
+        if (maximumWeight == UNSET && weigher != null) {
+            throw new IllegalStateException("weigher requires maximumWeight");
+        }
+        return new FastMap<>(this);
+    }
+
+    /**
+     * 最大条数或最大权重，未设置时返回UNSET
+     */
+    long maximum() {
+        return maximumSize != UNSET ? maximumSize : maximumWeight;
+    }
+
+    /**
+     * 是否按最大权重限制
+     */
+    boolean weighted() {
+        return maximumWeight != UNSET;
+    }
+}
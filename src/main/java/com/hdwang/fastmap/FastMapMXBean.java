@@ -0,0 +1,118 @@
+package com.hdwang.fastmap;
+
+/**
+ * 已命名Map的监控指标，注册到FastMapRegistry后以JMX MXBean的形式发布，
+ * ObjectName为 com.hdwang.fastmap:type=FastMap,name="名称"。
+ * <p>
+ * 读取指标不清理过期数据、不获取写锁；Map被回收后所有指标返回0。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public interface FastMapMXBean {
+
+    /**
+     * 注册的名称
+     *
+     * @return 名称
+     */
+    String getName();
+
+    /**
+     * 数据条数，包括已到期但尚未删除的数据
+     *
+     * @return 数据条数
+     */
+    long getSize();
+
+    /**
+     * 设置了过期时间、尚未删除的key数量
+     *
+     * @return key数量
+     */
+    long getPendingExpirations();
+
+    /**
+     * 最近一次被过期清理线程清理的耗时
+     *
+     * @return 耗时（纳秒）
+     */
+    long getLastSweepDurationNanos();
+
+    /**
+     * 被过期清理线程清理的累计耗时
+     *
+     * @return 耗时（纳秒）
+     */
+    long getTotalSweepDurationNanos();
+
+    /**
+     * 被过期清理线程清理的次数
+     *
+     * @return 次数
+     */
+    long getSweepCount();
+
+    /**
+     * 回调线程池中排队等待执行的过期回调和移除通知数量（所有FastMap共享）
+     *
+     * @return 任务数
+     */
+    long getCallbackQueueSize();
+
+    /**
+     * 回调线程池队列已满、改由调用线程执行的次数（所有FastMap共享）
+     *
+     * @return 次数
+     */
+    long getCallbackRejectedCount();
+
+    /**
+     * 估算的数据结构内存占用，不包括key和value对象本身
+     *
+     * @return 字节数
+     */
+    long getEstimatedMemoryBytes();
+
+    /**
+     * 淘汰策略统计的总权重
+     *
+     * @return 总权重；未设置容量上限时返回-1
+     */
+    long getWeightedSize();
+
+    /**
+     * 命中率，需要启用统计
+     *
+     * @return 命中率；未启用统计或没有查询时为1.0
+     */
+    double getHitRate();
+
+    /**
+     * 命中次数，需要启用统计
+     *
+     * @return 次数
+     */
+    long getHitCount();
+
+    /**
+     * 未命中次数，需要启用统计
+     *
+     * @return 次数
+     */
+    long getMissCount();
+
+    /**
+     * 淘汰的数据条数，需要启用统计
+     *
+     * @return 条数
+     */
+    long getEvictionCount();
+
+    /**
+     * 删除的过期数据条数，需要启用统计
+     *
+     * @return 条数
+     */
+    long getExpirationCount();
+}
@@ -0,0 +1,350 @@
+package com.hdwang.fastmap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 已命名Map的注册表：每个注册的Map以JMX MXBean的形式发布，并交给所有MetricsBinder绑定到外部监控系统。
+ * <p>
+ * 注册表只弱引用Map，Map不再使用后会被正常回收，并在下一次注册或查询时自动注销。
+ * 通过FastMapBuilder.name(...)构造的FastMap、StripedFastMap会自动注册，
+ * 其他IFastMap（例如ConcurrentSortedFastMap）可以调用register手动注册。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public final class FastMapRegistry {
+
+    /**
+     * JMX ObjectName的域
+     */
+    public static final String JMX_DOMAIN = "com.hdwang.fastmap";
+
+    private static final ConcurrentHashMap<String, Monitor> monitors = new ConcurrentHashMap<>();
+
+    private static final List<MetricsBinder> binders = new CopyOnWriteArrayList<>();
+
+    private FastMapRegistry() {
+    }
+
+    /**
+     * 以指定名称注册Map，名称已被占用时替换原来的注册
+     *
+     * @param name 名称
+     * @param map  Map
+     * @return 该Map的监控指标
+     */
+    public static FastMapMXBean register(String name, IFastMap<?, ?> map) {
+        Objects.requireNonNull(name, "name");
+        Objects.requireNonNull(map, "map");
+        purgeCollected();
+        Monitor monitor = new Monitor(name, map);
+        Monitor previous = monitors.put(name, monitor);
+        if (previous != null) {
+            release(previous);
+        }
+        registerJmx(monitor);
+        for (MetricsBinder binder : binders) {
+            bind(binder, monitor);
+        }
+        return monitor;
+    }
+
+    /**
+     * 注销指定名称的Map
+     *
+     * @param name 名称
+     * @return 是否存在该名称的注册
+     */
+    public static boolean unregister(String name) {
+        Monitor monitor = monitors.remove(name);
+        if (monitor == null) {
+            return false;
+        }
+        release(monitor);
+        return true;
+    }
+
+    /**
+     * 所有已注册的Map的监控指标
+     *
+     * @return 名称到指标的快照
+     */
+    public static Map<String, FastMapMXBean> monitors() {
+        purgeCollected();
+        return new ConcurrentHashMap<>(monitors);
+    }
+
+    /**
+     * 添加绑定器，立即绑定所有已注册的Map，之后注册的Map也会被绑定
+     *
+     * @param binder 绑定器
+     */
+    public static void addBinder(MetricsBinder binder) {
+        Objects.requireNonNull(binder, "binder");
+        purgeCollected();
+        binders.add(binder);
+        for (Monitor monitor : monitors.values()) {
+            bind(binder, monitor);
+        }
+    }
+
+    /**
+     * 移除绑定器，对所有已注册的Map调用unbind
+     *
+     * @param binder 绑定器
+     */
+    public static void removeBinder(MetricsBinder binder) {
+        if (binders.remove(binder)) {
+            for (Monitor monitor : monitors.values()) {
+                unbind(binder, monitor);
+            }
+        }
+    }
+
+    /**
+     * 注销所有已被回收的Map
+     */
+    private static void purgeCollected() {
+        List<Monitor> collected = new ArrayList<>();
+        for (Monitor monitor : monitors.values()) {
+            if (monitor.map.get() == null) {
+                collected.add(monitor);
+            }
+        }
+        for (Monitor monitor : collected) {
+            if (monitors.remove(monitor.name, monitor)) {
+                release(monitor);
+            }
+        }
+    }
+
+    private static void release(Monitor monitor) {
+        unregisterJmx(monitor);
+        for (MetricsBinder binder : binders) {
+            unbind(binder, monitor);
+        }
+    }
+
+    private static void registerJmx(Monitor monitor) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(monitor.name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(monitor, objectName);
+        } catch (JMException | RuntimeException e) {
+            FastMap.reportBackgroundFailure("failed to register FastMap MBean " + monitor.name, e);
+        }
+    }
+
+    private static void unregisterJmx(Monitor monitor) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(monitor.name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException | RuntimeException e) {
+            FastMap.reportBackgroundFailure("failed to unregister FastMap MBean " + monitor.name, e);
+        }
+    }
+
+    /**
+     * 指定名称的Map对应的JMX ObjectName
+     *
+     * @param name 名称
+     * @return ObjectName
+     * @throws JMException 名称无法转换为ObjectName
+     */
+    static ObjectName objectName(String name) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=FastMap,name=" + ObjectName.quote(name));
+    }
+
+    private static void bind(MetricsBinder binder, Monitor monitor) {
+        try {
+            binder.bind(monitor);
+        } catch (Throwable throwable) {
+            FastMap.reportBackgroundFailure("metrics binder failed for FastMap " + monitor.name, throwable);
+        }
+    }
+
+    private static void unbind(MetricsBinder binder, Monitor monitor) {
+        try {
+            binder.unbind(monitor);
+        } catch (Throwable throwable) {
+            FastMap.reportBackgroundFailure("metrics binder failed for FastMap " + monitor.name, throwable);
+        }
+    }
+
+    /**
+     * 读取指标对应的实例指标，不支持的IFastMap实现只提供数据条数
+     */
+    private static MapMetrics metricsOf(IFastMap<?, ?> map) {
+        if (map instanceof FastMap) {
+            return ((FastMap<?, ?>) map).metrics();
+        }
+        if (map instanceof StripedFastMap) {
+            return ((StripedFastMap<?, ?>) map).metrics();
+        }
+        if (map instanceof ConcurrentSortedFastMap) {
+            return ((ConcurrentSortedFastMap<?, ?>) map).metrics();
+        }
+        return new MapMetrics() {
+            @Override
+            public long estimatedSize() {
+                return map.size();
+            }
+
+            @Override
+            public long pendingExpirations() {
+                return 0L;
+            }
+
+            @Override
+            public long lastSweepNanos() {
+                return 0L;
+            }
+
+            @Override
+            public long totalSweepNanos() {
+                return 0L;
+            }
+
+            @Override
+            public long sweepCount() {
+                return 0L;
+            }
+
+            @Override
+            public long estimatedMemoryBytes() {
+                return 0L;
+            }
+
+            @Override
+            public long weightedSize() {
+                return -1L;
+            }
+        };
+    }
+
+    /**
+     * 一个已命名Map的监控指标，只弱引用Map
+     */
+    private static final class Monitor implements FastMapMXBean {
+        private final String name;
+        private final WeakReference<IFastMap<?, ?>> map;
+
+        private Monitor(String name, IFastMap<?, ?> map) {
+            this.name = name;
+            this.map = new WeakReference<>(map);
+        }
+
+        private MapMetrics metrics() {
+            IFastMap<?, ?> target = map.get();
+            return target == null ? null : metricsOf(target);
+        }
+
+        private FastMapStats stats() {
+            IFastMap<?, ?> target = map.get();
+            return target == null ? FastMapStats.empty() : target.stats();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public long getSize() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? 0L : metrics.estimatedSize();
+        }
+
+        @Override
+        public long getPendingExpirations() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? 0L : metrics.pendingExpirations();
+        }
+
+        @Override
+        public long getLastSweepDurationNanos() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? 0L : metrics.lastSweepNanos();
+        }
+
+        @Override
+        public long getTotalSweepDurationNanos() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? 0L : metrics.totalSweepNanos();
+        }
+
+        @Override
+        public long getSweepCount() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? 0L : metrics.sweepCount();
+        }
+
+        @Override
+        public long getCallbackQueueSize() {
+            return FastMap.callbackQueueSize();
+        }
+
+        @Override
+        public long getCallbackRejectedCount() {
+            return FastMap.callbackRejectedCount();
+        }
+
+        @Override
+        public long getEstimatedMemoryBytes() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? 0L : metrics.estimatedMemoryBytes();
+        }
+
+        @Override
+        public long getWeightedSize() {
+            MapMetrics metrics = metrics();
+            return metrics == null ? -1L : metrics.weightedSize();
+        }
+
+        @Override
+        public double getHitRate() {
+            return stats().hitRate();
+        }
+
+        @Override
+        public long getHitCount() {
+            return stats().hitCount();
+        }
+
+        @Override
+        public long getMissCount() {
+            return stats().missCount();
+        }
+
+        @Override
+        public long getEvictionCount() {
+            return stats().evictionCount();
+        }
+
+        @Override
+        public long getExpirationCount() {
+            return stats().expirationCount();
+        }
+
+        @Override
+        public String toString() {
+            return "FastMapMXBean{name=" + name + '}';
+        }
+    }
+}
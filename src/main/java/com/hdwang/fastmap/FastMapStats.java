@@ -0,0 +1,315 @@
+package com.hdwang.fastmap;
+
+import java.util.Arrays;
+
+/**
+ * FastMap统计信息的不可变快照，用于监控采集。
+ * <p>
+ * 计数从Map创建开始累计；需要某段时间内的增量时，用两次快照的差值计算。
+ * 回调队列长度和拒绝次数来自所有FastMap共享的回调线程池。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public final class FastMapStats {
+
+    private static final Histogram EMPTY_HISTOGRAM =
+            new Histogram(new long[LatencyHistogram.BUCKET_COUNT], 0L, 0L);
+
+    private static final FastMapStats EMPTY = new FastMapStats(0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L,
+            EMPTY_HISTOGRAM, EMPTY_HISTOGRAM, EMPTY_HISTOGRAM);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long expiredReadCount;
+    private final long putCount;
+    private final long removalCount;
+    private final long evictionCount;
+    private final long sweeperExpirationCount;
+    private final long inlineExpirationCount;
+    private final long callbackQueueSize;
+    private final long callbackRejectedCount;
+    private final Histogram lockWaitTime;
+    private final Histogram lockHoldTime;
+    private final Histogram expireBatchTime;
+
+    FastMapStats(long hitCount, long missCount, long expiredReadCount, long putCount, long removalCount,
+                 long evictionCount, long sweeperExpirationCount, long inlineExpirationCount,
+                 long callbackQueueSize, long callbackRejectedCount,
+                 Histogram lockWaitTime, Histogram lockHoldTime, Histogram expireBatchTime) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.expiredReadCount = expiredReadCount;
+        this.putCount = putCount;
+        this.removalCount = removalCount;
+        this.evictionCount = evictionCount;
+        this.sweeperExpirationCount = sweeperExpirationCount;
+        this.inlineExpirationCount = inlineExpirationCount;
+        this.callbackQueueSize = callbackQueueSize;
+        this.callbackRejectedCount = callbackRejectedCount;
+        this.lockWaitTime = lockWaitTime;
+        this.lockHoldTime = lockHoldTime;
+        this.expireBatchTime = expireBatchTime;
+    }
+
+    /**
+     * 所有计数都为0的统计，未启用统计时返回
+     *
+     * @return 空统计
+     */
+    public static FastMapStats empty() {
+        return EMPTY;
+    }
+
+    /**
+     * get、getOrDefault命中的次数
+     */
+    public long hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * get、getOrDefault未命中的次数
+     */
+    public long missCount() {
+        return missCount;
+    }
+
+    /**
+     * 点查询次数
+     */
+    public long requestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * 命中率，没有查询时为1.0
+     */
+    public double hitRate() {
+        long requestCount = requestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * 未命中中读到已到期、尚未物理删除的数据（惰性过期）的次数
+     */
+    public long expiredReadCount() {
+        return expiredReadCount;
+    }
+
+    /**
+     * 写入次数，包括put、putAll的每条数据和compute、merge等复合操作的写入
+     */
+    public long putCount() {
+        return putCount;
+    }
+
+    /**
+     * 主动删除的次数，不包括过期和淘汰
+     */
+    public long removalCount() {
+        return removalCount;
+    }
+
+    /**
+     * 超出容量上限被淘汰的数据条数
+     */
+    public long evictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 被过期清理线程删除的过期数据条数
+     */
+    public long sweeperExpirationCount() {
+        return sweeperExpirationCount;
+    }
+
+    /**
+     * 被读写操作顺带删除的过期数据条数
+     */
+    public long inlineExpirationCount() {
+        return inlineExpirationCount;
+    }
+
+    /**
+     * 删除的过期数据总条数
+     */
+    public long expirationCount() {
+        return sweeperExpirationCount + inlineExpirationCount;
+    }
+
+    /**
+     * 回调线程池中排队等待执行的过期回调和移除通知数量（所有FastMap共享）
+     */
+    public long callbackQueueSize() {
+        return callbackQueueSize;
+    }
+
+    /**
+     * 回调线程池队列已满、改由调用线程执行回调的次数（所有FastMap共享）
+     */
+    public long callbackRejectedCount() {
+        return callbackRejectedCount;
+    }
+
+    /**
+     * 获取写锁的等待时间
+     */
+    public Histogram lockWaitTime() {
+        return lockWaitTime;
+    }
+
+    /**
+     * 持有写锁的时间，重入只按最外层计算一次
+     */
+    public Histogram lockHoldTime() {
+        return lockHoldTime;
+    }
+
+    /**
+     * 每批删除过期数据持有写锁的时间
+     */
+    public Histogram expireBatchTime() {
+        return expireBatchTime;
+    }
+
+    /**
+     * 与另一份统计相加，用于汇总多个FastMap（例如StripedFastMap的各段）。
+     * 共享回调线程池的队列长度和拒绝次数取较大值，不累加。
+     *
+     * @param other 另一份统计
+     * @return 相加后的新统计
+     */
+    public FastMapStats plus(FastMapStats other) {
+        return new FastMapStats(hitCount + other.hitCount, missCount + other.missCount,
+                expiredReadCount + other.expiredReadCount, putCount + other.putCount,
+                removalCount + other.removalCount, evictionCount + other.evictionCount,
+                sweeperExpirationCount + other.sweeperExpirationCount,
+                inlineExpirationCount + other.inlineExpirationCount,
+                Math.max(callbackQueueSize, other.callbackQueueSize),
+                Math.max(callbackRejectedCount, other.callbackRejectedCount),
+                lockWaitTime.plus(other.lockWaitTime), lockHoldTime.plus(other.lockHoldTime),
+                expireBatchTime.plus(other.expireBatchTime));
+    }
+
+    @Override
+    public String toString() {
+        return "FastMapStats{hitCount=" + hitCount
+                + ", missCount=" + missCount
+                + ", expiredReadCount=" + expiredReadCount
+                + ", putCount=" + putCount
+                + ", removalCount=" + removalCount
+                + ", evictionCount=" + evictionCount
+                + ", sweeperExpirationCount=" + sweeperExpirationCount
+                + ", inlineExpirationCount=" + inlineExpirationCount
+                + ", callbackQueueSize=" + callbackQueueSize
+                + ", callbackRejectedCount=" + callbackRejectedCount
+                + ", lockWaitTime=" + lockWaitTime
+                + ", lockHoldTime=" + lockHoldTime
+                + ", expireBatchTime=" + expireBatchTime
+                + '}';
+    }
+
+    /**
+     * 耗时直方图的不可变快照，按2的幂分桶：第i个桶统计耗时在[2^(i-1), 2^i)纳秒之间的次数
+     */
+    public static final class Histogram {
+
+        private final long[] bucketCounts;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+
+        Histogram(long[] bucketCounts, long totalNanos, long maxNanos) {
+            this.bucketCounts = bucketCounts;
+            long sum = 0;
+            for (long bucketCount : bucketCounts) {
+                sum += bucketCount;
+            }
+            this.count = sum;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+        }
+
+        /**
+         * 记录次数
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * 总耗时（纳秒）
+         */
+        public long totalNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * 最大耗时（纳秒）
+         */
+        public long maxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * 平均耗时（纳秒），没有记录时为0
+         */
+        public double meanNanos() {
+            return count == 0 ? 0.0 : (double) totalNanos / count;
+        }
+
+        /**
+         * 百分位耗时的上界（纳秒），精度为所在桶的范围，不超过最大耗时
+         *
+         * @param percentile 百分位，取值范围[0, 100]
+         * @return 耗时上界；没有记录时为0
+         */
+        public long percentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100");
+            }
+            if (count == 0) {
+                return 0L;
+            }
+            long rank = Math.max(1L, (long) Math.ceil(count * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < bucketCounts.length; i++) {
+                seen += bucketCounts[i];
+                if (seen >= rank) {
+                    long upperBound = i == 0 ? 0L : (1L << i) - 1;
+                    return Math.min(upperBound, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+
+        /**
+         * 各个桶的记录次数
+         *
+         * @return 副本
+         */
+        public long[] bucketCounts() {
+            return bucketCounts.clone();
+        }
+
+        Histogram plus(Histogram other) {
+            long[] counts = new long[bucketCounts.length];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = bucketCounts[i] + other.bucketCounts[i];
+            }
+            return new Histogram(counts, totalNanos + other.totalNanos, Math.max(maxNanos, other.maxNanos));
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + count
+                    + ", meanNanos=" + (long) meanNanos()
+                    + ", p99Nanos=" + percentileNanos(99)
+                    + ", maxNanos=" + maxNanos
+                    + ", buckets=" + Arrays.toString(bucketCounts)
+                    + '}';
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.hdwang.fastmap;
+
+/**
+ * 基于Count-Min Sketch的访问频率估算器，每个计数器占4位，最大计数15。
+ * 累计记录次数达到采样上限时所有计数器减半，使频率随时间衰减。
+ * 计数器表从最小容量开始，随保存的key数量翻倍增长，不预先按上限分配。
+ *
+ * @author wanghuidong
+ */
+final class FrequencySketch {
+
+    /**
+     * 四组哈希函数的种子
+     */
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    /**
+     * 减半时清除每个4位计数器最高位移入的进位
+     */
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MINIMUM_TABLE_SIZE = 16;
+
+    private static final int MAXIMUM_TABLE_SIZE = 1 << 24;
+
+    /**
+     * 计数器表，每个long保存16个4位计数器
+     */
+    private long[] table;
+
+    /**
+     * 计数器表长度的上限
+     */
+    private final int maximumTableSize;
+
+    /**
+     * 采样上限，达到后所有计数器减半
+     */
+    private int sampleSize;
+
+    /**
+     * 自上次减半以来的记录次数
+     */
+    private int size;
+
+    /**
+     * 构造器
+     *
+     * @param maximumSize 最多保存的key数量，计数器表不会超过该容量
+     */
+    FrequencySketch(long maximumSize) {
+        this.maximumTableSize = tableSizeFor(maximumSize);
+        this.table = new long[MINIMUM_TABLE_SIZE];
+        this.sampleSize = 10 * MINIMUM_TABLE_SIZE;
+    }
+
+    /**
+     * 保存的key数量超过计数器表容量时扩大到不小于key数量的2的幂，已有的计数清零，扩容总代价均摊O(1)
+     *
+     * @param size 当前保存的key数量
+     */
+    void ensureCapacity(long size) {
+        if (size <= table.length || table.length >= maximumTableSize) {
+            return;
+        }
+        int tableSize = Math.min(tableSizeFor(size), maximumTableSize);
+        this.table = new long[tableSize];
+        this.sampleSize = 10 * tableSize;
+        this.size = 0;
+    }
+
+    /**
+     * 计数器表的长度
+     */
+    int tableSize() {
+        return table.length;
+    }
+
+    /**
+     * 估算key的访问频率
+     *
+     * @param key 键
+     * @return 频率估算值，最大15
+     */
+    int frequency(Object key) {
+        int hash = spread(key);
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            frequency = Math.min(frequency, counter(hash, i));
+        }
+        return frequency;
+    }
+
+    /**
+     * 记录一次访问
+     *
+     * @param key 键
+     */
+    void increment(Object key) {
+        int hash = spread(key);
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int shift = offsetOf(hash, i);
+            if (((table[index] >>> shift) & 0xfL) < 15) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private int counter(int hash, int i) {
+        return (int) ((table[indexOf(hash, i)] >>> offsetOf(hash, i)) & 0xfL);
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long slot = (hash + SEEDS[i]) * SEEDS[i];
+        slot += slot >>> 32;
+        return (int) slot & (table.length - 1);
+    }
+
+    private static int offsetOf(int hash, int i) {
+        //每组哈希在long中选择一个4位计数器
+        return ((hash >>> (i << 3)) & 0xf) << 2;
+    }
+
+    private static int tableSizeFor(long capacity) {
+        int bounded = (int) Math.max(MINIMUM_TABLE_SIZE, Math.min(capacity, MAXIMUM_TABLE_SIZE));
+        return Integer.highestOneBit(bounded - 1) << 1;
+    }
+
+    private static int spread(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+}
@@ -0,0 +1,505 @@
+package com.hdwang.fastmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 单索引排序存储：跳表与哈希表共享同一组节点，每条数据只保存一个节点。
+ * <p>
+ * 等值查询通过哈希桶完成，O(1)；排序、范围查询通过跳表完成，O(log n)。
+ * 节点层高按1/4的概率递增，约75%的节点只有第0层，第0层指针内联在节点中，
+ * 只有更高的层才分配指针数组，每条数据的内存开销约为HashMap加TreeMap的三分之二。
+ * </p>
+ * 非线程安全，由FastMap的读写锁保护：写操作需要写锁，查询和遍历只需读锁。
+ *
+ * @author wanghuidong
+ */
+final class HashedSkipListMap<K, V> extends AbstractMap<K, V> implements SortedIndex<K, V> {
+
+    /**
+     * 最大层数
+     */
+    private static final int MAX_LEVEL = 32;
+
+    /**
+     * 哈希表初始容量，必须是2的幂
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Comparator<? super K> comparator;
+
+    /**
+     * 跳表头节点，拥有所有层
+     */
+    private final Node<K, V> head = new Node<>(null, null, 0, MAX_LEVEL);
+
+    /**
+     * 写操作查找前驱节点的缓冲区，只在写锁内使用
+     */
+    @SuppressWarnings("unchecked")
+    private final Node<K, V>[] update = (Node<K, V>[]) new Node<?, ?>[MAX_LEVEL];
+
+    private Node<K, V>[] table;
+
+    private int size;
+
+    /**
+     * 当前使用的最高层数
+     */
+    private int level = 1;
+
+    /**
+     * 生成节点层高的随机种子，只在写锁内使用
+     */
+    private int randomSeed = ThreadLocalRandom.current().nextInt() | 1;
+
+    private Set<Map.Entry<K, V>> entrySet;
+
+    HashedSkipListMap(Comparator<? super K> comparator) {
+        this.comparator = comparator;
+        this.table = newTable(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findNode(key, hash(key)) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = findNode(key, hash(key));
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = hash(key);
+        Node<K, V> node = findNode(key, hash);
+        if (node != null) {
+            V previousValue = node.value;
+            node.value = value;
+            return previousValue;
+        }
+        if (size == 0) {
+            //与TreeMap一致，空Map也校验key能否比较
+            compare(key, key);
+        }
+        //先完成所有比较，比较失败时不修改任何结构
+        Node<K, V> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            Node<K, V> next;
+            while ((next = x.next(i)) != null && compare(next.key, key) < 0) {
+                x = next;
+            }
+            update[i] = x;
+        }
+        int height = randomHeight();
+        if (height > level) {
+            for (int i = level; i < height; i++) {
+                update[i] = head;
+            }
+            level = height;
+        }
+        node = new Node<>(key, value, hash, height);
+        for (int i = 0; i < height; i++) {
+            node.setNext(i, update[i].next(i));
+            update[i].setNext(i, node);
+        }
+        Arrays.fill(update, 0, level, null);
+
+        int index = hash & (table.length - 1);
+        node.nextInBucket = table[index];
+        table[index] = node;
+        if (++size > table.length - (table.length >>> 2)) {
+            resize();
+        }
+        return null;
+    }
+
+    @Override
+    public void buildFromSorted(List<? extends Map.Entry<K, V>> entries) {
+        if (size != 0) {
+            throw new IllegalStateException("index is not empty");
+        }
+        //每层记录当前的尾节点，按顺序追加，不做比较
+        Node<K, V>[] tails = update;
+        Arrays.fill(tails, head);
+        for (Map.Entry<K, V> entry : entries) {
+            K key = entry.getKey();
+            int hash = hash(key);
+            int height = randomHeight();
+            if (height > level) {
+                level = height;
+            }
+            Node<K, V> node = new Node<>(key, entry.getValue(), hash, height);
+            for (int i = 0; i < height; i++) {
+                tails[i].setNext(i, node);
+                tails[i] = node;
+            }
+            int index = hash & (table.length - 1);
+            node.nextInBucket = table[index];
+            table[index] = node;
+            if (++size > table.length - (table.length >>> 2)) {
+                resize();
+            }
+        }
+        Arrays.fill(tails, null);
+    }
+
+    @Override
+    public V remove(Object key) {
+        int hash = hash(key);
+        Node<K, V> node = findNode(key, hash);
+        if (node == null) {
+            return null;
+        }
+        int height = node.height();
+        Node<K, V> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            Node<K, V> next;
+            while ((next = x.next(i)) != null && next != node && compare(next.key, node.key) < 0) {
+                x = next;
+            }
+            if (i < height) {
+                //跳过比较相等的其他节点，只在信任了与equals不一致的排序器时出现
+                while ((next = x.next(i)) != null && next != node && compare(next.key, node.key) == 0) {
+                    x = next;
+                }
+                if (x.next(i) == node) {
+                    x.setNext(i, node.next(i));
+                }
+            }
+        }
+        while (level > 1 && head.next(level - 1) == null) {
+            level--;
+        }
+
+        int index = hash & (table.length - 1);
+        Node<K, V> previous = null;
+        for (Node<K, V> e = table[index]; e != null; previous = e, e = e.nextInBucket) {
+            if (e == node) {
+                if (previous == null) {
+                    table[index] = node.nextInBucket;
+                } else {
+                    previous.nextInBucket = node.nextInBucket;
+                }
+                break;
+            }
+        }
+        size--;
+        return node.value;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < MAX_LEVEL; i++) {
+            head.setNext(i, null);
+        }
+        table = newTable(INITIAL_CAPACITY);
+        size = 0;
+        level = 1;
+    }
+
+    @Override
+    public K firstKey() {
+        Node<K, V> first = head.next;
+        if (first == null) {
+            throw new NoSuchElementException();
+        }
+        return first.key;
+    }
+
+    @Override
+    public K lastKey() {
+        Node<K, V> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            Node<K, V> next;
+            while ((next = x.next(i)) != null) {
+                x = next;
+            }
+        }
+        if (x == head) {
+            throw new NoSuchElementException();
+        }
+        return x.key;
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        Node<K, V> node = findFirst(key, true);
+        return node == null ? null : node.key;
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        if (compare(fromKey, toKey) > 0) {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new RangeView(true, fromKey, fromInclusive, true, toKey, toInclusive);
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey, boolean inclusive) {
+        compare(toKey, toKey);
+        return new RangeView(false, null, false, true, toKey, inclusive);
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey, boolean inclusive) {
+        compare(fromKey, fromKey);
+        return new RangeView(true, fromKey, inclusive, false, null, false);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new RangeView(false, null, false, false, null, false).entrySet());
+    }
+
+    private Node<K, V> findNode(Object key, int hash) {
+        for (Node<K, V> e = table[hash & (table.length - 1)]; e != null; e = e.nextInBucket) {
+            if (e.hash == hash && Objects.equals(e.key, key)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 查找第一个大于（或等于）key的节点
+     */
+    private Node<K, V> findFirst(K key, boolean inclusive) {
+        Node<K, V> x = head;
+        for (int i = level - 1; i >= 0; i--) {
+            Node<K, V> next;
+            while ((next = x.next(i)) != null) {
+                int c = compare(next.key, key);
+                if (c > 0 || (c == 0 && inclusive)) {
+                    break;
+                }
+                x = next;
+            }
+        }
+        return x.next;
+    }
+
+    private void resize() {
+        Node<K, V>[] newTable = newTable(table.length << 1);
+        int mask = newTable.length - 1;
+        for (Node<K, V> node = head.next; node != null; node = node.next) {
+            int index = node.hash & mask;
+            node.nextInBucket = newTable[index];
+            newTable[index] = node;
+        }
+        table = newTable;
+    }
+
+    private int randomHeight() {
+        int x = randomSeed;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        randomSeed = x;
+        int height = 1;
+        while ((x & 3) == 0 && height < MAX_LEVEL) {
+            height++;
+            x >>>= 2;
+        }
+        return height;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(K left, K right) {
+        if (comparator != null) {
+            return comparator.compare(left, right);
+        }
+        return ((Comparable<? super K>) left).compareTo(right);
+    }
+
+    private static int hash(Object key) {
+        int h;
+        return key == null ? 0 : (h = key.hashCode()) ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newTable(int capacity) {
+        return (Node<K, V>[]) new Node<?, ?>[capacity];
+    }
+
+    /**
+     * 按key排序的只读范围视图
+     */
+    private final class RangeView extends AbstractMap<K, V> {
+        private final boolean hasFrom;
+        private final K fromKey;
+        private final boolean fromInclusive;
+        private final boolean hasTo;
+        private final K toKey;
+        private final boolean toInclusive;
+
+        private RangeView(boolean hasFrom, K fromKey, boolean fromInclusive,
+                          boolean hasTo, K toKey, boolean toInclusive) {
+            this.hasFrom = hasFrom;
+            this.fromKey = fromKey;
+            this.fromInclusive = fromInclusive;
+            this.hasTo = hasTo;
+            this.toKey = toKey;
+            this.toInclusive = toInclusive;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new RangeIterator(hasFrom ? findFirst(fromKey, fromInclusive) : head.next);
+                }
+
+                @Override
+                public int size() {
+                    if (!hasFrom && !hasTo) {
+                        return size;
+                    }
+                    int count = 0;
+                    for (Iterator<Map.Entry<K, V>> iterator = iterator(); iterator.hasNext(); iterator.next()) {
+                        count++;
+                    }
+                    return count;
+                }
+            };
+        }
+
+        private boolean beyondEnd(Node<K, V> node) {
+            if (node == null) {
+                return true;
+            }
+            if (!hasTo) {
+                return false;
+            }
+            int c = compare(node.key, toKey);
+            return c > 0 || (c == 0 && !toInclusive);
+        }
+
+        private final class RangeIterator implements Iterator<Map.Entry<K, V>> {
+            private Node<K, V> next;
+
+            private RangeIterator(Node<K, V> first) {
+                this.next = beyondEnd(first) ? null : first;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                Node<K, V> node = next;
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                next = beyondEnd(node.next) ? null : node.next;
+                return node;
+            }
+        }
+    }
+
+    /**
+     * 节点同时位于哈希桶链表和跳表中
+     */
+    static final class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        V value;
+        final int hash;
+        Node<K, V> nextInBucket;
+
+        /**
+         * 第0层的后继节点
+         */
+        Node<K, V> next;
+
+        /**
+         * 第1层及以上的后继节点，层高为1时为null
+         */
+        private final Node<K, V>[] upper;
+
+        @SuppressWarnings("unchecked")
+        private Node(K key, V value, int hash, int height) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+            this.upper = height > 1 ? (Node<K, V>[]) new Node<?, ?>[height - 1] : null;
+        }
+
+        int height() {
+            return upper == null ? 1 : upper.length + 1;
+        }
+
+        Node<K, V> next(int level) {
+            return level == 0 ? next : upper[level - 1];
+        }
+
+        void setNext(int level, Node<K, V> node) {
+            if (level == 0) {
+                next = node;
+            } else {
+                upper[level - 1] = node;
+            }
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previousValue = this.value;
+            this.value = value;
+            return previousValue;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            return Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
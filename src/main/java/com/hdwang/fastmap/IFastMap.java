@@ -1,7 +1,12 @@
 package com.hdwang.fastmap;
 
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 /**
  * 一个支持等值查找、范围查找、数据过期、键排序等功能的线程安全Map，适合做本地缓存。
@@ -72,6 +77,63 @@ public interface IFastMap<K, V> extends Map<K, V> {
      */
     Map<K, V> tailMap(K fromKey, boolean inclusive);
 
+    /**
+     * 分页获取指定范围数据：按key顺序跳过offset条后最多返回limit条。
+     * <p>
+     * 只读取需要的数据，代价为 O(log n + offset + limit)，不会复制整个范围。
+     * </p>
+     *
+     * @param fromKey       开始键，null表示从第一个键开始
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键，null表示到最后一个键为止
+     * @param toInclusive   结束键是否包含
+     * @param offset        跳过的条数
+     * @param limit         最多返回的条数
+     * @return 按key排序的数据
+     */
+    Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, int offset, int limit);
+
+    /**
+     * 分页获取头部范围数据（从第一个键到指定键）
+     *
+     * @param toKey     指定的结束键
+     * @param inclusive 结束键是否包含
+     * @param offset    跳过的条数
+     * @param limit     最多返回的条数
+     * @return 按key排序的数据
+     */
+    default Map<K, V> headMap(K toKey, boolean inclusive, int offset, int limit) {
+        return subMap(null, false, Objects.requireNonNull(toKey), inclusive, offset, limit);
+    }
+
+    /**
+     * 分页获取尾部范围数据（从指定键到最后一个键），例如tailMap(key, false, 0, 100)获取key之后的100条数据
+     *
+     * @param fromKey   指定的开始键
+     * @param inclusive 开始键是否包含
+     * @param offset    跳过的条数
+     * @param limit     最多返回的条数
+     * @return 按key排序的数据
+     */
+    default Map<K, V> tailMap(K fromKey, boolean inclusive, int offset, int limit) {
+        return subMap(Objects.requireNonNull(fromKey), inclusive, null, false, offset, limit);
+    }
+
+    /**
+     * 按key顺序遍历指定范围数据的游标，分批惰性读取，不复制整个范围。
+     * <p>
+     * 游标是弱一致的：遍历期间其他线程的修改可能可见也可能不可见，不会抛出ConcurrentModificationException；
+     * 已过期的数据会被跳过，remove会删除Map中对应的key。
+     * </p>
+     *
+     * @param fromKey       开始键，null表示从第一个键开始
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键，null表示到最后一个键为止
+     * @param toInclusive   结束键是否包含
+     * @return 范围游标
+     */
+    Iterator<Map.Entry<K, V>> rangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive);
+
     /**
      * 获取第一个键
      *
@@ -87,6 +149,70 @@ public interface IFastMap<K, V> extends Map<K, V> {
     K lastKey();
 
 
+    /**
+     * 对每条未过期的数据执行action，数据量达到parallelismThreshold时在ForkJoinPool中并行执行。
+     * <p>
+     * 与ConcurrentHashMap的批量操作一样，遍历是弱一致的；parallelismThreshold为Long.MAX_VALUE时串行执行，为1时尽可能并行。
+     * </p>
+     *
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param action               对每条数据执行的操作
+     */
+    void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action);
+
+    /**
+     * 对每个未过期的key执行action，数据量达到parallelismThreshold时并行执行
+     *
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param action               对每个key执行的操作
+     */
+    void forEachKey(long parallelismThreshold, Consumer<? super K> action);
+
+    /**
+     * 查找任意一条使searchFunction返回非null的数据，找到后尽快结束其他分区的查找
+     *
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param searchFunction       查找函数，返回null表示不匹配
+     * @return 任意一个非null的查找结果；没有时返回null
+     */
+    <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction);
+
+    /**
+     * 先用transformer转换每条数据，再用reducer合并所有非null的转换结果
+     *
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param transformer          转换函数，返回null表示忽略该数据
+     * @param reducer              满足结合律的合并函数
+     * @return 合并结果；没有数据时返回null
+     */
+    <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                 BiFunction<? super U, ? super U, ? extends U> reducer);
+
+    /**
+     * 用reducer合并所有非null的值
+     *
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param reducer              满足结合律的合并函数
+     * @return 合并结果；没有数据时返回null
+     */
+    V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer);
+
+    /**
+     * 对指定范围内的数据并行执行reduce，需要启用排序
+     *
+     * @param fromKey              开始键，null表示从第一个键开始
+     * @param fromInclusive        开始键是否包含
+     * @param toKey                结束键，null表示到最后一个键为止
+     * @param toInclusive          结束键是否包含
+     * @param parallelismThreshold 并行执行需要的（估计）数据量
+     * @param transformer          转换函数，返回null表示忽略该数据
+     * @param reducer              满足结合律的合并函数
+     * @return 合并结果；范围内没有数据时返回null
+     */
+    <U> U reduce(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long parallelismThreshold,
+                 BiFunction<? super K, ? super V, ? extends U> transformer,
+                 BiFunction<? super U, ? super U, ? extends U> reducer);
+
     /**
      * 设置过期时间（n毫秒后），重复调用可以重置过期时间
      *
@@ -117,5 +243,14 @@ public interface IFastMap<K, V> extends Map<K, V> {
      */
     Long ttl(K key);
 
+    /**
+     * 获取统计信息的快照，需要在构造时启用统计
+     *
+     * @return 统计快照；未启用统计时所有计数都为0
+     */
+    default FastMapStats stats() {
+        return FastMapStats.empty();
+    }
+
 
 }
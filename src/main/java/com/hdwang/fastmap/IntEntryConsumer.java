@@ -0,0 +1,18 @@
+package com.hdwang.fastmap;
+
+/**
+ * IntFastMap的遍历函数，key不装箱
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface IntEntryConsumer<V> {
+
+    /**
+     * 处理一条数据
+     *
+     * @param key   键
+     * @param value 值
+     */
+    void accept(int key, V value);
+}
@@ -0,0 +1,167 @@
+package com.hdwang.fastmap;
+
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * key为int的FastMap，读写不装箱。
+ * <p>
+ * 基于LongFastMap实现，int key扩展为long保存，顺序与int一致；各方法的语义见LongFastMap。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public class IntFastMap<V> {
+
+    private final LongFastMap<V> map;
+
+    /**
+     * 默认构造器，启用过期，不排序
+     */
+    public IntFastMap() {
+        this(true, false);
+    }
+
+    /**
+     * 构造器
+     *
+     * @param enableExpire 是否启用过期
+     * @param enableSort   是否启用排序
+     */
+    public IntFastMap(boolean enableExpire, boolean enableSort) {
+        this.map = new LongFastMap<>(enableExpire, enableSort);
+    }
+
+    /**
+     * 构造器
+     *
+     * @param enableExpire    是否启用过期
+     * @param enableSort      是否启用排序
+     * @param initialCapacity 预计的数据条数，避免扩容
+     */
+    public IntFastMap(boolean enableExpire, boolean enableSort, int initialCapacity) {
+        this.map = new LongFastMap<>(enableExpire, enableSort, initialCapacity);
+    }
+
+    public V get(int key) {
+        return map.get(key);
+    }
+
+    public V getOrDefault(int key, V defaultValue) {
+        return map.getOrDefault(key, defaultValue);
+    }
+
+    public boolean containsKey(int key) {
+        return map.containsKey(key);
+    }
+
+    public V put(int key, V value) {
+        return map.put(key, value);
+    }
+
+    public V putIfAbsent(int key, V value) {
+        return map.putIfAbsent(key, value);
+    }
+
+    public V remove(int key) {
+        return map.remove(key);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    /**
+     * 设置过期时间（n毫秒后），重复调用可以重置过期时间
+     *
+     * @param key 键
+     * @param ms  指定毫秒数后过期
+     * @return 具体的过期时刻；key不存在时返回-1
+     */
+    public long expire(int key, long ms) {
+        return map.expire(key, ms);
+    }
+
+    /**
+     * 获取Key的存活时间
+     *
+     * @param key 键
+     * @return 还有多少毫秒过期；key不存在、已经过期或未设置过期时间时返回-1
+     */
+    public long ttl(int key) {
+        return map.ttl(key);
+    }
+
+    /**
+     * 按哈希表顺序遍历所有未过期的数据
+     *
+     * @param action 处理函数，在读锁内执行
+     */
+    public void forEach(IntEntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        map.forEach((key, value) -> action.accept((int) key, value));
+    }
+
+    /**
+     * 按key升序遍历范围内未过期的数据，需要启用排序
+     *
+     * @param fromKey       开始键
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键
+     * @param toInclusive   结束键是否包含
+     * @param action        处理函数，在读锁内执行
+     */
+    public void forEachInRange(int fromKey, boolean fromInclusive, int toKey, boolean toInclusive,
+                               IntEntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        map.forEachInRange(fromKey, fromInclusive, toKey, toInclusive, (key, value) -> action.accept((int) key, value));
+    }
+
+    /**
+     * 分页读取范围内未过期的key，需要启用排序
+     *
+     * @param fromKey       开始键
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键
+     * @param toInclusive   结束键是否包含
+     * @param offset        跳过前offset条
+     * @param limit         最多返回limit条
+     * @return 升序的key
+     */
+    public int[] keys(int fromKey, boolean fromInclusive, int toKey, boolean toInclusive, int offset, int limit) {
+        long[] keys = map.keys(fromKey, fromInclusive, toKey, toInclusive, offset, limit);
+        int[] result = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            result[i] = (int) keys[i];
+        }
+        return result;
+    }
+
+    /**
+     * 最小的未过期key，需要启用排序
+     *
+     * @return key
+     * @throws NoSuchElementException 没有数据
+     */
+    public int firstKey() {
+        return (int) map.firstKey();
+    }
+
+    /**
+     * 最大的未过期key，需要启用排序
+     *
+     * @return key
+     * @throws NoSuchElementException 没有数据
+     */
+    public int lastKey() {
+        return (int) map.lastKey();
+    }
+}
@@ -0,0 +1,60 @@
+package com.hdwang.fastmap;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按2的幂分桶的耗时直方图，记录一次只需累加两个LongAdder，多线程并发记录时几乎没有竞争。
+ * 第i个桶统计耗时在[2^(i-1), 2^i)纳秒之间的次数，第0个桶统计耗时为0的次数。
+ *
+ * @author wanghuidong
+ */
+final class LatencyHistogram {
+
+    /**
+     * 桶的数量，最后一个桶包含约4.5分钟以上的所有耗时
+     */
+    static final int BUCKET_COUNT = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_COUNT];
+
+    private final LongAdder totalNanos = new LongAdder();
+
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0L);
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 记录一次耗时
+     *
+     * @param nanos 耗时（纳秒），负数按0记录
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(nanos));
+        buckets[bucket].increment();
+        totalNanos.add(nanos);
+        if (nanos > maxNanos.get()) {
+            maxNanos.accumulate(nanos);
+        }
+    }
+
+    /**
+     * 当前记录的快照，并发记录时各字段之间可能有细微的不一致
+     *
+     * @return 快照
+     */
+    FastMapStats.Histogram snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return new FastMapStats.Histogram(counts, totalNanos.sum(), maxNanos.get());
+    }
+}
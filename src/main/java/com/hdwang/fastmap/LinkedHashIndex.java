@@ -0,0 +1,538 @@
+package com.hdwang.fastmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * 未排序模式的数据存储：哈希表加按插入顺序串联的双向链表。
+ * <p>
+ * 与HashMap不同，节点被删除后保留指向后继的指针并标记为已删除，
+ * 遍历可以在释放读锁后从上次停留的节点继续，沿后继指针跳过已删除的节点，不需要复制整个Map。
+ * </p>
+ * <p>
+ * 与HashMap一样，单个桶的冲突链过长时改为有序结构（先按hash，hash相同时按Comparable的key排序），
+ * 大量key的hash冲突时查询仍为O(log n)。
+ * </p>
+ * 非线程安全，由FastMap的读写锁保护：写操作需要写锁，查询和遍历只需读锁。
+ *
+ * @author wanghuidong
+ */
+final class LinkedHashIndex<K, V> extends AbstractMap<K, V> {
+
+    /**
+     * 哈希表初始容量，必须是2的幂
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * 桶内节点数达到该值时改为有序结构
+     */
+    private static final int TREEIFY_THRESHOLD = 8;
+
+    /**
+     * 有序结构的节点数降到该值时恢复为链表
+     */
+    private static final int UNTREEIFY_THRESHOLD = 6;
+
+    /**
+     * 哈希表容量小于该值时优先扩容，不改为有序结构
+     */
+    private static final int MIN_TREEIFY_CAPACITY = 64;
+
+    private Node<K, V>[] table = newTable(INITIAL_CAPACITY);
+
+    /**
+     * 冲突过多的桶改用的有序结构，与table下标对应；没有这样的桶时为null
+     */
+    private TreeBin<K, V>[] bins;
+
+    /**
+     * 最早插入的节点
+     */
+    private Node<K, V> head;
+
+    /**
+     * 最晚插入的节点
+     */
+    private Node<K, V> tail;
+
+    private int size;
+
+    private Set<Map.Entry<K, V>> entrySet;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return findNode(key, hash(key)) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = findNode(key, hash(key));
+        return node == null ? null : node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        int hash = hash(key);
+        Node<K, V> node = findNode(key, hash);
+        if (node != null) {
+            V previousValue = node.value;
+            node.value = value;
+            return previousValue;
+        }
+        node = new Node<>(key, value, hash);
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.after = node;
+            node.before = tail;
+        }
+        tail = node;
+
+        int index = hash & (table.length - 1);
+        TreeBin<K, V> bin = bins == null ? null : bins[index];
+        boolean treeify = false;
+        if (bin != null) {
+            bin.add(node);
+        } else {
+            node.nextInBucket = table[index];
+            table[index] = node;
+            treeify = chainLength(node) >= TREEIFY_THRESHOLD;
+        }
+        if (++size > table.length - (table.length >>> 2)) {
+            resize();
+        } else if (treeify) {
+            treeify(index);
+        }
+        return null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        int hash = hash(key);
+        int index = hash & (table.length - 1);
+        TreeBin<K, V> bin = bins == null ? null : bins[index];
+        if (bin != null) {
+            Node<K, V> node = bin.remove(key, hash);
+            if (node == null) {
+                return null;
+            }
+            if (bin.size <= UNTREEIFY_THRESHOLD) {
+                untreeify(index);
+            }
+            unlink(node);
+            size--;
+            return node.value;
+        }
+        Node<K, V> previous = null;
+        for (Node<K, V> e = table[index]; e != null; previous = e, e = e.nextInBucket) {
+            if (e.hash == hash && Objects.equals(e.key, key)) {
+                if (previous == null) {
+                    table[index] = e.nextInBucket;
+                } else {
+                    previous.nextInBucket = e.nextInBucket;
+                }
+                unlink(e);
+                size--;
+                return e.value;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        //逐个标记删除，停留在旧节点上的遍历能够感知
+        for (Node<K, V> node = head; node != null; node = node.after) {
+            node.removed = true;
+        }
+        table = newTable(INITIAL_CAPACITY);
+        bins = null;
+        head = null;
+        tail = null;
+        size = 0;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> es = entrySet;
+        return es != null ? es : (entrySet = new EntrySet());
+    }
+
+    /**
+     * 第一个节点
+     *
+     * @return 第一个节点；没有数据时返回null
+     */
+    Node<K, V> first() {
+        return head;
+    }
+
+    /**
+     * 节点之后的第一个未删除节点。node已被删除时沿保留的后继指针继续查找，
+     * 在node删除之后才插入的数据可能不可见。
+     *
+     * @param node 节点
+     * @return 后继节点；没有时返回null
+     */
+    static <K, V> Node<K, V> successor(Node<K, V> node) {
+        Node<K, V> next = node.after;
+        while (next != null && next.removed) {
+            next = next.after;
+        }
+        return next;
+    }
+
+    private Node<K, V> findNode(Object key, int hash) {
+        int index = hash & (table.length - 1);
+        TreeBin<K, V> bin = bins == null ? null : bins[index];
+        if (bin != null) {
+            return bin.find(key, hash);
+        }
+        for (Node<K, V> e = table[index]; e != null; e = e.nextInBucket) {
+            if (e.hash == hash && Objects.equals(e.key, key)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从链表摘除节点，保留节点自身的after指针
+     */
+    private void unlink(Node<K, V> node) {
+        Node<K, V> before = node.before;
+        Node<K, V> after = node.after;
+        if (before == null) {
+            head = after;
+        } else {
+            before.after = after;
+        }
+        if (after == null) {
+            tail = before;
+        } else {
+            after.before = before;
+        }
+        node.before = null;
+        node.removed = true;
+    }
+
+    private void resize() {
+        Node<K, V>[] newTable = newTable(table.length << 1);
+        int mask = newTable.length - 1;
+        int[] lengths = new int[newTable.length];
+        for (Node<K, V> node = head; node != null; node = node.after) {
+            int index = node.hash & mask;
+            node.nextInBucket = newTable[index];
+            newTable[index] = node;
+            lengths[index]++;
+        }
+        table = newTable;
+        bins = null;
+        if (newTable.length < MIN_TREEIFY_CAPACITY) {
+            return;
+        }
+        for (int index = 0; index < lengths.length; index++) {
+            if (lengths[index] >= TREEIFY_THRESHOLD) {
+                treeify(index);
+            }
+        }
+    }
+
+    /**
+     * 从桶内第一个节点开始统计链表长度，达到TREEIFY_THRESHOLD即停止
+     */
+    private static int chainLength(Node<?, ?> first) {
+        int length = 0;
+        for (Node<?, ?> e = first; e != null && length < TREEIFY_THRESHOLD; e = e.nextInBucket) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * 桶内链表改为有序结构；哈希表容量较小时先扩容，扩容后仍然过长的桶再改为有序结构
+     */
+    private void treeify(int index) {
+        if (table.length < MIN_TREEIFY_CAPACITY) {
+            resize();
+            return;
+        }
+        if (bins == null) {
+            bins = newBins(table.length);
+        }
+        TreeBin<K, V> bin = new TreeBin<>();
+        Node<K, V> e = table[index];
+        while (e != null) {
+            Node<K, V> next = e.nextInBucket;
+            e.nextInBucket = null;
+            bin.add(e);
+            e = next;
+        }
+        table[index] = null;
+        bins[index] = bin;
+    }
+
+    private void untreeify(int index) {
+        TreeBin<K, V> bin = bins[index];
+        bins[index] = null;
+        bin.forEach(node -> {
+            node.nextInBucket = table[index];
+            table[index] = node;
+        });
+    }
+
+    private static int hash(Object key) {
+        int h;
+        return key == null ? 0 : (h = key.hashCode()) ^ (h >>> 16);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> Node<K, V>[] newTable(int capacity) {
+        return (Node<K, V>[]) new Node<?, ?>[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K, V> TreeBin<K, V>[] newBins(int capacity) {
+        return (TreeBin<K, V>[]) new TreeBin<?, ?>[capacity];
+    }
+
+    /**
+     * 冲突过多的桶：按hash分组，hash相同的key再按Comparable排序。
+     * null、未实现Comparable以及compareTo与equals不一致的key放入分组内的列表逐个比较
+     */
+    private static final class TreeBin<K, V> {
+
+        /**
+         * hash相同的key先按类名排序，同一个类再按compareTo排序
+         */
+        @SuppressWarnings("unchecked")
+        private static final Comparator<Object> KEY_ORDER = (left, right) -> {
+            Class<?> leftClass = left.getClass();
+            Class<?> rightClass = right.getClass();
+            if (leftClass != rightClass) {
+                return leftClass.getName().compareTo(rightClass.getName());
+            }
+            return ((Comparable<Object>) left).compareTo(right);
+        };
+
+        private final TreeMap<Integer, HashGroup<K, V>> groups = new TreeMap<>();
+
+        private int size;
+
+        Node<K, V> find(Object key, int hash) {
+            HashGroup<K, V> group = groups.get(hash);
+            return group == null ? null : group.find(key);
+        }
+
+        void add(Node<K, V> node) {
+            HashGroup<K, V> group = groups.get(node.hash);
+            if (group == null) {
+                group = new HashGroup<>();
+                groups.put(node.hash, group);
+            }
+            group.add(node);
+            size++;
+        }
+
+        Node<K, V> remove(Object key, int hash) {
+            HashGroup<K, V> group = groups.get(hash);
+            Node<K, V> node = group == null ? null : group.find(key);
+            if (node == null) {
+                return null;
+            }
+            if (group.remove(node)) {
+                groups.remove(hash);
+            }
+            size--;
+            return node;
+        }
+
+        void forEach(Consumer<Node<K, V>> action) {
+            for (HashGroup<K, V> group : groups.values()) {
+                if (group.ordered != null) {
+                    group.ordered.values().forEach(action);
+                }
+                if (group.others != null) {
+                    group.others.forEach(action);
+                }
+            }
+        }
+    }
+
+    private static final class HashGroup<K, V> {
+        private TreeMap<Object, Node<K, V>> ordered;
+        private List<Node<K, V>> others;
+
+        Node<K, V> find(Object key) {
+            if (ordered != null && key instanceof Comparable) {
+                Node<K, V> node = ordered.get(key);
+                if (node != null && Objects.equals(node.key, key)) {
+                    return node;
+                }
+            }
+            if (others != null) {
+                for (Node<K, V> node : others) {
+                    if (Objects.equals(node.key, key)) {
+                        return node;
+                    }
+                }
+            }
+            return null;
+        }
+
+        void add(Node<K, V> node) {
+            if (node.key instanceof Comparable) {
+                if (ordered == null) {
+                    ordered = new TreeMap<>(TreeBin.KEY_ORDER);
+                }
+                //compareTo认为相等但不equals的key不能放入有序结构
+                if (ordered.putIfAbsent(node.key, node) == null) {
+                    return;
+                }
+            }
+            if (others == null) {
+                others = new ArrayList<>();
+            }
+            others.add(node);
+        }
+
+        /**
+         * 删除节点
+         *
+         * @return 分组是否已空
+         */
+        boolean remove(Node<K, V> node) {
+            if (ordered != null && node.key instanceof Comparable && ordered.get(node.key) == node) {
+                ordered.remove(node.key);
+            } else {
+                others.removeIf(e -> e == node);
+            }
+            return (ordered == null || ordered.isEmpty()) && (others == null || others.isEmpty());
+        }
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new Iterator<Map.Entry<K, V>>() {
+                private Node<K, V> next = head;
+                private Node<K, V> last;
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public Map.Entry<K, V> next() {
+                    Node<K, V> node = next;
+                    if (node == null) {
+                        throw new NoSuchElementException();
+                    }
+                    next = successor(node);
+                    last = node;
+                    return node;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    LinkedHashIndex.this.remove(last.key);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public void clear() {
+            LinkedHashIndex.this.clear();
+        }
+    }
+
+    /**
+     * 节点同时位于哈希桶链表和插入顺序链表中
+     */
+    static final class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        V value;
+        final int hash;
+        Node<K, V> nextInBucket;
+        Node<K, V> before;
+        Node<K, V> after;
+
+        /**
+         * 是否已从Map中删除
+         */
+        boolean removed;
+
+        private Node(K key, V value, int hash) {
+            this.key = key;
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previousValue = this.value;
+            this.value = value;
+            return previousValue;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            return Objects.equals(key, entry.getKey()) && Objects.equals(value, entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(key) ^ Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package com.hdwang.fastmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 自动加载的缓存，基于任意IFastMap（FastMap、StripedFastMap等）存储数据。
+ * <p>
+ * 同一个key的并发加载会合并为一次loader调用，其他线程等待同一个加载结果，冷启动或热点key过期时不会击穿到数据源；
+ * 配置refreshAfterWrite后，数据写入超过指定时间再被读取时，先返回旧值，同时在后台线程池中刷新。
+ * </p>
+ * 过期时间、容量上限等仍由底层的IFastMap负责，例如在loader返回后调用asMap().expire(...)。
+ *
+ * @author wanghuidong
+ */
+public class LoadingFastMap<K, V> {
+
+    /**
+     * 每写入多少次检查一次写入时间表中残留的key
+     */
+    private static final int PURGE_INTERVAL = 1024;
+
+    private final IFastMap<K, V> map;
+
+    private final CacheLoader<K, V> loader;
+
+    /**
+     * 写入后多久需要刷新（纳秒），0表示不刷新
+     */
+    private final long refreshAfterWriteNanos;
+
+    /**
+     * 执行后台刷新的线程池
+     */
+    private final Executor refreshExecutor;
+
+    /**
+     * 正在进行的加载和刷新，同一个key只有一个
+     */
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 数据的写入时间（nanoTime），只在启用刷新时记录
+     */
+    private final ConcurrentHashMap<K, Long> writeTimes = new ConcurrentHashMap<>();
+
+    private final AtomicInteger writeCount = new AtomicInteger();
+
+    /**
+     * 是否已有清理写入时间表的任务在后台执行
+     */
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    /**
+     * 构造器，不自动刷新
+     *
+     * @param map    存储数据的Map
+     * @param loader 数据加载器
+     */
+    public LoadingFastMap(IFastMap<K, V> map, CacheLoader<K, V> loader) {
+        this(map, loader, 0L);
+    }
+
+    /**
+     * 构造器，后台刷新在ForkJoinPool公共线程池中执行
+     *
+     * @param map                  存储数据的Map
+     * @param loader               数据加载器
+     * @param refreshAfterWriteMs  写入后多少毫秒再被读取时后台刷新，0表示不刷新
+     */
+    public LoadingFastMap(IFastMap<K, V> map, CacheLoader<K, V> loader, long refreshAfterWriteMs) {
+        this(map, loader, refreshAfterWriteMs, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 构造器
+     *
+     * @param map                 存储数据的Map
+     * @param loader              数据加载器
+     * @param refreshAfterWriteMs 写入后多少毫秒再被读取时后台刷新，0表示不刷新
+     * @param refreshExecutor     执行后台刷新的线程池
+     */
+    public LoadingFastMap(IFastMap<K, V> map, CacheLoader<K, V> loader, long refreshAfterWriteMs,
+                          Executor refreshExecutor) {
+        if (refreshAfterWriteMs < 0) {
+            throw new IllegalArgumentException("refreshAfterWriteMs must be greater than or equal to 0");
+        }
+        this.map = Objects.requireNonNull(map, "map");
+        this.loader = Objects.requireNonNull(loader, "loader");
+        this.refreshAfterWriteNanos = TimeUnit.MILLISECONDS.toNanos(refreshAfterWriteMs);
+        this.refreshExecutor = Objects.requireNonNull(refreshExecutor, "refreshExecutor");
+    }
+
+    /**
+     * 获取key的值，不存在时调用loader加载，同一个key的并发加载只调用一次loader
+     *
+     * @param key 键
+     * @return 值；loader返回null时返回null
+     * @throws RuntimeException loader抛出的异常，受检异常会被包装
+     */
+    public V get(K key) {
+        Objects.requireNonNull(key);
+        V value = map.get(key);
+        if (value != null) {
+            refreshIfNeeded(key, value);
+            return value;
+        }
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            //再次检查，等待期间其他线程可能已经加载完成
+            value = map.get(key);
+            if (value == null) {
+                value = loader.load(key);
+                if (value != null) {
+                    put(key, value);
+                }
+            }
+        } catch (Throwable throwable) {
+            //先移除再完成，保证等待的线程拿到异常后重试时会重新加载
+            inFlight.remove(key, future);
+            future.completeExceptionally(throwable);
+            throw propagate(throwable);
+        }
+        inFlight.remove(key, future);
+        future.complete(value);
+        return value;
+    }
+
+    /**
+     * 获取key的值，不触发加载
+     *
+     * @param key 键
+     * @return 值；不存在时返回null
+     */
+    public V getIfPresent(Object key) {
+        return map.get(key);
+    }
+
+    /**
+     * 批量获取，缓存中不存在的key通过一次loader.loadAll加载；其他线程正在加载的key等待其结果
+     *
+     * @param keys 键
+     * @return 按keys顺序排列的数据，不包含不存在的key
+     */
+    public Map<K, V> getAll(Iterable<? extends K> keys) {
+        Map<K, V> result = new LinkedHashMap<>();
+        Set<K> missing = new LinkedHashSet<>();
+        for (K key : keys) {
+            Objects.requireNonNull(key);
+            V value = map.get(key);
+            if (value != null) {
+                refreshIfNeeded(key, value);
+                result.put(key, value);
+            } else {
+                missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        Map<K, CompletableFuture<V>> owned = new LinkedHashMap<>();
+        Map<K, CompletableFuture<V>> waiting = new LinkedHashMap<>();
+        for (K key : missing) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                owned.put(key, future);
+            } else {
+                waiting.put(key, existing);
+            }
+        }
+        Map<K, V> loaded = Collections.emptyMap();
+        try {
+            //再次检查，等待期间其他线程可能已经加载完成，只加载仍然不存在的key
+            for (Iterator<Map.Entry<K, CompletableFuture<V>>> iterator = owned.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<K, CompletableFuture<V>> entry = iterator.next();
+                V value = map.get(entry.getKey());
+                if (value != null) {
+                    result.put(entry.getKey(), value);
+                    inFlight.remove(entry.getKey(), entry.getValue());
+                    entry.getValue().complete(value);
+                    iterator.remove();
+                }
+            }
+            if (!owned.isEmpty()) {
+                loaded = loader.loadAll(Collections.unmodifiableSet(owned.keySet()));
+                if (loaded == null) {
+                    loaded = Collections.emptyMap();
+                }
+                for (Map.Entry<K, V> entry : loaded.entrySet()) {
+                    if (entry.getValue() != null && owned.containsKey(entry.getKey())) {
+                        put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } catch (Throwable throwable) {
+            for (Map.Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+                inFlight.remove(entry.getKey(), entry.getValue());
+                entry.getValue().completeExceptionally(throwable);
+            }
+            throw propagate(throwable);
+        }
+        for (Map.Entry<K, CompletableFuture<V>> entry : owned.entrySet()) {
+            inFlight.remove(entry.getKey(), entry.getValue());
+            entry.getValue().complete(loaded.get(entry.getKey()));
+        }
+
+        Map<K, V> ordered = new LinkedHashMap<>();
+        for (K key : keys) {
+            V value = result.get(key);
+            if (value == null) {
+                value = owned.containsKey(key) ? loaded.get(key) : null;
+            }
+            if (value == null && waiting.containsKey(key)) {
+                value = join(waiting.get(key));
+            }
+            if (value != null) {
+                ordered.put(key, value);
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 写入数据
+     *
+     * @param key   键
+     * @param value 值
+     */
+    public void put(K key, V value) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(value);
+        map.put(key, value);
+        recordWrite(key);
+    }
+
+    /**
+     * 在后台重新加载key，加载期间继续返回旧值；key不存在时加载后写入
+     *
+     * @param key 键
+     * @return 刷新结果
+     */
+    public CompletableFuture<V> refresh(K key) {
+        Objects.requireNonNull(key);
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            refreshExecutor.execute(() -> reload(key, future));
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, future);
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * 删除key
+     *
+     * @param key 键
+     */
+    public void invalidate(Object key) {
+        map.remove(key);
+        writeTimes.remove(key);
+    }
+
+    /**
+     * 删除所有数据
+     */
+    public void invalidateAll() {
+        map.clear();
+        writeTimes.clear();
+    }
+
+    /**
+     * 存储数据的Map，可以直接设置过期时间、执行范围查询等；直接写入的数据不会记录刷新时间
+     *
+     * @return 底层的IFastMap
+     */
+    public IFastMap<K, V> asMap() {
+        return map;
+    }
+
+    private void refreshIfNeeded(K key, V value) {
+        if (refreshAfterWriteNanos == 0) {
+            return;
+        }
+        Long writeTime = writeTimes.get(key);
+        if (writeTime != null && System.nanoTime() - writeTime >= refreshAfterWriteNanos
+                && !inFlight.containsKey(key)) {
+            refresh(key);
+        }
+    }
+
+    private void reload(K key, CompletableFuture<V> future) {
+        try {
+            V oldValue = map.get(key);
+            V newValue = oldValue == null ? loader.load(key) : loader.reload(key, oldValue);
+            if (newValue != null) {
+                //刷新期间数据被修改或删除时丢弃刷新结果
+                boolean written = oldValue == null ? map.putIfAbsent(key, newValue) == null
+                        : map.replace(key, oldValue, newValue);
+                if (written) {
+                    recordWrite(key);
+                }
+            } else {
+                newValue = oldValue;
+                //保留旧值时重新计时，否则每次读取都会再次触发刷新
+                if (oldValue != null && map.get(key) == oldValue) {
+                    recordWrite(key);
+                }
+            }
+            inFlight.remove(key, future);
+            future.complete(newValue);
+        } catch (Throwable throwable) {
+            //刷新失败时保留旧值，下次读取再次尝试
+            inFlight.remove(key, future);
+            FastMap.reportBackgroundFailure("LoadingFastMap refresh failed for key " + key, throwable);
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    private void recordWrite(K key) {
+        if (refreshAfterWriteNanos == 0) {
+            return;
+        }
+        writeTimes.put(key, System.nanoTime());
+        //底层Map过期或淘汰的key不会通知这里，定期在刷新线程池中清理写入时间表中残留的key，不阻塞写入线程
+        if (writeCount.incrementAndGet() % PURGE_INTERVAL == 0 && purging.compareAndSet(false, true)) {
+            try {
+                refreshExecutor.execute(this::purgeWriteTimes);
+            } catch (RejectedExecutionException e) {
+                //线程池拒绝时跳过本次清理，下一个周期再试
+                purging.set(false);
+            }
+        }
+    }
+
+    private void purgeWriteTimes() {
+        try {
+            List<K> stale = new ArrayList<>();
+            for (K candidate : writeTimes.keySet()) {
+                if (!map.containsKey(candidate)) {
+                    stale.add(candidate);
+                }
+            }
+            for (K candidate : stale) {
+                //只删除检查之后没有重新写入的key
+                Long writeTime = writeTimes.get(candidate);
+                if (writeTime != null && !map.containsKey(candidate)) {
+                    writeTimes.remove(candidate, writeTime);
+                }
+            }
+        } finally {
+            purging.set(false);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw propagate(e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable throwable) {
+        if (throwable instanceof RuntimeException) {
+            throw (RuntimeException) throwable;
+        }
+        if (throwable instanceof Error) {
+            throw (Error) throwable;
+        }
+        return new RuntimeException(throwable);
+    }
+}
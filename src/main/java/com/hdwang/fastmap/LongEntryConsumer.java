@@ -0,0 +1,18 @@
+package com.hdwang.fastmap;
+
+/**
+ * LongFastMap的遍历函数，key不装箱
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface LongEntryConsumer<V> {
+
+    /**
+     * 处理一条数据
+     *
+     * @param key   键
+     * @param value 值
+     */
+    void accept(long key, V value);
+}
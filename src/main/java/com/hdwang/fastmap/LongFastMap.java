@@ -0,0 +1,735 @@
+package com.hdwang.fastmap;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * key为long的FastMap，key、过期时刻和排序索引都用基本类型数组保存，读写不装箱。
+ * <p>
+ * 哈希索引是开放寻址（线性探测）的三个平行数组：long[] key、Object[] value、long[] 过期时刻，删除时后移填补空位，没有墓碑；
+ * 排序索引是分块的有序long数组（LongSortedIndex）；过期时刻另有一个基本类型的小顶堆，供全局过期清理线程定位到期的key。
+ * 每条数据约占 8（key）+ 4~8（value引用）+ 8（过期时刻）字节再除以负载因子，加上排序索引的8字节，
+ * 而FastMap&lt;Long, V&gt;每条数据需要装箱的key、两个索引的节点和时间轮节点。
+ * </p>
+ * <p>
+ * value不能为null。expire和ttl返回long，key不存在时返回-1。遍历和范围查询在读锁内执行action，action中不能修改本Map。
+ * 不支持过期回调、容量上限和写前日志，需要这些功能时使用FastMap。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public class LongFastMap<V> {
+
+    /**
+     * 清理线程每轮最多删除的过期key数量
+     */
+    private static final int EXPIRE_BATCH_SIZE = 1024;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private static final long[] EMPTY = new long[0];
+
+    private final boolean enableExpire;
+
+    private final boolean enableSort;
+
+    private final ReentrantReadWriteLock dataLock = new ReentrantReadWriteLock();
+
+    private final ReentrantReadWriteLock.ReadLock dataReadLock = dataLock.readLock();
+
+    private final ReentrantReadWriteLock.WriteLock dataWriteLock = dataLock.writeLock();
+
+    private long[] keys;
+
+    /**
+     * 为null表示空槽
+     */
+    private Object[] values;
+
+    /**
+     * 过期时刻（毫秒，FastMap.currentTimestamp），未启用过期功能时为null
+     */
+    private long[] deadlines;
+
+    private int mask;
+
+    private int count;
+
+    private int threshold;
+
+    private final LongSortedIndex sortedIndex;
+
+    /**
+     * 过期时刻的小顶堆（过期时刻和key两个平行数组）。修改或删除后旧的堆元素不立即删除，出堆时与当前过期时刻比较后丢弃
+     */
+    private long[] heapDeadlines = EMPTY;
+
+    private long[] heapKeys = EMPTY;
+
+    private int heapSize;
+
+    /**
+     * 设置了过期时刻的数据条数，堆中过时的元素过多时据此重建堆
+     */
+    private int timedEntries;
+
+    private final SweepStats sweepStats = new SweepStats();
+
+    /**
+     * 注册到过期清理线程的入口，与实例同生命周期
+     */
+    private final ExpirationSweeper.Target sweepTarget = new ExpirationSweeper.Target() {
+        @Override
+        public long nextSweepTime() {
+            return LongFastMap.this.nextSweepTime();
+        }
+
+        @Override
+        public int sweepExpiredData() {
+            return LongFastMap.this.sweepExpiredData();
+        }
+
+        @Override
+        public SweepStats sweepStats() {
+            return LongFastMap.this.sweepStats;
+        }
+    };
+
+    /**
+     * 默认构造器，启用过期，不排序
+     */
+    public LongFastMap() {
+        this(true, false);
+    }
+
+    /**
+     * 构造器
+     *
+     * @param enableExpire 是否启用过期
+     * @param enableSort   是否启用排序
+     */
+    public LongFastMap(boolean enableExpire, boolean enableSort) {
+        this(enableExpire, enableSort, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 构造器
+     *
+     * @param enableExpire    是否启用过期
+     * @param enableSort      是否启用排序
+     * @param initialCapacity 预计的数据条数，避免扩容
+     */
+    public LongFastMap(boolean enableExpire, boolean enableSort, int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity must be greater than or equal to 0");
+        }
+        this.enableExpire = enableExpire;
+        this.enableSort = enableSort;
+        this.sortedIndex = enableSort ? new LongSortedIndex() : null;
+        allocate(tableSizeFor((int) Math.min(1 << 30, (long) (initialCapacity / LOAD_FACTOR) + 1)));
+        if (enableExpire) {
+            FastMap.registerExpirable(this.sweepTarget);
+        }
+    }
+
+    /**
+     * 获取值
+     *
+     * @param key 键
+     * @return 值；不存在或已过期时返回null
+     */
+    public V get(long key) {
+        long curTimestamp = enableExpire ? FastMap.currentTimestamp() : 0L;
+        try {
+            dataReadLock.lock();
+            int slot = find(key);
+            return slot < 0 || isExpired(slot, curTimestamp) ? null : valueAt(slot);
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    /**
+     * 获取值
+     *
+     * @param key          键
+     * @param defaultValue 不存在时返回的值
+     * @return 值
+     */
+    public V getOrDefault(long key, V defaultValue) {
+        V value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * key是否存在且未过期
+     *
+     * @param key 键
+     * @return 是否存在
+     */
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * 写入数据，覆盖未过期的旧值时保留其过期时间
+     *
+     * @param key   键
+     * @param value 值，不能为null
+     * @return 旧值；不存在或已过期时返回null
+     */
+    public V put(long key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * key不存在（或已过期）时写入
+     *
+     * @param key   键
+     * @param value 值，不能为null
+     * @return 已有的值；写入成功时返回null
+     */
+    public V putIfAbsent(long key, V value) {
+        return put(key, value, true);
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param key 键
+     * @return 删除的值；不存在或已过期时返回null
+     */
+    public V remove(long key) {
+        try {
+            dataWriteLock.lock();
+            int slot = find(key);
+            if (slot < 0) {
+                return null;
+            }
+            V value = isExpired(slot, FastMap.currentTimestamp()) ? null : valueAt(slot);
+            removeSlot(slot);
+            return value;
+        } finally {
+            dataWriteLock.unlock();
+        }
+    }
+
+    /**
+     * 数据条数，先删除已过期的数据
+     *
+     * @return 条数
+     */
+    public int size() {
+        clearExpireData();
+        try {
+            dataReadLock.lock();
+            return count;
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 删除所有数据，保留已分配的数组容量
+     */
+    public void clear() {
+        try {
+            dataWriteLock.lock();
+            Arrays.fill(values, null);
+            count = 0;
+            if (enableSort) {
+                sortedIndex.clear();
+            }
+            heapDeadlines = EMPTY;
+            heapKeys = EMPTY;
+            heapSize = 0;
+            timedEntries = 0;
+        } finally {
+            dataWriteLock.unlock();
+        }
+    }
+
+    /**
+     * 设置过期时间（n毫秒后），重复调用可以重置过期时间
+     *
+     * @param key 键
+     * @param ms  指定毫秒数后过期
+     * @return 具体的过期时刻；key不存在时返回-1
+     */
+    public long expire(long key, long ms) {
+        if (!enableExpire) {
+            throw new RuntimeException("未启用过期功能");
+        }
+        if (ms < 0) {
+            throw new IllegalArgumentException("ms must be greater than or equal to 0");
+        }
+        try {
+            dataWriteLock.lock();
+            long curTimestamp = FastMap.currentTimestamp();
+            int slot = find(key);
+            if (slot < 0) {
+                return -1L;
+            }
+            if (isExpired(slot, curTimestamp)) {
+                removeSlot(slot);
+                return -1L;
+            }
+            long deadline = FastMap.saturatedAdd(curTimestamp, ms);
+            if (deadlines[slot] == NO_DEADLINE) {
+                timedEntries++;
+            }
+            deadlines[slot] = deadline;
+            pushDeadline(deadline, key);
+            return deadline;
+        } finally {
+            dataWriteLock.unlock();
+        }
+    }
+
+    /**
+     * 获取Key的存活时间
+     *
+     * @param key 键
+     * @return 还有多少毫秒过期；key不存在、已经过期或未设置过期时间时返回-1
+     */
+    public long ttl(long key) {
+        if (!enableExpire) {
+            throw new RuntimeException("未启用过期功能");
+        }
+        long curTimestamp = FastMap.currentTimestamp();
+        try {
+            dataReadLock.lock();
+            int slot = find(key);
+            if (slot < 0 || deadlines[slot] == NO_DEADLINE || deadlines[slot] <= curTimestamp) {
+                return -1L;
+            }
+            return deadlines[slot] - curTimestamp;
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    /**
+     * 按哈希表顺序遍历所有未过期的数据
+     *
+     * @param action 处理函数，在读锁内执行
+     */
+    public void forEach(LongEntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        long curTimestamp = enableExpire ? FastMap.currentTimestamp() : 0L;
+        try {
+            dataReadLock.lock();
+            for (int slot = 0; slot < values.length; slot++) {
+                if (values[slot] != null && !isExpired(slot, curTimestamp)) {
+                    action.accept(keys[slot], valueAt(slot));
+                }
+            }
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    /**
+     * 按key升序遍历范围内未过期的数据，需要启用排序
+     *
+     * @param fromKey       开始键
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键
+     * @param toInclusive   结束键是否包含
+     * @param action        处理函数，在读锁内执行
+     */
+    public void forEachInRange(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive,
+                               LongEntryConsumer<? super V> action) {
+        Objects.requireNonNull(action);
+        checkSort();
+        long curTimestamp = enableExpire ? FastMap.currentTimestamp() : 0L;
+        try {
+            dataReadLock.lock();
+            sortedIndex.forEach(fromKey, fromInclusive, toKey, toInclusive, key -> {
+                int slot = find(key);
+                if (!isExpired(slot, curTimestamp)) {
+                    action.accept(key, valueAt(slot));
+                }
+                return true;
+            });
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    /**
+     * 分页读取范围内未过期的key，需要启用排序
+     *
+     * @param fromKey       开始键
+     * @param fromInclusive 开始键是否包含
+     * @param toKey         结束键
+     * @param toInclusive   结束键是否包含
+     * @param offset        跳过前offset条
+     * @param limit         最多返回limit条
+     * @return 升序的key
+     */
+    public long[] keys(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive, int offset, int limit) {
+        checkSort();
+        FastMap.checkPage(offset, limit);
+        long curTimestamp = enableExpire ? FastMap.currentTimestamp() : 0L;
+        long[][] result = {new long[Math.min(limit, 64)]};
+        int[] counters = new int[2];
+        try {
+            dataReadLock.lock();
+            sortedIndex.forEach(fromKey, fromInclusive, toKey, toInclusive, key -> {
+                if (counters[1] >= limit) {
+                    return false;
+                }
+                if (isExpired(find(key), curTimestamp)) {
+                    return true;
+                }
+                if (counters[0] < offset) {
+                    counters[0]++;
+                    return true;
+                }
+                if (counters[1] == result[0].length) {
+                    result[0] = Arrays.copyOf(result[0], Math.min(limit, counters[1] * 2));
+                }
+                result[0][counters[1]++] = key;
+                return true;
+            });
+        } finally {
+            dataReadLock.unlock();
+        }
+        return counters[1] == result[0].length ? result[0] : Arrays.copyOf(result[0], counters[1]);
+    }
+
+    /**
+     * 最小的未过期key，需要启用排序
+     *
+     * @return key
+     * @throws NoSuchElementException 没有数据
+     */
+    public long firstKey() {
+        checkSort();
+        long curTimestamp = enableExpire ? FastMap.currentTimestamp() : 0L;
+        long[] found = new long[1];
+        boolean[] exists = new boolean[1];
+        try {
+            dataReadLock.lock();
+            sortedIndex.forEach(Long.MIN_VALUE, true, Long.MAX_VALUE, true, key -> {
+                if (isExpired(find(key), curTimestamp)) {
+                    return true;
+                }
+                found[0] = key;
+                exists[0] = true;
+                return false;
+            });
+        } finally {
+            dataReadLock.unlock();
+        }
+        if (!exists[0]) {
+            throw new NoSuchElementException();
+        }
+        return found[0];
+    }
+
+    /**
+     * 最大的未过期key，需要启用排序
+     *
+     * @return key
+     * @throws NoSuchElementException 没有数据
+     */
+    public long lastKey() {
+        checkSort();
+        long curTimestamp = enableExpire ? FastMap.currentTimestamp() : 0L;
+        long[] found = new long[1];
+        boolean[] exists = new boolean[1];
+        try {
+            dataReadLock.lock();
+            sortedIndex.forEachDescending(key -> {
+                if (isExpired(find(key), curTimestamp)) {
+                    return true;
+                }
+                found[0] = key;
+                exists[0] = true;
+                return false;
+            });
+        } finally {
+            dataReadLock.unlock();
+        }
+        if (!exists[0]) {
+            throw new NoSuchElementException();
+        }
+        return found[0];
+    }
+
+    private V put(long key, V value, boolean onlyIfAbsent) {
+        Objects.requireNonNull(value, "value");
+        try {
+            dataWriteLock.lock();
+            int slot = find(key);
+            if (slot >= 0) {
+                if (!isExpired(slot, FastMap.currentTimestamp())) {
+                    V previous = valueAt(slot);
+                    if (!onlyIfAbsent) {
+                        values[slot] = value;
+                    }
+                    return previous;
+                }
+                //已过期的key视为不存在，新值不继承过期时间
+                removeSlot(slot);
+            }
+            if (count >= threshold) {
+                allocate(values.length * 2);
+            }
+            slot = hash(key) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+            if (deadlines != null) {
+                deadlines[slot] = NO_DEADLINE;
+            }
+            count++;
+            if (enableSort) {
+                sortedIndex.add(key);
+            }
+            return null;
+        } finally {
+            dataWriteLock.unlock();
+        }
+    }
+
+    /**
+     * 清理线程下次需要清理本实例的时间（毫秒），读操作已按截止时间过滤，允许延迟清理
+     */
+    long nextSweepTime() {
+        try {
+            dataReadLock.lock();
+            return heapSize == 0 ? Long.MAX_VALUE
+                    : FastMap.saturatedAdd(heapDeadlines[0], ExpirationSweeper.LAZY_SWEEP_DELAY_MS);
+        } finally {
+            dataReadLock.unlock();
+        }
+    }
+
+    /**
+     * 清理线程调用：清理一批过期的数据，剩余的到期数据留到下一轮
+     *
+     * @return 删除的key数量
+     */
+    int sweepExpiredData() {
+        try {
+            dataWriteLock.lock();
+            return removeExpired(FastMap.currentTimestamp(), EXPIRE_BATCH_SIZE);
+        } finally {
+            dataWriteLock.unlock();
+        }
+    }
+
+    /**
+     * 删除所有已过期的数据，没有到期数据时不获取写锁
+     */
+    private void clearExpireData() {
+        if (!enableExpire) {
+            return;
+        }
+        long curTimestamp = FastMap.currentTimestamp();
+        try {
+            dataReadLock.lock();
+            if (heapSize == 0 || heapDeadlines[0] > curTimestamp) {
+                return;
+            }
+        } finally {
+            dataReadLock.unlock();
+        }
+        boolean remaining;
+        do {
+            try {
+                dataWriteLock.lock();
+                removeExpired(curTimestamp, EXPIRE_BATCH_SIZE);
+                remaining = heapSize > 0 && heapDeadlines[0] <= curTimestamp;
+            } finally {
+                dataWriteLock.unlock();
+            }
+            //分批删除，批次之间释放写锁让读操作插入
+        } while (remaining);
+    }
+
+    private int removeExpired(long curTimestamp, int maxCount) {
+        int removed = 0;
+        while (removed < maxCount && heapSize > 0 && heapDeadlines[0] <= curTimestamp) {
+            long deadline = heapDeadlines[0];
+            long key = heapKeys[0];
+            popDeadline();
+            int slot = find(key);
+            if (slot >= 0 && deadlines[slot] == deadline) {
+                removeSlot(slot);
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private int find(long key) {
+        for (int slot = hash(key) & mask; values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isExpired(int slot, long curTimestamp) {
+        return deadlines != null && deadlines[slot] <= curTimestamp;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int slot) {
+        return (V) values[slot];
+    }
+
+    /**
+     * 删除一个槽，把后面探测链上的数据前移填补空位
+     */
+    private void removeSlot(int slot) {
+        long key = keys[slot];
+        if (deadlines != null && deadlines[slot] != NO_DEADLINE) {
+            timedEntries--;
+        }
+        if (enableSort) {
+            sortedIndex.remove(key);
+        }
+        count--;
+        int gap = slot;
+        for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            //home不在(gap, i]区间内时，i处的数据可以移到gap
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                if (deadlines != null) {
+                    deadlines[gap] = deadlines[i];
+                }
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        long[] oldDeadlines = deadlines;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        deadlines = enableExpire ? new long[capacity] : null;
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+        if (oldValues == null) {
+            return;
+        }
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) {
+                continue;
+            }
+            int slot = hash(oldKeys[i]) & mask;
+            while (values[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            if (deadlines != null) {
+                deadlines[slot] = oldDeadlines[i];
+            }
+        }
+    }
+
+    private void pushDeadline(long deadline, long key) {
+        if (heapSize > 2 * timedEntries + 64) {
+            //过时的堆元素过多，按当前的过期时刻重建（新的过期时刻已写入deadlines）
+            rebuildHeap();
+            return;
+        }
+        if (heapSize == heapDeadlines.length) {
+            int capacity = Math.max(16, heapSize * 2);
+            heapDeadlines = Arrays.copyOf(heapDeadlines, capacity);
+            heapKeys = Arrays.copyOf(heapKeys, capacity);
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapDeadlines[parent] <= deadline) {
+                break;
+            }
+            heapDeadlines[i] = heapDeadlines[parent];
+            heapKeys[i] = heapKeys[parent];
+            i = parent;
+        }
+        heapDeadlines[i] = deadline;
+        heapKeys[i] = key;
+    }
+
+    private void popDeadline() {
+        heapSize--;
+        if (heapSize > 0) {
+            siftDown(0, heapDeadlines[heapSize], heapKeys[heapSize]);
+        }
+    }
+
+    private void siftDown(int i, long deadline, long key) {
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && heapDeadlines[child + 1] < heapDeadlines[child]) {
+                child++;
+            }
+            if (deadline <= heapDeadlines[child]) {
+                break;
+            }
+            heapDeadlines[i] = heapDeadlines[child];
+            heapKeys[i] = heapKeys[child];
+            i = child;
+        }
+        heapDeadlines[i] = deadline;
+        heapKeys[i] = key;
+    }
+
+    private void rebuildHeap() {
+        heapDeadlines = new long[Math.max(16, timedEntries * 2)];
+        heapKeys = new long[heapDeadlines.length];
+        heapSize = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] != null && deadlines[slot] != NO_DEADLINE) {
+                heapDeadlines[heapSize] = deadlines[slot];
+                heapKeys[heapSize] = keys[slot];
+                heapSize++;
+            }
+        }
+        for (int i = (heapSize >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, heapDeadlines[i], heapKeys[i]);
+        }
+    }
+
+    private void checkSort() {
+        if (!enableSort) {
+            throw new RuntimeException("未启用排序");
+        }
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Math.max(DEFAULT_CAPACITY, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+    }
+}
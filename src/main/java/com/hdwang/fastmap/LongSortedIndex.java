@@ -0,0 +1,180 @@
+package com.hdwang.fastmap;
+
+import java.util.Arrays;
+import java.util.function.LongPredicate;
+
+/**
+ * long key的排序索引：两层结构，第二层是若干个有序的long数组块，第一层按块的首个key二分定位块。
+ * <p>
+ * 插入和删除只移动一个块内的数据（最多BLOCK_SIZE个），块满时对半拆分，相邻块过空时合并；
+ * 每个key只占8字节（加上块内的空位），没有节点对象和装箱。非线程安全，由调用方加锁。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+final class LongSortedIndex {
+
+    static final int BLOCK_SIZE = 256;
+
+    private long[][] blocks = new long[8][];
+
+    private int[] sizes = new int[8];
+
+    private int blockCount;
+
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * 插入key，调用方保证key不存在
+     */
+    void add(long key) {
+        if (blockCount == 0) {
+            insertBlock(0, new long[BLOCK_SIZE], 0);
+        }
+        int b = blockOf(key);
+        long[] block = blocks[b];
+        int position = -(Arrays.binarySearch(block, 0, sizes[b], key) + 1);
+        if (sizes[b] == BLOCK_SIZE) {
+            //块已满，对半拆分
+            int half = BLOCK_SIZE / 2;
+            long[] right = new long[BLOCK_SIZE];
+            System.arraycopy(block, half, right, 0, BLOCK_SIZE - half);
+            sizes[b] = half;
+            insertBlock(b + 1, right, BLOCK_SIZE - half);
+            if (position > half) {
+                b++;
+                block = right;
+                position -= half;
+            }
+        }
+        int n = sizes[b];
+        System.arraycopy(block, position, block, position + 1, n - position);
+        block[position] = key;
+        sizes[b] = n + 1;
+        size++;
+    }
+
+    /**
+     * 删除key
+     *
+     * @return key是否存在
+     */
+    boolean remove(long key) {
+        if (blockCount == 0) {
+            return false;
+        }
+        int b = blockOf(key);
+        long[] block = blocks[b];
+        int n = sizes[b];
+        int position = Arrays.binarySearch(block, 0, n, key);
+        if (position < 0) {
+            return false;
+        }
+        System.arraycopy(block, position + 1, block, position, n - position - 1);
+        sizes[b] = n - 1;
+        size--;
+        if (sizes[b] == 0) {
+            removeBlock(b);
+        } else if (b + 1 < blockCount && sizes[b] + sizes[b + 1] <= BLOCK_SIZE / 2) {
+            merge(b);
+        } else if (b > 0 && sizes[b - 1] + sizes[b] <= BLOCK_SIZE / 2) {
+            merge(b - 1);
+        }
+        return true;
+    }
+
+    void clear() {
+        blocks = new long[8][];
+        sizes = new int[8];
+        blockCount = 0;
+        size = 0;
+    }
+
+    /**
+     * 按升序访问[fromKey, toKey]范围内的key，visitor返回false时停止
+     */
+    void forEach(long fromKey, boolean fromInclusive, long toKey, boolean toInclusive, LongPredicate visitor) {
+        if (blockCount == 0) {
+            return;
+        }
+        int b = blockOf(fromKey);
+        int position = Arrays.binarySearch(blocks[b], 0, sizes[b], fromKey);
+        if (position >= 0) {
+            position = fromInclusive ? position : position + 1;
+        } else {
+            position = -(position + 1);
+        }
+        for (; b < blockCount; b++, position = 0) {
+            long[] block = blocks[b];
+            for (int n = sizes[b]; position < n; position++) {
+                long key = block[position];
+                if (key > toKey || (key == toKey && !toInclusive) || !visitor.test(key)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 按降序访问所有key，visitor返回false时停止
+     */
+    void forEachDescending(LongPredicate visitor) {
+        for (int b = blockCount - 1; b >= 0; b--) {
+            long[] block = blocks[b];
+            for (int position = sizes[b] - 1; position >= 0; position--) {
+                if (!visitor.test(block[position])) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 最后一个首个key小于等于key的块；key小于所有key时返回0
+     */
+    private int blockOf(long key) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blocks[mid][0] <= key) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void insertBlock(int index, long[] block, int blockSize) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            sizes = Arrays.copyOf(sizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, index, blocks, index + 1, blockCount - index);
+        System.arraycopy(sizes, index, sizes, index + 1, blockCount - index);
+        blocks[index] = block;
+        sizes[index] = blockSize;
+        blockCount++;
+    }
+
+    private void removeBlock(int index) {
+        System.arraycopy(blocks, index + 1, blocks, index, blockCount - index - 1);
+        System.arraycopy(sizes, index + 1, sizes, index, blockCount - index - 1);
+        blockCount--;
+        blocks[blockCount] = null;
+    }
+
+    /**
+     * 把index+1块合并到index块
+     */
+    private void merge(int index) {
+        System.arraycopy(blocks[index + 1], 0, blocks[index], sizes[index], sizes[index + 1]);
+        sizes[index] += sizes[index + 1];
+        removeBlock(index + 1);
+    }
+}
@@ -0,0 +1,134 @@
+package com.hdwang.fastmap;
+
+import java.util.HashMap;
+
+/**
+ * 最近最少使用（LRU）淘汰策略，淘汰最久未被访问的key，所有操作均为O(1)
+ *
+ * @author wanghuidong
+ */
+public class LruEvictionPolicy<K> implements EvictionPolicy<K> {
+
+    /**
+     * key到链表节点的索引
+     */
+    private final HashMap<K, Node<K>> nodes = new HashMap<>();
+
+    /**
+     * 访问顺序链表的哨兵节点，head.next最久未被访问，head.prev最近被访问
+     */
+    private final Node<K> head = new Node<>(null, 0);
+
+    /**
+     * 总权重
+     */
+    private long weightedSize;
+
+    /**
+     * 构造器
+     *
+     * @param maximum 最大条数或最大权重（LRU不依赖该值）
+     */
+    public LruEvictionPolicy(long maximum) {
+        head.prev = head;
+        head.next = head;
+    }
+
+    /**
+     * 构造器，供EvictionPolicyFactory使用
+     *
+     * @param maximum  最大条数或最大权重（LRU不依赖该值）
+     * @param weighted maximum是否为最大权重（LRU不依赖该值）
+     */
+    public LruEvictionPolicy(long maximum, boolean weighted) {
+        this(maximum);
+    }
+
+    @Override
+    public void recordInsert(K key, long weight) {
+        Node<K> node = nodes.get(key);
+        if (node != null) {
+            recordUpdate(key, weight);
+            return;
+        }
+        node = new Node<>(key, weight);
+        nodes.put(key, node);
+        linkLast(node);
+        weightedSize += weight;
+    }
+
+    @Override
+    public void recordUpdate(K key, long weight) {
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            recordInsert(key, weight);
+            return;
+        }
+        weightedSize += weight - node.weight;
+        node.weight = weight;
+        unlink(node);
+        linkLast(node);
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        Node<K> node = nodes.get(key);
+        if (node != null) {
+            unlink(node);
+            linkLast(node);
+        }
+    }
+
+    @Override
+    public void recordRemove(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+            weightedSize -= node.weight;
+        }
+    }
+
+    @Override
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    @Override
+    public K victim() {
+        return head.next.key;
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        head.prev = head;
+        head.next = head;
+        weightedSize = 0;
+    }
+
+    private void linkLast(Node<K> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Node<K> {
+        private final K key;
+        private long weight;
+        private Node<K> prev;
+        private Node<K> next;
+
+        private Node(K key, long weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.hdwang.fastmap;
+
+/**
+ * 监控读取的实例指标，由各个Map实现以包级方法提供，读取时不清理过期数据、不获取写锁。
+ *
+ * @author wanghuidong
+ */
+interface MapMetrics {
+
+    /**
+     * 数据条数，包括已到期但尚未删除的数据
+     */
+    long estimatedSize();
+
+    /**
+     * 设置了过期时间、尚未删除的key数量
+     */
+    long pendingExpirations();
+
+    /**
+     * 最近一次被过期清理线程清理的耗时（纳秒）
+     */
+    long lastSweepNanos();
+
+    /**
+     * 被过期清理线程清理的累计耗时（纳秒）
+     */
+    long totalSweepNanos();
+
+    /**
+     * 被过期清理线程清理的次数
+     */
+    long sweepCount();
+
+    /**
+     * 估算的数据结构内存占用（字节），按每条数据的索引、过期和淘汰元数据估算，不包括key和value对象本身
+     */
+    long estimatedMemoryBytes();
+
+    /**
+     * 淘汰策略统计的总权重；未设置容量上限时返回-1
+     */
+    long weightedSize();
+}
@@ -0,0 +1,970 @@
+package com.hdwang.fastmap;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * 数据保存在内存映射文件中的只读（可删除、可设置过期时间）FastMap，适合比内存大得多的参考数据。
+ * <p>
+ * 文件由Writer按key升序一次写成，打开时只做映射，不加载数据，常用的页由操作系统缓存在内存中。文件格式：
+ * </p>
+ * <pre>
+ * 文件头（64字节）: int 魔数 "FMMP", int 版本, long 条数, long 排序索引位置, long 过期时刻位置,
+ *                  long 哈希索引位置, long 哈希槽数, long 写入时间, int 标志, int 保留
+ * 数据区: 按key升序排列的记录 int key长度, int value长度（-1表示null）, key, value；记录不跨越1GB分段
+ * 排序索引: long[条数]，第i条记录的位置
+ * 过期时刻: long[条数]，第i条记录的过期时刻（毫秒，系统时间），Long.MAX_VALUE表示不过期
+ * 哈希索引: 开放寻址（线性探测）的哈希表，每个槽 int 哈希值, int 序号+1（0表示空槽）
+ * </pre>
+ * <p>
+ * get通过哈希索引定位，比较的是序列化后的key，因此key序列化器必须对相等的key产生相同的字节；
+ * 范围查询在排序索引上二分查找，然后顺序读取数据区。过期时刻和数据一起保存在文件中，
+ * expire和remove直接修改映射的过期时刻（remove写入一个已经过去的时刻），不移动数据，空间在重新写入文件时回收。
+ * 不支持put，数据变化时用Writer重新生成文件。
+ * </p>
+ * <pre>
+ * try (MappedFastMap.Writer&lt;String, String&gt; writer = MappedFastMap.writer(file, Serializers.STRING, Serializers.STRING, null)) {
+ *     for (Map.Entry&lt;String, String&gt; entry : sortedSource) {
+ *         writer.add(entry.getKey(), entry.getValue());
+ *     }
+ *     writer.finish();
+ * }
+ * MappedFastMap&lt;String, String&gt; map = MappedFastMap.open(file, Serializers.STRING, Serializers.STRING);
+ * </pre>
+ *
+ * @author wanghuidong
+ */
+public class MappedFastMap<K, V> extends AbstractMap<K, V> implements IFastMap<K, V>, Closeable {
+
+    private static final int MAGIC = 0x464D4D50;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 64;
+
+    private static final int RECORD_HEADER_BYTES = 8;
+
+    /**
+     * 文件中有设置了过期时刻的数据
+     */
+    private static final int FLAG_DEADLINES = 1;
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * 已删除数据的过期时刻
+     */
+    private static final long REMOVED = Long.MIN_VALUE;
+
+    private final FileChannel channel;
+
+    private final MappedFile mapped;
+
+    private final boolean writable;
+
+    private final Serializer<K> keySerializer;
+
+    private final Serializer<V> valueSerializer;
+
+    private final Comparator<? super K> comparator;
+
+    private final int count;
+
+    private final long offsetsPosition;
+
+    private final long deadlinesPosition;
+
+    private final long hashPosition;
+
+    private final int hashMask;
+
+    /**
+     * expire和remove的互斥锁，读取不加锁
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 是否可能存在过期或已删除的数据，为false时size不需要扫描过期时刻
+     */
+    private volatile boolean mayExpire;
+
+    private volatile boolean closed;
+
+    private MappedFastMap(FileChannel channel, boolean writable, Serializer<K> keySerializer,
+                          Serializer<V> valueSerializer, Comparator<? super K> comparator) throws IOException {
+        this.channel = channel;
+        this.writable = writable;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.comparator = comparator;
+        long length = channel.size();
+        if (length < HEADER_BYTES) {
+            throw new StreamCorruptedException("mapped file is too short");
+        }
+        this.mapped = new MappedFile(channel, writable);
+        if (mapped.getInt(0) != MAGIC) {
+            throw new StreamCorruptedException("not a mapped FastMap file");
+        }
+        if (mapped.getInt(4) != VERSION) {
+            throw new StreamCorruptedException("unsupported mapped file version " + mapped.getInt(4));
+        }
+        long entries = mapped.getLong(8);
+        this.offsetsPosition = mapped.getLong(16);
+        this.deadlinesPosition = mapped.getLong(24);
+        this.hashPosition = mapped.getLong(32);
+        long slots = mapped.getLong(40);
+        if (entries < 0 || entries > Integer.MAX_VALUE || slots <= entries || Long.bitCount(slots) != 1
+                || offsetsPosition < HEADER_BYTES
+                || deadlinesPosition != offsetsPosition + 8 * entries
+                || hashPosition != deadlinesPosition + 8 * entries
+                || hashPosition + 8 * slots != length) {
+            throw new StreamCorruptedException("corrupted mapped file header");
+        }
+        this.count = (int) entries;
+        this.hashMask = (int) (slots - 1);
+        this.mayExpire = (mapped.getInt(56) & FLAG_DEADLINES) != 0;
+    }
+
+    /**
+     * 打开文件，key按自然顺序排序
+     *
+     * @param file            文件
+     * @param keySerializer   key序列化器，必须与写入时一致
+     * @param valueSerializer value序列化器，必须与写入时一致
+     * @return Map
+     * @throws IOException 打开失败或文件损坏
+     */
+    public static <K, V> MappedFastMap<K, V> open(Path file, Serializer<K> keySerializer,
+                                                  Serializer<V> valueSerializer) throws IOException {
+        return open(file, keySerializer, valueSerializer, null);
+    }
+
+    /**
+     * 打开文件。没有写权限时以只读方式映射，此时expire和remove抛出UnsupportedOperationException。
+     *
+     * @param file            文件
+     * @param keySerializer   key序列化器，必须与写入时一致
+     * @param valueSerializer value序列化器，必须与写入时一致
+     * @param comparator      key比较器，必须与写入时一致；null表示自然顺序
+     * @return Map
+     * @throws IOException 打开失败或文件损坏
+     */
+    public static <K, V> MappedFastMap<K, V> open(Path file, Serializer<K> keySerializer,
+                                                  Serializer<V> valueSerializer,
+                                                  Comparator<? super K> comparator) throws IOException {
+        Objects.requireNonNull(keySerializer, "keySerializer");
+        Objects.requireNonNull(valueSerializer, "valueSerializer");
+        boolean writable = Files.isWritable(file);
+        FileChannel channel = writable
+                ? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new MappedFastMap<>(channel, writable, keySerializer, valueSerializer, comparator);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 创建Writer，写入同目录的临时文件，finish时原子替换目标文件
+     *
+     * @param file            目标文件
+     * @param keySerializer   key序列化器，相等的key必须产生相同的字节
+     * @param valueSerializer value序列化器
+     * @param comparator      key比较器，null表示自然顺序
+     * @return Writer
+     * @throws IOException 创建临时文件失败
+     */
+    public static <K, V> Writer<K, V> writer(Path file, Serializer<? super K> keySerializer,
+                                             Serializer<? super V> valueSerializer,
+                                             Comparator<? super K> comparator) throws IOException {
+        return new Writer<>(file, keySerializer, valueSerializer, comparator);
+    }
+
+    @Override
+    public V get(Object key) {
+        int ordinal = find(key);
+        return ordinal >= 0 && isLive(ordinal, System.currentTimeMillis()) ? readValue(ordinal) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        int ordinal = find(key);
+        return ordinal >= 0 && isLive(ordinal, System.currentTimeMillis());
+    }
+
+    /**
+     * 未过期的数据条数。存在过期时刻时需要扫描整个过期时刻数组。
+     */
+    @Override
+    public int size() {
+        ensureOpen();
+        if (!mayExpire) {
+            return count;
+        }
+        long now = System.currentTimeMillis();
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (isLive(i, now)) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        throw new UnsupportedOperationException("MappedFastMap is read-only, rebuild the file with MappedFastMap.writer");
+    }
+
+    @Override
+    public V remove(Object key) {
+        checkWritable();
+        synchronized (writeLock) {
+            int ordinal = find(key);
+            if (ordinal < 0 || !isLive(ordinal, System.currentTimeMillis())) {
+                return null;
+            }
+            V value = readValue(ordinal);
+            markRemoved(ordinal);
+            return value;
+        }
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                ensureOpen();
+                return new Cursor(0, count);
+            }
+
+            @Override
+            public int size() {
+                return MappedFastMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return comparator;
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return subMap(Objects.requireNonNull(fromKey), fromInclusive, Objects.requireNonNull(toKey), toInclusive,
+                0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey, boolean inclusive) {
+        return subMap(null, false, Objects.requireNonNull(toKey), inclusive, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey, boolean inclusive) {
+        return subMap(Objects.requireNonNull(fromKey), inclusive, null, false, 0, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, int offset, int limit) {
+        FastMap.checkPage(offset, limit);
+        Map<K, V> linkedMap = new LinkedHashMap<>();
+        Cursor cursor = rangeOf(fromKey, fromInclusive, toKey, toInclusive);
+        int skipped = 0;
+        while (linkedMap.size() < limit && cursor.hasNext()) {
+            Entry<K, V> entry = cursor.next();
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                linkedMap.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return linkedMap;
+    }
+
+    @Override
+    public Iterator<Entry<K, V>> rangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        return rangeOf(fromKey, fromInclusive, toKey, toInclusive);
+    }
+
+    @Override
+    public K firstKey() {
+        ensureOpen();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            if (isLive(i, now)) {
+                return readKey(i);
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    @Override
+    public K lastKey() {
+        ensureOpen();
+        long now = System.currentTimeMillis();
+        for (int i = count - 1; i >= 0; i--) {
+            if (isLive(i, now)) {
+                return readKey(i);
+            }
+        }
+        throw new NoSuchElementException();
+    }
+
+    @Override
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        BulkOperations.forEach(BulkOperations.stream(spliterator(0, count), parallelismThreshold, count), action);
+    }
+
+    @Override
+    public void forEachKey(long parallelismThreshold, Consumer<? super K> action) {
+        BulkOperations.forEachKey(BulkOperations.stream(spliterator(0, count), parallelismThreshold, count), action);
+    }
+
+    @Override
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        return BulkOperations.search(BulkOperations.stream(spliterator(0, count), parallelismThreshold, count),
+                searchFunction);
+    }
+
+    @Override
+    public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return BulkOperations.reduce(BulkOperations.stream(spliterator(0, count), parallelismThreshold, count),
+                transformer, reducer);
+    }
+
+    @Override
+    public V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer) {
+        return BulkOperations.reduceValues(BulkOperations.stream(spliterator(0, count), parallelismThreshold, count),
+                reducer);
+    }
+
+    @Override
+    public <U> U reduce(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        ensureOpen();
+        int from = lowerBound(fromKey, fromInclusive);
+        int to = Math.max(from, upperBound(toKey, toInclusive));
+        return BulkOperations.reduce(BulkOperations.stream(spliterator(from, to), parallelismThreshold, to - from),
+                transformer, reducer);
+    }
+
+    /**
+     * 设置过期时间，直接修改文件中的过期时刻
+     *
+     * @param key 指定Key
+     * @param ms  指定毫秒数后过期
+     * @return 过期时刻（毫秒，系统时间）；key不存在时返回null
+     */
+    @Override
+    public Long expire(K key, Long ms) {
+        Objects.requireNonNull(ms, "ms");
+        if (ms < 0) {
+            throw new IllegalArgumentException("ms must be greater than or equal to 0");
+        }
+        checkWritable();
+        synchronized (writeLock) {
+            int ordinal = find(key);
+            long now = System.currentTimeMillis();
+            if (ordinal < 0 || !isLive(ordinal, now)) {
+                return null;
+            }
+            long deadline = FastMap.saturatedAdd(now, ms);
+            markMayExpire();
+            mapped.putLong(deadlinesPosition + 8L * ordinal, deadline);
+            return deadline;
+        }
+    }
+
+    /**
+     * 不支持过期回调：过期的数据只在读取时被过滤，没有清理线程
+     */
+    @Override
+    public Long expire(K key, Long ms, ExpireCallback<K, V> callback) {
+        throw new UnsupportedOperationException("MappedFastMap does not support expire callbacks");
+    }
+
+    @Override
+    public Long ttl(K key) {
+        int ordinal = find(key);
+        if (ordinal < 0) {
+            return null;
+        }
+        long deadline = deadline(ordinal);
+        long now = System.currentTimeMillis();
+        return deadline == NO_DEADLINE || deadline <= now ? null : deadline - now;
+    }
+
+    /**
+     * 把expire和remove的修改写回磁盘
+     */
+    public void force() {
+        ensureOpen();
+        mapped.force();
+    }
+
+    /**
+     * 关闭文件。映射的内存在对象被回收时释放，关闭后不能再访问。
+     *
+     * @throws IOException 关闭失败
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (writable) {
+            mapped.force();
+        }
+        channel.close();
+    }
+
+    /**
+     * 通过哈希索引查找key的序号
+     *
+     * @return 序号；不存在时返回-1
+     */
+    private int find(Object key) {
+        ensureOpen();
+        if (key == null) {
+            return -1;
+        }
+        byte[] keyBytes;
+        try {
+            @SuppressWarnings("unchecked")
+            K typedKey = (K) key;
+            keyBytes = serialize(keySerializer, typedKey);
+        } catch (ClassCastException e) {
+            return -1;
+        }
+        int hash = hash(keyBytes);
+        for (int slot = hash & hashMask; ; slot = (slot + 1) & hashMask) {
+            long slotPosition = hashPosition + 8L * slot;
+            int ordinalPlusOne = mapped.getInt(slotPosition + 4);
+            if (ordinalPlusOne == 0) {
+                return -1;
+            }
+            if (mapped.getInt(slotPosition) == hash) {
+                int ordinal = ordinalPlusOne - 1;
+                long record = recordPosition(ordinal);
+                if (mapped.getInt(record) == keyBytes.length
+                        && mapped.equalsBytes(record + RECORD_HEADER_BYTES, keyBytes)) {
+                    return ordinal;
+                }
+            }
+        }
+    }
+
+    /**
+     * 第一个大于（inclusive时大于等于）fromKey的序号
+     */
+    private int lowerBound(K fromKey, boolean inclusive) {
+        if (fromKey == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(readKey(mid), fromKey);
+            if (c < 0 || (c == 0 && !inclusive)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 第一个超出范围的序号，即第一个大于等于（inclusive时大于）toKey的序号
+     */
+    private int upperBound(K toKey, boolean inclusive) {
+        if (toKey == null) {
+            return count;
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int c = compare(readKey(mid), toKey);
+            if (c < 0 || (c == 0 && inclusive)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Cursor rangeOf(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        ensureOpen();
+        int from = lowerBound(fromKey, fromInclusive);
+        return new Cursor(from, Math.max(from, upperBound(toKey, toInclusive)));
+    }
+
+    private Spliterator<Entry<K, V>> spliterator(int from, int to) {
+        ensureOpen();
+        return new OrdinalSpliterator(from, to);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(K left, K right) {
+        return comparator != null ? comparator.compare(left, right) : ((Comparable<? super K>) left).compareTo(right);
+    }
+
+    private long recordPosition(int ordinal) {
+        return mapped.getLong(offsetsPosition + 8L * ordinal);
+    }
+
+    private long deadline(int ordinal) {
+        return mapped.getLong(deadlinesPosition + 8L * ordinal);
+    }
+
+    private boolean isLive(int ordinal, long now) {
+        return deadline(ordinal) > now;
+    }
+
+    private void markRemoved(int ordinal) {
+        markMayExpire();
+        mapped.putLong(deadlinesPosition + 8L * ordinal, REMOVED);
+    }
+
+    /**
+     * 首次expire或remove时同时在文件头设置标志，重新打开后size仍然扫描过期时刻（调用方持有writeLock）
+     */
+    private void markMayExpire() {
+        if (mayExpire) {
+            return;
+        }
+        mapped.putInt(56, mapped.getInt(56) | FLAG_DEADLINES);
+        mayExpire = true;
+    }
+
+    private K readKey(int ordinal) {
+        long record = recordPosition(ordinal);
+        return deserialize(keySerializer, mapped.getBytes(record + RECORD_HEADER_BYTES, mapped.getInt(record)));
+    }
+
+    private V readValue(int ordinal) {
+        long record = recordPosition(ordinal);
+        int keyLength = mapped.getInt(record);
+        int valueLength = mapped.getInt(record + 4);
+        if (valueLength < 0) {
+            return null;
+        }
+        return deserialize(valueSerializer, mapped.getBytes(record + RECORD_HEADER_BYTES + keyLength, valueLength));
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("MappedFastMap is closed");
+        }
+    }
+
+    private void checkWritable() {
+        if (!writable) {
+            throw new UnsupportedOperationException("mapped file is read-only");
+        }
+    }
+
+    /**
+     * 序列化后key的哈希值，写入和查找使用同一个函数
+     */
+    static int hash(byte[] bytes) {
+        int h = Arrays.hashCode(bytes);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return h ^ (h >>> 16);
+    }
+
+    private static <T> byte[] serialize(Serializer<? super T> serializer, T object) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            serializer.write(new DataOutputStream(bytes), object);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to serialize", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static <T> T deserialize(Serializer<T> serializer, byte[] bytes) {
+        try {
+            return serializer.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to deserialize", e);
+        }
+    }
+
+    /**
+     * 按序号顺序遍历[from, to)内未过期的数据，remove删除上一条返回的数据
+     */
+    private class Cursor implements Iterator<Entry<K, V>> {
+
+        private int index;
+
+        private final int fence;
+
+        private Entry<K, V> next;
+
+        private int nextOrdinal = -1;
+
+        private int lastOrdinal = -1;
+
+        Cursor(int from, int to) {
+            this.index = from;
+            this.fence = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            while (index < fence) {
+                int ordinal = index++;
+                if (isLive(ordinal, now)) {
+                    next = new SimpleImmutableEntry<>(readKey(ordinal), readValue(ordinal));
+                    nextOrdinal = ordinal;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Entry<K, V> entry = next;
+            next = null;
+            lastOrdinal = nextOrdinal;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (lastOrdinal < 0) {
+                throw new IllegalStateException();
+            }
+            checkWritable();
+            synchronized (writeLock) {
+                if (isLive(lastOrdinal, System.currentTimeMillis())) {
+                    markRemoved(lastOrdinal);
+                }
+            }
+            lastOrdinal = -1;
+        }
+    }
+
+    /**
+     * 按序号二分的分区，供批量操作并行遍历
+     */
+    private class OrdinalSpliterator implements Spliterator<Entry<K, V>> {
+
+        private int index;
+
+        private final int fence;
+
+        OrdinalSpliterator(int from, int to) {
+            this.index = from;
+            this.fence = to;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+            long now = System.currentTimeMillis();
+            while (index < fence) {
+                int ordinal = index++;
+                if (isLive(ordinal, now)) {
+                    action.accept(new SimpleImmutableEntry<>(readKey(ordinal), readValue(ordinal)));
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<Entry<K, V>> trySplit() {
+            int mid = (index + fence) >>> 1;
+            if (mid <= index) {
+                return null;
+            }
+            Spliterator<Entry<K, V>> prefix = new OrdinalSpliterator(index, mid);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL;
+        }
+    }
+
+    /**
+     * 按key升序写入映射文件。数据区直接顺序写入文件，堆内只保留每条数据的位置、哈希值和过期时刻（20字节）；
+     * 哈希索引在finish时直接写入映射的文件。
+     */
+    public static final class Writer<K, V> implements Closeable {
+
+        private final Path file;
+
+        private final Path tempFile;
+
+        private final FileChannel channel;
+
+        private final DataOutputStream out;
+
+        private final Serializer<? super K> keySerializer;
+
+        private final Serializer<? super V> valueSerializer;
+
+        private final Comparator<? super K> comparator;
+
+        private long position;
+
+        private K lastKey;
+
+        private int count;
+
+        private long[] offsets = new long[1024];
+
+        private long[] deadlines = new long[1024];
+
+        private int[] hashes = new int[1024];
+
+        private boolean hasDeadlines;
+
+        private boolean done;
+
+        private Writer(Path file, Serializer<? super K> keySerializer, Serializer<? super V> valueSerializer,
+                       Comparator<? super K> comparator) throws IOException {
+            this.keySerializer = Objects.requireNonNull(keySerializer, "keySerializer");
+            this.valueSerializer = Objects.requireNonNull(valueSerializer, "valueSerializer");
+            this.comparator = comparator;
+            this.file = file.toAbsolutePath();
+            this.tempFile = Files.createTempFile(this.file.getParent(), this.file.getFileName().toString(), ".tmp");
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            writeZeros(HEADER_BYTES);
+        }
+
+        /**
+         * 写入一条不过期的数据
+         *
+         * @param key   键，必须大于之前写入的所有key
+         * @param value 值，可以为null
+         * @throws IOException 写入失败
+         */
+        public void add(K key, V value) throws IOException {
+            add(key, value, NO_DEADLINE);
+        }
+
+        /**
+         * 写入一条数据
+         *
+         * @param key      键，必须大于之前写入的所有key
+         * @param value    值，可以为null
+         * @param expireAt 过期时刻（毫秒，System.currentTimeMillis），Long.MAX_VALUE表示不过期
+         * @throws IOException 写入失败
+         */
+        public void add(K key, V value, long expireAt) throws IOException {
+            if (done) {
+                throw new IllegalStateException("writer is finished");
+            }
+            Objects.requireNonNull(key, "key");
+            if (count > 0 && compare(lastKey, key) >= 0) {
+                throw new IllegalArgumentException("keys must be added in strictly ascending order");
+            }
+            if (count == Integer.MAX_VALUE >>> 2) {
+                throw new IllegalStateException("too many entries");
+            }
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = value == null ? null : serialize(valueSerializer, value);
+            long recordBytes = RECORD_HEADER_BYTES + keyBytes.length + (valueBytes == null ? 0 : valueBytes.length);
+            if (recordBytes > MappedFile.SEGMENT_BYTES) {
+                throw new IllegalArgumentException("entry is larger than " + MappedFile.SEGMENT_BYTES + " bytes");
+            }
+            //记录不跨越分段，放不下时补齐到下一个分段
+            long segmentEnd = (position | (MappedFile.SEGMENT_BYTES - 1)) + 1;
+            if (position + recordBytes > segmentEnd) {
+                writeZeros(segmentEnd - position);
+            }
+            if (count == offsets.length) {
+                int capacity = count + (count >> 1);
+                offsets = Arrays.copyOf(offsets, capacity);
+                deadlines = Arrays.copyOf(deadlines, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            offsets[count] = position;
+            deadlines[count] = expireAt;
+            hashes[count] = hash(keyBytes);
+            hasDeadlines |= expireAt != NO_DEADLINE;
+            out.writeInt(keyBytes.length);
+            out.writeInt(valueBytes == null ? -1 : valueBytes.length);
+            out.write(keyBytes);
+            if (valueBytes != null) {
+                out.write(valueBytes);
+            }
+            position += recordBytes;
+            lastKey = key;
+            count++;
+        }
+
+        /**
+         * 写入索引和文件头，刷盘后原子替换目标文件
+         *
+         * @throws IOException 写入失败
+         */
+        public void finish() throws IOException {
+            if (done) {
+                throw new IllegalStateException("writer is finished");
+            }
+            done = true;
+            boolean success = false;
+            try {
+                //索引按8字节对齐，不会跨越分段
+                writeZeros((8 - (position & 7)) & 7);
+                long offsetsPosition = position;
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(offsets[i]);
+                }
+                long deadlinesPosition = offsetsPosition + 8L * count;
+                for (int i = 0; i < count; i++) {
+                    out.writeLong(deadlines[i]);
+                }
+                out.flush();
+                long hashPosition = deadlinesPosition + 8L * count;
+                //负载因子不超过0.5
+                long slots = Long.highestOneBit(Math.max(1, count) * 2L) << 1;
+                long length = hashPosition + 8 * slots;
+                //扩展文件，哈希表区域由文件系统填0
+                channel.write(ByteBuffer.allocate(1), length - 1);
+
+                MappedFile target = new MappedFile(channel, true);
+                int mask = (int) (slots - 1);
+                for (int i = 0; i < count; i++) {
+                    int slot = hashes[i] & mask;
+                    while (target.getInt(hashPosition + 8L * slot + 4) != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    target.putInt(hashPosition + 8L * slot, hashes[i]);
+                    target.putInt(hashPosition + 8L * slot + 4, i + 1);
+                }
+                target.force();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).putLong(count)
+                        .putLong(offsetsPosition).putLong(deadlinesPosition).putLong(hashPosition).putLong(slots)
+                        .putLong(System.currentTimeMillis()).putInt(hasDeadlines ? FLAG_DEADLINES : 0).putInt(0);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+                channel.force(true);
+                channel.close();
+                try {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                success = true;
+            } finally {
+                if (!success) {
+                    abort();
+                }
+            }
+        }
+
+        /**
+         * 未调用finish时放弃写入，删除临时文件
+         *
+         * @throws IOException 删除失败
+         */
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                done = true;
+                abort();
+            }
+        }
+
+        private void abort() throws IOException {
+            channel.close();
+            Files.deleteIfExists(tempFile);
+        }
+
+        @SuppressWarnings("unchecked")
+        private int compare(K left, K right) {
+            return comparator != null
+                    ? comparator.compare(left, right) : ((Comparable<? super K>) left).compareTo(right);
+        }
+
+        private void writeZeros(long bytes) throws IOException {
+            for (long i = 0; i < bytes; i++) {
+                out.write(0);
+            }
+            position += bytes;
+        }
+    }
+}
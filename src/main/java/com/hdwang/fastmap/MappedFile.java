@@ -0,0 +1,107 @@
+package com.hdwang.fastmap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 按1GB分段映射的文件，突破单个MappedByteBuffer 2GB的限制。
+ * 写入方保证任何一个基本类型值或一条记录都不跨越分段边界，读取时只需定位到一个分段。
+ *
+ * @author wanghuidong
+ */
+final class MappedFile {
+
+    static final int SEGMENT_SHIFT = 30;
+
+    static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+
+    private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+
+    private final MappedByteBuffer[] segments;
+
+    private final long length;
+
+    /**
+     * 映射整个文件
+     *
+     * @param channel  文件通道
+     * @param writable 是否以读写方式映射
+     * @throws IOException 映射失败
+     */
+    MappedFile(FileChannel channel, boolean writable) throws IOException {
+        this.length = channel.size();
+        int count = (int) ((length + SEGMENT_BYTES - 1) >>> SEGMENT_SHIFT);
+        this.segments = new MappedByteBuffer[count];
+        FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+        for (int i = 0; i < count; i++) {
+            long position = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(mode, position, Math.min(SEGMENT_BYTES, length - position));
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    int getInt(long position) {
+        return segment(position).getInt(offset(position));
+    }
+
+    long getLong(long position) {
+        return segment(position).getLong(offset(position));
+    }
+
+    void putInt(long position, int value) {
+        segment(position).putInt(offset(position), value);
+    }
+
+    void putLong(long position, long value) {
+        segment(position).putLong(offset(position), value);
+    }
+
+    /**
+     * 复制一段数据
+     */
+    byte[] getBytes(long position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = segment(position).duplicate();
+        source.position(offset(position));
+        source.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 比较一段数据与bytes是否相同，不复制
+     */
+    boolean equalsBytes(long position, byte[] bytes) {
+        ByteBuffer segment = segment(position);
+        int offset = offset(position);
+        for (int i = 0; i < bytes.length; i++) {
+            if (segment.get(offset + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 把修改写回文件
+     */
+    void force() {
+        for (MappedByteBuffer segment : segments) {
+            if (!segment.isReadOnly()) {
+                segment.force();
+            }
+        }
+    }
+
+    private ByteBuffer segment(long position) {
+        return segments[(int) (position >>> SEGMENT_SHIFT)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & SEGMENT_MASK);
+    }
+}
@@ -0,0 +1,31 @@
+package com.hdwang.fastmap;
+
+/**
+ * 把已命名Map的指标绑定到外部监控系统（例如Micrometer、Prometheus客户端），FastMap本身不依赖这些库。
+ * <pre>
+ * FastMapRegistry.addBinder(metrics -&gt; Gauge.builder("fastmap.size", metrics, FastMapMXBean::getSize)
+ *         .tag("cache", metrics.getName())
+ *         .register(meterRegistry));
+ * </pre>
+ * 指标对象只弱引用Map，外部监控系统持有它不会阻止Map被回收。
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface MetricsBinder {
+
+    /**
+     * Map注册时调用；添加绑定器时对已注册的每个Map各调用一次
+     *
+     * @param metrics Map的指标
+     */
+    void bind(FastMapMXBean metrics);
+
+    /**
+     * Map注销或被回收时调用，默认不做任何事
+     *
+     * @param metrics Map的指标
+     */
+    default void unbind(FastMapMXBean metrics) {
+    }
+}
@@ -0,0 +1,324 @@
+package com.hdwang.fastmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * value保存在堆外内存的Map，适合value总量很大、希望减轻GC压力的缓存。
+ * <p>
+ * value序列化后写入SlabAllocator管理的直接内存或内存映射文件，堆内只保留key和一个long句柄，
+ * 句柄由一个FastMap索引，过期、排序、容量上限等功能都由这个FastMap提供。
+ * 数据被删除、覆盖、过期或淘汰时，对应的堆外内存立即（过期和淘汰在移除通知中）回到空闲链表复用；
+ * 大量删除后可以调用compact把零散的数据搬到一起，归还空闲的slab。
+ * </p>
+ * <pre>
+ * OffHeapFastMap&lt;String, byte[]&gt; cache = new OffHeapFastMap&lt;&gt;(
+ *         FastMap.&lt;String, Long&gt;builder()
+ *                 .maximumWeight(8L &lt;&lt; 30)
+ *                 .weigher(OffHeapFastMap.offHeapWeigher()),
+ *         Serializers.BYTES);
+ * </pre>
+ *
+ * @author wanghuidong
+ */
+public class OffHeapFastMap<K, V> {
+
+    /**
+     * compact默认整理使用率低于该值的slab
+     */
+    private static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private final FastMap<K, Long> index;
+
+    private final Serializer<V> valueSerializer;
+
+    private final SlabAllocator allocator;
+
+    /**
+     * 构造器，value保存在直接内存中
+     *
+     * @param indexBuilder    索引的构造器配置，可配置过期、排序、容量上限等
+     * @param valueSerializer value序列化器
+     */
+    public OffHeapFastMap(FastMapBuilder<K, Long> indexBuilder, Serializer<V> valueSerializer) {
+        this(indexBuilder, valueSerializer, SlabAllocator.direct());
+    }
+
+    /**
+     * 构造器。索引构造器中的移除监听器会被替换为释放堆外内存的监听器。
+     *
+     * @param indexBuilder    索引的构造器配置，可配置过期、排序、容量上限等
+     * @param valueSerializer value序列化器
+     * @param allocator       堆外内存分配器，不能与其他实例共用
+     */
+    public OffHeapFastMap(FastMapBuilder<K, Long> indexBuilder, Serializer<V> valueSerializer,
+                          SlabAllocator allocator) {
+        Objects.requireNonNull(indexBuilder, "indexBuilder");
+        if (indexBuilder.logDirectory != null) {
+            throw new IllegalArgumentException("OffHeapFastMap does not support writeAheadLog");
+        }
+        this.valueSerializer = Objects.requireNonNull(valueSerializer, "valueSerializer");
+        this.allocator = Objects.requireNonNull(allocator, "allocator");
+        this.index = indexBuilder
+                .removalListener((key, handle, cause) -> allocator.free(handle))
+                .build();
+    }
+
+    /**
+     * 按value占用的堆外字节数计算权重，配合索引构造器的maximumWeight限制堆外内存总量
+     *
+     * @return 权重函数
+     */
+    public static Weigher<Object, Long> offHeapWeigher() {
+        return (key, handle) -> (int) Math.min(Integer.MAX_VALUE, SlabAllocator.chunkBytes(handle));
+    }
+
+    /**
+     * 读取并反序列化value，得到的是堆外数据的副本
+     *
+     * @param key 键
+     * @return 值；不存在或已过期时返回null
+     */
+    public V get(K key) {
+        Long handle = index.get(key);
+        while (handle != null) {
+            byte[] bytes = allocator.copy(handle);
+            if (bytes != null) {
+                return deserialize(bytes);
+            }
+            //读取期间被覆盖、删除或搬移，按索引中的最新句柄重新读取
+            Long current = index.get(key);
+            handle = Objects.equals(current, handle) ? null : current;
+        }
+        return null;
+    }
+
+    /**
+     * 直接读取堆外的序列化数据，不复制、不反序列化。
+     * reader执行期间持有分配器的读锁，会阻塞同一实例的写入，应尽快返回；ByteBuffer不能在reader返回后继续使用。
+     *
+     * @param key    键
+     * @param reader 读取函数，参数为只读ByteBuffer，position为0，limit为数据长度
+     * @param <R>    结果类型
+     * @return reader的结果；不存在或已过期时返回null，不调用reader
+     */
+    public <R> R view(K key, Function<? super ByteBuffer, ? extends R> reader) {
+        Objects.requireNonNull(reader, "reader");
+        List<R> result = new ArrayList<>(1);
+        Long handle = index.get(key);
+        while (handle != null) {
+            if (allocator.read(handle, buffer -> result.add(reader.apply(buffer)))) {
+                return result.get(0);
+            }
+            Long current = index.get(key);
+            handle = Objects.equals(current, handle) ? null : current;
+        }
+        return null;
+    }
+
+    /**
+     * 写入数据，覆盖的旧value占用的堆外内存立即释放
+     *
+     * @param key   键
+     * @param value 值，不能为null
+     */
+    public void put(K key, V value) {
+        Objects.requireNonNull(value, "value");
+        long handle = allocator.allocate(serialize(value));
+        Long previous;
+        try {
+            previous = index.put(key, handle);
+        } catch (RuntimeException | Error failure) {
+            allocator.free(handle);
+            throw failure;
+        }
+        if (previous != null) {
+            allocator.free(previous);
+        }
+    }
+
+    /**
+     * 删除数据并释放堆外内存
+     *
+     * @param key 键
+     * @return key是否存在
+     */
+    public boolean remove(K key) {
+        Long handle = index.remove(key);
+        if (handle == null) {
+            return false;
+        }
+        allocator.free(handle);
+        return true;
+    }
+
+    /**
+     * key是否存在
+     *
+     * @param key 键
+     * @return 是否存在
+     */
+    public boolean containsKey(K key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * 数据条数
+     *
+     * @return 条数
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * 设置过期时间，到期后数据被删除，堆外内存回到空闲链表
+     *
+     * @param key 键
+     * @param ms  过期时间（毫秒）
+     * @return 过期时刻（毫秒）；key不存在时返回null
+     */
+    public Long expire(K key, long ms) {
+        return index.expire(key, ms);
+    }
+
+    /**
+     * 设置过期时间和过期回调。回调在堆外内存释放之前执行，收到的是反序列化后的value。
+     *
+     * @param key      键
+     * @param ms       过期时间（毫秒）
+     * @param callback 过期回调
+     * @return 过期时刻（毫秒）；key不存在时返回null
+     */
+    public Long expire(K key, long ms, ExpireCallback<K, V> callback) {
+        Objects.requireNonNull(callback, "callback");
+        return index.expire(key, ms, (expiredKey, handle) -> {
+            byte[] bytes = allocator.copy(handle);
+            callback.onExpire(expiredKey, bytes == null ? null : deserialize(bytes));
+        });
+    }
+
+    /**
+     * 剩余存活时间
+     *
+     * @param key 键
+     * @return 剩余时间（毫秒）；key不存在或未设置过期时间时返回null
+     */
+    public Long ttl(K key) {
+        return index.ttl(key);
+    }
+
+    /**
+     * 删除所有数据并释放堆外内存
+     */
+    public void clear() {
+        for (K key : new ArrayList<>(index.keySet())) {
+            remove(key);
+        }
+    }
+
+    /**
+     * 整理使用率低于一半的slab，见compact(double)
+     */
+    public void compact() {
+        compact(DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * 整理堆外内存：把使用率低于threshold的slab中的数据搬到其他slab，归还搬空的slab。
+     * 整理期间可以正常读写，被搬移的数据读取时自动按新句柄重试。
+     *
+     * @param threshold 使用率阈值，0到1之间
+     */
+    public void compact(double threshold) {
+        if (threshold <= 0 || threshold > 1) {
+            throw new IllegalArgumentException("threshold must be in (0, 1]");
+        }
+        if (!allocator.beginEvacuation(threshold)) {
+            return;
+        }
+        try {
+            for (Map.Entry<K, Long> entry : index.entrySet()) {
+                long handle = entry.getValue();
+                if (!allocator.isEvacuating(handle)) {
+                    continue;
+                }
+                long moved = allocator.move(handle);
+                if (moved == SlabAllocator.NO_HANDLE) {
+                    continue;
+                }
+                //搬移期间key被覆盖或删除时放弃本次搬移
+                if (index.replace(entry.getKey(), handle, moved)) {
+                    allocator.free(handle);
+                } else {
+                    allocator.free(moved);
+                }
+            }
+        } finally {
+            allocator.finishEvacuation();
+        }
+    }
+
+    /**
+     * 从操作系统申请的堆外字节数
+     *
+     * @return 字节数
+     */
+    public long reservedBytes() {
+        return allocator.reservedBytes();
+    }
+
+    /**
+     * 数据占用的堆外字节数（按chunk规格计算）
+     *
+     * @return 字节数
+     */
+    public long usedBytes() {
+        return allocator.usedBytes();
+    }
+
+    /**
+     * 索引的统计信息，需要在索引构造器中启用统计
+     *
+     * @return 统计信息
+     */
+    public FastMapStats stats() {
+        return index.stats();
+    }
+
+    /**
+     * 删除所有数据并释放全部堆外内存，之后不能再写入
+     */
+    public void close() {
+        index.clear();
+        allocator.close();
+    }
+
+    private byte[] serialize(V value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            valueSerializer.write(new DataOutputStream(bytes), value);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to serialize value", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private V deserialize(byte[] bytes) {
+        try {
+            return valueSerializer.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to deserialize value", e);
+        }
+    }
+}
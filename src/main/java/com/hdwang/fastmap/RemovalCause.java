@@ -0,0 +1,19 @@
+package com.hdwang.fastmap;
+
+/**
+ * 数据被自动移除的原因
+ *
+ * @author wanghuidong
+ */
+public enum RemovalCause {
+
+    /**
+     * 数据到达过期时间
+     */
+    EXPIRED,
+
+    /**
+     * 数据条数或总权重超过上限，被淘汰策略淘汰
+     */
+    SIZE
+}
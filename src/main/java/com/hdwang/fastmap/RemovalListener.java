@@ -0,0 +1,19 @@
+package com.hdwang.fastmap;
+
+/**
+ * 数据被自动移除（过期或淘汰）时的监听器，在内部写锁释放后由回调线程池执行
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface RemovalListener<K, V> {
+
+    /**
+     * 数据被自动移除时执行的函数
+     *
+     * @param key   被移除的键
+     * @param value 被移除的值
+     * @param cause 移除原因
+     */
+    void onRemoval(K key, V value, RemovalCause cause);
+}
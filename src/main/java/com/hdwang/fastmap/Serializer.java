@@ -0,0 +1,31 @@
+package com.hdwang.fastmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 快照文件中key和value的序列化器，常用类型见{@link Serializers}
+ *
+ * @author wanghuidong
+ */
+public interface Serializer<T> {
+
+    /**
+     * 写入一个对象
+     *
+     * @param out   输出
+     * @param value 对象，不为null
+     * @throws IOException 写入失败
+     */
+    void write(DataOutput out, T value) throws IOException;
+
+    /**
+     * 读取一个对象
+     *
+     * @param in 输入
+     * @return 对象
+     * @throws IOException 读取失败或数据格式错误
+     */
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,119 @@
+package com.hdwang.fastmap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 常用类型的序列化器
+ *
+ * @author wanghuidong
+ */
+public final class Serializers {
+
+    /**
+     * String，UTF-8编码，长度不受DataOutput.writeUTF的64KB限制
+     */
+    public static final Serializer<String> STRING = new Serializer<String>() {
+        @Override
+        public void write(DataOutput out, String value) throws IOException {
+            BYTES.write(out, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String read(DataInput in) throws IOException {
+            return new String(BYTES.read(in), StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Long，固定8字节
+     */
+    public static final Serializer<Long> LONG = new Serializer<Long>() {
+        @Override
+        public void write(DataOutput out, Long value) throws IOException {
+            out.writeLong(value);
+        }
+
+        @Override
+        public Long read(DataInput in) throws IOException {
+            return in.readLong();
+        }
+    };
+
+    /**
+     * Integer，固定4字节
+     */
+    public static final Serializer<Integer> INTEGER = new Serializer<Integer>() {
+        @Override
+        public void write(DataOutput out, Integer value) throws IOException {
+            out.writeInt(value);
+        }
+
+        @Override
+        public Integer read(DataInput in) throws IOException {
+            return in.readInt();
+        }
+    };
+
+    /**
+     * byte数组，长度前缀加原始字节
+     */
+    public static final Serializer<byte[]> BYTES = new Serializer<byte[]>() {
+        @Override
+        public void write(DataOutput out, byte[] value) throws IOException {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+
+        @Override
+        public byte[] read(DataInput in) throws IOException {
+            int length = in.readInt();
+            if (length < 0) {
+                throw new InvalidObjectException("negative length: " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
+        }
+    };
+
+    private Serializers() {
+    }
+
+    /**
+     * 基于Java序列化的序列化器，适用于没有专用序列化器的Serializable对象，体积和速度都不如专用序列化器
+     *
+     * @param <T> 对象类型
+     * @return 序列化器
+     */
+    public static <T extends Serializable> Serializer<T> java() {
+        return new Serializer<T>() {
+            @Override
+            public void write(DataOutput out, T value) throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream objectOut = new ObjectOutputStream(bytes)) {
+                    objectOut.writeObject(value);
+                }
+                BYTES.write(out, bytes.toByteArray());
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T read(DataInput in) throws IOException {
+                try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(BYTES.read(in)))) {
+                    return (T) objectIn.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidObjectException("class not found: " + e.getMessage());
+                }
+            }
+        };
+    }
+}
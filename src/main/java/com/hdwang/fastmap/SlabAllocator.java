@@ -0,0 +1,556 @@
+package com.hdwang.fastmap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 堆外内存的slab分配器，供OffHeapFastMap保存序列化后的value。
+ * <p>
+ * 内存按固定大小的slab（默认1MB）从操作系统申请，每个slab切分为同一规格的chunk，规格为2的幂（最小64字节）；
+ * 超过slab大小的数据单独申请一块内存。释放的chunk进入对应规格的空闲链表，下次分配同规格时直接复用。
+ * 每个chunk以8字节的头开始：int 版本号、int 数据长度，版本号在分配时写入、释放时清除。
+ * </p>
+ * <p>
+ * 分配结果是一个long句柄：20位版本号、6位规格、22位slab编号、16位chunk编号。
+ * 读取时校验句柄中的版本号与chunk头一致，已被释放或复用的chunk不会被读到。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public final class SlabAllocator {
+
+    /**
+     * chunk头的长度：int 版本号 + int 数据长度
+     */
+    static final int HEADER_BYTES = 8;
+
+    /**
+     * 分配失败或句柄无效
+     */
+    static final long NO_HANDLE = -1L;
+
+    private static final int MIN_CHUNK_SHIFT = 6;
+
+    private static final int CHUNK_BITS = 16;
+
+    private static final int SLAB_BITS = 22;
+
+    private static final int CLASS_BITS = 6;
+
+    private static final int STAMP_BITS = 20;
+
+    private static final int SLAB_SHIFT = CHUNK_BITS;
+
+    private static final int CLASS_SHIFT = SLAB_SHIFT + SLAB_BITS;
+
+    private static final int STAMP_SHIFT = CLASS_SHIFT + CLASS_BITS;
+
+    private static final int STAMP_MASK = (1 << STAMP_BITS) - 1;
+
+    private static final int MAX_SLABS = 1 << SLAB_BITS;
+
+    /**
+     * 空闲chunk头中的版本号，不会与任何句柄中的版本号相同
+     */
+    private static final int FREE_STAMP = -1;
+
+    private static final AtomicLong fileNumber = new AtomicLong();
+
+    private final int slabBytes;
+
+    private final int slabShift;
+
+    private final int minChunkShift;
+
+    /**
+     * 映射文件所在的目录，为null时使用直接内存
+     */
+    private final Path mappedDirectory;
+
+    private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+
+    private final Lock readLock = readWriteLock.readLock();
+
+    private final Lock writeLock = readWriteLock.writeLock();
+
+    //以下字段由写锁保护
+    private Slab[] slabs = new Slab[16];
+    private int slabCount;
+    private int[] freeSlabIds = new int[16];
+    private int freeSlabCount;
+    private final long[][] freeChunks = new long[Long.SIZE][];
+    private final int[] freeChunkCounts = new int[Long.SIZE];
+    private final Slab[] carving = new Slab[Long.SIZE];
+    private int nextStamp;
+    private long reservedBytes;
+    private long usedBytes;
+    private boolean closed;
+
+    private SlabAllocator(int slabBytes, Path mappedDirectory) {
+        if (slabBytes < 4096 || Integer.bitCount(slabBytes) != 1 || slabBytes > (1 << 30)) {
+            throw new IllegalArgumentException("slabBytes must be a power of two between 4KB and 1GB");
+        }
+        this.slabBytes = slabBytes;
+        this.slabShift = Integer.numberOfTrailingZeros(slabBytes);
+        //每个slab最多2^16个chunk
+        this.minChunkShift = Math.max(MIN_CHUNK_SHIFT, slabShift - CHUNK_BITS);
+        this.mappedDirectory = mappedDirectory;
+    }
+
+    /**
+     * 使用直接内存（ByteBuffer.allocateDirect），slab大小1MB
+     *
+     * @return 分配器
+     */
+    public static SlabAllocator direct() {
+        return direct(1 << 20);
+    }
+
+    /**
+     * 使用直接内存（ByteBuffer.allocateDirect）
+     *
+     * @param slabBytes 每个slab的字节数，4KB到1GB之间的2的幂
+     * @return 分配器
+     */
+    public static SlabAllocator direct(int slabBytes) {
+        return new SlabAllocator(slabBytes, null);
+    }
+
+    /**
+     * 使用映射到directory下临时文件的内存，数据可以被操作系统换出到文件，不占用直接内存的额度。
+     * 文件映射后立即删除，进程退出后不会残留。
+     *
+     * @param directory 临时文件目录
+     * @param slabBytes 每个slab的字节数，4KB到1GB之间的2的幂
+     * @return 分配器
+     */
+    public static SlabAllocator mapped(Path directory, int slabBytes) {
+        return new SlabAllocator(slabBytes, Objects.requireNonNull(directory, "directory"));
+    }
+
+    /**
+     * 分配一个chunk并写入数据
+     *
+     * @param bytes 数据
+     * @return 句柄
+     */
+    long allocate(byte[] bytes) {
+        int size = bytes.length + HEADER_BYTES;
+        if (size < 0) {
+            throw new IllegalArgumentException("value too large: " + bytes.length);
+        }
+        writeLock.lock();
+        try {
+            ensureOpen();
+            long location = size > slabBytes ? allocateLarge(size) : allocateChunk(chunkShift(size));
+            Slab slab = slabs[slabId(location)];
+            int offset = chunkId(location) << slab.chunkShift;
+            int stamp = nextStamp;
+            nextStamp = (nextStamp + 1) & STAMP_MASK;
+            ByteBuffer buffer = slab.buffer;
+            buffer.putInt(offset, stamp);
+            buffer.putInt(offset + 4, bytes.length);
+            ByteBuffer target = buffer.duplicate();
+            target.position(offset + HEADER_BYTES);
+            target.put(bytes);
+            slab.liveCount++;
+            usedBytes += slab.chunkBytes();
+            return location | ((long) slab.chunkShift << CLASS_SHIFT) | ((long) stamp << STAMP_SHIFT);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 复制句柄对应的数据
+     *
+     * @param handle 句柄
+     * @return 数据；句柄已失效时返回null
+     */
+    byte[] copy(long handle) {
+        readLock.lock();
+        try {
+            Slab slab = validate(handle);
+            if (slab == null) {
+                return null;
+            }
+            int offset = chunkId(handle) << slab.chunkShift;
+            byte[] bytes = new byte[slab.buffer.getInt(offset + 4)];
+            ByteBuffer source = slab.buffer.duplicate();
+            source.position(offset + HEADER_BYTES);
+            source.get(bytes);
+            return bytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 以只读ByteBuffer的形式访问句柄对应的数据，不复制。
+     * reader执行期间持有读锁，数据不会被释放或移动，ByteBuffer不能在reader返回后继续使用。
+     *
+     * @param handle 句柄
+     * @param reader 读取函数，position为0，limit为数据长度
+     * @return 是否读取成功；句柄已失效时返回false，不调用reader
+     */
+    boolean read(long handle, Consumer<? super ByteBuffer> reader) {
+        readLock.lock();
+        try {
+            Slab slab = validate(handle);
+            if (slab == null) {
+                return false;
+            }
+            int offset = chunkId(handle) << slab.chunkShift;
+            ByteBuffer view = slab.buffer.asReadOnlyBuffer();
+            view.limit(offset + HEADER_BYTES + slab.buffer.getInt(offset + 4));
+            view.position(offset + HEADER_BYTES);
+            reader.accept(view.slice());
+            return true;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 释放句柄对应的chunk，重复释放或释放已失效的句柄时不做任何事
+     *
+     * @param handle 句柄
+     * @return 是否释放
+     */
+    boolean free(long handle) {
+        writeLock.lock();
+        try {
+            Slab slab = validate(handle);
+            if (slab == null) {
+                return false;
+            }
+            int chunkId = chunkId(handle);
+            slab.buffer.putInt(chunkId << slab.chunkShift, FREE_STAMP);
+            slab.liveCount--;
+            usedBytes -= slab.chunkBytes();
+            if (slab.large) {
+                releaseSlab(slabId(handle));
+            } else if (!slab.evacuating) {
+                pushFreeChunk(slab.chunkShift, ((long) slabId(handle) << SLAB_SHIFT) | chunkId);
+            }
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 开始整理：选出使用率低于threshold的slab，不再从中分配，等待move把其中的数据搬走
+     *
+     * @param threshold 使用率阈值，0到1之间
+     * @return 是否有需要整理的slab
+     */
+    boolean beginEvacuation(double threshold) {
+        writeLock.lock();
+        try {
+            ensureOpen();
+            boolean any = false;
+            for (int i = 0; i < slabCount; i++) {
+                Slab slab = slabs[i];
+                if (slab == null || slab.large || slab.evacuating) {
+                    continue;
+                }
+                if (slab.liveCount < threshold * slab.chunkCount) {
+                    slab.evacuating = true;
+                    if (carving[slab.chunkShift] == slab) {
+                        carving[slab.chunkShift] = null;
+                    }
+                    any = true;
+                }
+            }
+            if (any) {
+                //空闲链表中属于待整理slab的chunk不再复用
+                for (int shift = 0; shift < Long.SIZE; shift++) {
+                    long[] chunks = freeChunks[shift];
+                    int kept = 0;
+                    for (int i = 0; i < freeChunkCounts[shift]; i++) {
+                        if (!slabs[(int) (chunks[i] >>> SLAB_SHIFT)].evacuating) {
+                            chunks[kept++] = chunks[i];
+                        }
+                    }
+                    freeChunkCounts[shift] = kept;
+                }
+            }
+            return any;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 句柄对应的chunk是否位于待整理的slab中
+     */
+    boolean isEvacuating(long handle) {
+        readLock.lock();
+        try {
+            Slab slab = validate(handle);
+            return slab != null && slab.evacuating;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 把数据复制到新的chunk，旧的chunk保持不变，由调用方在替换句柄后释放
+     *
+     * @param handle 句柄
+     * @return 新句柄；句柄已失效时返回NO_HANDLE
+     */
+    long move(long handle) {
+        byte[] bytes = copy(handle);
+        return bytes == null ? NO_HANDLE : allocate(bytes);
+    }
+
+    /**
+     * 结束整理：已经搬空的slab归还给操作系统，仍有数据的slab恢复分配
+     */
+    void finishEvacuation() {
+        writeLock.lock();
+        try {
+            for (int i = 0; i < slabCount; i++) {
+                Slab slab = slabs[i];
+                if (slab == null || !slab.evacuating) {
+                    continue;
+                }
+                slab.evacuating = false;
+                if (slab.liveCount == 0) {
+                    releaseSlab(i);
+                    continue;
+                }
+                for (int chunkId = 0; chunkId < slab.carved; chunkId++) {
+                    if (slab.buffer.getInt(chunkId << slab.chunkShift) == FREE_STAMP) {
+                        pushFreeChunk(slab.chunkShift, ((long) i << SLAB_SHIFT) | chunkId);
+                    }
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 从操作系统申请的字节数
+     *
+     * @return 字节数
+     */
+    public long reservedBytes() {
+        readLock.lock();
+        try {
+            return reservedBytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 已分配chunk占用的字节数（按chunk规格计算）
+     *
+     * @return 字节数
+     */
+    public long usedBytes() {
+        readLock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 释放所有slab，之后不能再分配
+     */
+    void close() {
+        writeLock.lock();
+        try {
+            closed = true;
+            Arrays.fill(slabs, null);
+            Arrays.fill(carving, null);
+            Arrays.fill(freeChunkCounts, 0);
+            slabCount = 0;
+            freeSlabCount = 0;
+            reservedBytes = 0L;
+            usedBytes = 0L;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * 句柄对应的chunk字节数（按规格计算），可用作淘汰策略的权重
+     *
+     * @param handle 句柄
+     * @return 字节数
+     */
+    static long chunkBytes(long handle) {
+        return 1L << ((handle >>> CLASS_SHIFT) & ((1 << CLASS_BITS) - 1));
+    }
+
+    /**
+     * 校验句柄（调用方需持有读锁或写锁）
+     *
+     * @return 句柄所在的slab；句柄已失效时返回null
+     */
+    private Slab validate(long handle) {
+        int slabId = slabId(handle);
+        if (slabId >= slabCount) {
+            return null;
+        }
+        Slab slab = slabs[slabId];
+        int chunkId = chunkId(handle);
+        if (slab == null || slab.chunkShift != ((handle >>> CLASS_SHIFT) & ((1 << CLASS_BITS) - 1))
+                || chunkId >= slab.carved) {
+            return null;
+        }
+        int stamp = (int) (handle >>> STAMP_SHIFT) & STAMP_MASK;
+        return slab.buffer.getInt(chunkId << slab.chunkShift) == stamp ? slab : null;
+    }
+
+    /**
+     * 从空闲链表或正在切分的slab中取一个chunk（调用方需持有写锁）
+     *
+     * @return slab编号和chunk编号
+     */
+    private long allocateChunk(int shift) {
+        if (freeChunkCounts[shift] > 0) {
+            return freeChunks[shift][--freeChunkCounts[shift]];
+        }
+        Slab slab = carving[shift];
+        if (slab == null || slab.carved == slab.chunkCount) {
+            int slabId = addSlab(new Slab(newBuffer(slabBytes), shift, slabBytes >>> shift, false));
+            slab = slabs[slabId];
+            slab.id = slabId;
+            carving[shift] = slab;
+        }
+        return ((long) slab.id << SLAB_SHIFT) | slab.carved++;
+    }
+
+    /**
+     * 为超过slab大小的数据单独申请内存（调用方需持有写锁）
+     */
+    private long allocateLarge(int size) {
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(size - 1L);
+        Slab slab = new Slab(newBuffer(size), shift, 1, true);
+        slab.carved = 1;
+        int slabId = addSlab(slab);
+        slab.id = slabId;
+        return (long) slabId << SLAB_SHIFT;
+    }
+
+    private int addSlab(Slab slab) {
+        int slabId;
+        if (freeSlabCount > 0) {
+            slabId = freeSlabIds[--freeSlabCount];
+        } else {
+            if (slabCount == MAX_SLABS) {
+                throw new IllegalStateException("too many slabs");
+            }
+            if (slabCount == slabs.length) {
+                slabs = Arrays.copyOf(slabs, slabs.length * 2);
+            }
+            slabId = slabCount++;
+        }
+        slabs[slabId] = slab;
+        reservedBytes += slab.buffer.capacity();
+        return slabId;
+    }
+
+    private void releaseSlab(int slabId) {
+        Slab slab = slabs[slabId];
+        slabs[slabId] = null;
+        reservedBytes -= slab.buffer.capacity();
+        if (freeSlabCount == freeSlabIds.length) {
+            freeSlabIds = Arrays.copyOf(freeSlabIds, freeSlabIds.length * 2);
+        }
+        freeSlabIds[freeSlabCount++] = slabId;
+    }
+
+    private void pushFreeChunk(int shift, long location) {
+        long[] chunks = freeChunks[shift];
+        if (chunks == null) {
+            chunks = freeChunks[shift] = new long[64];
+        } else if (freeChunkCounts[shift] == chunks.length) {
+            chunks = freeChunks[shift] = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        chunks[freeChunkCounts[shift]++] = location;
+    }
+
+    private ByteBuffer newBuffer(int capacity) {
+        if (mappedDirectory == null) {
+            return ByteBuffer.allocateDirect(capacity);
+        }
+        Path file = mappedDirectory.resolve("fastmap-slab-" + fileNumber.incrementAndGet() + ".bin");
+        try {
+            Files.createDirectories(mappedDirectory);
+            //映射在通道关闭、文件删除后仍然有效
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to map slab file " + file, e);
+        }
+    }
+
+    private int chunkShift(int size) {
+        int shift = Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(shift, minChunkShift);
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("allocator closed");
+        }
+    }
+
+    private static int slabId(long handle) {
+        return (int) (handle >>> SLAB_SHIFT) & (MAX_SLABS - 1);
+    }
+
+    private static int chunkId(long handle) {
+        return (int) handle & ((1 << CHUNK_BITS) - 1);
+    }
+
+    /**
+     * 一块从操作系统申请的内存，切分为同一规格的chunk
+     */
+    private static final class Slab {
+        final ByteBuffer buffer;
+        final int chunkShift;
+        final int chunkCount;
+        final boolean large;
+        int id;
+        /**
+         * 已经切分出去的chunk数，之后的chunk从未使用
+         */
+        int carved;
+        int liveCount;
+        boolean evacuating;
+
+        Slab(ByteBuffer buffer, int chunkShift, int chunkCount, boolean large) {
+            this.buffer = buffer;
+            this.chunkShift = chunkShift;
+            this.chunkCount = chunkCount;
+            this.large = large;
+        }
+
+        long chunkBytes() {
+            return large ? buffer.capacity() : 1L << chunkShift;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.hdwang.fastmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 快照文件的二进制格式：
+ * <pre>
+ * int    魔数 "FMSN"
+ * short  版本
+ * byte   标志（是否按key排序）
+ * long   写入时间（毫秒，系统时间）
+ * int    数据条数
+ * 每条数据: byte 标志（key为null / value为null / 有过期时间）, key, value, [long 过期时刻（毫秒，系统时间）]
+ * long   以上所有内容的CRC32
+ * </pre>
+ * 先写入同目录的临时文件，完成后原子替换目标文件，写入中途失败不会破坏已有的快照。
+ * 读取时先校验整个文件的校验和再反序列化，损坏的长度字段不会导致按该长度分配内存。
+ *
+ * @author wanghuidong
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x464D534E;
+
+    private static final short VERSION = 1;
+
+    private static final int FLAG_SORTED = 1;
+
+    private static final int ENTRY_NULL_KEY = 1;
+
+    private static final int ENTRY_NULL_VALUE = 1 << 1;
+
+    private static final int ENTRY_DEADLINE = 1 << 2;
+
+    /**
+     * 文件头（魔数、版本、标志、写入时间、数据条数）和校验和的字节数
+     */
+    private static final int FRAME_BYTES = 4 + 2 + 1 + 8 + 4 + 8;
+
+    /**
+     * 读取时数组的初始容量上限，数据条数来自文件，校验前不可信
+     */
+    private static final int MAX_INITIAL_CAPACITY = 1 << 12;
+
+    /**
+     * 没有过期时间
+     */
+    static final long NO_DEADLINE = Long.MIN_VALUE;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * 写入快照
+     *
+     * @param file            目标文件
+     * @param contents        快照内容
+     * @param keySerializer   key序列化器
+     * @param valueSerializer value序列化器
+     * @throws IOException 写入失败
+     */
+    static <K, V> void write(Path file, Contents<K, V> contents, Serializer<? super K> keySerializer,
+                             Serializer<? super V> valueSerializer) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path tempFile = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        boolean success = false;
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(tempFile.toFile())) {
+                BufferedOutputStream buffered = new BufferedOutputStream(fileOut, 1 << 16);
+                CRC32 crc = new CRC32();
+                DataOutputStream out = new DataOutputStream(new CheckedOutputStream(buffered, crc));
+                out.writeInt(MAGIC);
+                out.writeShort(VERSION);
+                out.writeByte(contents.sorted ? FLAG_SORTED : 0);
+                out.writeLong(contents.createdAt);
+                out.writeInt(contents.size);
+                for (int i = 0; i < contents.size; i++) {
+                    K key = contents.key(i);
+                    V value = contents.value(i);
+                    long deadline = contents.deadlines[i];
+                    int flags = (key == null ? ENTRY_NULL_KEY : 0)
+                            | (value == null ? ENTRY_NULL_VALUE : 0)
+                            | (deadline != NO_DEADLINE ? ENTRY_DEADLINE : 0);
+                    out.writeByte(flags);
+                    if (key != null) {
+                        keySerializer.write(out, key);
+                    }
+                    if (value != null) {
+                        valueSerializer.write(out, value);
+                    }
+                    if (deadline != NO_DEADLINE) {
+                        out.writeLong(deadline);
+                    }
+                }
+                out.flush();
+                //校验和本身不参与计算
+                new DataOutputStream(buffered).writeLong(crc.getValue());
+                buffered.flush();
+                fileOut.getChannel().force(true);
+            }
+            try {
+                Files.move(tempFile, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, absolute, StandardCopyOption.REPLACE_EXISTING);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * 读取快照，跳过已经过期的数据；校验和不一致时抛出异常，不返回任何数据
+     *
+     * @param file            快照文件
+     * @param keySerializer   key序列化器
+     * @param valueSerializer value序列化器
+     * @return 快照内容，过期时刻为系统时间
+     * @throws IOException 读取失败或文件损坏
+     */
+    static <K, V> Contents<K, V> read(Path file, Serializer<? extends K> keySerializer,
+                                      Serializer<? extends V> valueSerializer) throws IOException {
+        long length = Files.size(file);
+        long checksum = verifyChecksum(file, length);
+        try (InputStream fileIn = Files.newInputStream(file)) {
+            BufferedInputStream buffered = new BufferedInputStream(fileIn, 1 << 16);
+            CRC32 crc = new CRC32();
+            DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc));
+            if (in.readInt() != MAGIC) {
+                throw new StreamCorruptedException("not a FastMap snapshot: " + file);
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("unsupported snapshot version: " + version);
+            }
+            boolean sorted = (in.readByte() & FLAG_SORTED) != 0;
+            long createdAt = in.readLong();
+            int size = in.readInt();
+            if (size < 0) {
+                throw new StreamCorruptedException("negative entry count: " + size);
+            }
+            //每条数据至少有1字节的标志
+            if (size > length - FRAME_BYTES) {
+                throw new StreamCorruptedException("entry count " + size + " exceeds file length: " + file);
+            }
+            long now = System.currentTimeMillis();
+            Contents<K, V> contents = new Contents<>(Math.min(size, MAX_INITIAL_CAPACITY), sorted, createdAt);
+            for (int i = 0; i < size; i++) {
+                int flags = in.readByte();
+                K key = (flags & ENTRY_NULL_KEY) != 0 ? null : keySerializer.read(in);
+                V value = (flags & ENTRY_NULL_VALUE) != 0 ? null : valueSerializer.read(in);
+                long deadline = (flags & ENTRY_DEADLINE) != 0 ? in.readLong() : NO_DEADLINE;
+                if (deadline == NO_DEADLINE || deadline > now) {
+                    contents.add(key, value, deadline);
+                }
+            }
+            //校验和已经验证过，这里确认反序列化恰好读完了校验过的内容
+            if (crc.getValue() != checksum || new DataInputStream(buffered).readLong() != checksum) {
+                throw new StreamCorruptedException("snapshot checksum mismatch: " + file);
+            }
+            return contents;
+        }
+    }
+
+    /**
+     * 计算除末尾校验和之外全部内容的CRC32，与文件中的校验和比较
+     *
+     * @param file   快照文件
+     * @param length 文件长度
+     * @return 校验和
+     * @throws IOException 读取失败或校验和不一致
+     */
+    private static long verifyChecksum(Path file, long length) throws IOException {
+        if (length < FRAME_BYTES) {
+            throw new StreamCorruptedException("snapshot too short: " + file);
+        }
+        CRC32 crc = new CRC32();
+        try (InputStream fileIn = Files.newInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            long remaining = length - 8;
+            while (remaining > 0) {
+                int read = fileIn.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("snapshot truncated: " + file);
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            long checksum = new DataInputStream(fileIn).readLong();
+            if (checksum != crc.getValue()) {
+                throw new StreamCorruptedException("snapshot checksum mismatch: " + file);
+            }
+            return checksum;
+        }
+    }
+
+    /**
+     * 快照内容，按列存储，避免为每条数据创建Entry对象
+     */
+    static final class Contents<K, V> {
+        private Object[] keys;
+        private Object[] values;
+        private long[] deadlines;
+        private int size;
+        final boolean sorted;
+        final long createdAt;
+
+        Contents(int capacity, boolean sorted, long createdAt) {
+            this.keys = new Object[capacity];
+            this.values = new Object[capacity];
+            this.deadlines = new long[capacity];
+            this.sorted = sorted;
+            this.createdAt = createdAt;
+        }
+
+        void add(K key, V value, long deadline) {
+            if (size == keys.length) {
+                int capacity = Math.max(16, size + (size >> 1));
+                keys = Arrays.copyOf(keys, capacity);
+                values = Arrays.copyOf(values, capacity);
+                deadlines = Arrays.copyOf(deadlines, capacity);
+            }
+            keys[size] = key;
+            values[size] = value;
+            deadlines[size] = deadline;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        K key(int index) {
+            return (K) keys[index];
+        }
+
+        @SuppressWarnings("unchecked")
+        V value(int index) {
+            return (V) values[index];
+        }
+
+        /**
+         * 过期时刻（毫秒，系统时间）
+         *
+         * @return 过期时刻；没有过期时间时返回NO_DEADLINE
+         */
+        long deadline(int index) {
+            return deadlines[index];
+        }
+    }
+}
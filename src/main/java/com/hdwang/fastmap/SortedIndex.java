@@ -0,0 +1,73 @@
+package com.hdwang.fastmap;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 排序索引，提供FastMap排序模式需要的有序查询。
+ * 非线程安全，由FastMap的读写锁保护。
+ *
+ * @author wanghuidong
+ */
+interface SortedIndex<K, V> extends Map<K, V> {
+
+    /**
+     * 最小的key
+     *
+     * @return 最小的key
+     * @throws java.util.NoSuchElementException 没有数据时
+     */
+    K firstKey();
+
+    /**
+     * 最大的key
+     *
+     * @return 最大的key
+     * @throws java.util.NoSuchElementException 没有数据时
+     */
+    K lastKey();
+
+    /**
+     * 大于等于key的最小key
+     *
+     * @param key 键
+     * @return 大于等于key的最小key；不存在时返回null
+     */
+    K ceilingKey(K key);
+
+    /**
+     * 范围查询，返回按key排序的视图
+     *
+     * @param fromKey       起始key
+     * @param fromInclusive 是否包含起始key
+     * @param toKey         结束key
+     * @param toInclusive   是否包含结束key
+     * @return 范围内的数据
+     */
+    Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive);
+
+    /**
+     * 小于（或等于）toKey的数据，返回按key排序的视图
+     *
+     * @param toKey     结束key
+     * @param inclusive 是否包含结束key
+     * @return 范围内的数据
+     */
+    Map<K, V> headMap(K toKey, boolean inclusive);
+
+    /**
+     * 大于（或等于）fromKey的数据，返回按key排序的视图
+     *
+     * @param fromKey   起始key
+     * @param inclusive 是否包含起始key
+     * @return 范围内的数据
+     */
+    Map<K, V> tailMap(K fromKey, boolean inclusive);
+
+    /**
+     * 用按key严格升序排列的数据以O(n)构建索引，只能在空索引上调用，调用方保证顺序
+     *
+     * @param entries 按key严格升序排列的数据
+     */
+    void buildFromSorted(List<? extends Map.Entry<K, V>> entries);
+}
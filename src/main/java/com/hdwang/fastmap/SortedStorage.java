@@ -0,0 +1,20 @@
+package com.hdwang.fastmap;
+
+/**
+ * 排序模式的存储方式
+ *
+ * @author wanghuidong
+ */
+public enum SortedStorage {
+
+    /**
+     * HashMap负责等值查询，TreeMap负责排序和范围查询，每条数据保存两份（默认）
+     */
+    HASH_AND_TREE,
+
+    /**
+     * 跳表与哈希表共享同一组节点，每条数据只保存一份。
+     * 等值查询O(1)，排序和范围查询O(log n)，每条数据的内存开销约为双索引的三分之二，写入只更新一个结构。
+     */
+    HASHED_SKIP_LIST
+}
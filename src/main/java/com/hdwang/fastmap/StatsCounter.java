@@ -0,0 +1,97 @@
+package com.hdwang.fastmap;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FastMap的统计计数器，基于LongAdder，读写操作记录统计只增加几纳秒的开销。
+ *
+ * @author wanghuidong
+ */
+final class StatsCounter {
+
+    private final LongAdder hitCount = new LongAdder();
+
+    private final LongAdder missCount = new LongAdder();
+
+    private final LongAdder expiredReadCount = new LongAdder();
+
+    private final LongAdder putCount = new LongAdder();
+
+    private final LongAdder removalCount = new LongAdder();
+
+    private final LongAdder evictionCount = new LongAdder();
+
+    private final LongAdder sweeperExpirationCount = new LongAdder();
+
+    private final LongAdder inlineExpirationCount = new LongAdder();
+
+    private final LatencyHistogram lockWaitTime = new LatencyHistogram();
+
+    private final LatencyHistogram lockHoldTime = new LatencyHistogram();
+
+    private final LatencyHistogram expireBatchTime = new LatencyHistogram();
+
+    /**
+     * 记录一次点查询
+     *
+     * @param hit     是否命中
+     * @param expired 是否读到了已到期但尚未删除的数据
+     */
+    void recordRead(boolean hit, boolean expired) {
+        if (hit) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            if (expired) {
+                expiredReadCount.increment();
+            }
+        }
+    }
+
+    void recordPuts(int count) {
+        putCount.add(count);
+    }
+
+    void recordRemoval() {
+        removalCount.increment();
+    }
+
+    void recordEviction() {
+        evictionCount.increment();
+    }
+
+    /**
+     * 记录一批过期数据的删除
+     *
+     * @param count     删除的数量
+     * @param bySweeper 是否由清理线程删除，否则由读写操作顺带删除
+     * @param nanos     本批次持有写锁删除的耗时
+     */
+    void recordExpirations(int count, boolean bySweeper, long nanos) {
+        (bySweeper ? sweeperExpirationCount : inlineExpirationCount).add(count);
+        expireBatchTime.record(nanos);
+    }
+
+    void recordLockWait(long nanos) {
+        lockWaitTime.record(nanos);
+    }
+
+    void recordLockHold(long nanos) {
+        lockHoldTime.record(nanos);
+    }
+
+    /**
+     * 生成不可变的统计快照
+     *
+     * @param callbackQueueSize     回调线程池当前排队的任务数
+     * @param callbackRejectedCount 回调线程池拒绝的任务数
+     * @return 快照
+     */
+    FastMapStats snapshot(long callbackQueueSize, long callbackRejectedCount) {
+        return new FastMapStats(hitCount.sum(), missCount.sum(), expiredReadCount.sum(),
+                putCount.sum(), removalCount.sum(), evictionCount.sum(),
+                sweeperExpirationCount.sum(), inlineExpirationCount.sum(),
+                callbackQueueSize, callbackRejectedCount,
+                lockWaitTime.snapshot(), lockHoldTime.snapshot(), expireBatchTime.snapshot());
+    }
+}
@@ -0,0 +1,1005 @@
+package com.hdwang.fastmap;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * 分段加锁的FastMap，key按哈希值分散到多个相互独立的段中，每个段拥有自己的数据、过期元数据和读写锁，
+ * 不同段上的写操作可以并行执行，适合多核高并发写入的本地缓存。
+ * <p>
+ * 单个key上的复合操作（compute、merge、putIfAbsent等）保持原子性；size、putAll、clear等跨段操作按段依次执行，
+ * 不保证跨段的整体原子性。启用排序时范围查询会合并所有段的结果，Comparator同样必须与equals保持一致。
+ * </p>
+ *
+ * @author wanghuidong
+ */
+public class StripedFastMap<K, V> extends AbstractMap<K, V> implements IFastMap<K, V> {
+
+    /**
+     * 默认并发级别（段数）
+     */
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    /**
+     * 最大并发级别（段数）
+     */
+    private static final int MAX_CONCURRENCY_LEVEL = 1 << 16;
+
+    /**
+     * 所有的段，长度为2的幂
+     */
+    private final FastMap<K, V>[] segments;
+
+    /**
+     * 段数以2为底的对数，选段时取哈希值的高segmentShift位
+     */
+    private final int segmentShift;
+
+    /**
+     * 是否启用排序
+     */
+    private final boolean enableSort;
+
+    /**
+     * 排序器，null表示使用key的自然顺序
+     */
+    private final Comparator<? super K> comparator;
+
+    /**
+     * 默认构造器，启用过期，不启用排序，使用默认并发级别
+     */
+    public StripedFastMap() {
+        this(DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * 构造器，启用过期，不启用排序
+     *
+     * @param concurrencyLevel 并发级别，向上取整为2的幂作为段数
+     */
+    public StripedFastMap(int concurrencyLevel) {
+        this(concurrencyLevel, true);
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，不启用排序
+     *
+     * @param concurrencyLevel 并发级别，向上取整为2的幂作为段数
+     * @param enableExpire     是否启用过期
+     */
+    public StripedFastMap(int concurrencyLevel, boolean enableExpire) {
+        this(concurrencyLevel, enableExpire, false);
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，enableSort配置是否启用排序
+     *
+     * @param concurrencyLevel 并发级别，向上取整为2的幂作为段数
+     * @param enableExpire     是否启用过期
+     * @param enableSort       是否启用排序
+     */
+    public StripedFastMap(int concurrencyLevel, boolean enableExpire, boolean enableSort) {
+        this(concurrencyLevel, enableSort, null, () -> new FastMap<>(enableExpire, enableSort));
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，启用排序，排序器由自己传入
+     *
+     * @param concurrencyLevel 并发级别，向上取整为2的幂作为段数
+     * @param enableExpire     是否启用过期
+     * @param comparator       排序器
+     */
+    public StripedFastMap(int concurrencyLevel, boolean enableExpire, Comparator<? super K> comparator) {
+        this(concurrencyLevel, enableExpire, comparator, false);
+    }
+
+    /**
+     * 构造器，enableExpire配置是否启用过期，启用排序，排序器由自己传入，trustComparator配置是否信任排序器
+     *
+     * @param concurrencyLevel 并发级别，向上取整为2的幂作为段数
+     * @param enableExpire     是否启用过期
+     * @param comparator       排序器，null表示使用key的自然顺序
+     * @param trustComparator  是否信任排序器与equals一致
+     */
+    public StripedFastMap(int concurrencyLevel, boolean enableExpire, Comparator<? super K> comparator,
+                          boolean trustComparator) {
+        this(concurrencyLevel, true, comparator,
+                () -> new FastMap<>(enableExpire, comparator, trustComparator));
+    }
+
+    /**
+     * 构造器，每个段按segmentBuilder的配置创建，可用于启用统计、配置淘汰策略等。
+     * 容量上限按段生效，总容量约为单段上限乘以段数；设置了名称时以该名称注册整个StripedFastMap。
+     *
+     * @param concurrencyLevel 并发级别，向上取整为2的幂作为段数
+     * @param segmentBuilder   段的构造器配置
+     */
+    public StripedFastMap(int concurrencyLevel, FastMapBuilder<K, V> segmentBuilder) {
+        this(concurrencyLevel, segmentBuilder.enableSort, segmentBuilder.comparator,
+                requireNoLog(segmentBuilder)::buildUnregistered);
+        if (segmentBuilder.name != null) {
+            FastMapRegistry.register(segmentBuilder.name, this);
+        }
+    }
+
+    /**
+     * 各段不能共享同一个写前日志目录
+     */
+    private static <K, V> FastMapBuilder<K, V> requireNoLog(FastMapBuilder<K, V> segmentBuilder) {
+        if (segmentBuilder.logDirectory != null) {
+            throw new IllegalArgumentException("StripedFastMap does not support writeAheadLog");
+        }
+        return segmentBuilder;
+    }
+
+    @SuppressWarnings("unchecked")
+    private StripedFastMap(int concurrencyLevel, boolean enableSort, Comparator<? super K> comparator,
+                           SegmentFactory<K, V> segmentFactory) {
+        if (concurrencyLevel <= 0) {
+            throw new IllegalArgumentException("concurrencyLevel must be greater than 0");
+        }
+        int segmentCount = 1;
+        while (segmentCount < Math.min(concurrencyLevel, MAX_CONCURRENCY_LEVEL)) {
+            segmentCount <<= 1;
+        }
+        this.enableSort = enableSort;
+        this.comparator = comparator;
+        this.segments = (FastMap<K, V>[]) new FastMap<?, ?>[segmentCount];
+        this.segmentShift = Integer.numberOfTrailingZeros(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            this.segments[i] = segmentFactory.create();
+        }
+    }
+
+    /**
+     * 段的数量
+     *
+     * @return 段数
+     */
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return this.comparator;
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, K toKey) {
+        checkSortEnabled();
+        List<Map<K, V>> parts = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            parts.add(segment.subMap(fromKey, toKey));
+        }
+        return mergeSorted(parts);
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        checkSortEnabled();
+        List<Map<K, V>> parts = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            parts.add(segment.subMap(fromKey, fromInclusive, toKey, toInclusive));
+        }
+        return mergeSorted(parts);
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey) {
+        checkSortEnabled();
+        List<Map<K, V>> parts = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            parts.add(segment.headMap(toKey));
+        }
+        return mergeSorted(parts);
+    }
+
+    @Override
+    public Map<K, V> headMap(K toKey, boolean inclusive) {
+        checkSortEnabled();
+        List<Map<K, V>> parts = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            parts.add(segment.headMap(toKey, inclusive));
+        }
+        return mergeSorted(parts);
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey) {
+        checkSortEnabled();
+        List<Map<K, V>> parts = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            parts.add(segment.tailMap(fromKey));
+        }
+        return mergeSorted(parts);
+    }
+
+    @Override
+    public Map<K, V> tailMap(K fromKey, boolean inclusive) {
+        checkSortEnabled();
+        List<Map<K, V>> parts = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            parts.add(segment.tailMap(fromKey, inclusive));
+        }
+        return mergeSorted(parts);
+    }
+
+    @Override
+    public Map<K, V> subMap(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, int offset, int limit) {
+        checkSortEnabled();
+        FastMap.checkPage(offset, limit);
+        //每个段最多贡献offset+limit条，归并后再跳过offset条
+        int perSegment = (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+        List<Iterator<Map.Entry<K, V>>> iterators = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            iterators.add(segment.subMap(fromKey, fromInclusive, toKey, toInclusive, 0, perSegment)
+                    .entrySet().iterator());
+        }
+        Iterator<Map.Entry<K, V>> iterator = new MergingIterator(iterators);
+        for (int i = 0; i < offset && iterator.hasNext(); i++) {
+            iterator.next();
+        }
+        Map<K, V> page = new LinkedHashMap<>();
+        while (page.size() < limit && iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            page.put(entry.getKey(), entry.getValue());
+        }
+        return page;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> rangeCursor(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive) {
+        checkSortEnabled();
+        List<Iterator<Map.Entry<K, V>>> iterators = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            iterators.add(segment.rangeCursor(fromKey, fromInclusive, toKey, toInclusive));
+        }
+        return new ViewIterator<Map.Entry<K, V>>(new MergingIterator(iterators)) {
+            @Override
+            public Map.Entry<K, V> next() {
+                return nextEntry();
+            }
+        };
+    }
+
+    @Override
+    public void forEach(long parallelismThreshold, BiConsumer<? super K, ? super V> action) {
+        BulkOperations.forEach(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                action);
+    }
+
+    @Override
+    public void forEachKey(long parallelismThreshold, Consumer<? super K> action) {
+        BulkOperations.forEachKey(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                action);
+    }
+
+    @Override
+    public <U> U search(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> searchFunction) {
+        return BulkOperations.search(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                searchFunction);
+    }
+
+    @Override
+    public <U> U reduce(long parallelismThreshold, BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        return BulkOperations.reduce(BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()),
+                transformer, reducer);
+    }
+
+    @Override
+    public V reduceValues(long parallelismThreshold, BiFunction<? super V, ? super V, ? extends V> reducer) {
+        return BulkOperations.reduceValues(
+                BulkOperations.stream(bulkSpliterator(), parallelismThreshold, estimatedSize()), reducer);
+    }
+
+    @Override
+    public <U> U reduce(K fromKey, boolean fromInclusive, K toKey, boolean toInclusive, long parallelismThreshold,
+                        BiFunction<? super K, ? super V, ? extends U> transformer,
+                        BiFunction<? super U, ? super U, ? extends U> reducer) {
+        checkSortEnabled();
+        //每个分段读取范围内的第一批，按范围内的数据量决定是否并行
+        List<Spliterator<Map.Entry<K, V>>> partitions = new ArrayList<>(segments.length);
+        long rangeSize = 0L;
+        for (FastMap<K, V> segment : segments) {
+            Spliterator<Map.Entry<K, V>> partition = segment.bulkSpliterator(fromKey, fromInclusive, toKey, toInclusive);
+            partitions.add(partition);
+            rangeSize += segment.rangeSize(partition);
+        }
+        Spliterator<Map.Entry<K, V>> spliterator = new SegmentSpliterator(0, segments.length, rangeSize,
+                partitions::get);
+        return BulkOperations.reduce(BulkOperations.stream(spliterator, parallelismThreshold, rangeSize),
+                transformer, reducer);
+    }
+
+    @Override
+    public K firstKey() {
+        checkSortEnabled();
+        K firstKey = null;
+        boolean found = false;
+        for (FastMap<K, V> segment : segments) {
+            K key;
+            try {
+                key = segment.firstKey();
+            } catch (NoSuchElementException empty) {
+                continue;
+            }
+            if (!found || compareKeys(key, firstKey) < 0) {
+                firstKey = key;
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new NoSuchElementException();
+        }
+        return firstKey;
+    }
+
+    @Override
+    public K lastKey() {
+        checkSortEnabled();
+        K lastKey = null;
+        boolean found = false;
+        for (FastMap<K, V> segment : segments) {
+            K key;
+            try {
+                key = segment.lastKey();
+            } catch (NoSuchElementException empty) {
+                continue;
+            }
+            if (!found || compareKeys(key, lastKey) > 0) {
+                lastKey = key;
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new NoSuchElementException();
+        }
+        return lastKey;
+    }
+
+    @Override
+    public int size() {
+        long size = 0;
+        for (FastMap<K, V> segment : segments) {
+            size += segment.size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (FastMap<K, V> segment : segments) {
+            if (!segment.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return segmentFor(key).containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        for (FastMap<K, V> segment : segments) {
+            if (segment.containsValue(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public V get(Object key) {
+        return segmentFor(key).get(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        return segmentFor(key).put(key, value);
+    }
+
+    @Override
+    public V remove(Object key) {
+        return segmentFor(key).remove(key);
+    }
+
+    /**
+     * 批量写入，按段分组后逐段写入，每个段内保持原子性
+     *
+     * @param m 待写入的数据
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        Objects.requireNonNull(m, "map");
+        @SuppressWarnings("unchecked")
+        Map<K, V>[] batches = (Map<K, V>[]) new Map<?, ?>[segments.length];
+        for (Map.Entry<? extends K, ? extends V> entry : m.entrySet()) {
+            int index = segmentIndex(entry.getKey());
+            if (batches[index] == null) {
+                batches[index] = new LinkedHashMap<>();
+            }
+            batches[index].put(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < batches.length; i++) {
+            if (batches[i] != null) {
+                segments[i].putAll(batches[i]);
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (FastMap<K, V> segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new KeySetView();
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new ValuesView();
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new EntrySetView();
+    }
+
+    @Override
+    public V getOrDefault(Object key, V defaultValue) {
+        return segmentFor(key).getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        if (!enableSort) {
+            for (FastMap<K, V> segment : segments) {
+                segment.forEach(action);
+            }
+            return;
+        }
+        Iterator<Map.Entry<K, V>> iterator = entryIterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void replaceAll(BiFunction<? super K, ? super V, ? extends V> function) {
+        Objects.requireNonNull(function);
+        for (FastMap<K, V> segment : segments) {
+            segment.replaceAll(function);
+        }
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        return segmentFor(key).putIfAbsent(key, value);
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return segmentFor(key).remove(key, value);
+    }
+
+    @Override
+    public boolean replace(K key, V oldValue, V newValue) {
+        return segmentFor(key).replace(key, oldValue, newValue);
+    }
+
+    @Override
+    public V replace(K key, V value) {
+        return segmentFor(key).replace(key, value);
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        return segmentFor(key).computeIfAbsent(key, mappingFunction);
+    }
+
+    @Override
+    public V computeIfPresent(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return segmentFor(key).computeIfPresent(key, remappingFunction);
+    }
+
+    @Override
+    public V compute(K key, BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return segmentFor(key).compute(key, remappingFunction);
+    }
+
+    @Override
+    public V merge(K key, V value, BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+        return segmentFor(key).merge(key, value, remappingFunction);
+    }
+
+    @Override
+    public Long expire(K key, Long ms) {
+        return segmentFor(key).expire(key, ms);
+    }
+
+    @Override
+    public Long expire(K key, Long ms, ExpireCallback<K, V> callback) {
+        return segmentFor(key).expire(key, ms, callback);
+    }
+
+    @Override
+    public Long ttl(K key) {
+        return segmentFor(key).ttl(key);
+    }
+
+    @Override
+    public FastMapStats stats() {
+        FastMapStats stats = FastMapStats.empty();
+        for (FastMap<K, V> segment : segments) {
+            stats = stats.plus(segment.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * 监控指标，汇总所有段，最近一次清理耗时取各段的最大值
+     *
+     * @return 本实例的指标
+     */
+    MapMetrics metrics() {
+        return new MapMetrics() {
+            @Override
+            public long estimatedSize() {
+                return StripedFastMap.this.estimatedSize();
+            }
+
+            @Override
+            public long pendingExpirations() {
+                return sum(MapMetrics::pendingExpirations);
+            }
+
+            @Override
+            public long lastSweepNanos() {
+                long max = 0;
+                for (FastMap<K, V> segment : segments) {
+                    max = Math.max(max, segment.metrics().lastSweepNanos());
+                }
+                return max;
+            }
+
+            @Override
+            public long totalSweepNanos() {
+                return sum(MapMetrics::totalSweepNanos);
+            }
+
+            @Override
+            public long sweepCount() {
+                return sum(MapMetrics::sweepCount);
+            }
+
+            @Override
+            public long estimatedMemoryBytes() {
+                return sum(MapMetrics::estimatedMemoryBytes);
+            }
+
+            @Override
+            public long weightedSize() {
+                long weightedSize = segments[0].metrics().weightedSize();
+                return weightedSize < 0 ? weightedSize : sum(MapMetrics::weightedSize);
+            }
+
+            private long sum(ToLongFunction<MapMetrics> metric) {
+                long sum = 0;
+                for (FastMap<K, V> segment : segments) {
+                    sum += metric.applyAsLong(segment.metrics());
+                }
+                return sum;
+            }
+        };
+    }
+
+    private FastMap<K, V> segmentFor(Object key) {
+        return segments[segmentIndex(key)];
+    }
+
+    /**
+     * key所在的段。段内的哈希表按扩散后哈希值的低位选桶，选段时乘以黄金分割常数后取高位，
+     * 避免同一段的key低位全部相同、只用到段内1/段数的桶
+     */
+    int segmentIndex(Object key) {
+        if (segmentShift == 0) {
+            return 0;
+        }
+        int h = Objects.hashCode(key);
+        h ^= (h >>> 16);
+        return (h * 0x9E3779B9) >>> (32 - segmentShift);
+    }
+
+    private void checkSortEnabled() {
+        if (!enableSort) {
+            throw new RuntimeException("未启用排序");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compareKeys(K left, K right) {
+        if (comparator != null) {
+            return comparator.compare(left, right);
+        }
+        return ((Comparable<? super K>) left).compareTo(right);
+    }
+
+    private long estimatedSize() {
+        long size = 0;
+        for (FastMap<K, V> segment : segments) {
+            size += segment.estimatedSize();
+        }
+        return size;
+    }
+
+    /**
+     * 批量操作按段分区，不同段由不同的ForkJoin任务处理，单个段再按批次切分
+     */
+    private Spliterator<Map.Entry<K, V>> bulkSpliterator() {
+        return new SegmentSpliterator(0, segments.length, estimatedSize(), index -> segments[index].bulkSpliterator());
+    }
+
+    /**
+     * 多路归并各段的有序结果
+     *
+     * @param parts 各段的有序结果
+     * @return 合并后的有序LinkedHashMap
+     */
+    private Map<K, V> mergeSorted(List<Map<K, V>> parts) {
+        List<Iterator<Map.Entry<K, V>>> iterators = new ArrayList<>(parts.size());
+        int size = 0;
+        for (Map<K, V> part : parts) {
+            size += part.size();
+            iterators.add(part.entrySet().iterator());
+        }
+        Map<K, V> merged = new LinkedHashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+        Iterator<Map.Entry<K, V>> iterator = new MergingIterator(iterators);
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            merged.put(entry.getKey(), entry.getValue());
+        }
+        return merged;
+    }
+
+    /**
+     * 遍历所有段的数据，启用排序时按key顺序归并
+     */
+    private Iterator<Map.Entry<K, V>> entryIterator() {
+        List<Iterator<Map.Entry<K, V>>> iterators = new ArrayList<>(segments.length);
+        for (FastMap<K, V> segment : segments) {
+            iterators.add(segment.entrySet().iterator());
+        }
+        if (enableSort) {
+            return new MergingIterator(iterators);
+        }
+        return new ConcatIterator(iterators);
+    }
+
+    /**
+     * 按key顺序归并多个有序迭代器
+     */
+    private final class MergingIterator implements Iterator<Map.Entry<K, V>> {
+        private final PriorityQueue<PeekingIterator> queue;
+
+        private MergingIterator(List<Iterator<Map.Entry<K, V>>> iterators) {
+            this.queue = new PriorityQueue<>(Math.max(1, iterators.size()),
+                    (left, right) -> compareKeys(left.peek().getKey(), right.peek().getKey()));
+            for (Iterator<Map.Entry<K, V>> iterator : iterators) {
+                if (iterator.hasNext()) {
+                    queue.add(new PeekingIterator(iterator));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            PeekingIterator head = queue.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry = head.next();
+            if (head.hasNext()) {
+                queue.add(head);
+            }
+            return entry;
+        }
+    }
+
+    private final class PeekingIterator {
+        private final Iterator<Map.Entry<K, V>> iterator;
+        private Map.Entry<K, V> peeked;
+
+        private PeekingIterator(Iterator<Map.Entry<K, V>> iterator) {
+            this.iterator = iterator;
+            this.peeked = iterator.next();
+        }
+
+        private Map.Entry<K, V> peek() {
+            return peeked;
+        }
+
+        private boolean hasNext() {
+            return peeked != null;
+        }
+
+        private Map.Entry<K, V> next() {
+            Map.Entry<K, V> entry = peeked;
+            peeked = iterator.hasNext() ? iterator.next() : null;
+            return entry;
+        }
+    }
+
+    /**
+     * 按段切分的Spliterator：先对半拆分段的区间，只剩一个段时交给该段自己的Spliterator拆分
+     */
+    private final class SegmentSpliterator implements Spliterator<Map.Entry<K, V>> {
+        private final IntFunction<Spliterator<Map.Entry<K, V>>> partition;
+        private final int fence;
+        private int index;
+        private long estimatedSize;
+        private Spliterator<Map.Entry<K, V>> current;
+
+        private SegmentSpliterator(int index, int fence, long estimatedSize,
+                                   IntFunction<Spliterator<Map.Entry<K, V>>> partition) {
+            this.index = index;
+            this.fence = fence;
+            this.estimatedSize = estimatedSize;
+            this.partition = partition;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<K, V>> trySplit() {
+            if (current == null && fence - index > 1) {
+                int middle = (index + fence) >>> 1;
+                Spliterator<Map.Entry<K, V>> prefix = new SegmentSpliterator(index, middle, estimatedSize >>> 1,
+                        partition);
+                index = middle;
+                estimatedSize -= estimatedSize >>> 1;
+                return prefix;
+            }
+            if (index >= fence) {
+                return null;
+            }
+            if (current == null) {
+                current = partition.apply(index);
+            }
+            return current.trySplit();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<K, V>> action) {
+            while (index < fence) {
+                if (current == null) {
+                    current = partition.apply(index);
+                }
+                if (current.tryAdvance(action)) {
+                    return true;
+                }
+                current = null;
+                index++;
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Map.Entry<K, V>> action) {
+            while (index < fence) {
+                if (current == null) {
+                    current = partition.apply(index);
+                }
+                current.forEachRemaining(action);
+                current = null;
+                index++;
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return current != null && fence - index == 1 ? current.estimateSize() : estimatedSize;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.CONCURRENT;
+        }
+    }
+
+    /**
+     * 依次遍历多个迭代器
+     */
+    private final class ConcatIterator implements Iterator<Map.Entry<K, V>> {
+        private final Iterator<Iterator<Map.Entry<K, V>>> iterators;
+        private Iterator<Map.Entry<K, V>> current = Collections.emptyIterator();
+
+        private ConcatIterator(List<Iterator<Map.Entry<K, V>>> iterators) {
+            this.iterators = iterators.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && iterators.hasNext()) {
+                current = iterators.next();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+    }
+
+    private abstract class ViewIterator<T> implements Iterator<T> {
+        private final Iterator<Map.Entry<K, V>> iterator;
+        private K currentKey;
+        private boolean canRemove;
+
+        private ViewIterator() {
+            this(entryIterator());
+        }
+
+        private ViewIterator(Iterator<Map.Entry<K, V>> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        protected Map.Entry<K, V> nextEntry() {
+            Map.Entry<K, V> entry = iterator.next();
+            currentKey = entry.getKey();
+            canRemove = true;
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            if (!canRemove) {
+                throw new IllegalStateException();
+            }
+            StripedFastMap.this.remove(currentKey);
+            canRemove = false;
+        }
+    }
+
+    private final class KeySetView extends AbstractSet<K> {
+        @Override
+        public Iterator<K> iterator() {
+            return new ViewIterator<K>() {
+                @Override
+                public K next() {
+                    return nextEntry().getKey();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return StripedFastMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return StripedFastMap.this.containsKey(key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            return segmentFor(key).keySet().remove(key);
+        }
+
+        @Override
+        public void clear() {
+            StripedFastMap.this.clear();
+        }
+    }
+
+    private final class ValuesView extends AbstractCollection<V> {
+        @Override
+        public Iterator<V> iterator() {
+            return new ViewIterator<V>() {
+                @Override
+                public V next() {
+                    return nextEntry().getValue();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return StripedFastMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object value) {
+            return StripedFastMap.this.containsValue(value);
+        }
+
+        @Override
+        public boolean remove(Object value) {
+            for (FastMap<K, V> segment : segments) {
+                if (segment.values().remove(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void clear() {
+            StripedFastMap.this.clear();
+        }
+    }
+
+    private final class EntrySetView extends AbstractSet<Map.Entry<K, V>> {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+            return new ViewIterator<Map.Entry<K, V>>() {
+                @Override
+                public Map.Entry<K, V> next() {
+                    //段返回的Entry会写回所属的段
+                    return nextEntry();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return StripedFastMap.this.size();
+        }
+
+        @Override
+        public boolean contains(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            return segmentFor(entry.getKey()).entrySet().contains(entry);
+        }
+
+        @Override
+        public boolean remove(Object object) {
+            if (!(object instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) object;
+            return StripedFastMap.this.remove(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void clear() {
+            StripedFastMap.this.clear();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SegmentFactory<K, V> {
+        FastMap<K, V> create();
+    }
+}
@@ -0,0 +1,47 @@
+package com.hdwang.fastmap;
+
+/**
+ * 过期清理线程对一个实例的清理耗时记录，只由清理线程写入，监控线程读取。
+ *
+ * @author wanghuidong
+ */
+final class SweepStats {
+
+    private volatile long lastSweepNanos;
+
+    private volatile long totalSweepNanos;
+
+    private volatile long sweepCount;
+
+    /**
+     * 记录一次清理（只由清理线程调用）
+     *
+     * @param nanos 耗时（纳秒）
+     */
+    void record(long nanos) {
+        this.lastSweepNanos = nanos;
+        this.totalSweepNanos += nanos;
+        this.sweepCount++;
+    }
+
+    /**
+     * 最近一次清理的耗时（纳秒）
+     */
+    long lastSweepNanos() {
+        return lastSweepNanos;
+    }
+
+    /**
+     * 累计清理耗时（纳秒）
+     */
+    long totalSweepNanos() {
+        return totalSweepNanos;
+    }
+
+    /**
+     * 清理次数
+     */
+    long sweepCount() {
+        return sweepCount;
+    }
+}
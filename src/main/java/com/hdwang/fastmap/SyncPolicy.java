@@ -0,0 +1,84 @@
+package com.hdwang.fastmap;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写前日志的刷盘策略
+ *
+ * @author wanghuidong
+ */
+public final class SyncPolicy {
+
+    private static final SyncPolicy ALWAYS = new SyncPolicy(0L, true);
+
+    private static final SyncPolicy OS = new SyncPolicy(0L, false);
+
+    /**
+     * 刷盘间隔（毫秒），0表示有数据就立即写入
+     */
+    final long intervalMs;
+
+    /**
+     * 写入后是否调用fsync
+     */
+    final boolean force;
+
+    private SyncPolicy(long intervalMs, boolean force) {
+        this.intervalMs = intervalMs;
+        this.force = force;
+    }
+
+    /**
+     * 每次写操作都在fsync完成后才返回，崩溃不丢数据。
+     * 并发的写操作合并为一次fsync（组提交），等待fsync时不持有Map的锁。
+     *
+     * @return 刷盘策略
+     */
+    public static SyncPolicy always() {
+        return ALWAYS;
+    }
+
+    /**
+     * 每隔指定时间写入并fsync一次，写操作不等待刷盘，崩溃时最多丢失最近一个间隔内的修改
+     *
+     * @param duration 时长
+     * @param unit     时间单位
+     * @return 刷盘策略
+     */
+    public static SyncPolicy interval(long duration, TimeUnit unit) {
+        long intervalMs = Objects.requireNonNull(unit, "unit").toMillis(duration);
+        if (intervalMs <= 0) {
+            throw new IllegalArgumentException("interval must be at least 1 millisecond");
+        }
+        return new SyncPolicy(intervalMs, true);
+    }
+
+    /**
+     * 后台线程立即写入文件但不调用fsync，由操作系统决定何时落盘。
+     * 进程崩溃不丢数据，操作系统崩溃或断电时可能丢失最近的修改。
+     *
+     * @return 刷盘策略
+     */
+    public static SyncPolicy os() {
+        return OS;
+    }
+
+    /**
+     * 写操作是否需要等待刷盘完成
+     */
+    boolean waitForSync() {
+        return intervalMs == 0L && force;
+    }
+
+    @Override
+    public String toString() {
+        if (this == ALWAYS) {
+            return "SyncPolicy.always";
+        }
+        if (this == OS) {
+            return "SyncPolicy.os";
+        }
+        return "SyncPolicy.interval(" + intervalMs + "ms)";
+    }
+}
@@ -0,0 +1,336 @@
+package com.hdwang.fastmap;
+
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮，保存会过期key的截止时间，精确到毫秒。
+ * <p>
+ * 共7层，每层64个桶，第0层每个桶代表1毫秒，之后每层桶的跨度是上一层的64倍。
+ * 截止时间越远，节点所在的层越高；时间推进到节点所在的桶时，节点要么到期，要么降级到更低的层。
+ * 设置、续期、取消均为O(1)，不会因为大量key共享同一毫秒而退化。
+ * </p>
+ * <p>
+ * 推进时间轮只把到期节点移入到期队列，调用方可以分批取出并删除数据，避免一次持锁处理所有到期数据。
+ * </p>
+ * 非线程安全，由FastMap的读写锁保护。
+ *
+ * @author wanghuidong
+ */
+final class TimerWheel<K, V> {
+
+    /**
+     * 每层的桶数量
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * 每层桶跨度的位移量，第i层每个桶跨度为 1 << SHIFTS[i] 毫秒
+     */
+    private static final int[] SHIFTS = {0, 6, 12, 18, 24, 30, 36};
+
+    /**
+     * 各层各桶的哨兵节点，链表为双向循环链表
+     */
+    private final Node<K, V>[][] wheel;
+
+    /**
+     * 到期队列的哨兵节点，已到期但尚未被取出的节点
+     */
+    private final Node<K, V> expired = Node.sentinel();
+
+    /**
+     * key到节点的索引，包含到期队列中的节点
+     */
+    private final HashMap<K, Node<K, V>> nodes = new HashMap<>();
+
+    /**
+     * 时间原点（毫秒），时间轮内部使用相对时间，避免nanoTime为负数时的位运算问题
+     */
+    private final long origin;
+
+    /**
+     * 时间轮当前推进到的相对时间（毫秒）
+     */
+    private long currentTime;
+
+    /**
+     * 带过期回调的节点数量
+     */
+    private int callbackCount;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(long now) {
+        this.origin = now;
+        this.wheel = (Node<K, V>[][]) new Node<?, ?>[SHIFTS.length][BUCKETS];
+        for (Node<K, V>[] buckets : wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = Node.sentinel();
+            }
+        }
+    }
+
+    /**
+     * 获取key的节点
+     *
+     * @param key 键
+     * @return 节点；未设置过期时间时返回null
+     */
+    Node<K, V> get(Object key) {
+        return nodes.isEmpty() ? null : nodes.get(key);
+    }
+
+    /**
+     * 设置或重置key的截止时间，O(1)
+     *
+     * @param key      键
+     * @param deadline 截止时间（毫秒）
+     * @param callback 过期回调，可以为null
+     * @return 节点
+     */
+    Node<K, V> schedule(K key, long deadline, ExpireCallback<K, V> callback) {
+        Node<K, V> node = nodes.get(key);
+        if (node == null) {
+            node = new Node<>(key);
+            nodes.put(key, node);
+        } else {
+            unlink(node);
+            if (node.callback != null) {
+                callbackCount--;
+            }
+        }
+        node.deadline = deadline;
+        node.callback = callback;
+        if (callback != null) {
+            callbackCount++;
+        }
+        link(findBucket(deadline), node);
+        return node;
+    }
+
+    /**
+     * 取消key的截止时间，O(1)
+     *
+     * @param key 键
+     * @return 被取消的节点；未设置过期时间时返回null
+     */
+    Node<K, V> remove(Object key) {
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        Node<K, V> node = nodes.remove(key);
+        if (node != null) {
+            unlink(node);
+            if (node.callback != null) {
+                callbackCount--;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * 推进时间轮，移除所有截止时间不晚于now的节点并交给consumer处理
+     *
+     * @param now      当前时间（毫秒）
+     * @param consumer 到期节点的处理函数
+     */
+    void advance(long now, Consumer<Node<K, V>> consumer) {
+        advance(now);
+        for (Node<K, V> node = pollExpired(); node != null; node = pollExpired()) {
+            consumer.accept(node);
+        }
+    }
+
+    /**
+     * 推进时间轮，把所有截止时间不晚于now的节点移入到期队列，只移动指针，不删除索引
+     *
+     * @param now 当前时间（毫秒）
+     */
+    void advance(long now) {
+        long previousTime = currentTime;
+        long time = Math.max(previousTime, now - origin);
+        currentTime = time;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previousTime >>> SHIFTS[level];
+            long currentTicks = time >>> SHIFTS[level];
+            //第0层包含当前刻度，以便处理设置时就已到期的节点
+            long firstTick = level == 0 ? previousTicks : previousTicks + 1;
+            long ticks = Math.min(currentTicks - firstTick + 1, BUCKETS);
+            for (long i = 0; i < ticks; i++) {
+                expireBucket(wheel[level][(int) ((firstTick + i) & (BUCKETS - 1))], now);
+            }
+            if (currentTicks == previousTicks && level > 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 从到期队列取出一个节点
+     *
+     * @return 到期节点；到期队列为空时返回null
+     */
+    Node<K, V> pollExpired() {
+        Node<K, V> node = expired.next;
+        if (node == expired) {
+            return null;
+        }
+        unlink(node);
+        nodes.remove(node.key);
+        if (node.callback != null) {
+            callbackCount--;
+        }
+        return node;
+    }
+
+    /**
+     * 到期队列是否还有节点
+     */
+    boolean hasExpired() {
+        return expired.next != expired;
+    }
+
+    /**
+     * 最早截止时间的下界：不晚于任何节点的截止时间
+     *
+     * @return 截止时间下界（毫秒）；没有节点时返回Long.MAX_VALUE
+     */
+    long nextDeadline() {
+        if (nodes.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+        if (hasExpired()) {
+            return origin + currentTime;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long currentTicks = currentTime >>> SHIFTS[level];
+            long firstTick = level == 0 ? currentTicks : currentTicks + 1;
+            for (int i = 0; i < BUCKETS; i++) {
+                long tick = firstTick + i;
+                Node<K, V> sentinel = wheel[level][(int) (tick & (BUCKETS - 1))];
+                if (sentinel.next != sentinel) {
+                    long bucketStart = origin + Math.max(currentTime, tick << SHIFTS[level]);
+                    earliest = Math.min(earliest, bucketStart);
+                    break;
+                }
+            }
+        }
+        return earliest;
+    }
+
+    /**
+     * 带过期回调的节点数量
+     */
+    int callbackCount() {
+        return callbackCount;
+    }
+
+    /**
+     * 节点数量
+     */
+    int size() {
+        return nodes.size();
+    }
+
+    /**
+     * 清空所有节点
+     */
+    void clear() {
+        for (Node<K, V>[] buckets : wheel) {
+            for (Node<K, V> sentinel : buckets) {
+                sentinel.prev = sentinel;
+                sentinel.next = sentinel;
+            }
+        }
+        expired.prev = expired;
+        expired.next = expired;
+        nodes.clear();
+        callbackCount = 0;
+    }
+
+    private void expireBucket(Node<K, V> sentinel, long now) {
+        if (sentinel.next == sentinel) {
+            return;
+        }
+        //先摘下整条链表，降级的节点可能重新放回同一个桶
+        Node<K, V> node = sentinel.next;
+        sentinel.prev.next = null;
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        while (node != null) {
+            Node<K, V> next = node.next;
+            node.prev = null;
+            node.next = null;
+            if (node.deadline <= now) {
+                link(expired, node);
+            } else {
+                link(findBucket(node.deadline), node);
+            }
+            node = next;
+        }
+    }
+
+    private Node<K, V> findBucket(long deadline) {
+        long time = saturatedSubtract(deadline, origin);
+        long duration = time - currentTime;
+        if (duration <= 0) {
+            //已经到期，放入当前刻度的桶，下次推进时处理
+            return wheel[0][(int) (currentTime & (BUCKETS - 1))];
+        }
+        int last = SHIFTS.length - 1;
+        for (int level = 0; level < last; level++) {
+            if (duration < (1L << SHIFTS[level + 1])) {
+                return wheel[level][(int) ((time >>> SHIFTS[level]) & (BUCKETS - 1))];
+            }
+        }
+        return wheel[last][(int) ((time >>> SHIFTS[last]) & (BUCKETS - 1))];
+    }
+
+    private static long saturatedSubtract(long left, long right) {
+        long result = left - right;
+        //同号相减不会溢出；异号且结果符号与被减数不同时溢出
+        if (((left ^ right) & (left ^ result)) < 0) {
+            return left < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return result;
+    }
+
+    private static <K, V> void link(Node<K, V> sentinel, Node<K, V> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static <K, V> void unlink(Node<K, V> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+        }
+    }
+
+    /**
+     * 时间轮节点，保存key的截止时间和过期回调
+     */
+    static final class Node<K, V> {
+        final K key;
+        long deadline;
+        ExpireCallback<K, V> callback;
+        private Node<K, V> prev;
+        private Node<K, V> next;
+
+        private Node(K key) {
+            this.key = key;
+        }
+
+        private static <K, V> Node<K, V> sentinel() {
+            Node<K, V> sentinel = new Node<>(null);
+            sentinel.prev = sentinel;
+            sentinel.next = sentinel;
+            return sentinel;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.hdwang.fastmap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 基于TreeMap的排序索引，与HashMap组成双索引
+ *
+ * @author wanghuidong
+ */
+final class TreeIndex<K, V> extends TreeMap<K, V> implements SortedIndex<K, V> {
+
+    private static final long serialVersionUID = 1L;
+
+    TreeIndex(Comparator<? super K> comparator) {
+        super(comparator);
+    }
+
+    @Override
+    public void buildFromSorted(List<? extends Map.Entry<K, V>> entries) {
+        if (!isEmpty()) {
+            throw new IllegalStateException("index is not empty");
+        }
+        //空TreeMap写入排序器相同的SortedMap时按有序数据直接建树，不做比较
+        putAll(new SortedEntries<>(comparator(), entries));
+    }
+
+    /**
+     * 只读的有序数据，供TreeMap批量建树；子视图按二分查找截取列表
+     */
+    static final class SortedEntries<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+        private final Comparator<? super K> comparator;
+        private final List<? extends Map.Entry<K, V>> entries;
+
+        SortedEntries(Comparator<? super K> comparator, List<? extends Map.Entry<K, V>> entries) {
+            this.comparator = comparator;
+            this.entries = entries;
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return (Iterator<Map.Entry<K, V>>) entries.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+
+        @Override
+        public K firstKey() {
+            if (entries.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return entries.get(0).getKey();
+        }
+
+        @Override
+        public K lastKey() {
+            if (entries.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            return entries.get(entries.size() - 1).getKey();
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            if (compare(fromKey, toKey) > 0) {
+                throw new IllegalArgumentException("fromKey > toKey");
+            }
+            return new SortedEntries<>(comparator, entries.subList(lowerBound(fromKey), lowerBound(toKey)));
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            return new SortedEntries<>(comparator, entries.subList(0, lowerBound(toKey)));
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            return new SortedEntries<>(comparator, entries.subList(lowerBound(fromKey), entries.size()));
+        }
+
+        /**
+         * 二分查找第一个不小于key的位置
+         */
+        private int lowerBound(K key) {
+            int low = 0;
+            int high = entries.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (compare(entries.get(mid).getKey(), key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @SuppressWarnings("unchecked")
+        private int compare(K k1, K k2) {
+            return comparator != null ? comparator.compare(k1, k2) : ((Comparable<? super K>) k1).compareTo(k2);
+        }
+    }
+}
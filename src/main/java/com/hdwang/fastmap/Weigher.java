@@ -0,0 +1,19 @@
+package com.hdwang.fastmap;
+
+/**
+ * 计算数据权重的函数，配合最大权重使用
+ *
+ * @author wanghuidong
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    /**
+     * 计算数据的权重，写入或更新数据时调用一次，结果在数据移除前保持不变
+     *
+     * @param key   键
+     * @param value 值
+     * @return 权重，不能为负数
+     */
+    int weigh(K key, V value);
+}
@@ -0,0 +1,249 @@
+package com.hdwang.fastmap;
+
+import java.util.HashMap;
+
+/**
+ * W-TinyLFU淘汰策略：新数据先进入约占1%容量的LRU窗口区，窗口溢出的数据作为候选者进入主区（分段LRU：试用区+保护区）。
+ * 需要淘汰时，候选者只有访问频率高于试用区中最久未访问的受害者时才会被保留，否则淘汰候选者。
+ * 既能吸收突发的新数据，又能抵抗一次性扫描对热点数据的冲刷。所有操作均为均摊O(1)。
+ *
+ * @author wanghuidong
+ */
+public class WindowTinyLfuEvictionPolicy<K> implements EvictionPolicy<K> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /**
+     * key到链表节点的索引
+     */
+    private final HashMap<K, Node<K>> nodes = new HashMap<>();
+
+    /**
+     * 窗口区、试用区、保护区的LRU链表哨兵节点
+     */
+    private final Node<K> window = Node.sentinel();
+    private final Node<K> probation = Node.sentinel();
+    private final Node<K> protectedRegion = Node.sentinel();
+
+    /**
+     * 访问频率估算器
+     */
+    private final FrequencySketch sketch;
+
+    /**
+     * 窗口区最大权重，与maximum单位相同（按条数限制时每条权重为1）
+     */
+    private final long windowMaximum;
+
+    /**
+     * 保护区最大权重
+     */
+    private final long protectedMaximum;
+
+    private long windowWeight;
+    private long protectedWeight;
+    private long weightedSize;
+
+    /**
+     * 构造器，按最大条数限制
+     *
+     * @param maximum 最大条数
+     */
+    public WindowTinyLfuEvictionPolicy(long maximum) {
+        this(maximum, false);
+    }
+
+    /**
+     * 构造器
+     *
+     * @param maximum  最大条数或最大权重
+     * @param weighted maximum是否为最大权重
+     */
+    public WindowTinyLfuEvictionPolicy(long maximum, boolean weighted) {
+        //各区的上限与记录的权重同一单位
+        this.windowMaximum = Math.max(1, maximum / 100);
+        this.protectedMaximum = (long) ((maximum - windowMaximum) * 0.8d);
+        //频率表随实际条数增长；按条数限制时不会超过最大条数，按权重限制时条数未知
+        this.sketch = new FrequencySketch(weighted ? Long.MAX_VALUE : maximum);
+    }
+
+    @Override
+    public void recordInsert(K key, long weight) {
+        Node<K> node = nodes.get(key);
+        if (node != null) {
+            recordUpdate(key, weight);
+            return;
+        }
+        node = new Node<>(key, weight, WINDOW);
+        nodes.put(key, node);
+        sketch.ensureCapacity(nodes.size());
+        sketch.increment(key);
+        linkLast(window, node);
+        windowWeight += weight;
+        weightedSize += weight;
+        evictFromWindow();
+    }
+
+    @Override
+    public void recordUpdate(K key, long weight) {
+        Node<K> node = nodes.get(key);
+        if (node == null) {
+            recordInsert(key, weight);
+            return;
+        }
+        long delta = weight - node.weight;
+        node.weight = weight;
+        weightedSize += delta;
+        if (node.region == WINDOW) {
+            windowWeight += delta;
+        } else if (node.region == PROTECTED) {
+            protectedWeight += delta;
+        }
+        onAccess(node);
+        evictFromWindow();
+    }
+
+    @Override
+    public void recordAccess(K key) {
+        Node<K> node = nodes.get(key);
+        if (node != null) {
+            onAccess(node);
+        }
+    }
+
+    @Override
+    public void recordRemove(K key) {
+        Node<K> node = nodes.remove(key);
+        if (node == null) {
+            return;
+        }
+        unlink(node);
+        weightedSize -= node.weight;
+        if (node.region == WINDOW) {
+            windowWeight -= node.weight;
+        } else if (node.region == PROTECTED) {
+            protectedWeight -= node.weight;
+        }
+    }
+
+    @Override
+    public long weightedSize() {
+        return weightedSize;
+    }
+
+    @Override
+    public K victim() {
+        Node<K> victim = first(probation);
+        if (victim == null) {
+            victim = first(protectedRegion) != null ? first(protectedRegion) : first(window);
+            return victim.key;
+        }
+        //试用区尾部是最近从窗口区溢出的候选者，比头部的受害者更常被访问时才准入
+        Node<K> candidate = probation.prev;
+        if (candidate != victim && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            return victim.key;
+        }
+        return candidate.key;
+    }
+
+    @Override
+    public void clear() {
+        nodes.clear();
+        reset(window);
+        reset(probation);
+        reset(protectedRegion);
+        windowWeight = 0;
+        protectedWeight = 0;
+        weightedSize = 0;
+    }
+
+    /**
+     * 频率计数器表的长度
+     */
+    int frequencyTableSize() {
+        return sketch.tableSize();
+    }
+
+    /**
+     * 窗口区溢出的数据移入试用区尾部，成为等待准入比较的候选者
+     */
+    private void evictFromWindow() {
+        while (windowWeight > windowMaximum) {
+            Node<K> candidate = first(window);
+            unlink(candidate);
+            windowWeight -= candidate.weight;
+            candidate.region = PROBATION;
+            linkLast(probation, candidate);
+        }
+    }
+
+    private void onAccess(Node<K> node) {
+        sketch.increment(node.key);
+        unlink(node);
+        if (node.region == WINDOW) {
+            linkLast(window, node);
+        } else if (node.region == PROBATION) {
+            //试用区数据再次被访问，晋升到保护区
+            node.region = PROTECTED;
+            protectedWeight += node.weight;
+            linkLast(protectedRegion, node);
+            while (protectedWeight > protectedMaximum) {
+                Node<K> demoted = first(protectedRegion);
+                if (demoted == node) {
+                    break;
+                }
+                unlink(demoted);
+                protectedWeight -= demoted.weight;
+                demoted.region = PROBATION;
+                linkLast(probation, demoted);
+            }
+        } else {
+            linkLast(protectedRegion, node);
+        }
+    }
+
+    private static <K> void reset(Node<K> sentinel) {
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+    }
+
+    private static <K> Node<K> first(Node<K> sentinel) {
+        return sentinel.next == sentinel ? null : sentinel.next;
+    }
+
+    private static <K> void linkLast(Node<K> sentinel, Node<K> node) {
+        node.prev = sentinel.prev;
+        node.next = sentinel;
+        sentinel.prev.next = node;
+        sentinel.prev = node;
+    }
+
+    private static <K> void unlink(Node<K> node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static final class Node<K> {
+        private final K key;
+        private long weight;
+        private int region;
+        private Node<K> prev;
+        private Node<K> next;
+
+        private Node(K key, long weight, int region) {
+            this.key = key;
+            this.weight = weight;
+            this.region = region;
+        }
+
+        private static <K> Node<K> sentinel() {
+            Node<K> sentinel = new Node<>(null, 0, -1);
+            reset(sentinel);
+            return sentinel;
+        }
+    }
+}
@@ -0,0 +1,896 @@
+package com.hdwang.fastmap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * FastMap的写前日志。
+ * <p>
+ * 目录中保存一个快照文件 snapshot-N.fms 和若干日志段 wal-N.log，N为日志段编号：
+ * 快照包含编号N的日志段开始之前的全部数据，恢复时加载编号最大的快照，再按顺序重放编号不小于N的日志段。
+ * 每次打开都从一个新的日志段开始写入，上次崩溃时写了一半的记录只会出现在旧日志段的末尾，重放到此为止。
+ * </p>
+ * <p>
+ * 写操作在Map的写锁内先把记录序列化到暂存区，修改内存数据成功后再追加到内存缓冲区，后台线程批量写入文件并按刷盘策略调用fsync（组提交）；
+ * 需要等待刷盘的写操作在释放写锁之后才等待，fsync期间其他线程照常读写。
+ * 日志段文件的格式：
+ * </p>
+ * <pre>
+ * int    魔数 "FMWL"
+ * short  版本
+ * long   日志段编号
+ * 每条记录: int 长度, int CRC32, byte 操作类型, 操作数据
+ * </pre>
+ *
+ * @author wanghuidong
+ */
+final class WriteAheadLog<K, V> {
+
+    private static final int MAGIC = 0x464D574C;
+
+    private static final short VERSION = 1;
+
+    private static final int OP_PUT = 1;
+
+    private static final int OP_REMOVE = 2;
+
+    private static final int OP_PUT_ALL = 3;
+
+    private static final int OP_EXPIRE = 4;
+
+    private static final int OP_CLEAR = 5;
+
+    private static final int NULL_KEY = 1;
+
+    private static final int NULL_VALUE = 1 << 1;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+
+    private static final String SNAPSHOT_SUFFIX = ".fms";
+
+    private static final String SNAPSHOT_TEMP_SUFFIX = ".tmp";
+
+    /**
+     * 单条记录的最大长度，超过时视为损坏
+     */
+    private static final int MAX_RECORD_BYTES = 1 << 30;
+
+    /**
+     * 缓冲区达到该大小时提前唤醒刷盘线程，不等刷盘间隔
+     */
+    private static final int EAGER_FLUSH_BYTES = 1 << 20;
+
+    /**
+     * 缓冲区超过该大小时写入后不再复用，避免长期占用内存
+     */
+    private static final int MAX_RETAINED_BUFFER_BYTES = 1 << 22;
+
+    private static final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    /**
+     * 后台压缩线程池，所有日志共享一个线程
+     */
+    private static final ThreadPoolExecutor compactionExecutor = new ThreadPoolExecutor(
+            1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread thread = new Thread(r, "fastmap-wal-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        compactionExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Path directory;
+
+    final Serializer<K> keySerializer;
+
+    final Serializer<V> valueSerializer;
+
+    private final SyncPolicy syncPolicy;
+
+    private final long compactionBytes;
+
+    /**
+     * 同一时间只允许一次压缩
+     */
+    final ReentrantLock compactionLock = new ReentrantLock();
+
+    private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+
+    /**
+     * 保护日志段文件的写入和切换，获取顺序：ioLock在前，Map的读锁和this在后
+     */
+    private final Object ioLock = new Object();
+
+    //以下字段由this保护
+    private RecordBuffer pending = new RecordBuffer();
+    private RecordBuffer spare = new RecordBuffer();
+    private final RecordBuffer scratch = new RecordBuffer();
+    private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+    private final CRC32 crc = new CRC32();
+    private boolean prepared;
+    private long appendedSequence;
+    private long durableSequence;
+    private IOException failure;
+    private boolean open;
+    private boolean closed;
+
+    //以下字段由ioLock保护
+    private FileChannel channel;
+    private long generation;
+    private long bytesSinceCompaction;
+
+    private Runnable compaction;
+
+    private Thread flusher;
+
+    WriteAheadLog(Path directory, Serializer<K> keySerializer, Serializer<V> valueSerializer,
+                  SyncPolicy syncPolicy, long compactionBytes) {
+        this.directory = directory;
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.syncPolicy = syncPolicy;
+        this.compactionBytes = compactionBytes;
+    }
+
+    /**
+     * 加载最新的快照并重放之后的日志段，然后打开新的日志段开始记录。
+     * 重放期间日志尚未打开，重放引起的修改不会再次写入日志。
+     *
+     * @param map        恢复到的Map
+     * @param compaction 压缩任务，日志累计超过阈值时在后台执行
+     * @throws IOException 读取失败或快照损坏
+     */
+    void recover(FastMap<K, V> map, Runnable compaction) throws IOException {
+        Files.createDirectories(directory);
+        long snapshotGeneration = -1L;
+        List<Long> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (isSnapshotTempFile(name)) {
+                    //写快照中途崩溃时遗留的临时文件
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                long snapshot = parseGeneration(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+                if (snapshot > snapshotGeneration) {
+                    snapshotGeneration = snapshot;
+                }
+                long segment = parseGeneration(name, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if (segment >= 0) {
+                    segments.add(segment);
+                }
+            }
+        }
+        Collections.sort(segments);
+
+        if (snapshotGeneration >= 0) {
+            map.loadSnapshot(snapshotFile(snapshotGeneration), keySerializer, valueSerializer);
+        }
+        long lastGeneration = Math.max(snapshotGeneration, 0L);
+        for (long segment : segments) {
+            if (segment >= snapshotGeneration) {
+                replay(segmentFile(segment), map);
+            }
+            lastGeneration = Math.max(lastGeneration, segment);
+        }
+
+        synchronized (ioLock) {
+            openSegment(lastGeneration + 1);
+        }
+        //压缩中途崩溃时遗留的旧文件
+        deleteBefore(Math.max(snapshotGeneration, 0L));
+        this.compaction = compaction;
+        synchronized (this) {
+            this.open = true;
+        }
+        this.flusher = new Thread(this::runFlusher, "fastmap-wal-" + threadNumber.incrementAndGet());
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 准备put记录（调用方需持有Map的写锁），修改成功后调用commitPrepared追加到日志
+     */
+    synchronized void preparePut(K key, V value) {
+        if (beginRecord(OP_PUT)) {
+            try {
+                writeEntry(key, value);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to serialize write-ahead log record", e);
+            }
+            prepared = true;
+        }
+    }
+
+    /**
+     * 准备remove记录（调用方需持有Map的写锁）
+     */
+    synchronized void prepareRemove(Object key) {
+        if (beginRecord(OP_REMOVE)) {
+            try {
+                @SuppressWarnings("unchecked")
+                K typedKey = (K) key;
+                writeKey(typedKey);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to serialize write-ahead log record", e);
+            }
+            prepared = true;
+        }
+    }
+
+    /**
+     * 准备一批put的记录，重放时整批生效或整批丢弃（调用方需持有Map的写锁）
+     */
+    synchronized void preparePutAll(Collection<? extends Map.Entry<? extends K, ? extends V>> entries) {
+        if (beginRecord(OP_PUT_ALL)) {
+            try {
+                scratchOut.writeInt(entries.size());
+                for (Map.Entry<? extends K, ? extends V> entry : entries) {
+                    writeEntry(entry.getKey(), entry.getValue());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to serialize write-ahead log record", e);
+            }
+            prepared = true;
+        }
+    }
+
+    /**
+     * 准备过期时间记录（调用方需持有Map的写锁）
+     *
+     * @param key      键
+     * @param deadline 过期时刻（毫秒，系统时间）
+     */
+    synchronized void prepareExpire(K key, long deadline) {
+        if (beginRecord(OP_EXPIRE)) {
+            try {
+                writeKey(key);
+                scratchOut.writeLong(deadline);
+            } catch (IOException e) {
+                throw new UncheckedIOException("failed to serialize write-ahead log record", e);
+            }
+            prepared = true;
+        }
+    }
+
+    /**
+     * 准备clear记录（调用方需持有Map的写锁）
+     */
+    synchronized void prepareClear() {
+        if (beginRecord(OP_CLEAR)) {
+            prepared = true;
+        }
+    }
+
+    /**
+     * 把准备好的记录追加到缓冲区（调用方需持有Map的写锁）。
+     * 记录在修改内存数据之前序列化，序列化失败或日志已失败时修改不会生效；这里只做内存复制，不会失败。
+     *
+     * @return 是否追加了记录，日志未打开时返回false
+     */
+    synchronized boolean commitPrepared() {
+        if (!prepared) {
+            return false;
+        }
+        prepared = false;
+        if (!open) {
+            return false;
+        }
+        commitRecord();
+        return true;
+    }
+
+    /**
+     * 日志是否已关闭
+     */
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 已追加的最后一条记录的序号
+     */
+    synchronized long lastSequence() {
+        return appendedSequence;
+    }
+
+    /**
+     * 按刷盘策略等待指定序号之前的记录刷盘，调用方不能持有Map的锁
+     *
+     * @param sequence 记录序号
+     */
+    void awaitDurable(long sequence) {
+        if (!syncPolicy.waitForSync()) {
+            return;
+        }
+        boolean interrupted = false;
+        synchronized (this) {
+            while (durableSequence < sequence && failure == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (durableSequence < sequence && failure != null) {
+                throw new UncheckedIOException("write-ahead log failed", failure);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 立即写入缓冲区中的记录并fsync
+     *
+     * @throws IOException 写入失败
+     */
+    void sync() throws IOException {
+        synchronized (ioLock) {
+            flushLocked(true);
+            scheduleCompactionIfNeeded();
+        }
+    }
+
+    /**
+     * 切换到新的日志段，分界之前的记录全部写入旧日志段并fsync。
+     * fsync和创建新日志段都在mapLock之外完成；持有mapLock时只执行capture并记下缓冲区中的分界位置，
+     * 写操作只在Map的写锁内追加记录，capture取得的数据恰好包含分界之前的全部修改。
+     *
+     * @param mapLock Map的读锁
+     * @param capture 持有mapLock时执行，取得快照数据
+     * @return 新日志段的编号，即快照对应的编号
+     * @throws IOException 写入失败
+     */
+    long rotate(Lock mapLock, Runnable capture) throws IOException {
+        synchronized (ioLock) {
+            //先写入并fsync已有的记录，分界之前剩下的只有这之后追加的少量记录
+            flushLocked(true);
+            long nextGeneration = generation + 1;
+            Path nextFile = segmentFile(nextGeneration);
+            FileChannel nextChannel = createSegment(nextGeneration);
+            try {
+                int boundary;
+                mapLock.lock();
+                try {
+                    capture.run();
+                    synchronized (this) {
+                        boundary = pending.size();
+                    }
+                } finally {
+                    mapLock.unlock();
+                }
+                switchSegment(nextChannel, nextGeneration, boundary);
+                return nextGeneration;
+            } finally {
+                //没有切换到新日志段时删除，之后的压缩可以重新创建同一编号
+                if (this.channel != nextChannel) {
+                    nextChannel.close();
+                    Files.deleteIfExists(nextFile);
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除编号小于generation的快照和日志段
+     *
+     * @param generation 最新快照的编号
+     * @throws IOException 删除失败
+     */
+    void deleteBefore(long generation) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                long snapshot = parseGeneration(name, SNAPSHOT_PREFIX, SNAPSHOT_SUFFIX);
+                long segment = parseGeneration(name, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+                if ((snapshot >= 0 && snapshot < generation) || (segment >= 0 && segment < generation)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否为写快照时创建的临时文件 snapshot-N.fms*.tmp
+     */
+    private static boolean isSnapshotTempFile(String name) {
+        return name.startsWith(SNAPSHOT_PREFIX) && name.endsWith(SNAPSHOT_TEMP_SUFFIX)
+                && name.indexOf(SNAPSHOT_SUFFIX, SNAPSHOT_PREFIX.length()) >= 0;
+    }
+
+    /**
+     * 编号为generation的快照文件
+     */
+    Path snapshotFile(long generation) {
+        return directory.resolve(fileName(SNAPSHOT_PREFIX, generation, SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * 写入剩余的记录并关闭日志，关闭后Map仍可使用，但修改不再写入日志
+     *
+     * @throws IOException 写入失败
+     */
+    void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            open = false;
+            notifyAll();
+            thread = this.flusher;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        compactionLock.lock();
+        try {
+            synchronized (ioLock) {
+                if (channel != null && channel.isOpen()) {
+                    try {
+                        flushLocked(true);
+                    } finally {
+                        channel.close();
+                    }
+                }
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * 开始一条记录，日志未打开时返回false（调用方需持有this）
+     */
+    private boolean beginRecord(int op) {
+        //上一条准备好的记录对应的修改没有成功，丢弃
+        prepared = false;
+        if (!open) {
+            return false;
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("write-ahead log failed", failure);
+        }
+        scratch.reset();
+        try {
+            scratchOut.writeByte(op);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * 把记录追加到缓冲区，必要时唤醒刷盘线程（调用方需持有this）
+     */
+    private void commitRecord() {
+        boolean wasEmpty = pending.size() == 0;
+        crc.reset();
+        crc.update(scratch.array(), 0, scratch.size());
+        pending.writeInt(scratch.size());
+        pending.writeInt((int) crc.getValue());
+        pending.write(scratch.array(), 0, scratch.size());
+        appendedSequence++;
+        if (wasEmpty || pending.size() >= EAGER_FLUSH_BYTES) {
+            notifyAll();
+        }
+    }
+
+    private void writeEntry(K key, V value) throws IOException {
+        int flags = (key == null ? NULL_KEY : 0) | (value == null ? NULL_VALUE : 0);
+        scratchOut.writeByte(flags);
+        if (key != null) {
+            keySerializer.write(scratchOut, key);
+        }
+        if (value != null) {
+            valueSerializer.write(scratchOut, value);
+        }
+    }
+
+    private void writeKey(K key) throws IOException {
+        scratchOut.writeByte(key == null ? NULL_KEY : 0);
+        if (key != null) {
+            keySerializer.write(scratchOut, key);
+        }
+    }
+
+    /**
+     * 刷盘线程：按刷盘策略批量写入缓冲区，等待期间积累的记录合并为一次写入和一次fsync
+     */
+    private void runFlusher() {
+        long nextFlush = System.currentTimeMillis() + syncPolicy.intervalMs;
+        while (true) {
+            synchronized (this) {
+                while (!closed && !flushDue(nextFlush)) {
+                    //没有数据时等待写操作唤醒，有数据时等到刷盘时间
+                    long waitMs = pending.size() == 0 ? 0L : Math.max(1L, nextFlush - System.currentTimeMillis());
+                    try {
+                        wait(waitMs);
+                    } catch (InterruptedException e) {
+                        //关闭时由close唤醒，忽略中断
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+            }
+            try {
+                synchronized (ioLock) {
+                    flushLocked(syncPolicy.force);
+                    scheduleCompactionIfNeeded();
+                }
+            } catch (IOException e) {
+                FastMap.reportBackgroundFailure("write-ahead log flush failed: " + directory, e);
+                return;
+            }
+            nextFlush = System.currentTimeMillis() + syncPolicy.intervalMs;
+        }
+    }
+
+    /**
+     * 上次压缩以来写入的日志超过阈值时提交后台压缩（调用方需持有ioLock）
+     */
+    private void scheduleCompactionIfNeeded() {
+        if (compaction == null || bytesSinceCompaction < compactionBytes
+                || !compactionScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        compactionExecutor.execute(() -> {
+            try {
+                compaction.run();
+            } catch (Throwable throwable) {
+                FastMap.reportBackgroundFailure("write-ahead log compaction failed: " + directory, throwable);
+            } finally {
+                compactionScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * 是否需要刷盘（调用方需持有this）
+     */
+    private boolean flushDue(long nextFlush) {
+        if (pending.size() == 0) {
+            return false;
+        }
+        return syncPolicy.intervalMs == 0L || pending.size() >= EAGER_FLUSH_BYTES
+                || System.currentTimeMillis() >= nextFlush;
+    }
+
+    /**
+     * 写入缓冲区中的全部记录（调用方需持有ioLock）
+     *
+     * @param force 是否fsync
+     */
+    private void flushLocked(boolean force) throws IOException {
+        RecordBuffer batch;
+        long sequence;
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            if (pending.size() == 0) {
+                if (force) {
+                    channel.force(false);
+                }
+                return;
+            }
+            batch = pending;
+            pending = spare;
+            spare = null;
+            sequence = appendedSequence;
+        }
+        try {
+            batch.writeTo(channel, 0, batch.size());
+            if (force) {
+                channel.force(false);
+            }
+            bytesSinceCompaction += batch.size();
+        } catch (IOException e) {
+            throw fail(e);
+        } finally {
+            recycle(batch);
+        }
+        markDurable(sequence);
+    }
+
+    /**
+     * 把缓冲区中boundary之前的记录写入旧日志段并fsync，然后切换到新日志段写入其余记录（调用方需持有ioLock）
+     */
+    private void switchSegment(FileChannel nextChannel, long nextGeneration, int boundary) throws IOException {
+        RecordBuffer batch;
+        long sequence;
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+            batch = pending;
+            pending = spare;
+            spare = null;
+            sequence = appendedSequence;
+        }
+        try {
+            batch.writeTo(channel, 0, boundary);
+            channel.force(false);
+            channel.close();
+            this.channel = nextChannel;
+            this.generation = nextGeneration;
+            this.bytesSinceCompaction = 0L;
+            if (batch.size() > boundary) {
+                batch.writeTo(channel, boundary, batch.size() - boundary);
+                if (syncPolicy.force) {
+                    channel.force(false);
+                }
+                bytesSinceCompaction += batch.size() - boundary;
+            }
+        } catch (IOException e) {
+            throw fail(e);
+        } finally {
+            recycle(batch);
+        }
+        markDurable(sequence);
+    }
+
+    /**
+     * 写入失败后日志不再完整，之后的写操作都抛出异常
+     */
+    private IOException fail(IOException e) {
+        synchronized (this) {
+            failure = e;
+            notifyAll();
+        }
+        return e;
+    }
+
+    private void recycle(RecordBuffer batch) {
+        RecordBuffer reused = batch.size() > MAX_RETAINED_BUFFER_BYTES ? new RecordBuffer() : batch;
+        reused.reset();
+        synchronized (this) {
+            spare = reused;
+        }
+    }
+
+    private void markDurable(long sequence) {
+        synchronized (this) {
+            durableSequence = Math.max(durableSequence, sequence);
+            notifyAll();
+        }
+    }
+
+    /**
+     * 创建并打开新的日志段（调用方需持有ioLock）
+     */
+    private void openSegment(long newGeneration) throws IOException {
+        this.channel = createSegment(newGeneration);
+        this.generation = newGeneration;
+        this.bytesSinceCompaction = 0L;
+    }
+
+    /**
+     * 创建日志段文件，写入文件头并fsync
+     */
+    private FileChannel createSegment(long newGeneration) throws IOException {
+        Path file = segmentFile(newGeneration);
+        FileChannel newChannel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(14);
+            header.putInt(MAGIC).putShort(VERSION).putLong(newGeneration).flip();
+            while (header.hasRemaining()) {
+                newChannel.write(header);
+            }
+            newChannel.force(true);
+        } catch (IOException | RuntimeException e) {
+            newChannel.close();
+            throw e;
+        }
+        syncDirectory();
+        return newChannel;
+    }
+
+    /**
+     * 重放一个日志段，遇到不完整或校验失败的记录时停止
+     */
+    private void replay(Path file, FastMap<K, V> map) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new StreamCorruptedException("not a FastMap write-ahead log: " + file);
+                }
+                short version = in.readShort();
+                if (version != VERSION) {
+                    throw new StreamCorruptedException("unsupported write-ahead log version: " + version);
+                }
+                in.readLong();
+            } catch (EOFException e) {
+                //创建日志段时崩溃，文件头不完整
+                return;
+            }
+            CRC32 checksum = new CRC32();
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    int expected = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        return;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    checksum.reset();
+                    checksum.update(record, 0, length);
+                    if ((int) checksum.getValue() != expected) {
+                        return;
+                    }
+                } catch (EOFException e) {
+                    return;
+                }
+                apply(record, map);
+            }
+        }
+    }
+
+    /**
+     * 把一条记录应用到Map
+     */
+    private void apply(byte[] record, FastMap<K, V> map) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        int op = in.readByte();
+        switch (op) {
+            case OP_PUT: {
+                int flags = in.readByte();
+                K key = (flags & NULL_KEY) != 0 ? null : keySerializer.read(in);
+                V value = (flags & NULL_VALUE) != 0 ? null : valueSerializer.read(in);
+                map.put(key, value);
+                break;
+            }
+            case OP_REMOVE:
+                map.remove(readKey(in));
+                break;
+            case OP_PUT_ALL: {
+                int size = in.readInt();
+                Map<K, V> batch = new LinkedHashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+                for (int i = 0; i < size; i++) {
+                    int flags = in.readByte();
+                    K key = (flags & NULL_KEY) != 0 ? null : keySerializer.read(in);
+                    V value = (flags & NULL_VALUE) != 0 ? null : valueSerializer.read(in);
+                    batch.put(key, value);
+                }
+                map.putAll(batch);
+                break;
+            }
+            case OP_EXPIRE: {
+                K key = readKey(in);
+                long remaining = in.readLong() - System.currentTimeMillis();
+                if (remaining > 0) {
+                    map.expire(key, remaining);
+                } else {
+                    map.remove(key);
+                }
+                break;
+            }
+            case OP_CLEAR:
+                map.clear();
+                break;
+            default:
+                throw new StreamCorruptedException("unknown write-ahead log operation: " + op);
+        }
+    }
+
+    private K readKey(DataInputStream in) throws IOException {
+        int flags = in.readByte();
+        return (flags & NULL_KEY) != 0 ? null : keySerializer.read(in);
+    }
+
+    private Path segmentFile(long generation) {
+        return directory.resolve(fileName(SEGMENT_PREFIX, generation, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * 文件名中的编号补齐到19位，按名称排序即按编号排序
+     */
+    private static String fileName(String prefix, long generation, String suffix) {
+        return String.format("%s%019d%s", prefix, generation, suffix);
+    }
+
+    /**
+     * 解析文件名中的编号
+     *
+     * @return 编号；文件名不匹配时返回-1
+     */
+    private static long parseGeneration(String name, String prefix, String suffix) {
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1L;
+        }
+    }
+
+    /**
+     * fsync目录，使新建的文件在断电后可见；不支持打开目录的平台忽略
+     */
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            //Windows等平台不支持
+        }
+    }
+
+    /**
+     * 可以直接访问内部数组的字节缓冲区
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+
+        RecordBuffer() {
+            super(8192);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeTo(FileChannel channel, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(buf, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
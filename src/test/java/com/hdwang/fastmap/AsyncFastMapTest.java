@@ -0,0 +1,181 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncFastMapTest {
+
+    /**
+     * 验证同一个key的并发异步加载共享一个future，加载函数只调用一次。
+     */
+    @Test
+    public void concurrentMissesMustShareOneLoad() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        AsyncFastMap<String, String> map = new AsyncFastMap<>(new FastMap<>(), executorService);
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> backend = new CompletableFuture<>();
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(map.computeIfAbsent("hot", key -> {
+                loads.incrementAndGet();
+                return backend;
+            }));
+        }
+        for (CompletableFuture<String> future : futures) {
+            assertFalse(future.isDone());
+        }
+        backend.complete("value");
+        for (CompletableFuture<String> future : futures) {
+            assertEquals("value", future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals("value", map.get("hot").get(5, TimeUnit.SECONDS));
+
+        //已存在时不再加载
+        assertEquals("value", map.computeIfAbsent("hot", key -> {
+            throw new AssertionError("should not load");
+        }).get(5, TimeUnit.SECONDS));
+        executorService.shutdown();
+    }
+
+    /**
+     * 验证加载失败时future异常完成且不写入，之后可以重新加载。
+     */
+    @Test
+    public void failedLoadMustCompleteExceptionally() throws Exception {
+        AsyncFastMap<String, String> map = new AsyncFastMap<>(new FastMap<>());
+        CompletableFuture<String> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("backend down"));
+        try {
+            map.computeIfAbsent("k", key -> failed).join();
+            fail("load failure should propagate");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        assertNull(map.get("k").join());
+        assertEquals("ok", map.computeIfAbsent("k", key -> CompletableFuture.completedFuture("ok")).join());
+    }
+
+    /**
+     * 验证加载完成后线程池拒绝写入任务时，future以拒绝异常完成，之后同一个key可以重新加载。
+     */
+    @Test
+    public void rejectedCompletionMustNotStrandLoad() {
+        AtomicBoolean rejecting = new AtomicBoolean();
+        Executor executor = command -> {
+            if (rejecting.get()) {
+                throw new RejectedExecutionException("shut down");
+            }
+            command.run();
+        };
+        AsyncFastMap<String, String> map = new AsyncFastMap<>(new FastMap<>(), executor);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        CompletableFuture<String> loading = map.computeIfAbsent("k", key -> pending);
+        CompletableFuture<Map<String, String>> bulkLoading = map.getAll(Arrays.asList("a", "b"),
+                keys -> pending.thenApply(value -> new HashMap<>()));
+        rejecting.set(true);
+        pending.complete("v");
+        try {
+            loading.join();
+            fail("rejected completion should propagate");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        try {
+            bulkLoading.join();
+            fail("rejected completion should propagate");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof RejectedExecutionException);
+        }
+        rejecting.set(false);
+        assertEquals("ok", map.computeIfAbsent("k", key -> CompletableFuture.completedFuture("ok")).join());
+        assertEquals("x", map.getAll(Arrays.asList("a"), keys -> {
+            Map<String, String> loaded = new HashMap<>();
+            loaded.put("a", "x");
+            return CompletableFuture.completedFuture(loaded);
+        }).join().get("a"));
+    }
+
+    /**
+     * 验证putAll、getAll异步执行，批量加载只加载缺失的key。
+     */
+    @Test
+    public void bulkOperationsMustLoadMissingKeysOnce() {
+        AsyncFastMap<Integer, String> map = new AsyncFastMap<>(new FastMap<>(false, true));
+        Map<Integer, String> initial = new HashMap<>();
+        initial.put(1, "a");
+        initial.put(2, "b");
+        map.putAll(initial).join();
+        assertEquals(Arrays.asList(2, 1), new ArrayList<>(map.getAll(Arrays.asList(2, 9, 1)).join().keySet()));
+
+        List<Set<Integer>> batches = new ArrayList<>();
+        Map<Integer, String> result = map.getAll(Arrays.asList(3, 1, 4, 3), keys -> {
+            batches.add(new LinkedHashSet<>(keys));
+            Map<Integer, String> loaded = new HashMap<>();
+            loaded.put(3, "c");
+            return CompletableFuture.completedFuture(loaded);
+        }).join();
+        assertEquals(1, batches.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList(3, 4)), batches.get(0));
+        assertEquals(Arrays.asList(3, 1), new ArrayList<>(result.keySet()));
+        assertEquals("c", map.synchronous().get(3));
+        assertFalse(map.synchronous().containsKey(4));
+    }
+
+    /**
+     * 验证批量加载在占用加载的过程中失败时（null key、读取异常），已经占用的key不会一直处于加载中。
+     */
+    @Test
+    public void failedBulkClaimMustNotStrandLoads() throws Exception {
+        FastMap<String, String> backing = new FastMap<String, String>() {
+            @Override
+            public String get(Object key) {
+                if ("bad".equals(key)) {
+                    throw new IllegalStateException("read failed");
+                }
+                return super.get(key);
+            }
+        };
+        AsyncFastMap<String, String> map = new AsyncFastMap<>(backing);
+        try {
+            map.getAll(Arrays.asList("a", null), keys -> {
+                throw new AssertionError("should not load");
+            }).join();
+            fail("null key should be rejected");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof NullPointerException);
+        }
+        assertEquals("1", map.computeIfAbsent("a", key -> CompletableFuture.completedFuture("1"))
+                .get(2, TimeUnit.SECONDS));
+
+        try {
+            map.getAll(Arrays.asList("b", "bad"), keys -> {
+                throw new AssertionError("should not load");
+            }).join();
+            fail("read failure should propagate");
+        } catch (CompletionException expected) {
+            assertTrue(expected.getCause() instanceof IllegalStateException);
+        }
+        assertEquals("2", map.computeIfAbsent("b", key -> CompletableFuture.completedFuture("2"))
+                .get(2, TimeUnit.SECONDS));
+    }
+}
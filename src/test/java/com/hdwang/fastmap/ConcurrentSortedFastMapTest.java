@@ -0,0 +1,160 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentSortedFastMapTest {
+
+    /**
+     * 验证多线程并发merge、put、remove后计数准确，范围查询按key有序。
+     */
+    @Test
+    public void concurrentUpdatesMustNotLoseWrites() throws Exception {
+        ConcurrentSortedFastMap<Integer, Long> map = new ConcurrentSortedFastMap<>(false);
+        int threads = 8;
+        int rounds = 20_000;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executorService.submit(() -> {
+                start.await();
+                for (int i = 0; i < rounds; i++) {
+                    map.merge(i % 100, 1L, Long::sum);
+                    int own = 1_000 + thread * rounds + i;
+                    map.put(own, (long) own);
+                    if (i % 2 == 0) {
+                        map.remove(own);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executorService.shutdown();
+
+        for (int key = 0; key < 100; key++) {
+            assertEquals(Long.valueOf(threads * rounds / 100), map.get(key));
+        }
+        assertEquals(100 + threads * rounds / 2, map.size());
+        List<Integer> keys = new ArrayList<>(map.subMap(0, 100).keySet());
+        assertEquals(100, keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(Integer.valueOf(i), keys.get(i));
+        }
+        assertEquals(Integer.valueOf(0), map.firstKey());
+        assertEquals(Integer.valueOf(1_000 + threads * rounds - 1), map.lastKey());
+    }
+
+    /**
+     * 验证过期数据在读取时不可见，清理线程按时触发回调并删除数据。
+     */
+    @Test
+    public void expiredKeysMustBeHiddenAndNotified() throws Exception {
+        ConcurrentSortedFastMap<String, String> map = new ConcurrentSortedFastMap<>(true);
+        CountDownLatch expired = new CountDownLatch(1);
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("c", "3");
+        assertNotNull(map.expire("a", 50L));
+        assertNotNull(map.expire("b", 50L, (key, value) -> expired.countDown()));
+        assertNull(map.expire("missing", 50L));
+        assertNull(map.ttl("c"));
+        assertTrue(map.ttl("b") <= 50L);
+
+        //覆盖写入保留过期时间
+        map.put("b", "22");
+        assertNotNull(map.ttl("b"));
+
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertNull(map.get("a"));
+        assertNull(map.get("b"));
+        assertEquals(1, map.size());
+        assertEquals("c", map.firstKey());
+        assertEquals(Arrays.asList("c"), new ArrayList<>(map.keySet()));
+        assertEquals(1, map.headMap("z").size());
+    }
+
+    /**
+     * 验证与equals不一致的排序器被拒绝，视图的修改会写回Map。
+     */
+    @Test
+    public void inconsistentComparatorMustBeRejected() {
+        Comparator<String> sameLength = Comparator.comparingInt(String::length);
+        ConcurrentSortedFastMap<String, Integer> map = new ConcurrentSortedFastMap<>(false, sameLength);
+        map.put("a", 1);
+        try {
+            map.put("b", 2);
+            fail("comparator collision should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, map.size());
+        }
+        assertNull(map.get("b"));
+        assertFalse(map.containsKey("b"));
+
+        map.put("bb", 2);
+        map.put("ccc", 3);
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            entry.setValue(entry.getValue() * 10);
+        }
+        assertEquals(Integer.valueOf(20), map.get("bb"));
+        Iterator<String> iterator = map.keySet().iterator();
+        assertEquals("a", iterator.next());
+        iterator.remove();
+        assertEquals(Arrays.asList("bb", "ccc"), new ArrayList<>(map.keySet()));
+        assertEquals(Integer.valueOf(30), map.computeIfPresent("ccc", (key, value) -> value));
+        assertNull(map.compute("ccc", (key, value) -> null));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * 验证分页范围查询只返回指定的一页，游标按key顺序遍历范围。
+     */
+    @Test
+    public void pagedRangeAndCursorMustFollowKeyOrder() {
+        ConcurrentSortedFastMap<Integer, Integer> map = new ConcurrentSortedFastMap<>(false);
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+        }
+        assertEquals(Arrays.asList(51, 52), new ArrayList<>(map.tailMap(50, false, 0, 2).keySet()));
+        assertEquals(Arrays.asList(3, 4), new ArrayList<>(map.headMap(10, false, 3, 2).keySet()));
+
+        Iterator<Map.Entry<Integer, Integer>> cursor = map.rangeCursor(90, false, 95, true);
+        List<Integer> keys = new ArrayList<>();
+        while (cursor.hasNext()) {
+            keys.add(cursor.next().getKey());
+        }
+        assertEquals(Arrays.asList(91, 92, 93, 94, 95), keys);
+    }
+
+    /**
+     * 验证批量操作基于跳表的分区并行执行，并支持范围reduce。
+     */
+    @Test
+    public void bulkOperationsMustUseSkipListPartitions() {
+        ConcurrentSortedFastMap<Integer, Integer> map = new ConcurrentSortedFastMap<>(false);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(Integer.valueOf(9_999), map.reduceValues(1L, Math::max));
+        assertEquals(Long.valueOf(10), map.reduce(0, true, 4, true, 1L, (key, value) -> (long) value, Long::sum));
+        assertEquals(Integer.valueOf(3), map.search(1L, (key, value) -> key == 3 ? value : null));
+    }
+}
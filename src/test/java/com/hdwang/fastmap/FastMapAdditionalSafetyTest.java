@@ -7,13 +7,20 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.*;
 
@@ -56,6 +63,55 @@ public class FastMapAdditionalSafetyTest {
         }
     }
 
+    /**
+     * 验证putAll批次内部存在排序冲突的Key时，整次批量写入保持原子性。
+     */
+    @Test
+    public void putAllMustBeAtomicWhenBatchKeysCollide() {
+        Comparator<String> sameLength = (left, right) ->
+                Integer.compare(left.length(), right.length());
+        FastMap<String, Integer> map = new FastMap<>(false, sameLength);
+        map.put("a", 1);
+        Map<String, Integer> additions = new java.util.LinkedHashMap<>();
+        additions.put("bb", 2);
+        additions.put("cc", 3);
+
+        try {
+            map.putAll(additions);
+            fail("putAll should reject colliding keys");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, map.size());
+            assertFalse(map.containsKey("bb"));
+            assertEquals("a", map.firstKey());
+            assertEquals("a", map.lastKey());
+        }
+    }
+
+    /**
+     * 验证排序模式下putAll原地写入，而不是复制整个索引。
+     */
+    @Test
+    public void sortedPutAllMustUpdateIndexesInPlace() throws Exception {
+        FastMap<Integer, Integer> map = new FastMap<>(false, true);
+        map.put(1, 1);
+        Field hashField = FastMap.class.getDeclaredField("dataHashMap");
+        Field treeField = FastMap.class.getDeclaredField("dataTreeMap");
+        hashField.setAccessible(true);
+        treeField.setAccessible(true);
+        Object hashIndex = hashField.get(map);
+        Object treeIndex = treeField.get(map);
+        Map<Integer, Integer> additions = new java.util.HashMap<>();
+        additions.put(1, 10);
+        additions.put(2, 20);
+
+        map.putAll(additions);
+
+        assertSame(hashIndex, hashField.get(map));
+        assertSame(treeIndex, treeField.get(map));
+        assertEquals(Integer.valueOf(10), map.get(1));
+        assertEquals(Integer.valueOf(20), map.subMap(2, 3).get(2));
+    }
+
     /**
      * 验证Comparator与equals不一致时会拒绝写入冲突Key。
      */
@@ -75,6 +131,49 @@ public class FastMapAdditionalSafetyTest {
         }
     }
 
+    /**
+     * 验证排序写入的一致性校验只比较O(log n)个key，不随数据量线性增长。
+     */
+    @Test
+    public void sortedKeyValidationMustNotScanAllKeys() {
+        AtomicInteger comparisons = new AtomicInteger();
+        Comparator<Integer> counting = (left, right) -> {
+            comparisons.incrementAndGet();
+            return Integer.compare(left, right);
+        };
+        FastMap<Integer, Integer> map = new FastMap<>(false, counting);
+        final int size = 5000;
+        for (int i = 0; i < size; i++) {
+            map.put(i, i);
+        }
+
+        assertEquals(size, map.size());
+        assertTrue("too many comparisons: " + comparisons.get(), comparisons.get() < size * 60);
+    }
+
+    /**
+     * 验证信任排序器时跳过一致性校验。
+     */
+    @Test
+    public void trustedComparatorMustSkipConsistencyValidation() {
+        AtomicInteger comparisons = new AtomicInteger();
+        Comparator<Integer> counting = (left, right) -> {
+            comparisons.incrementAndGet();
+            return Integer.compare(left, right);
+        };
+        FastMap<Integer, Integer> trusted = new FastMap<>(false, counting, true);
+        trusted.put(1, 1);
+        trusted.put(2, 2);
+        int trustedComparisons = comparisons.getAndSet(0);
+        FastMap<Integer, Integer> validated = new FastMap<>(false, counting);
+        validated.put(1, 1);
+        validated.put(2, 2);
+
+        assertTrue(trustedComparisons < comparisons.get());
+        assertEquals(Integer.valueOf(1), trusted.firstKey());
+        assertEquals(Integer.valueOf(2), trusted.lastKey());
+    }
+
     /**
      * 验证初始化方法不会作为公开API暴露，避免重复初始化破坏状态。
      */
@@ -172,6 +271,90 @@ public class FastMapAdditionalSafetyTest {
         assertEquals(1, count.get());
     }
 
+    /**
+     * 验证大量带回调的key由共享的清理线程按截止时间准时过期，而不是每个key提交一个定时任务。
+     */
+    @Test
+    public void manyCallbackKeysMustExpireOnTime() throws Exception {
+        FastMap<Integer, String> map = new FastMap<>();
+        int keyCount = 1000;
+        CountDownLatch callbacks = new CountDownLatch(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            map.put(i, "value");
+            map.expire(i, 30L + i % 50, (key, value) -> callbacks.countDown());
+        }
+
+        assertTrue(callbacks.await(900, TimeUnit.MILLISECONDS));
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * 验证清理线程每次持有写锁只删除一批key，剩余的到期数据留到下一轮清理；
+     * 到期队列中有剩余数据时立即进行下一轮，不再等待延迟清理的间隔。
+     */
+    @Test
+    public void sweepMustRemoveAtMostOneBatchPerLockHold() throws Exception {
+        FastMap<Integer, String> map = FastMap.<Integer, String>builder()
+                .expireBatchSize(100)
+                .expireBatchTime(1, TimeUnit.SECONDS)
+                .build();
+        Map<?, ?> data = expireAll(map, 1000);
+        assertTrue(map.nextSweepTime() > FastMap.currentTimestamp());
+
+        assertEquals(100, map.sweepExpiredData());
+        assertEquals(900, data.size());
+        assertTrue(map.nextSweepTime() <= FastMap.currentTimestamp());
+        assertEquals(100, map.sweepExpiredData());
+        assertEquals(800, data.size());
+        while (map.sweepExpiredData() > 0) {
+            assertTrue(map.nextSweepTime() <= FastMap.currentTimestamp() || data.isEmpty());
+        }
+        assertTrue(data.isEmpty());
+        assertEquals(Long.MAX_VALUE, map.nextSweepTime());
+    }
+
+    /**
+     * 验证点查询只顺带清理一批过期数据，需要精确结果的操作分批清理完所有过期数据。
+     */
+    @Test
+    public void foregroundCleanupMustExpireInBatches() throws Exception {
+        FastMap<Integer, String> map = FastMap.<Integer, String>builder()
+                .expireBatchSize(100)
+                .expireBatchTime(1, TimeUnit.SECONDS)
+                .build();
+        Map<?, ?> data = expireAll(map, 1000);
+
+        assertNull(map.get(999));
+        assertEquals(900, data.size());
+        assertEquals(0, map.size());
+        assertTrue(data.isEmpty());
+    }
+
+    private static Map<?, ?> expireAll(FastMap<Integer, String> map, int keyCount) throws Exception {
+        detachFromSweeper(map);
+        Field field = FastMap.class.getDeclaredField("dataHashMap");
+        field.setAccessible(true);
+        for (int i = 0; i < keyCount; i++) {
+            map.put(i, "value");
+            map.expire(i, 200L);
+        }
+        Thread.sleep(250L);
+        return (Map<?, ?>) field.get(map);
+    }
+
+    /**
+     * 把实例从全局清理线程的注册表中移除，断言每批清理的数量时不受清理线程干扰
+     */
+    private static void detachFromSweeper(FastMap<?, ?> map) throws Exception {
+        Field targetField = FastMap.class.getDeclaredField("sweepTarget");
+        targetField.setAccessible(true);
+        Object target = targetField.get(map);
+        Field registryField = FastMap.class.getDeclaredField("allExpirableFastMaps");
+        registryField.setAccessible(true);
+        List<?> registry = (List<?>) registryField.get(null);
+        registry.removeIf(reference -> ((WeakReference<?>) reference).get() == target);
+    }
+
     /**
      * 验证单个过期回调抛出异常不会影响其他回调继续执行。
      */
@@ -226,4 +409,167 @@ public class FastMapAdditionalSafetyTest {
 
         assertEquals("{self=(this Map)}", map.toString());
     }
+
+    /**
+     * 验证分页范围查询和范围游标按key顺序返回数据，跳过已过期的数据，游标跨批次时不重复也不遗漏。
+     */
+    @Test
+    public void pagedRangeAndCursorMustStreamInOrder() throws Exception {
+        List<FastMap<Integer, Integer>> maps = Arrays.asList(
+                new FastMap<>(true, true),
+                FastMap.<Integer, Integer>builder().sortedStorage(SortedStorage.HASHED_SKIP_LIST).build());
+        for (FastMap<Integer, Integer> map : maps) {
+            for (int i = 999; i >= 0; i--) {
+                map.put(i, i * 10);
+            }
+            map.expire(11, 10L);
+            Thread.sleep(30L);
+
+            assertEquals(Arrays.asList(12, 13, 14), new ArrayList<>(map.tailMap(10, false, 0, 3).keySet()));
+            assertEquals(Arrays.asList(15, 16), new ArrayList<>(map.tailMap(10, false, 3, 2).keySet()));
+            assertEquals(Arrays.asList(0, 1), new ArrayList<>(map.headMap(500, true, 0, 2).keySet()));
+            assertEquals(Arrays.asList(498, 499, 500), new ArrayList<>(map.headMap(500, true, 497, 10).keySet()));
+            assertTrue(map.subMap(null, false, null, false, 0, 0).isEmpty());
+            assertEquals(Integer.valueOf(9990), map.subMap(990, true, null, false, 9, 5).get(999));
+
+            Iterator<Map.Entry<Integer, Integer>> cursor = map.rangeCursor(null, false, null, false);
+            int expected = 0;
+            while (cursor.hasNext()) {
+                if (expected == 11) {
+                    expected++;
+                }
+                Map.Entry<Integer, Integer> entry = cursor.next();
+                assertEquals(Integer.valueOf(expected), entry.getKey());
+                assertEquals(Integer.valueOf(expected * 10), entry.getValue());
+                if (expected % 2 == 0) {
+                    cursor.remove();
+                }
+                expected++;
+            }
+            assertEquals(1000, expected);
+            assertEquals(499, map.size());
+
+            //游标创建后写入的、位于后续批次的数据可见
+            cursor = map.rangeCursor(null, false, null, false);
+            assertEquals(Integer.valueOf(1), cursor.next().getKey());
+            map.put(5000, 1);
+            Map.Entry<Integer, Integer> last = null;
+            while (cursor.hasNext()) {
+                last = cursor.next();
+            }
+            assertEquals(Integer.valueOf(5000), last.getKey());
+            try {
+                map.rangeCursor(10, true, 5, true);
+                fail("fromKey > toKey should be rejected");
+            } catch (IllegalArgumentException ignored) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * 验证视图遍历是流式的：遍历中可以修改Map，跨批次的删除和新增都能反映，并行流结果正确。
+     */
+    @Test
+    public void viewIterationMustStreamWithoutSnapshot() throws Exception {
+        List<FastMap<Integer, Integer>> maps = Arrays.asList(new FastMap<>(true, false), new FastMap<>(true, true));
+        for (FastMap<Integer, Integer> map : maps) {
+            for (int i = 0; i < 10_000; i++) {
+                map.put(i, i);
+            }
+            map.expire(5, 10L);
+            Thread.sleep(30L);
+
+            //遍历中修改Map不会死锁，也不会抛出ConcurrentModificationException
+            int visited = 0;
+            for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+                assertNotEquals(Integer.valueOf(5), entry.getKey());
+                if (entry.getKey() == 0) {
+                    map.remove(9_999);
+                    map.put(20_000, 20_000);
+                }
+                entry.setValue(entry.getValue() + 1);
+                visited++;
+            }
+            assertEquals(9_999, visited);
+            assertEquals(Integer.valueOf(20_001), map.get(20_000));
+
+            long sum = map.values().parallelStream().mapToLong(Integer::longValue).sum();
+            long expected = 0;
+            for (int i = 0; i < 9_999; i++) {
+                expected += i == 5 ? 0 : i + 1;
+            }
+            assertEquals(expected + 20_001, sum);
+            assertEquals(9_999, map.keySet().stream().count());
+        }
+    }
+
+    /**
+     * 验证批量操作串行和并行执行的结果一致，跳过已过期的数据，排序时支持范围reduce。
+     */
+    @Test
+    public void bulkOperationsMustSkipExpiredEntries() throws Exception {
+        List<FastMap<Integer, Integer>> maps = Arrays.asList(new FastMap<>(true, false), new FastMap<>(true, true));
+        for (FastMap<Integer, Integer> map : maps) {
+            for (int i = 0; i < 50_000; i++) {
+                map.put(i, i);
+            }
+            map.expire(7, 10L);
+            Thread.sleep(30L);
+            long expected = 50_000L * 49_999 / 2 - 7;
+
+            for (long threshold : new long[]{Long.MAX_VALUE, 1L}) {
+                assertEquals(Long.valueOf(expected),
+                        map.reduce(threshold, (key, value) -> (long) value, Long::sum));
+                assertEquals(Integer.valueOf(49_999), map.reduceValues(threshold, Math::max));
+                assertNull(map.search(threshold, (key, value) -> key == 7 ? key : null));
+                assertEquals(Integer.valueOf(42), map.search(threshold, (key, value) -> key == 42 ? key : null));
+
+                AtomicLong sum = new AtomicLong();
+                map.forEach(threshold, (key, value) -> sum.addAndGet(value));
+                assertEquals(expected, sum.get());
+                Set<Integer> keys = ConcurrentHashMap.newKeySet();
+                map.forEachKey(threshold, keys::add);
+                assertEquals(49_999, keys.size());
+                assertFalse(keys.contains(7));
+            }
+        }
+
+        FastMap<Integer, Integer> sorted = maps.get(1);
+        assertEquals(Long.valueOf(1 + 2 + 3 + 4 + 5 + 6 + 8 + 9 + 10),
+                sorted.reduce(1, true, 10, true, 1L, (key, value) -> (long) value, Long::sum));
+        assertNull(sorted.reduce(60_000, true, null, false, 1L, (key, value) -> (long) value, Long::sum));
+        try {
+            maps.get(0).reduce(1, true, 10, true, 1L, (key, value) -> (long) value, Long::sum);
+            fail("range reduce requires sorting");
+        } catch (RuntimeException expectedFailure) {
+            assertEquals("未启用排序", expectedFailure.getMessage());
+        }
+    }
+
+    /**
+     * 验证范围reduce按范围内的数据量决定是否并行：小范围即使Map很大也在调用线程串行执行。
+     */
+    @Test
+    public void rangeReduceMustSizeParallelismByTheRange() {
+        FastMap<Integer, Integer> map = new FastMap<>(false, true);
+        for (int i = 0; i < 50_000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(10L, map.bulkSpliterator(100, true, 110, false).estimateSize());
+        assertEquals(0L, map.bulkSpliterator(60_000, true, null, false).estimateSize());
+        Spliterator<Map.Entry<Integer, Integer>> large = map.bulkSpliterator(0, true, 40_000, false);
+        assertEquals(Long.MAX_VALUE, large.estimateSize());
+        assertEquals(50_000L, map.rangeSize(large));
+
+        Thread caller = Thread.currentThread();
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        assertEquals(Long.valueOf(1045L), map.reduce(100, true, 110, false, 100L, (key, value) -> {
+            threads.add(Thread.currentThread());
+            return (long) value;
+        }, Long::sum));
+        assertEquals(Collections.singleton(caller), threads);
+        assertEquals(Long.valueOf(40_000L * 39_999 / 2),
+                map.reduce(0, true, 40_000, false, 100L, (key, value) -> (long) value, Long::sum));
+    }
 }
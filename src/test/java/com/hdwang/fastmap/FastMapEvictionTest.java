@@ -0,0 +1,157 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FastMapEvictionTest {
+
+    /**
+     * 验证LRU策略淘汰最久未被访问的数据。
+     */
+    @Test
+    public void lruMustEvictTheLeastRecentlyUsedEntry() {
+        FastMap<Integer, String> map = FastMap.<Integer, String>builder()
+                .enableExpire(false)
+                .maximumSize(3)
+                .build();
+        map.put(1, "one");
+        map.put(2, "two");
+        map.put(3, "three");
+        map.get(1);
+
+        map.put(4, "four");
+
+        assertEquals(3, map.size());
+        assertTrue(map.containsKey(1));
+        assertFalse(map.containsKey(2));
+        assertTrue(map.containsKey(4));
+    }
+
+    /**
+     * 验证最大权重按weigher计算，并同步清理排序索引和过期元数据。
+     */
+    @Test
+    public void maximumWeightMustKeepIndexesConsistent() {
+        FastMap<Integer, String> map = FastMap.<Integer, String>builder()
+                .enableSort(true)
+                .maximumWeight(10)
+                .weigher((key, value) -> value.length())
+                .build();
+        map.put(1, "aaaa");
+        map.expire(1, 60_000L);
+        map.put(2, "bbbb");
+        map.put(3, "cccc");
+
+        assertEquals(2, map.size());
+        assertFalse(map.containsKey(1));
+        assertNull(map.ttl(1));
+        assertEquals(Integer.valueOf(2), map.firstKey());
+        assertEquals(2, map.subMap(0, 10).size());
+    }
+
+    /**
+     * 验证移除监听器能观察到容量淘汰和过期移除。
+     */
+    @Test
+    public void removalListenerMustObserveEvictionAndExpiration() throws Exception {
+        ConcurrentHashMap<String, RemovalCause> causes = new ConcurrentHashMap<>();
+        CountDownLatch removals = new CountDownLatch(2);
+        FastMap<String, String> map = FastMap.<String, String>builder()
+                .maximumSize(1)
+                .removalListener((key, value, cause) -> {
+                    causes.put(key, cause);
+                    removals.countDown();
+                })
+                .build();
+        map.put("evicted", "value");
+        map.put("expired", "value");
+        map.expire("expired", 10L);
+
+        Thread.sleep(30L);
+        assertNull(map.get("expired"));
+        assertEquals(0, map.size());
+        assertTrue(removals.await(2, TimeUnit.SECONDS));
+        assertEquals(RemovalCause.SIZE, causes.get("evicted"));
+        assertEquals(RemovalCause.EXPIRED, causes.get("expired"));
+    }
+
+    /**
+     * 验证W-TinyLFU策略在一次性扫描下保留高频访问的数据。
+     */
+    @Test
+    public void windowTinyLfuMustRetainFrequentlyUsedEntriesDuringAScan() {
+        final int maximum = 100;
+        FastMap<Integer, Integer> map = FastMap.<Integer, Integer>builder()
+                .enableExpire(false)
+                .maximumSize(maximum)
+                .evictionPolicy(WindowTinyLfuEvictionPolicy::new)
+                .build();
+        for (int i = 0; i < maximum; i++) {
+            map.put(i, i);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                map.get(i);
+                //写操作回放读缓冲区中的访问记录
+                map.put(i, i);
+            }
+        }
+
+        for (int i = 1000; i < 1000 + maximum * 10; i++) {
+            map.put(i, i);
+        }
+
+        assertEquals(maximum, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue("hot key " + i + " was evicted", map.containsKey(i));
+        }
+    }
+
+    /**
+     * 验证按最大权重限制时W-TinyLFU得知上限是权重，频率表随实际条数增长而不是按最大权重预先分配，淘汰按权重进行。
+     */
+    @Test
+    public void weightBoundedWindowTinyLfuMustSizeTheSketchByEntries() {
+        List<WindowTinyLfuEvictionPolicy<Integer>> policies = new ArrayList<>();
+        List<Boolean> weightedFlags = new ArrayList<>();
+        FastMap<Integer, byte[]> map = FastMap.<Integer, byte[]>builder()
+                .enableExpire(false)
+                .maximumWeight(8L << 30)
+                .weigher((key, value) -> value.length)
+                .evictionPolicy((maximum, weighted) -> {
+                    weightedFlags.add(weighted);
+                    WindowTinyLfuEvictionPolicy<Integer> policy = new WindowTinyLfuEvictionPolicy<>(maximum, weighted);
+                    policies.add(policy);
+                    return policy;
+                })
+                .build();
+        assertEquals(Collections.singletonList(true), weightedFlags);
+        WindowTinyLfuEvictionPolicy<Integer> policy = policies.get(0);
+        assertTrue(policy.frequencyTableSize() <= 16);
+
+        for (int i = 0; i < 1_000; i++) {
+            map.put(i, new byte[1]);
+        }
+        assertTrue(policy.frequencyTableSize() >= 1_000);
+        assertTrue(policy.frequencyTableSize() <= 2_048);
+
+        FastMap<Integer, byte[]> small = FastMap.<Integer, byte[]>builder()
+                .enableExpire(false)
+                .maximumWeight(1_000)
+                .weigher((key, value) -> value.length)
+                .evictionPolicy(WindowTinyLfuEvictionPolicy::new)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            small.put(i, new byte[100]);
+        }
+        assertEquals(10, small.size());
+    }
+}
@@ -0,0 +1,98 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class FastMapRegistryTest {
+
+    /**
+     * 验证命名的Map以MXBean发布指标，绑定器在注册和注销时被调用。
+     */
+    @Test
+    public void namedMapMustBePublishedToJmxAndBinders() throws Exception {
+        List<String> bound = new ArrayList<>();
+        List<String> unbound = new ArrayList<>();
+        MetricsBinder binder = new MetricsBinder() {
+            @Override
+            public void bind(FastMapMXBean metrics) {
+                bound.add(metrics.getName());
+            }
+
+            @Override
+            public void unbind(FastMapMXBean metrics) {
+                unbound.add(metrics.getName());
+            }
+        };
+        FastMapRegistry.addBinder(binder);
+        try {
+            FastMap<Integer, String> map = FastMap.<Integer, String>builder()
+                    .maximumSize(1_000)
+                    .recordStats()
+                    .name("registry-test")
+                    .build();
+            for (int i = 0; i < 100; i++) {
+                map.put(i, "v" + i);
+            }
+            map.expire(1, 60_000L);
+            map.get(1);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = FastMapRegistry.objectName("registry-test");
+            assertEquals(100L, server.getAttribute(objectName, "Size"));
+            assertEquals(1L, server.getAttribute(objectName, "PendingExpirations"));
+            assertEquals(100L, server.getAttribute(objectName, "WeightedSize"));
+            assertEquals(1L, server.getAttribute(objectName, "HitCount"));
+            assertTrue((Long) server.getAttribute(objectName, "EstimatedMemoryBytes") > 0);
+            assertTrue(bound.contains("registry-test"));
+            assertEquals(100L, FastMapRegistry.monitors().get("registry-test").getSize());
+
+            assertTrue(FastMapRegistry.unregister("registry-test"));
+            assertFalse(server.isRegistered(objectName));
+            assertTrue(unbound.contains("registry-test"));
+            assertFalse(FastMapRegistry.unregister("registry-test"));
+        } finally {
+            FastMapRegistry.removeBinder(binder);
+        }
+    }
+
+    /**
+     * 验证清理线程的清理耗时被记录，分段Map以整体注册并汇总各段指标。
+     */
+    @Test
+    public void sweepDurationMustBeRecorded() throws Exception {
+        FastMap<String, String> map = new FastMap<>();
+        FastMapMXBean metrics = FastMapRegistry.register("sweep-test", map);
+        CountDownLatch expired = new CountDownLatch(1);
+        map.put("a", "1");
+        map.expire("a", 10L, (key, value) -> expired.countDown());
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        //回调在清理结束前派发，等待清理耗时记录完成
+        long deadline = System.currentTimeMillis() + 5_000L;
+        while (metrics.getSweepCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(metrics.getSweepCount() >= 1);
+        assertTrue(metrics.getTotalSweepDurationNanos() >= metrics.getLastSweepDurationNanos());
+        assertEquals(0L, metrics.getPendingExpirations());
+        FastMapRegistry.unregister("sweep-test");
+
+        StripedFastMap<Integer, Integer> striped =
+                new StripedFastMap<>(4, FastMap.<Integer, Integer>builder().name("striped-test"));
+        for (int i = 0; i < 64; i++) {
+            striped.put(i, i);
+        }
+        FastMapMXBean stripedMetrics = FastMapRegistry.monitors().get("striped-test");
+        assertEquals(64L, stripedMetrics.getSize());
+        assertEquals(-1L, stripedMetrics.getWeightedSize());
+        FastMapRegistry.unregister("striped-test");
+    }
+}
@@ -0,0 +1,166 @@
+package com.hdwang.fastmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FastMapSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 验证排序、不排序和跳表存储的Map保存快照后都能完整恢复，排序顺序保持不变。
+     */
+    @Test
+    public void snapshotMustRoundTrip() throws Exception {
+        FastMapBuilder<?, ?>[] builders = {
+                FastMap.builder().enableSort(true),
+                FastMap.builder().enableSort(false),
+                FastMap.builder().enableSort(true).sortedStorage(SortedStorage.HASHED_SKIP_LIST)
+        };
+        for (int b = 0; b < builders.length; b++) {
+            @SuppressWarnings("unchecked")
+            FastMapBuilder<Long, String> builder = (FastMapBuilder<Long, String>) builders[b];
+            boolean sorted = b != 1;
+            FastMap<Long, String> source = builder.build();
+            for (long i = 1_000; i > 0; i--) {
+                source.put(i, "v" + i);
+            }
+            source.put(0L, null);
+            Path file = folder.newFile().toPath();
+            assertEquals(1_001, source.saveSnapshot(file, Serializers.LONG, Serializers.STRING));
+
+            FastMap<Long, String> target = builder.build();
+            assertEquals(1_001, target.loadSnapshot(file, Serializers.LONG, Serializers.STRING));
+            assertEquals(source.size(), target.size());
+            for (Map.Entry<Long, String> entry : source.entrySet()) {
+                assertEquals(entry.getValue(), target.get(entry.getKey()));
+            }
+            assertTrue(target.containsKey(0L));
+            if (sorted) {
+                assertEquals(Long.valueOf(0L), target.firstKey());
+                assertEquals(Long.valueOf(1_000L), target.lastKey());
+                assertEquals(10, target.subMap(10L, true, 19L, true).size());
+            }
+            //加载后仍可正常写入
+            target.put(2_000L, "x");
+            assertEquals("x", target.get(2_000L));
+        }
+    }
+
+    /**
+     * 验证快照保留剩余存活时间，已经过期的数据不会被加载。
+     */
+    @Test
+    public void snapshotMustKeepRemainingTtl() throws Exception {
+        FastMap<String, String> source = new FastMap<>(true, true);
+        source.put("long", "1");
+        source.put("short", "2");
+        source.put("forever", "3");
+        source.expire("long", 60_000L);
+        source.expire("short", 50L);
+        Path file = folder.newFile().toPath();
+        assertEquals(3, source.saveSnapshot(file, Serializers.STRING, Serializers.STRING));
+        Thread.sleep(100);
+
+        FastMap<String, String> target = new FastMap<>(true, true);
+        assertEquals(2, target.loadSnapshot(file, Serializers.STRING, Serializers.STRING));
+        assertNull(target.get("short"));
+        assertEquals("3", target.get("forever"));
+        assertNull(target.ttl("forever"));
+        long ttl = target.ttl("long");
+        assertTrue(ttl > 50_000L && ttl <= 60_000L);
+
+        FastMap<String, String> noExpire = new FastMap<>(false, true);
+        try {
+            noExpire.loadSnapshot(file, Serializers.STRING, Serializers.STRING);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("未启用过期功能", e.getMessage());
+        }
+    }
+
+    /**
+     * 验证损坏的快照文件被拒绝，目标Map不写入任何数据。
+     */
+    @Test
+    public void corruptedSnapshotMustBeRejected() throws Exception {
+        FastMap<Integer, String> source = new FastMap<>(false, true);
+        for (int i = 0; i < 100; i++) {
+            source.put(i, "value-" + i);
+        }
+        Path file = folder.newFile().toPath();
+        source.saveSnapshot(file, Serializers.INTEGER, Serializers.STRING);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            //最后一个value的字符内容，位于8字节校验和之前
+            long position = raf.length() - 10;
+            raf.seek(position);
+            int b = raf.read();
+            raf.seek(position);
+            raf.write(b ^ 0x01);
+        }
+        FastMap<Integer, String> target = new FastMap<>(false, true);
+        try {
+            target.loadSnapshot(file, Serializers.INTEGER, Serializers.STRING);
+            fail();
+        } catch (IOException expected) {
+            //校验和不一致
+        }
+        assertEquals(0, target.size());
+    }
+
+    /**
+     * 验证文件头中的数据条数被篡改时按文件损坏拒绝，不按该条数分配内存。
+     */
+    @Test
+    public void forgedEntryCountMustBeRejected() throws Exception {
+        FastMap<Integer, String> source = new FastMap<>(false, true);
+        source.put(1, "one");
+        Path file = folder.newFile().toPath();
+        source.saveSnapshot(file, Serializers.INTEGER, Serializers.STRING);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            //魔数、版本、标志、写入时间之后是数据条数
+            raf.seek(4 + 2 + 1 + 8);
+            raf.writeInt(Integer.MAX_VALUE);
+        }
+        FastMap<Integer, String> target = new FastMap<>(false, true);
+        try {
+            target.loadSnapshot(file, Serializers.INTEGER, Serializers.STRING);
+            fail();
+        } catch (StreamCorruptedException expected) {
+        }
+        assertEquals(0, target.size());
+    }
+
+    /**
+     * 验证value的长度字段被篡改时先按校验和拒绝，不按该长度分配内存。
+     */
+    @Test
+    public void forgedValueLengthMustBeRejectedBeforeAllocation() throws Exception {
+        FastMap<Integer, byte[]> source = new FastMap<>(false, true);
+        source.put(1, new byte[]{1, 2, 3});
+        Path file = folder.newFile().toPath();
+        source.saveSnapshot(file, Serializers.INTEGER, Serializers.BYTES);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            //文件头、条目标志、int类型的key之后是value的长度
+            raf.seek(4 + 2 + 1 + 8 + 4 + 1 + 4);
+            raf.writeInt(Integer.MAX_VALUE - 8);
+        }
+        FastMap<Integer, byte[]> target = new FastMap<>(false, true);
+        try {
+            target.loadSnapshot(file, Serializers.INTEGER, Serializers.BYTES);
+            fail();
+        } catch (StreamCorruptedException expected) {
+        }
+        assertEquals(0, target.size());
+    }
+}
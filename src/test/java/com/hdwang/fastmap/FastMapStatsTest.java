@@ -0,0 +1,80 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FastMapStatsTest {
+
+    /**
+     * 验证命中、未命中、写入、删除、淘汰次数和写锁耗时被记录，复合操作内部的查询不计入命中统计。
+     */
+    @Test
+    public void operationsMustBeCounted() {
+        FastMap<String, Integer> map = FastMap.<String, Integer>builder()
+                .enableExpire(false)
+                .maximumSize(2)
+                .recordStats()
+                .build();
+        map.put("a", 1);
+        map.put("b", 2);
+        assertEquals(Integer.valueOf(1), map.get("a"));
+        assertNull(map.get("missing"));
+        assertEquals(Integer.valueOf(0), map.getOrDefault("missing", 0));
+        map.putIfAbsent("a", 10);
+        map.remove("a");
+        map.remove("a");
+        Map<String, Integer> batch = new HashMap<>();
+        batch.put("c", 3);
+        batch.put("d", 4);
+        map.putAll(batch);
+
+        FastMapStats stats = map.stats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(2, stats.missCount());
+        assertEquals(1.0 / 3, stats.hitRate(), 1e-9);
+        assertEquals(4, stats.putCount());
+        assertEquals(1, stats.removalCount());
+        assertEquals(1, stats.evictionCount());
+        assertTrue(stats.lockWaitTime().count() >= 6);
+        assertEquals(stats.lockWaitTime().count(), stats.lockHoldTime().count());
+        assertTrue(stats.lockHoldTime().percentileNanos(50) <= stats.lockHoldTime().maxNanos());
+
+        //快照不可变
+        map.get("c");
+        assertEquals(1, stats.hitCount());
+        assertEquals(2, map.stats().hitCount());
+        assertEquals(0, new FastMap<String, Integer>(false).stats().requestCount());
+    }
+
+    /**
+     * 验证读到已到期数据计为惰性过期，读写操作顺带删除的过期数据被统计，分段Map汇总各段统计。
+     */
+    @Test
+    public void expirationsMustBeCounted() throws Exception {
+        FastMap<String, Integer> map = FastMap.<String, Integer>builder().recordStats().build();
+        map.put("a", 1);
+        map.expire("a", 20L);
+        Thread.sleep(60);
+        assertNull(map.get("a"));
+        assertEquals(0, map.size());
+
+        FastMapStats stats = map.stats();
+        assertEquals(1, stats.expiredReadCount());
+        assertEquals(1, stats.expirationCount());
+        assertEquals(1, stats.inlineExpirationCount());
+        assertEquals(1, stats.expireBatchTime().count());
+
+        StripedFastMap<Integer, Integer> striped =
+                new StripedFastMap<>(4, FastMap.<Integer, Integer>builder().recordStats());
+        for (int i = 0; i < 100; i++) {
+            striped.put(i, i);
+            striped.get(i);
+        }
+        assertEquals(100, striped.stats().putCount());
+        assertEquals(100, striped.stats().hitCount());
+    }
+}
@@ -7,6 +7,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -213,4 +214,204 @@ public class FastMapThreadSafetyTest {
         assertEquals(map.keySet().size(), map.entrySet().size());
         assertEquals(map.keySet().size(), map.subMap(0, keyCount).size());
     }
+
+    /**
+     * 验证点查询不会为清理过期数据而等待写锁，并把已到期但未清理的数据视为不存在。
+     */
+    @Test(timeout = 5000)
+    public void pointReadsMustNotWaitForTheWriteLockToHideExpiredEntries() throws Exception {
+        FastMap<Object, String> map = new FastMap<>();
+        map.put("expired", "value");
+        map.put("live", "value");
+        map.expire("expired", 10L);
+        Thread.sleep(30L);
+
+        //查询时在读锁内计算key的hashCode，阻塞在hashCode里的查询一直占着读锁，写锁拿不到
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Object blockingKey = new Object() {
+            @Override
+            public int hashCode() {
+                locked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+        };
+        Thread reader = new Thread(() -> map.get(blockingKey));
+        reader.start();
+        try {
+            assertTrue(locked.await(2, TimeUnit.SECONDS));
+            assertNull(map.get("expired"));
+            assertFalse(map.containsKey("expired"));
+            assertNull(map.ttl("expired"));
+            assertEquals("default", map.getOrDefault("expired", "default"));
+            assertEquals("value", map.get("live"));
+        } finally {
+            release.countDown();
+            reader.join();
+        }
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * 验证computeIfAbsent的加载函数执行期间，其他key的读写不会被阻塞，同一key的加载只执行一次。
+     */
+    @Test(timeout = 10000)
+    public void slowComputeMustOnlyBlockItsOwnKey() throws Exception {
+        FastMap<String, Integer> map = new FastMap<>(true, true);
+        map.put("other", 1);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Runnable load = () -> map.computeIfAbsent("slow", key -> {
+            loads.incrementAndGet();
+            loading.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return 42;
+        });
+        executor.execute(load);
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        executor.execute(load);
+
+        //加载期间其他key的读写、复合操作和范围查询都能完成
+        assertEquals(Integer.valueOf(1), map.get("other"));
+        map.put("another", 2);
+        assertEquals(Integer.valueOf(3), map.merge("other", 2, Integer::sum));
+        assertEquals(2, map.subMap("a", "z").size());
+        assertNull(map.get("slow"));
+
+        release.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(Integer.valueOf(42), map.get("slow"));
+        assertEquals(1, loads.get());
+    }
+
+    /**
+     * 验证复合操作计算期间同一key被put修改时，会基于最新的值重新计算，不会覆盖put写入的数据；
+     * 重新计算同样不在写锁内执行，其他线程可以读取。
+     */
+    @Test(timeout = 10000)
+    public void computeMustNotOverwriteConcurrentPut() throws Exception {
+        FastMap<String, Integer> map = new FastMap<>(false);
+        map.put("key", 1);
+        CountDownLatch computing = new CountDownLatch(1);
+        CountDownLatch written = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        AtomicBoolean readerBlocked = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                computing.await();
+                map.put("key", 100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                written.countDown();
+            }
+        });
+        writer.start();
+
+        Integer result = map.compute("key", (key, value) -> {
+            if (calls.incrementAndGet() == 1) {
+                computing.countDown();
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            } else {
+                Thread reader = new Thread(() -> map.get("key"));
+                reader.start();
+                try {
+                    reader.join(5000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                readerBlocked.set(reader.isAlive());
+            }
+            return value + 1;
+        });
+        writer.join();
+        assertFalse(readerBlocked.get());
+        assertEquals(Integer.valueOf(101), result);
+        assertEquals(Integer.valueOf(101), map.get("key"));
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * 验证复合操作的函数修改同一个key时立即抛出异常而不是不断重新计算，修改其他key不受影响。
+     */
+    @Test(timeout = 5000)
+    public void computeMustRejectRecursiveUpdateOfTheSameKey() {
+        FastMap<String, Integer> map = new FastMap<>(false);
+        map.put("k", 1);
+        try {
+            map.compute("k", (key, value) -> {
+                map.put("k", value + 1);
+                return value + 2;
+            });
+            fail("recursive update should be rejected");
+        } catch (IllegalStateException expected) {
+            assertEquals("Recursive update", expected.getMessage());
+        }
+        assertEquals(Integer.valueOf(1), map.get("k"));
+        try {
+            map.merge("k", 1, (oldValue, value) -> map.compute("k", (key, current) -> current + value));
+            fail("nested compute of the same key should be rejected");
+        } catch (IllegalStateException expected) {
+            assertEquals("Recursive update", expected.getMessage());
+        }
+
+        assertEquals(Integer.valueOf(3), map.compute("k", (key, value) -> {
+            map.put("other", value);
+            return value + 2;
+        }));
+        assertEquals(Integer.valueOf(1), map.get("other"));
+        assertEquals(Integer.valueOf(3), map.get("k"));
+    }
+
+    /**
+     * 验证replaceAll的函数（持有写锁）调用compute时直接在写锁内计算，
+     * 不会与持有同一key锁、等待写锁的线程死锁。
+     */
+    @Test(timeout = 10000)
+    public void computeInsideReplaceAllMustNotDeadlockWithKeyLockHolder() throws Exception {
+        FastMap<String, Integer> map = new FastMap<>(false);
+        map.put("a", 1);
+        map.put("b", 10);
+        CountDownLatch holdingKeyLock = new CountDownLatch(1);
+        CountDownLatch writeLockHeld = new CountDownLatch(1);
+        AtomicReference<Integer> computed = new AtomicReference<>();
+        Thread holder = new Thread(() -> computed.set(map.compute("b", (key, value) -> {
+            holdingKeyLock.countDown();
+            try {
+                writeLockHeld.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value + 1;
+        })));
+        holder.start();
+        holdingKeyLock.await();
+
+        map.replaceAll((key, value) -> {
+            if ("a".equals(key)) {
+                writeLockHeld.countDown();
+                map.compute("b", (k, v) -> v * 2);
+            }
+            return value;
+        });
+        holder.join();
+        assertEquals(Integer.valueOf(21), computed.get());
+        assertEquals(Integer.valueOf(21), map.get("b"));
+    }
 }
@@ -0,0 +1,276 @@
+package com.hdwang.fastmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class FastMapWriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static FastMap<String, String> open(Path directory, SyncPolicy syncPolicy) {
+        return FastMap.<String, String>builder()
+                .enableSort(true)
+                .writeAheadLog(directory, Serializers.STRING, Serializers.STRING, syncPolicy)
+                .build();
+    }
+
+    /**
+     * 验证每次写入都刷盘时，未关闭日志（模拟崩溃）也能恢复所有修改，并发写入合并刷盘后不丢数据，末尾不完整的记录被忽略。
+     */
+    @Test
+    public void everyWriteMustSurviveCrash() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        FastMap<String, String> map = open(directory, SyncPolicy.always());
+        map.put("a", "1");
+        map.put("b", "2");
+        map.put("c", "3");
+        map.remove("b");
+        Map<String, String> batch = new HashMap<>();
+        batch.put("d", "4");
+        batch.put("e", "5");
+        map.putAll(batch);
+        map.computeIfPresent("a", (key, value) -> value + "!");
+        map.expire("c", 60_000L);
+        map.put("gone", "x");
+        map.expire("gone", 1L);
+
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int base = t * 100;
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    map.put("k" + (base + i), "v" + (base + i));
+                }
+            });
+            writers.add(writer);
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        Thread.sleep(20);
+
+        //模拟崩溃时写了一半的记录
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(file -> file.getFileName().toString().startsWith("wal-"))
+                    .sorted().reduce((first, second) -> second).get();
+            Files.write(segment, new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+        }
+
+        FastMap<String, String> recovered = open(directory, SyncPolicy.always());
+        try {
+            assertEquals("1!", recovered.get("a"));
+            assertNull(recovered.get("b"));
+            assertEquals("3", recovered.get("c"));
+            assertEquals("4", recovered.get("d"));
+            assertNull(recovered.get("gone"));
+            assertTrue(recovered.ttl("c") > 50_000L);
+            for (int i = 0; i < 800; i++) {
+                assertEquals("v" + i, recovered.get("k" + i));
+            }
+            assertEquals(804, recovered.size());
+            assertEquals("a", recovered.firstKey());
+        } finally {
+            recovered.closeLog();
+            map.closeLog();
+        }
+    }
+
+    /**
+     * 验证压缩后只保留新的快照和日志段，恢复结果与压缩前一致，clear之后的修改也能正确恢复。
+     */
+    @Test
+    public void compactionMustReplaceOldSegments() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        FastMap<String, String> map = open(directory, SyncPolicy.interval(5, TimeUnit.MILLISECONDS));
+        for (int i = 0; i < 1_000; i++) {
+            map.put("k" + i, "v" + i);
+        }
+        map.expire("k1", 60_000L);
+        map.compactLog();
+        map.clear();
+        map.put("after", "clear");
+        map.compactLog();
+        map.put("k2", "again");
+        map.closeLog();
+
+        List<String> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+        assertEquals(2, files.size());
+        assertTrue(files.get(0).startsWith("snapshot-"));
+        assertTrue(files.get(1).startsWith("wal-"));
+
+        FastMap<String, String> recovered = open(directory, SyncPolicy.os());
+        try {
+            assertEquals(2, recovered.size());
+            assertEquals("clear", recovered.get("after"));
+            assertEquals("again", recovered.get("k2"));
+            assertNull(recovered.get("k1"));
+        } finally {
+            recovered.closeLog();
+        }
+    }
+
+    /**
+     * 验证日志超过阈值时在后台自动压缩，未启用日志时调用日志方法抛出异常。
+     */
+    @Test
+    public void logMustCompactInBackground() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        FastMap<Integer, String> map = FastMap.<Integer, String>builder()
+                .writeAheadLog(directory, Serializers.INTEGER, Serializers.STRING, SyncPolicy.os())
+                .logCompactionThreshold(4_096)
+                .build();
+        for (int i = 0; i < 2_000; i++) {
+            map.put(i, "value-" + i);
+        }
+        map.syncLog();
+        long deadline = System.currentTimeMillis() + 5_000L;
+        boolean compacted = false;
+        while (!compacted && System.currentTimeMillis() < deadline) {
+            try (Stream<Path> list = Files.list(directory)) {
+                compacted = list.anyMatch(file -> file.getFileName().toString().startsWith("snapshot-"));
+            }
+            Thread.sleep(5);
+        }
+        assertTrue(compacted);
+        map.closeLog();
+
+        FastMap<Integer, String> recovered = FastMap.<Integer, String>builder()
+                .writeAheadLog(directory, Serializers.INTEGER, Serializers.STRING, SyncPolicy.os())
+                .build();
+        try {
+            assertEquals(2_000, recovered.size());
+            assertEquals("value-1999", recovered.get(1999));
+        } finally {
+            recovered.closeLog();
+        }
+
+        try {
+            new FastMap<Integer, String>().syncLog();
+            fail();
+        } catch (IOException e) {
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("未启用写前日志", e.getMessage());
+        }
+    }
+
+    /**
+     * 验证日志记录序列化失败时修改不生效：两个索引都保持原样，恢复结果与内存数据一致。
+     */
+    @Test
+    public void failedAppendMustNotChangeMap() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        Serializer<String> failing = new Serializer<String>() {
+            @Override
+            public void write(DataOutput out, String value) throws IOException {
+                if ("boom".equals(value)) {
+                    throw new IOException("boom");
+                }
+                Serializers.STRING.write(out, value);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                return Serializers.STRING.read(in);
+            }
+        };
+        FastMap<String, String> map = FastMap.<String, String>builder()
+                .enableSort(true)
+                .writeAheadLog(directory, Serializers.STRING, failing, SyncPolicy.always())
+                .build();
+        map.put("a", "1");
+        map.put("b", "2");
+        try {
+            map.put("k", "boom");
+            fail();
+        } catch (UncheckedIOException e) {
+            assertNull(map.get("k"));
+        }
+        try {
+            map.put("a", "boom");
+            fail();
+        } catch (UncheckedIOException e) {
+            assertEquals("1", map.get("a"));
+        }
+        Map<String, String> batch = new HashMap<>();
+        batch.put("c", "3");
+        batch.put("d", "boom");
+        try {
+            map.putAll(batch);
+            fail();
+        } catch (UncheckedIOException e) {
+            assertNull(map.get("c"));
+        }
+        try {
+            map.replaceAll((key, value) -> "b".equals(key) ? "boom" : value + "!");
+            fail();
+        } catch (UncheckedIOException e) {
+            assertEquals("1", map.get("a"));
+        }
+        assertEquals(2, map.size());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.keySet()));
+        assertEquals("a", map.firstKey());
+        map.closeLog();
+
+        FastMap<String, String> recovered = FastMap.<String, String>builder()
+                .enableSort(true)
+                .writeAheadLog(directory, Serializers.STRING, failing, SyncPolicy.always())
+                .build();
+        try {
+            assertEquals(2, recovered.size());
+            assertEquals("1", recovered.get("a"));
+            assertEquals("2", recovered.get("b"));
+            assertNull(recovered.get("k"));
+        } finally {
+            recovered.closeLog();
+        }
+    }
+
+    /**
+     * 验证打开日志目录时删除写快照中途崩溃遗留的临时文件，不影响恢复结果。
+     */
+    @Test
+    public void staleSnapshotTempFilesMustBeDeletedOnOpen() throws Exception {
+        Path directory = folder.newFolder().toPath();
+        FastMap<String, String> map = open(directory, SyncPolicy.os());
+        map.put("a", "1");
+        map.compactLog();
+        map.put("b", "2");
+        map.closeLog();
+        Path stale = directory.resolve("snapshot-0000000000000000009.fms4242.tmp");
+        Files.write(stale, new byte[]{1, 2, 3});
+
+        FastMap<String, String> recovered = open(directory, SyncPolicy.os());
+        try {
+            assertFalse(Files.exists(stale));
+            assertEquals(2, recovered.size());
+            assertEquals("2", recovered.get("b"));
+        } finally {
+            recovered.closeLog();
+        }
+    }
+}
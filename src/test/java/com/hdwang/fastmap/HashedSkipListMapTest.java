@@ -0,0 +1,131 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class HashedSkipListMapTest {
+
+    /**
+     * 验证随机写入、删除后，等值查询和有序查询的结果都与TreeMap一致。
+     */
+    @Test
+    public void randomOperationsMustMatchTreeMap() {
+        HashedSkipListMap<Integer, Integer> index = new HashedSkipListMap<>(null);
+        TreeMap<Integer, Integer> expected = new TreeMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), index.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), index.put(key, i));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+
+        for (int key = -1; key <= 2_000; key++) {
+            assertEquals(expected.get(key), index.get(key));
+            assertEquals(expected.ceilingKey(key), index.ceilingKey(key));
+        }
+        assertEquals(expected.firstKey(), index.firstKey());
+        assertEquals(expected.lastKey(), index.lastKey());
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(index.entrySet()));
+        assertEntries(expected.subMap(100, true, 900, false), index.subMap(100, true, 900, false));
+        assertEntries(expected.subMap(100, false, 900, true), index.subMap(100, false, 900, true));
+        assertEntries(expected.headMap(500, true), index.headMap(500, true));
+        assertEntries(expected.tailMap(1500, false), index.tailMap(1500, false));
+    }
+
+    /**
+     * 验证空索引和非法参数的行为与TreeMap一致。
+     */
+    @Test
+    public void edgeCasesMustMatchTreeMap() {
+        HashedSkipListMap<Object, String> index = new HashedSkipListMap<>(null);
+        try {
+            index.put(new Object(), "value");
+            fail("natural ordering should reject a non-comparable key");
+        } catch (ClassCastException expected) {
+            assertTrue(index.isEmpty());
+        }
+        try {
+            index.firstKey();
+            fail("empty index has no first key");
+        } catch (NoSuchElementException expected) {
+            // expected
+        }
+        try {
+            index.subMap(2, true, 1, false);
+            fail("fromKey > toKey should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+
+        HashedSkipListMap<String, String> reversed = new HashedSkipListMap<>(Comparator.reverseOrder());
+        reversed.put("a", "1");
+        reversed.put("c", "3");
+        reversed.put("b", "2");
+        assertEquals("c", reversed.firstKey());
+        assertEquals("a", reversed.lastKey());
+        reversed.clear();
+        assertTrue(reversed.entrySet().isEmpty());
+        assertNull(reversed.get("a"));
+    }
+
+    /**
+     * 验证单索引排序存储只保存一份数据，并保留排序器一致性校验。
+     */
+    @Test
+    public void singleIndexFastMapMustStoreEachEntryOnce() throws Exception {
+        FastMap<String, Integer> map = FastMap.<String, Integer>builder()
+                .enableExpire(false)
+                .sortedStorage(SortedStorage.HASHED_SKIP_LIST)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            map.put("key" + (100 + i), i);
+        }
+        map.remove("key150");
+
+        Field hashField = FastMap.class.getDeclaredField("dataHashMap");
+        Field treeField = FastMap.class.getDeclaredField("dataTreeMap");
+        hashField.setAccessible(true);
+        treeField.setAccessible(true);
+        assertSame(hashField.get(map), treeField.get(map));
+        assertEquals(99, map.size());
+        assertEquals("key100", map.firstKey());
+        assertEquals("key199", map.lastKey());
+        assertEquals(Integer.valueOf(10), map.get("key110"));
+        assertEquals(9, map.subMap("key145", "key155").size());
+
+        Comparator<String> sameLength = (left, right) -> Integer.compare(left.length(), right.length());
+        FastMap<String, Integer> inconsistent = FastMap.<String, Integer>builder()
+                .enableExpire(false)
+                .comparator(sameLength)
+                .sortedStorage(SortedStorage.HASHED_SKIP_LIST)
+                .build();
+        inconsistent.put("a", 1);
+        try {
+            inconsistent.put("b", 2);
+            fail("comparator collision should be rejected");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(1, inconsistent.size());
+        }
+    }
+
+    private static void assertEntries(Map<Integer, Integer> expected, Map<Integer, Integer> actual) {
+        List<Map.Entry<Integer, Integer>> expectedEntries = new ArrayList<>(expected.entrySet());
+        List<Map.Entry<Integer, Integer>> actualEntries = new ArrayList<>(actual.entrySet());
+        assertEquals(expectedEntries, actualEntries);
+        assertEquals(expected.size(), actual.size());
+    }
+}
@@ -0,0 +1,146 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LinkedHashIndexTest {
+
+    /**
+     * 验证随机写入、删除后，查询结果和遍历顺序都与LinkedHashMap一致。
+     */
+    @Test
+    public void randomOperationsMustMatchLinkedHashMap() {
+        LinkedHashIndex<Integer, Integer> index = new LinkedHashIndex<>();
+        LinkedHashMap<Integer, Integer> expected = new LinkedHashMap<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 20_000; i++) {
+            int key = random.nextInt(2_000);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), index.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), index.put(key, i));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        for (int key = -1; key <= 2_000; key++) {
+            assertEquals(expected.get(key), index.get(key));
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(index.entrySet()));
+
+        index.put(null, -1);
+        assertEquals(Integer.valueOf(-1), index.get(null));
+        assertEquals(Integer.valueOf(-1), index.remove(null));
+    }
+
+    /**
+     * 验证停留在已删除节点上的遍历能沿后继指针继续，不会返回已删除的数据。
+     */
+    @Test
+    public void successorMustSkipRemovedNodes() {
+        LinkedHashIndex<String, Integer> index = new LinkedHashIndex<>();
+        for (String key : Arrays.asList("a", "b", "c", "d", "e")) {
+            index.put(key, 1);
+        }
+        LinkedHashIndex.Node<String, Integer> a = index.first();
+        LinkedHashIndex.Node<String, Integer> b = LinkedHashIndex.successor(a);
+        index.remove("b");
+        index.remove("c");
+        assertEquals("d", LinkedHashIndex.successor(b).getKey());
+        index.remove("a");
+        assertEquals("d", LinkedHashIndex.successor(a).getKey());
+
+        index.clear();
+        assertNull(LinkedHashIndex.successor(b));
+        assertNull(index.first());
+        index.put("f", 1);
+        List<String> keys = new ArrayList<>(index.keySet());
+        assertEquals(Arrays.asList("f"), keys);
+    }
+
+    /**
+     * 验证大量key的hash冲突时（包括compareTo与equals不一致、未实现Comparable的key），
+     * 桶改为有序结构后查询、删除和遍历顺序仍与LinkedHashMap一致。
+     */
+    @Test
+    public void collidingKeysMustMatchLinkedHashMap() {
+        LinkedHashIndex<Object, Integer> index = new LinkedHashIndex<>();
+        LinkedHashMap<Object, Integer> expected = new LinkedHashMap<>();
+        Random random = new Random(13);
+        for (int i = 0; i < 20_000; i++) {
+            int id = random.nextInt(600);
+            Object key = id % 3 == 0 ? new PlainKey(id) : new ComparableKey(id);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), index.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), index.put(key, i));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        for (int id = 0; id < 600; id++) {
+            Object key = id % 3 == 0 ? new PlainKey(id) : new ComparableKey(id);
+            assertEquals(expected.get(key), index.get(key));
+            assertEquals(expected.containsKey(key), index.containsKey(key));
+        }
+        assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(index.entrySet()));
+
+        for (Object key : new ArrayList<>(expected.keySet())) {
+            assertEquals(expected.remove(key), index.remove(key));
+        }
+        assertTrue(index.isEmpty());
+        assertNull(index.first());
+    }
+
+    /**
+     * hash全部冲突，compareTo只比较id/2，与equals不一致
+     */
+    private static final class ComparableKey implements Comparable<ComparableKey> {
+        private final int id;
+
+        ComparableKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(ComparableKey other) {
+            return Integer.compare(id / 2, other.id / 2);
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof ComparableKey && ((ComparableKey) object).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return 42;
+        }
+    }
+
+    /**
+     * 未实现Comparable，hash只有两种取值
+     */
+    private static final class PlainKey {
+        private final int id;
+
+        PlainKey(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            return object instanceof PlainKey && ((PlainKey) object).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return id % 2;
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LoadingFastMapTest {
+
+    /**
+     * 验证同一个key的并发未命中只调用一次loader，所有线程拿到同一个值。
+     */
+    @Test
+    public void concurrentMissesMustLoadOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        LoadingFastMap<String, String> cache = new LoadingFastMap<>(new FastMap<>(), key -> {
+            loads.incrementAndGet();
+            release.await(5, TimeUnit.SECONDS);
+            return key + "-value";
+        });
+        int threads = 16;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        List<Future<String>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executorService.submit(() -> cache.get("hot")));
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (Future<String> future : futures) {
+            assertEquals("hot-value", future.get(5, TimeUnit.SECONDS));
+        }
+        executorService.shutdown();
+        assertEquals(1, loads.get());
+        assertEquals("hot-value", cache.getIfPresent("hot"));
+    }
+
+    /**
+     * 验证写入超过refreshAfterWrite后读取返回旧值并在后台刷新。
+     */
+    @Test
+    public void staleValueMustBeServedWhileRefreshing() throws Exception {
+        AtomicInteger version = new AtomicInteger();
+        CountDownLatch reloaded = new CountDownLatch(1);
+        ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+        LoadingFastMap<String, Integer> cache = new LoadingFastMap<>(new FastMap<>(), new CacheLoader<String, Integer>() {
+            @Override
+            public Integer load(String key) {
+                return version.incrementAndGet();
+            }
+
+            @Override
+            public Integer reload(String key, Integer oldValue) {
+                Integer value = load(key);
+                reloaded.countDown();
+                return value;
+            }
+        }, 50L, refreshExecutor);
+
+        assertEquals(Integer.valueOf(1), cache.get("k"));
+        assertEquals(Integer.valueOf(1), cache.get("k"));
+        Thread.sleep(80);
+        assertEquals(Integer.valueOf(1), cache.get("k"));
+        assertTrue(reloaded.await(5, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 5_000L;
+        while (!Integer.valueOf(2).equals(cache.getIfPresent("k")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(Integer.valueOf(2), cache.get("k"));
+        assertEquals(2, version.get());
+        refreshExecutor.shutdown();
+    }
+
+    /**
+     * 验证reload返回null保留旧值后重新计时，刷新周期内的读取不会反复触发reload。
+     */
+    @Test
+    public void nullReloadMustResetTheRefreshAge() throws Exception {
+        AtomicInteger reloads = new AtomicInteger();
+        LoadingFastMap<String, Integer> cache = new LoadingFastMap<>(new FastMap<>(), new CacheLoader<String, Integer>() {
+            @Override
+            public Integer load(String key) {
+                return 1;
+            }
+
+            @Override
+            public Integer reload(String key, Integer oldValue) {
+                reloads.incrementAndGet();
+                return null;
+            }
+        }, 200L, Runnable::run);
+
+        assertEquals(Integer.valueOf(1), cache.get("k"));
+        Thread.sleep(250);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(1), cache.get("k"));
+        }
+        assertEquals(1, reloads.get());
+    }
+
+    /**
+     * 验证getAll只把缺失的key交给一次loadAll，结果按请求顺序返回。
+     */
+    @Test
+    public void getAllMustBulkLoadOnlyMissingKeys() {
+        List<Set<? extends Integer>> batches = new ArrayList<>();
+        LoadingFastMap<Integer, String> cache = new LoadingFastMap<>(new FastMap<>(), new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                throw new AssertionError("single load should not be used");
+            }
+
+            @Override
+            public Map<Integer, String> loadAll(Set<? extends Integer> keys) {
+                batches.add(new LinkedHashSet<>(keys));
+                Map<Integer, String> result = new HashMap<>();
+                for (Integer key : keys) {
+                    if (key != 4) {
+                        result.put(key, "v" + key);
+                    }
+                }
+                return result;
+            }
+        });
+        cache.put(2, "cached");
+
+        Map<Integer, String> result = cache.getAll(Arrays.asList(3, 2, 1, 4));
+        assertEquals(1, batches.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList(3, 1, 4)), batches.get(0));
+        assertEquals(Arrays.asList(3, 2, 1), new ArrayList<>(result.keySet()));
+        assertEquals("cached", result.get(2));
+        assertEquals("v1", cache.getIfPresent(1));
+        assertNull(cache.getIfPresent(4));
+    }
+
+    /**
+     * 验证getAll占用加载后再次检查缓存，首次检查之后被其他线程加载完成的key不会再交给loadAll。
+     */
+    @Test
+    public void getAllMustSkipKeysLoadedAfterTheMiss() {
+        AtomicBoolean raced = new AtomicBoolean();
+        FastMap<Integer, String> backing = new FastMap<Integer, String>() {
+            @Override
+            public String get(Object key) {
+                //模拟第一次查询未命中之后，其他线程立即完成了key 1的加载
+                if (Integer.valueOf(1).equals(key) && raced.compareAndSet(false, true)) {
+                    put(1, "concurrent");
+                    return null;
+                }
+                return super.get(key);
+            }
+        };
+        List<Set<? extends Integer>> batches = new ArrayList<>();
+        LoadingFastMap<Integer, String> cache = new LoadingFastMap<>(backing, new CacheLoader<Integer, String>() {
+            @Override
+            public String load(Integer key) {
+                throw new AssertionError("single load should not be used");
+            }
+
+            @Override
+            public Map<Integer, String> loadAll(Set<? extends Integer> keys) {
+                batches.add(new LinkedHashSet<>(keys));
+                Map<Integer, String> result = new HashMap<>();
+                for (Integer key : keys) {
+                    result.put(key, "v" + key);
+                }
+                return result;
+            }
+        });
+
+        Map<Integer, String> result = cache.getAll(Arrays.asList(1, 2));
+        assertEquals(1, batches.size());
+        assertEquals(new LinkedHashSet<>(Collections.singletonList(2)), batches.get(0));
+        assertEquals(Arrays.asList(1, 2), new ArrayList<>(result.keySet()));
+        assertEquals("concurrent", result.get(1));
+        assertEquals("concurrent", cache.getIfPresent(1));
+    }
+
+    /**
+     * 验证loader异常传给调用方且不写入缓存，下一次get重新加载。
+     */
+    @Test
+    public void failedLoadMustPropagateAndRetry() {
+        AtomicInteger attempts = new AtomicInteger();
+        LoadingFastMap<String, String> cache = new LoadingFastMap<>(new FastMap<>(), key -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IOException("backend down");
+            }
+            return "ok";
+        });
+        try {
+            cache.get("k");
+            fail("loader failure should propagate");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertNull(cache.getIfPresent("k"));
+        assertEquals("ok", cache.get("k"));
+        assertEquals(2, attempts.get());
+    }
+
+    /**
+     * 验证写入时间表的清理交给刷新线程池执行，同一时刻只排队一个清理任务，清理后只保留仍在Map中的key。
+     */
+    @Test
+    public void writeTimePurgeMustRunOnRefreshExecutor() throws Exception {
+        List<Runnable> tasks = new ArrayList<>();
+        LoadingFastMap<Integer, String> cache = new LoadingFastMap<>(new FastMap<>(), key -> "v" + key,
+                60_000L, tasks::add);
+        for (int i = 0; i < 3_000; i++) {
+            cache.put(i, "v" + i);
+            if (i % 2 == 0) {
+                cache.asMap().remove(i);
+            }
+        }
+        assertEquals(1, tasks.size());
+
+        Field field = LoadingFastMap.class.getDeclaredField("writeTimes");
+        field.setAccessible(true);
+        Map<?, ?> writeTimes = (Map<?, ?>) field.get(cache);
+        assertEquals(3_000, writeTimes.size());
+        tasks.get(0).run();
+        assertEquals(1_500, writeTimes.size());
+
+        for (int i = 0; i < 1_024; i++) {
+            cache.put(i, "again");
+        }
+        assertEquals(2, tasks.size());
+    }
+}
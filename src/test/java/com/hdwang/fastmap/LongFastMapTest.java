@@ -0,0 +1,153 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class LongFastMapTest {
+
+    /**
+     * 验证随机的写入和删除后，哈希索引和排序索引与TreeMap一致（覆盖删除时的前移和块的拆分、合并）。
+     */
+    @Test
+    public void randomOperationsMustMatchTreeMap() {
+        LongFastMap<String> map = new LongFastMap<>(false, true);
+        TreeMap<Long, String> expected = new TreeMap<>();
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            long key = random.nextInt(5_000) - 2_500L;
+            int op = random.nextInt(10);
+            if (op < 5) {
+                assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+            } else if (op < 6) {
+                assertEquals(expected.putIfAbsent(key, "p" + i), map.putIfAbsent(key, "p" + i));
+            } else {
+                assertEquals(expected.remove(key), map.remove(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key = -2_600; key < 2_600; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        assertEquals(expected.firstKey().longValue(), map.firstKey());
+        assertEquals(expected.lastKey().longValue(), map.lastKey());
+
+        List<Long> range = new ArrayList<>();
+        map.forEachInRange(-100, false, 100, true, (key, value) -> {
+            assertEquals(expected.get(key), value);
+            range.add(key);
+        });
+        assertEquals(new ArrayList<>(expected.subMap(-100L, false, 100L, true).keySet()), range);
+
+        long[] page = map.keys(Long.MIN_VALUE, true, Long.MAX_VALUE, true, 10, 5);
+        List<Long> expectedPage = new ArrayList<>(expected.keySet()).subList(10, 15);
+        assertEquals(expectedPage.size(), page.length);
+        for (int i = 0; i < page.length; i++) {
+            assertEquals(expectedPage.get(i).longValue(), page[i]);
+        }
+
+        Map<Long, String> all = new HashMap<>();
+        map.forEach(all::put);
+        assertEquals(expected, all);
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        try {
+            map.firstKey();
+            fail("empty map has no first key");
+        } catch (NoSuchElementException expectedException) {
+        }
+    }
+
+    /**
+     * 验证expire和ttl返回long，过期数据不可见并在size时删除，已过期的key重新写入后不继承过期时间。
+     */
+    @Test
+    public void expireAndTtlMustUsePrimitives() throws InterruptedException {
+        LongFastMap<String> map = new LongFastMap<>(true, true);
+        for (long i = 0; i < 100; i++) {
+            map.put(i, "v" + i);
+        }
+        assertEquals(-1L, map.expire(1_000L, 10));
+        assertEquals(-1L, map.ttl(5L));
+        for (long i = 0; i < 50; i++) {
+            assertTrue(map.expire(i, 30) > 0);
+        }
+        //重复续期只保留最后一次
+        for (int round = 0; round < 10; round++) {
+            map.expire(99L, 60_000);
+        }
+        long ttl = map.ttl(99L);
+        assertTrue(ttl > 59_000 && ttl <= 60_000);
+        assertEquals("v7", map.put(7L, "new"));
+        assertTrue(map.ttl(7L) > 0);
+
+        Thread.sleep(100);
+        assertNull(map.get(7L));
+        assertFalse(map.containsKey(0L));
+        assertEquals(-1L, map.ttl(7L));
+        assertEquals(-1L, map.expire(7L, 10));
+        assertEquals(50L, map.firstKey());
+        assertEquals(50, map.size());
+
+        assertNull(map.put(8L, "again"));
+        assertEquals(-1L, map.ttl(8L));
+        assertEquals(Arrays.toString(new long[]{8L, 50L, 51L}),
+                Arrays.toString(map.keys(0, true, 52, false, 0, 10)));
+
+        try {
+            new LongFastMap<String>(false, false).expire(1L, 10);
+            fail("expire must be disabled");
+        } catch (RuntimeException expected) {
+            assertEquals("未启用过期功能", expected.getMessage());
+        }
+    }
+
+    /**
+     * 验证到期数据超过一批时，分多批全部删除。
+     */
+    @Test
+    public void expiredBacklogMustBeClearedInBatches() throws InterruptedException {
+        LongFastMap<String> map = new LongFastMap<>(true, true);
+        for (long i = 0; i < 5_000; i++) {
+            map.put(i, "v" + i);
+            map.expire(i, 20);
+        }
+        map.put(5_000L, "live");
+        Thread.sleep(60);
+        assertEquals(1, map.size());
+        assertEquals(5_000L, map.firstKey());
+        assertEquals("live", map.get(5_000L));
+    }
+
+    /**
+     * 验证IntFastMap的读写、负数key的排序和分页。
+     */
+    @Test
+    public void intFastMapMustKeepIntOrder() {
+        IntFastMap<String> map = new IntFastMap<>(true, true, 1_000);
+        for (int i = -500; i < 500; i++) {
+            map.put(i, Integer.toString(i));
+        }
+        assertEquals(1_000, map.size());
+        assertEquals("-3", map.get(-3));
+        assertEquals(-500, map.firstKey());
+        assertEquals(499, map.lastKey());
+        assertEquals("[-2, -1, 0]", Arrays.toString(map.keys(-3, false, 0, true, 0, 10)));
+        assertEquals("0", map.remove(0));
+        assertTrue(map.expire(1, 60_000) > 0);
+        assertTrue(map.ttl(1) > 0);
+        int[] sum = new int[1];
+        map.forEachInRange(-2, true, 2, true, (key, value) -> sum[0] += key);
+        assertEquals(-2 - 1 + 1 + 2, sum[0]);
+    }
+}
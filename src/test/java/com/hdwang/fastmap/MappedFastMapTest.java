@@ -0,0 +1,159 @@
+package com.hdwang.fastmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MappedFastMapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 验证写入后打开即可按key查找和范围查询，范围查询和批量操作按key顺序读取，过期时刻随数据保存。
+     */
+    @Test
+    public void writtenFileMustBeQueryableAfterOpen() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("data.fmm");
+        long now = System.currentTimeMillis();
+        try (MappedFastMap.Writer<Long, String> writer = MappedFastMap.writer(file, Serializers.LONG,
+                Serializers.STRING, null)) {
+            for (long i = 0; i < 10_000; i++) {
+                if (i == 7) {
+                    writer.add(i, null);
+                } else if (i % 1000 == 5) {
+                    writer.add(i, "expired-" + i, now - 1);
+                } else if (i == 9_999) {
+                    writer.add(i, "v" + i, now + 60_000);
+                } else {
+                    writer.add(i, "v" + i);
+                }
+            }
+            writer.finish();
+        }
+
+        try (MappedFastMap<Long, String> map = MappedFastMap.open(file, Serializers.LONG, Serializers.STRING)) {
+            assertEquals(9_990, map.size());
+            assertEquals("v42", map.get(42L));
+            assertNull(map.get(7L));
+            assertTrue(map.containsKey(7L));
+            assertNull(map.get(1005L));
+            assertFalse(map.containsKey(1005L));
+            assertFalse(map.containsKey(10_000L));
+            assertFalse(map.containsKey("not a long"));
+
+            assertEquals(Arrays.asList(1000L, 1001L, 1002L, 1003L, 1004L, 1006L),
+                    new ArrayList<>(map.subMap(1000L, 1007L).keySet()));
+            assertEquals(Arrays.asList(1007L, 1008L),
+                    new ArrayList<>(map.subMap(1000L, false, null, false, 5, 2).keySet()));
+            assertEquals(Arrays.asList(0L, 1L), new ArrayList<>(map.headMap(2L).keySet()));
+            assertEquals(Arrays.asList(9_998L, 9_999L), new ArrayList<>(map.tailMap(9_998L).keySet()));
+            assertEquals(Long.valueOf(0L), map.firstKey());
+            assertEquals(Long.valueOf(9_999L), map.lastKey());
+
+            Iterator<Map.Entry<Long, String>> cursor = map.rangeCursor(4L, true, 6L, true);
+            assertEquals(Long.valueOf(4L), cursor.next().getKey());
+            assertEquals(Long.valueOf(6L), cursor.next().getKey());
+            assertFalse(cursor.hasNext());
+
+            Long sum = map.reduce(1L, (key, value) -> key, Long::sum);
+            assertEquals(Long.valueOf(49_995_000L - 45_050L), sum);
+            Long rangeSum = map.reduce(100L, true, 199L, true, 1L, (key, value) -> key, Long::sum);
+            assertEquals(Long.valueOf(14_950L), rangeSum);
+
+            Long ttl = map.ttl(9_999L);
+            assertTrue(ttl > 0 && ttl <= 60_000);
+            assertNull(map.ttl(42L));
+            assertNull(map.ttl(1005L));
+        }
+    }
+
+    /**
+     * 验证remove和expire直接修改映射文件，重新打开后仍然有效。
+     */
+    @Test
+    public void removeAndExpireMustPersistInFile() throws IOException, InterruptedException {
+        Path file = folder.getRoot().toPath().resolve("data.fmm");
+        Comparator<String> reversed = Comparator.reverseOrder();
+        try (MappedFastMap.Writer<String, String> writer = MappedFastMap.writer(file, Serializers.STRING,
+                Serializers.STRING, reversed)) {
+            for (String key : Arrays.asList("d", "c", "b", "a")) {
+                writer.add(key, key.toUpperCase());
+            }
+            writer.finish();
+        }
+
+        try (MappedFastMap<String, String> map = MappedFastMap.open(file, Serializers.STRING, Serializers.STRING,
+                reversed)) {
+            assertEquals(Arrays.asList("c", "b"), new ArrayList<>(map.subMap("c", "a").keySet()));
+            assertEquals("B", map.remove("b"));
+            assertNull(map.remove("b"));
+            assertNotNull(map.expire("c", 10L));
+            assertNull(map.expire("b", 10L));
+            try {
+                map.put("e", "E");
+                fail("put must be unsupported");
+            } catch (UnsupportedOperationException expected) {
+            }
+            Thread.sleep(50);
+            assertEquals(2, map.size());
+        }
+
+        try (MappedFastMap<String, String> map = MappedFastMap.open(file, Serializers.STRING, Serializers.STRING,
+                reversed)) {
+            List<String> keys = new ArrayList<>(map.keySet());
+            assertEquals(Arrays.asList("d", "a"), keys);
+            assertEquals(2, map.size());
+            assertEquals("d", map.firstKey());
+            assertNull(map.get("b"));
+            map.clear();
+            assertTrue(map.isEmpty());
+        }
+
+        try (MappedFastMap<String, String> map = MappedFastMap.open(file, Serializers.STRING, Serializers.STRING,
+                reversed)) {
+            assertEquals(0, map.size());
+            assertTrue(map.isEmpty());
+            assertTrue(map.keySet().isEmpty());
+        }
+    }
+
+    /**
+     * 验证乱序写入被拒绝，未完成的写入不留下目标文件，损坏的文件无法打开。
+     */
+    @Test
+    public void invalidInputMustBeRejected() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("data.fmm");
+        try (MappedFastMap.Writer<Long, String> writer = MappedFastMap.writer(file, Serializers.LONG,
+                Serializers.STRING, null)) {
+            writer.add(2L, "b");
+            try {
+                writer.add(1L, "a");
+                fail("keys out of order must be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertFalse(Files.exists(file));
+        assertEquals(0, folder.getRoot().list().length);
+
+        Files.write(file, new byte[128]);
+        try {
+            MappedFastMap.open(file, Serializers.LONG, Serializers.STRING);
+            fail("corrupted file must be rejected");
+        } catch (StreamCorruptedException expected) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.hdwang.fastmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class OffHeapFastMapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * 验证复制读取和零拷贝读取，覆盖和删除后释放的chunk被复用，超过slab大小的数据单独分配。
+     */
+    @Test
+    public void valuesMustBeStoredOffHeap() {
+        OffHeapFastMap<String, String> map = new OffHeapFastMap<>(
+                FastMap.<String, Long>builder().enableSort(true), Serializers.STRING, SlabAllocator.direct(4096));
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + i, "value-" + i);
+        }
+        assertEquals("value-42", map.get("k42"));
+        assertNull(map.get("missing"));
+        int length = map.view("k42", buffer -> buffer.remaining());
+        assertEquals(4 + "value-42".length(), length);
+        assertTrue(map.view("k42", buffer -> buffer.isReadOnly() && buffer.position() == 0));
+        assertNull(map.view("missing", buffer -> 1));
+
+        long reserved = map.reservedBytes();
+        long used = map.usedBytes();
+        for (int i = 0; i < 100; i++) {
+            map.put("k" + i, "VALUE-" + i);
+        }
+        assertEquals("VALUE-7", map.get("k7"));
+        assertEquals(used, map.usedBytes());
+        assertEquals(reserved, map.reservedBytes());
+
+        char[] large = new char[10_000];
+        Arrays.fill(large, 'x');
+        map.put("large", new String(large));
+        assertEquals(10_000, map.get("large").length());
+        assertTrue(map.remove("large"));
+        assertFalse(map.remove("large"));
+        assertEquals(reserved, map.reservedBytes());
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(map.remove("k" + i));
+        }
+        assertEquals(0L, map.usedBytes());
+        assertEquals(0, map.size());
+        map.close();
+    }
+
+    /**
+     * 验证过期回调在释放前收到value，过期和淘汰都会释放堆外内存。
+     */
+    @Test
+    public void expirationAndEvictionMustReclaimSlots() throws Exception {
+        OffHeapFastMap<Integer, byte[]> map = new OffHeapFastMap<>(
+                FastMap.<Integer, Long>builder()
+                        .maximumWeight(64 * 1024)
+                        .weigher(OffHeapFastMap.offHeapWeigher()),
+                Serializers.BYTES, SlabAllocator.direct(4096));
+        map.put(1, "payload".getBytes(StandardCharsets.UTF_8));
+        CountDownLatch expired = new CountDownLatch(1);
+        AtomicReference<byte[]> seen = new AtomicReference<>();
+        map.expire(1, 10L, (key, value) -> {
+            seen.set(value);
+            expired.countDown();
+        });
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertEquals("payload", new String(seen.get(), StandardCharsets.UTF_8));
+        awaitUsedBytes(map, 0L);
+
+        for (int i = 0; i < 1_000; i++) {
+            map.put(i, new byte[100]);
+        }
+        assertTrue(map.size() <= 64 * 1024 / 128);
+        awaitUsedBytes(map, map.size() * 128L);
+        map.close();
+    }
+
+    /**
+     * 验证整理后搬空的slab被归还，剩余数据仍可读取；内存映射文件同样可用。
+     */
+    @Test
+    public void compactionMustReleaseSparseSlabs() throws Exception {
+        OffHeapFastMap<Integer, String> map = new OffHeapFastMap<>(
+                FastMap.<Integer, Long>builder(), Serializers.STRING,
+                SlabAllocator.mapped(folder.newFolder().toPath(), 4096));
+        for (int i = 0; i < 2_000; i++) {
+            map.put(i, "value-" + i);
+        }
+        long reserved = map.reservedBytes();
+        for (int i = 0; i < 2_000; i++) {
+            if (i % 10 != 0) {
+                map.remove(i);
+            }
+        }
+        assertEquals(reserved, map.reservedBytes());
+        map.compact();
+        assertTrue(map.reservedBytes() < reserved / 4);
+        for (int i = 0; i < 2_000; i += 10) {
+            assertEquals("value-" + i, map.get(i));
+        }
+        map.put(5, "again");
+        assertEquals("again", map.get(5));
+        map.clear();
+        assertEquals(0L, map.usedBytes());
+        map.close();
+    }
+
+    private static void awaitUsedBytes(OffHeapFastMap<?, ?> map, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000L;
+        while (map.usedBytes() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, map.usedBytes());
+    }
+}
@@ -0,0 +1,220 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StripedFastMapTest {
+
+    /**
+     * 验证并发级别会向上取整为2的幂。
+     */
+    @Test
+    public void concurrencyLevelMustBeRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new StripedFastMap<String, String>(5, false).segmentCount());
+        assertEquals(1, new StripedFastMap<String, String>(1, false).segmentCount());
+    }
+
+    /**
+     * 验证选段与段内选桶使用哈希值的不同位：同一段的key在段内哈希表中分散到大部分桶，而不是只用到1/段数的桶。
+     */
+    @Test
+    public void segmentKeysMustSpreadAcrossSegmentBuckets() {
+        StripedFastMap<Integer, Integer> map = new StripedFastMap<>(16, false);
+        int keyCount = 1 << 15;
+        List<Set<Integer>> buckets = new ArrayList<>();
+        int[] segmentSizes = new int[map.segmentCount()];
+        for (int i = 0; i < map.segmentCount(); i++) {
+            buckets.add(new HashSet<>());
+        }
+        //每段约2048个key，段内哈希表扩容到4096个桶，按与段内哈希表相同的扩散方式选桶
+        int tableSize = 4096;
+        for (int key = 0; key < keyCount; key++) {
+            int segment = map.segmentIndex(key);
+            int h = Integer.hashCode(key);
+            buckets.get(segment).add((h ^ (h >>> 16)) & (tableSize - 1));
+            segmentSizes[segment]++;
+        }
+        for (int i = 0; i < map.segmentCount(); i++) {
+            assertTrue(segmentSizes[i] > keyCount / map.segmentCount() / 2);
+            assertTrue("segment " + i + " uses " + buckets.get(i).size() + " buckets",
+                    buckets.get(i).size() > segmentSizes[i] / 2);
+        }
+        assertEquals(0, new StripedFastMap<Integer, Integer>(1, false).segmentIndex(42));
+    }
+
+    /**
+     * 验证范围查询、firstKey和lastKey会按顺序合并所有段的数据。
+     */
+    @Test
+    public void rangeQueriesMustMergeAllSegmentsInOrder() {
+        StripedFastMap<Integer, Integer> map = new StripedFastMap<>(8, false, true);
+        for (int i = 99; i >= 0; i--) {
+            map.put(i, i * 10);
+        }
+
+        assertEquals(Integer.valueOf(0), map.firstKey());
+        assertEquals(Integer.valueOf(99), map.lastKey());
+        assertEquals(Arrays.asList(10, 11, 12), new ArrayList<>(map.subMap(10, 13).keySet()));
+        assertEquals(Arrays.asList(10, 11, 12, 13), new ArrayList<>(map.subMap(10, true, 13, true).keySet()));
+        assertEquals(Arrays.asList(0, 1), new ArrayList<>(map.headMap(2).keySet()));
+        assertEquals(Arrays.asList(98, 99), new ArrayList<>(map.tailMap(97, false).keySet()));
+        assertEquals(Integer.valueOf(120), map.subMap(10, 13).get(12));
+
+        List<Integer> keys = new ArrayList<>(map.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            assertEquals(Integer.valueOf(i), keys.get(i));
+        }
+    }
+
+    /**
+     * 验证分页范围查询和范围游标会按顺序归并所有段的数据。
+     */
+    @Test
+    public void pagedRangeAndCursorMustMergeAllSegments() {
+        StripedFastMap<Integer, Integer> map = new StripedFastMap<>(8, false, true);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+        }
+
+        assertEquals(Arrays.asList(501, 502, 503), new ArrayList<>(map.tailMap(500, false, 0, 3).keySet()));
+        assertEquals(Arrays.asList(7, 8), new ArrayList<>(map.subMap(5, true, 100, false, 2, 2).keySet()));
+
+        Iterator<Map.Entry<Integer, Integer>> cursor = map.rangeCursor(100, true, null, false);
+        for (int i = 100; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), cursor.next().getKey());
+            cursor.remove();
+        }
+        assertFalse(cursor.hasNext());
+        assertEquals(100, map.size());
+    }
+
+    /**
+     * 验证批量操作按段并行执行，结果与串行一致。
+     */
+    @Test
+    public void bulkOperationsMustCoverAllSegments() {
+        StripedFastMap<Integer, Integer> map = new StripedFastMap<>(8, false, true);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(i, 1);
+        }
+        for (long threshold : new long[]{Long.MAX_VALUE, 1L}) {
+            assertEquals(Integer.valueOf(10_000), map.reduceValues(threshold, Integer::sum));
+            assertEquals(Integer.valueOf(9_999), map.reduce(threshold, (key, value) -> key, Math::max));
+            assertEquals(Integer.valueOf(100), map.reduce(100, true, 200, false, threshold,
+                    (key, value) -> value, Integer::sum));
+            assertEquals("5000", map.search(threshold, (key, value) -> key == 5000 ? "5000" : null));
+        }
+    }
+
+    /**
+     * 验证自定义Comparator在跨段合并时同样生效。
+     */
+    @Test
+    public void customComparatorMustBeUsedWhenMergingSegments() {
+        StripedFastMap<Integer, String> map = new StripedFastMap<>(4, false, Comparator.reverseOrder());
+        map.put(1, "one");
+        map.put(3, "three");
+        map.put(2, "two");
+
+        assertEquals(Integer.valueOf(3), map.firstKey());
+        assertEquals(Integer.valueOf(1), map.lastKey());
+        assertEquals(Arrays.asList(3, 2, 1), new ArrayList<>(map.keySet()));
+    }
+
+    /**
+     * 验证视图操作会写回所属的段，且equals遵循Map契约。
+     */
+    @Test
+    public void viewsMustWriteThroughToSegments() {
+        StripedFastMap<String, Integer> map = new StripedFastMap<>(4, false);
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+
+        assertTrue(map.keySet().remove("a"));
+        assertTrue(map.values().remove(2));
+        Map.Entry<String, Integer> entry = map.entrySet().iterator().next();
+        entry.setValue(30);
+        assertEquals(Integer.valueOf(30), map.get("c"));
+
+        Iterator<String> iterator = map.keySet().iterator();
+        iterator.next();
+        iterator.remove();
+        assertTrue(map.isEmpty());
+
+        map.put("x", 1);
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("x", 1);
+        assertEquals(expected, map);
+        assertEquals(expected.hashCode(), map.hashCode());
+    }
+
+    /**
+     * 验证过期功能委托给key所在的段。
+     */
+    @Test
+    public void expirationMustBeHandledBySegments() throws Exception {
+        StripedFastMap<String, String> map = new StripedFastMap<>(4);
+        CountDownLatch callback = new CountDownLatch(1);
+        map.put("key", "value");
+        map.put("other", "value");
+        map.expire("key", 20L, (key, value) -> callback.countDown());
+
+        assertTrue(map.ttl("key") <= 20L);
+        assertTrue(callback.await(2, TimeUnit.SECONDS));
+        assertFalse(map.containsKey("key"));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * 验证多线程并发写入不同key及compute同一key时不会丢失更新。
+     */
+    @Test
+    public void concurrentWritesMustNotLoseUpdates() throws Exception {
+        final int threads = 8;
+        final int keysPerThread = 2000;
+        StripedFastMap<Integer, Integer> map = new StripedFastMap<>(16, false, true);
+        map.put(-1, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * keysPerThread;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < keysPerThread; i++) {
+                        map.put(offset + i, i);
+                        map.compute(-1, (key, value) -> value + 1);
+                    }
+                } catch (Throwable throwable) {
+                    failure.compareAndSet(null, throwable);
+                }
+            });
+        }
+
+        start.countDown();
+        executor.shutdown();
+        assertTrue("workers did not finish", executor.awaitTermination(20, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        assertEquals(threads * keysPerThread + 1, map.size());
+        assertEquals(Integer.valueOf(threads * keysPerThread), map.get(-1));
+        assertEquals(Integer.valueOf(-1), map.firstKey());
+    }
+}
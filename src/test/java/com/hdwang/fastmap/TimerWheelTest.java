@@ -0,0 +1,82 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelTest {
+
+    /**
+     * 验证不同层级的截止时间都在到期的那一毫秒被移除，不会提前也不会遗漏。
+     */
+    @Test
+    public void nodesMustExpireExactlyAtTheirDeadline() {
+        long origin = -5_000L;
+        TimerWheel<Integer, String> wheel = new TimerWheel<>(origin);
+        Random random = new Random(42);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            long delay = i % 3 == 0 ? random.nextInt(100) : random.nextInt(300_000);
+            deadlines.put(i, origin + delay);
+            wheel.schedule(i, origin + delay, null);
+        }
+
+        long now = origin;
+        while (!deadlines.isEmpty()) {
+            now += 1 + random.nextInt(700);
+            final long time = now;
+            List<Integer> expired = new ArrayList<>();
+            wheel.advance(time, node -> {
+                assertTrue("expired early", node.deadline <= time);
+                expired.add(node.key);
+            });
+            for (Integer key : expired) {
+                assertNotNull("expired twice", deadlines.remove(key));
+            }
+            for (Long deadline : deadlines.values()) {
+                assertTrue("deadline missed", deadline > time);
+            }
+            assertTrue(wheel.nextDeadline() <= deadlines.values().stream()
+                    .min(Long::compare).orElse(Long.MAX_VALUE));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    /**
+     * 验证续期和取消会移出旧的桶。
+     */
+    @Test
+    public void rescheduleAndRemoveMustDetachFromThePreviousBucket() {
+        TimerWheel<String, String> wheel = new TimerWheel<>(0L);
+        wheel.schedule("renewed", 10L, null);
+        wheel.schedule("removed", 10L, null);
+        wheel.schedule("renewed", 5_000L, null);
+        assertNotNull(wheel.remove("removed"));
+
+        List<String> expired = new ArrayList<>();
+        wheel.advance(4_999L, node -> expired.add(node.key));
+        assertTrue(expired.isEmpty());
+        wheel.advance(5_000L, node -> expired.add(node.key));
+        assertEquals(1, expired.size());
+        assertEquals("renewed", expired.get(0));
+    }
+
+    /**
+     * 验证超大截止时间不会溢出为立即到期。
+     */
+    @Test
+    public void farFutureDeadlinesMustNotExpire() {
+        TimerWheel<String, String> wheel = new TimerWheel<>(-1_000L);
+        wheel.schedule("forever", Long.MAX_VALUE, null);
+
+        wheel.advance(1L << 50, node -> fail("must not expire"));
+        assertEquals(1, wheel.size());
+        assertEquals(Long.MAX_VALUE, wheel.get("forever").deadline);
+    }
+}
@@ -0,0 +1,44 @@
+package com.hdwang.fastmap;
+
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import static org.junit.Assert.*;
+
+public class TreeIndexTest {
+
+    /**
+     * 验证批量建树的有序数据支持子视图，按排序器截取的结果与TreeMap一致。
+     */
+    @Test
+    public void sortedEntriesMustSupportRangeViews() {
+        List<Map.Entry<Integer, String>> entries = new ArrayList<>();
+        for (int key = 10; key >= 0; key -= 2) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(key, "v" + key));
+        }
+        SortedMap<Integer, String> sorted = new TreeIndex.SortedEntries<>(Comparator.reverseOrder(), entries);
+
+        assertEquals(Arrays.asList(8, 6), new ArrayList<>(sorted.subMap(9, 5).keySet()));
+        assertEquals(Arrays.asList(10, 8), new ArrayList<>(sorted.headMap(6).keySet()));
+        assertEquals(Arrays.asList(2, 0), new ArrayList<>(sorted.tailMap(3).keySet()));
+        assertTrue(sorted.subMap(7, 7).isEmpty());
+        assertEquals(Integer.valueOf(4), sorted.tailMap(4).firstKey());
+        try {
+            sorted.subMap(2, 8);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        TreeIndex<Integer, String> index = new TreeIndex<>(Comparator.reverseOrder());
+        index.buildFromSorted(entries);
+        assertEquals(new ArrayList<>(index.subMap(9, 5).entrySet()), new ArrayList<>(sorted.subMap(9, 5).entrySet()));
+        assertEquals(6, index.size());
+    }
+}